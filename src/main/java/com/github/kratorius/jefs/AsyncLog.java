@@ -0,0 +1,303 @@
+package com.github.kratorius.jefs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An asynchronous log: any number of threads append entries, which a single
+ * writer thread encodes and writes to a channel, usually a
+ * {@link java.nio.channels.FileChannel}.
+ *
+ * Every thread appending entries gets its own {@link SPSCQueue}, created the
+ * first time it appends, so that appending never contends with other
+ * producers nor waits for I/O: it's a store in a ring buffer, and it fails
+ * rather than block if the writer is so far behind that the queue of the
+ * thread is full. The writer drains the queues in batches, encodes the entries
+ * into a few direct buffers that are reused over and over, and writes them
+ * out together with a single gathering write.
+ *
+ * Entries of the same thread are written in the order they were appended,
+ * while entries of different threads are written in no particular order.
+ *
+ * @param <T> the type of the entries
+ */
+public class AsyncLog<T> implements Closeable {
+  // how long the writer thread started by start() sleeps when there's nothing to write
+  private static final long IDLE_NANOS = 100000;
+
+  /**
+   * Turns entries into bytes.
+   * @param <T> the type of the entries
+   */
+  public interface Encoder<T> {
+    /**
+     * Writes an entry to the given buffer. The writer detects the entries
+     * that don't fit in the remaining space by the
+     * {@link BufferOverflowException} that the buffer throws.
+     * @param entry the entry to encode
+     * @param dst   the buffer to write to
+     */
+    void encode(T entry, ByteBuffer dst);
+  }
+
+  private static final class Lane<T> {
+    final Thread owner;
+    final SPSCQueue<T> queue;
+
+    Lane(Thread owner, int capacity) {
+      this.owner = owner;
+      this.queue = new SPSCQueue<>(capacity);
+    }
+  }
+
+  private final GatheringByteChannel channel;
+  private final Encoder<? super T> encoder;
+  private final int laneCapacity;
+  private final CopyOnWriteArrayList<Lane<T>> lanes = new CopyOnWriteArrayList<>();
+  private final ThreadLocal<Lane<T>> lane = new ThreadLocal<>();
+
+  // only accessed by the writer thread
+  private final ByteBuffer[] buffers;
+  private int current;
+
+  // only updated by the writer thread
+  private volatile long dropped;
+
+  private Thread writer;
+  private volatile boolean running;
+  private volatile IOException failure;
+
+  /**
+   * Creates a new asynchronous log.
+   *
+   * @param channel      the channel the entries are written to
+   * @param encoder      the encoder of the entries
+   * @param laneCapacity the number of entries that each thread can append
+   *                     before the writer catches up; rounded up to the next
+   *                     power of two
+   * @param bufferSize   the size of each of the buffers the entries are encoded
+   *                     into, which is also the maximum size of an entry
+   * @param buffers      the number of buffers written together
+   */
+  public AsyncLog(GatheringByteChannel channel, Encoder<? super T> encoder,
+                  int laneCapacity, int bufferSize, int buffers) {
+    if (channel == null || encoder == null || laneCapacity < 1 || bufferSize < 1 || buffers < 1) {
+      throw new IllegalArgumentException();
+    }
+
+    this.channel = channel;
+    this.encoder = encoder;
+    this.laneCapacity = laneCapacity;
+    this.buffers = new ByteBuffer[buffers];
+    for (int i = 0; i < buffers; i++) {
+      this.buffers[i] = ByteBuffer.allocateDirect(bufferSize);
+    }
+  }
+
+  /**
+   * Returns an encoder that writes character sequences in UTF-8, one per line.
+   * @return an encoder of lines of text
+   */
+  public static Encoder<CharSequence> lines() {
+    return AsyncLog::encodeLine;
+  }
+
+  private static void encodeLine(CharSequence line, ByteBuffer dst) {
+    final int length = line.length();
+    for (int i = 0; i < length; i++) {
+      final char c = line.charAt(i);
+      if (c < 0x80) {
+        dst.put((byte) c);
+      } else if (c < 0x800) {
+        dst.put((byte) (0xc0 | (c >> 6)));
+        dst.put((byte) (0x80 | (c & 0x3f)));
+      } else if (Character.isSurrogate(c)) {
+        if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(line.charAt(i + 1))) {
+          final int cp = Character.toCodePoint(c, line.charAt(++i));
+          dst.put((byte) (0xf0 | (cp >> 18)));
+          dst.put((byte) (0x80 | ((cp >> 12) & 0x3f)));
+          dst.put((byte) (0x80 | ((cp >> 6) & 0x3f)));
+          dst.put((byte) (0x80 | (cp & 0x3f)));
+        } else {
+          // unpaired surrogate, replaced like String.getBytes() does
+          dst.put((byte) '?');
+        }
+      } else {
+        dst.put((byte) (0xe0 | (c >> 12)));
+        dst.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+        dst.put((byte) (0x80 | (c & 0x3f)));
+      }
+    }
+    dst.put((byte) '\n');
+  }
+
+  /**
+   * Appends an entry to the log. This never blocks: if the writer has fallen
+   * so far behind that the queue of the calling thread is full, the entry is
+   * rejected.
+   *
+   * @param entry the entry to append
+   * @return {@code true} if the entry has been appended, {@code false} if the
+   *         queue of the calling thread is full
+   */
+  public boolean append(T entry) {
+    Lane<T> lane = this.lane.get();
+    if (lane == null) {
+      lane = new Lane<>(Thread.currentThread(), laneCapacity);
+      lanes.add(lane);
+      this.lane.set(lane);
+    }
+
+    return lane.queue.offer(entry);
+  }
+
+  /**
+   * Returns the number of entries that have been dropped because they didn't
+   * fit in a single buffer.
+   * @return the number of dropped entries
+   */
+  public long dropped() {
+    return dropped;
+  }
+
+  /**
+   * Writes all the entries appended so far. This must only be called by a
+   * single writer thread, and not at all if the log has been started with
+   * {@link #start()}.
+   *
+   * @return the number of entries written
+   * @throws IOException if the entries can't be written
+   */
+  public int drain() throws IOException {
+    int written = 0;
+
+    for (int i = 0; i < lanes.size(); i++) {
+      final Lane<T> lane = lanes.get(i);
+
+      // at most a queue worth of entries, so that a busy thread can't keep
+      // the writer away from the others
+      T entry;
+      for (int n = laneCapacity; n > 0 && (entry = lane.queue.poll()) != null; n--) {
+        encode(entry);
+        written++;
+      }
+
+      if (!lane.owner.isAlive() && lane.queue.isEmpty()) {
+        lanes.remove(i--);
+      }
+    }
+
+    flush();
+    return written;
+  }
+
+  private void encode(T entry) throws IOException {
+    ByteBuffer dst = buffers[current];
+    final int start = dst.position();
+    try {
+      encoder.encode(entry, dst);
+      return;
+    } catch (BufferOverflowException e) {
+      ((Buffer) dst).position(start);
+    }
+
+    if (start == 0) {
+      // larger than a whole buffer
+      dropped++;
+      return;
+    }
+
+    if (current + 1 == buffers.length) {
+      flush();
+    } else {
+      current++;
+    }
+    dst = buffers[current];
+    try {
+      encoder.encode(entry, dst);
+    } catch (BufferOverflowException e) {
+      ((Buffer) dst).position(0);
+      dropped++;
+    }
+  }
+
+  // writes out all the buffers filled so far, with a single gathering write
+  // unless the channel doesn't take them all at once
+  private void flush() throws IOException {
+    final int count = buffers[current].position() > 0 ? current + 1 : current;
+    if (count == 0) {
+      return;
+    }
+
+    long remaining = 0;
+    for (int i = 0; i < count; i++) {
+      ((Buffer) buffers[i]).flip();
+      remaining += buffers[i].remaining();
+    }
+    while (remaining > 0) {
+      remaining -= channel.write(buffers, 0, count);
+    }
+
+    for (int i = 0; i < count; i++) {
+      ((Buffer) buffers[i]).clear();
+    }
+    current = 0;
+  }
+
+  /**
+   * Starts a writer thread that drains the log until it's closed, sleeping
+   * briefly whenever there's nothing to write.
+   */
+  public synchronized void start() {
+    if (writer != null) {
+      throw new IllegalStateException("already started");
+    }
+
+    running = true;
+    writer = new Thread(() -> {
+      try {
+        while (running) {
+          if (drain() == 0) {
+            LockSupport.parkNanos(IDLE_NANOS);
+          }
+        }
+        drain();
+      } catch (IOException e) {
+        failure = e;
+      }
+    }, "jefs-async-log");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /**
+   * Stops the writer thread started by {@link #start()}, once it has written
+   * all the entries appended so far. Entries appended afterwards are not
+   * written, unless {@link #drain()} is called. The channel is left open.
+   *
+   * @throws IOException if the writer thread failed to write some entries
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (writer != null) {
+      running = false;
+      try {
+        writer.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("interrupted while waiting for the writer", e);
+      }
+      writer = null;
+    }
+
+    if (failure != null) {
+      throw failure;
+    }
+  }
+}
@@ -0,0 +1,67 @@
+package com.github.kratorius.jefs;
+
+import sun.misc.Unsafe;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Memory fences and weaker-than-volatile accesses to atomic variables.
+ *
+ * This is the Java 8 implementation: weaker modes fall back to the closest
+ * (stronger) operation available and fences are based on {@link Unsafe}.
+ * The multi-release jar replaces this class with a VarHandle based one on
+ * Java 9 and later.
+ */
+final class Atomics {
+  private static final Unsafe unsafe = NotSafe.getUnsafe();
+
+  private Atomics() {
+  }
+
+  /**
+   * Reads the value without any ordering guarantee: only meant to be used by
+   * the single thread that writes to the variable.
+   */
+  static long getPlain(AtomicLong atomic) {
+    return atomic.get();
+  }
+
+  static long getAcquire(AtomicLong atomic) {
+    return atomic.get();
+  }
+
+  static void setRelease(AtomicLong atomic, long value) {
+    atomic.lazySet(value);
+  }
+
+  static <V> V getAcquire(AtomicReference<V> atomic) {
+    return atomic.get();
+  }
+
+  static <V> void setRelease(AtomicReference<V> atomic, V value) {
+    atomic.lazySet(value);
+  }
+
+  /**
+   * Compares and sets the value with volatile semantics, but may fail
+   * spuriously: only meant to be used in retry loops.
+   */
+  static <V> boolean weakCompareAndSet(AtomicReference<V> atomic, V expected, V value) {
+    return atomic.compareAndSet(expected, value);
+  }
+
+  static void fullFence() {
+    unsafe.fullFence();
+  }
+
+  static void acquireFence() {
+    unsafe.loadFence();
+  }
+
+  /**
+   * Hints the processor that we are busy-waiting. This is a no-op on Java 8.
+   */
+  static void onSpinWait() {
+  }
+}
@@ -0,0 +1,209 @@
+package com.github.kratorius.jefs;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A concurrent cache with a fixed number of entries, evicted in approximate
+ * least recently used order by the CLOCK algorithm.
+ *
+ * Entries live in a fixed array of slots, and every slot has a reference bit
+ * in an {@link LFBitSet}. A hit only sets the bit of the slot, and only if it
+ * isn't set already: unlike an access ordered linked list, reading never
+ * writes to shared state that other readers write to as well. When a new key
+ * needs a slot, a clock hand moves over the slots and evicts the first one
+ * that hasn't been used since the hand last went past it, clearing the bits of
+ * the used ones to give them a second chance. The hand reads the reference
+ * bits a whole word at a time, so it goes past up to 64 used slots with a
+ * single CAS on its position.
+ *
+ * Null keys and values are not supported.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the cached values
+ */
+public class ClockCache<K, V> {
+  // a slot that has been claimed by a thread and is about to get a new entry
+  private static final Object RESERVED = new Object();
+
+  private final ConcurrentHashMap<K, Entry<K, V>> index;
+  private final Object[] slots;
+  private final LFBitSet referenced;
+  private final AtomicLong hand = new SPSCQueue.PaddedAtomicLong(0);
+
+  static final class Entry<K, V> {
+    final K key;
+    final V value;
+    final int slot;
+
+    Entry(K key, V value, int slot) {
+      this.key = key;
+      this.value = value;
+      this.slot = slot;
+    }
+  }
+
+  /**
+   * Creates an empty cache.
+   * @param capacity the maximum number of entries of the cache
+   */
+  public ClockCache(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException();
+    }
+
+    index = new ConcurrentHashMap<>(capacity);
+    slots = new Object[capacity];
+    referenced = new LFBitSet(capacity);
+  }
+
+  /**
+   * Returns the maximum number of entries of the cache.
+   * @return the capacity of the cache
+   */
+  public int capacity() {
+    return slots.length;
+  }
+
+  /**
+   * Returns the number of entries in the cache.
+   * @return the number of entries
+   */
+  public int size() {
+    return index.size();
+  }
+
+  /**
+   * Returns the value cached for the given key, marking the entry as recently
+   * used.
+   * @param key the key to look up
+   * @return the cached value, or {@code null} if there's none
+   */
+  public V get(K key) {
+    final Entry<K, V> entry = index.get(key);
+    if (entry == null) {
+      return null;
+    }
+
+    touch(entry.slot);
+    return entry.value;
+  }
+
+  private void touch(int slot) {
+    // most hits find the bit already set, and skip the CAS
+    if (!referenced.get(slot)) {
+      referenced.set(slot);
+    }
+  }
+
+  /**
+   * Caches a value for the given key, replacing the current one if there's
+   * any. If the key is new and the cache is full, another entry is evicted.
+   * @param key   the key
+   * @param value the value to cache
+   */
+  public void put(K key, V value) {
+    if (key == null || value == null) {
+      throw new IllegalArgumentException();
+    }
+
+    while (true) {
+      final Entry<K, V> current = index.get(key);
+      if (current != null) {
+        final Entry<K, V> entry = new Entry<>(key, value, current.slot);
+        if (!index.replace(key, current, entry)) {
+          continue;
+        }
+        if (ObjectArrays.compareAndSet(slots, current.slot, current, entry)) {
+          touch(entry.slot);
+          return;
+        }
+
+        // the slot has been taken by an eviction in the meantime: the entry
+        // has no slot anymore, insert it again
+        index.remove(key, entry);
+        continue;
+      }
+
+      final int slot = claim();
+      final Entry<K, V> entry = new Entry<>(key, value, slot);
+      if (index.putIfAbsent(key, entry) == null) {
+        ObjectArrays.setRelease(slots, slot, entry);
+        touch(slot);
+        return;
+      }
+
+      // another thread has just inserted the same key
+      ObjectArrays.setRelease(slots, slot, null);
+    }
+  }
+
+  /**
+   * Removes the entry of the given key from the cache.
+   * @param key the key to remove
+   * @return the value that was cached, or {@code null} if there was none
+   */
+  public V remove(K key) {
+    final Entry<K, V> entry = index.remove(key);
+    if (entry == null) {
+      return null;
+    }
+
+    // fails if the slot has been taken by an eviction in the meantime
+    if (ObjectArrays.compareAndSet(slots, entry.slot, entry, null)) {
+      referenced.clear(entry.slot);
+    }
+    return entry.value;
+  }
+
+  /**
+   * Removes all the entries from the cache.
+   */
+  public void clear() {
+    for (K key : index.keySet()) {
+      remove(key);
+    }
+  }
+
+  // moves the hand forward until it finds a slot that hasn't been used since
+  // it last went past it, evicts its entry and leaves the slot reserved
+  @SuppressWarnings("unchecked")
+  private int claim() {
+    while (true) {
+      final long h = hand.get();
+      final int position = (int) ((h & Long.MAX_VALUE) % slots.length);
+      final int base = position & ~63;
+      final int offset = position & 63;
+      final int bits = Math.min(64, slots.length - base);
+
+      // all the slots from the hand to the end of the word at once
+      final long ahead = (-1L << offset) & (-1L >>> (64 - bits));
+      final long candidates = ~referenced.getWord(base >>> 6) & ahead;
+      if (candidates == 0) {
+        // all of them have been used: second chance for all of them
+        if (hand.compareAndSet(h, h + bits - offset)) {
+          referenced.clear(position, base + bits);
+        }
+        continue;
+      }
+
+      final int victim = Long.numberOfTrailingZeros(candidates);
+      if (!hand.compareAndSet(h, h + victim - offset + 1)) {
+        continue;
+      }
+      referenced.clear(position, base + victim);
+
+      final int slot = base + victim;
+      final Object current = ObjectArrays.getAcquire(slots, slot);
+      if (current == RESERVED || !ObjectArrays.compareAndSet(slots, slot, current, RESERVED)) {
+        // being filled by another thread, which has just claimed it
+        continue;
+      }
+      if (current != null) {
+        final Entry<K, V> victimEntry = (Entry<K, V>) current;
+        index.remove(victimEntry.key, victimEntry);
+      }
+      return slot;
+    }
+  }
+}
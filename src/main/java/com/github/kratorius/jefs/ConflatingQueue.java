@@ -0,0 +1,192 @@
+package com.github.kratorius.jefs;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * A queue of keyed values that keeps only the latest value of every key: a
+ * value offered for a key that already has one waiting replaces it in place,
+ * and the key keeps its position in the queue. Keys come out in the order
+ * they were first offered since they were last polled.
+ *
+ * This suits consumers that only care about the current state of each key,
+ * like the last price of an instrument: when the consumer falls behind, the
+ * stale values are never delivered, and both the memory used and the work
+ * left to the consumer are bounded by the number of distinct keys rather than
+ * by the rate of the updates.
+ *
+ * Every key gets a slot the first time it's offered, and keeps it for the
+ * life of the queue. The slot holds the waiting value, or {@code null} if
+ * there's none: a producer swaps its value in with a single atomic exchange,
+ * and only if the slot was empty it appends the slot to an {@link MPSCQueue}
+ * that keeps the order of the keys. The consumer empties the slot with the
+ * same exchange as it takes the value, so a value is never delivered twice
+ * and a slot is never queued twice.
+ *
+ * Any number of threads can offer values, while a single thread must poll
+ * them. Null keys and values are not supported.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+public class ConflatingQueue<K, V> {
+  private final ConcurrentHashMap<K, Integer> index;
+  private final Object[] keys;
+  private final Object[] values;
+  private final MPSCQueue<Integer> order;
+  private final AtomicInteger nextSlot = new AtomicInteger();
+
+  private Metrics metrics;
+
+  /**
+   * Creates an empty queue.
+   * @param capacity the maximum number of distinct keys
+   */
+  public ConflatingQueue(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException();
+    }
+
+    index = new ConcurrentHashMap<>(capacity);
+    keys = new Object[capacity];
+    values = new Object[capacity];
+    // never fills up, as every slot is queued at most once
+    order = new MPSCQueue<>(capacity);
+  }
+
+  /**
+   * Attaches the given metrics to this queue, which will count the values
+   * rejected for new keys once all the slots are taken, the polls of an
+   * empty queue and the number of values taken by every drain. This must be
+   * called before the queue is shared with other threads.
+   * @param metrics the metrics to update
+   */
+  public void setMetrics(Metrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * Returns the maximum number of distinct keys of the queue.
+   * @return the capacity of the queue
+   */
+  public int capacity() {
+    return keys.length;
+  }
+
+  /**
+   * Returns the number of distinct keys seen so far, waiting or not.
+   * @return the number of keys
+   */
+  public int keys() {
+    return Math.min(nextSlot.get(), keys.length);
+  }
+
+  /**
+   * Returns the number of keys that have a value waiting.
+   * @return the size of the queue
+   */
+  public int size() {
+    return order.size();
+  }
+
+  /**
+   * Returns whether there are no values waiting.
+   * @return {@code true} if the queue is empty
+   */
+  public boolean isEmpty() {
+    return order.isEmpty();
+  }
+
+  /**
+   * Offers the value of a key, which replaces the one waiting for the same
+   * key if there's any.
+   *
+   * @param key   the key
+   * @param value the value
+   * @return {@code true} if the value has been added, {@code false} if the
+   *         key is new and all the slots are taken
+   */
+  public boolean offer(K key, V value) {
+    if (key == null || value == null) {
+      throw new IllegalArgumentException();
+    }
+
+    Integer slot = index.get(key);
+    if (slot == null) {
+      slot = index.computeIfAbsent(key, this::assign);
+      if (slot == null) {
+        if (Metrics.ENABLED && metrics != null) {
+          metrics.rejection(Metrics.Operation.OFFER);
+        }
+        return false;
+      }
+    }
+
+    // the slot is queued only by whoever fills it while empty
+    if (ObjectArrays.getAndSet(values, slot, value) == null) {
+      order.offer(slot);
+    }
+    return true;
+  }
+
+  // the slot is boxed once, and the same box is queued every time after that
+  private Integer assign(K key) {
+    int slot;
+    do {
+      slot = nextSlot.get();
+      if (slot == keys.length) {
+        return null;
+      }
+    } while (!nextSlot.compareAndSet(slot, slot + 1));
+
+    // published to the consumer by the queue, along with the slot
+    keys[slot] = key;
+    return slot;
+  }
+
+  /**
+   * Takes the value of the key that has been waiting the longest. This must
+   * only be called by a single consumer thread.
+   * @return the value, or {@code null} if the queue is empty
+   */
+  @SuppressWarnings("unchecked")
+  public V poll() {
+    final Integer slot = order.poll();
+    if (slot == null) {
+      if (Metrics.ENABLED && metrics != null) {
+        metrics.rejection(Metrics.Operation.POLL);
+      }
+      return null;
+    }
+    return (V) ObjectArrays.getAndSet(values, slot, null);
+  }
+
+  /**
+   * Hands the waiting values to the given consumer along with their keys, in
+   * order. This must only be called by a single consumer thread.
+   *
+   * @param consumer the consumer of the keys and values
+   * @param limit    the maximum number of values to take
+   * @return the number of values taken
+   */
+  @SuppressWarnings("unchecked")
+  public int drain(BiConsumer<? super K, ? super V> consumer, int limit) {
+    int count = 0;
+    Integer slot;
+    while (count < limit && (slot = order.poll()) != null) {
+      final V value = (V) ObjectArrays.getAndSet(values, slot, null);
+      consumer.accept((K) keys[slot], value);
+      count++;
+    }
+
+    if (Metrics.ENABLED && metrics != null) {
+      if (count == 0) {
+        metrics.rejection(Metrics.Operation.POLL);
+      } else {
+        metrics.batch(count);
+      }
+    }
+    return count;
+  }
+}
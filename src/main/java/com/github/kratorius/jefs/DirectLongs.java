@@ -0,0 +1,71 @@
+package com.github.kratorius.jefs;
+
+import sun.misc.Unsafe;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * Memory-ordered accesses to the longs of a direct {@link ByteBuffer}, in
+ * native byte order. Indices are in bytes and must be a multiple of 8.
+ *
+ * This is the Java 8 implementation, based on {@link Unsafe}. The multi-release
+ * jar replaces this class with a VarHandle based one on Java 9 and later.
+ */
+final class DirectLongs {
+  private static final Unsafe unsafe = NotSafe.getUnsafe();
+  private static final long addressOffset;
+
+  static {
+    try {
+      addressOffset = unsafe.objectFieldOffset(Buffer.class.getDeclaredField("address"));
+    } catch (NoSuchFieldException e) {
+      throw new RuntimeException();
+    }
+  }
+
+  private DirectLongs() {
+  }
+
+  private static long address(ByteBuffer buffer, int index) {
+    return unsafe.getLong(buffer, addressOffset) + index;
+  }
+
+  /**
+   * Returns a slice of the given direct buffer that starts at an address
+   * multiple of the given power of two; direct memory never moves, unlike
+   * arrays, so the alignment holds for the life of the buffer. The buffer must
+   * be {@code alignment - 1} bytes larger than the slice needs to be.
+   */
+  static ByteBuffer alignedSlice(ByteBuffer buffer, int alignment) {
+    final long address = unsafe.getLong(buffer, addressOffset);
+    final ByteBuffer slice = buffer.duplicate();
+    // through Buffer, whose position() returns a ByteBuffer only from Java 9
+    ((Buffer) slice).position((int) (-address & (alignment - 1)));
+    return slice.slice();
+  }
+
+  static long getPlain(ByteBuffer buffer, int index) {
+    return unsafe.getLong(address(buffer, index));
+  }
+
+  static long getAcquire(ByteBuffer buffer, int index) {
+    return unsafe.getLongVolatile(null, address(buffer, index));
+  }
+
+  static void setRelease(ByteBuffer buffer, int index, long value) {
+    unsafe.putOrderedLong(null, address(buffer, index), value);
+  }
+
+  static boolean compareAndSet(ByteBuffer buffer, int index, long expected, long value) {
+    return unsafe.compareAndSwapLong(null, address(buffer, index), expected, value);
+  }
+
+  /**
+   * Like {@link #compareAndSet(ByteBuffer, int, long, long)}, but may fail
+   * spuriously: only meant to be used in retry loops.
+   */
+  static boolean weakCompareAndSet(ByteBuffer buffer, int index, long expected, long value) {
+    return unsafe.compareAndSwapLong(null, address(buffer, index), expected, value);
+  }
+}
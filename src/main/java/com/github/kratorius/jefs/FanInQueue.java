@@ -0,0 +1,425 @@
+package com.github.kratorius.jefs;
+
+import com.github.kratorius.jefs.internal.BitUtils;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A multiple producers-single consumer queue made of one {@link SPSCQueue}
+ * per producer, so that producers never contend with each other.
+ *
+ * Each producer registers once, either explicitly with {@link #register()} or
+ * implicitly the first time it calls {@link #offer(Object)}, and gets a lane
+ * of its own. A bit per lane tells the consumer which lanes may have items,
+ * so that it can skip the idle ones a word at a time; the consumer takes the
+ * items of a lane in a burst, up to the capacity of the lane, before moving
+ * on to the next one in round robin.
+ *
+ * A producer sets the bit of its lane with a CAS only when it's clear, but
+ * every offer runs a full fence before reading it: that's what makes sure
+ * that a producer never misses the consumer clearing the bit, so that the
+ * consumer never needs to look at a lane whose bit is clear.
+ *
+ * Items of the same producer come out in the order they went in, while items
+ * of different producers come out in no particular order.
+ *
+ * This class is thread-safe only when a single consumer is removing data.
+ *
+ * @param <T>  type of objects that can be added to this queue.
+ */
+public class FanInQueue<T> implements Queue<T> {
+  private final Object[] lanes;
+  private final int laneCapacity;
+  private final AtomicInteger registered = new AtomicInteger(0);
+  private final ThreadLocal<Producer<T>> producer = new ThreadLocal<>();
+
+  // bit i is set whenever lane i may have items; it's cleared by the consumer
+  // only after it has found the lane empty
+  private final long[] ready;
+
+  // only accessed by the consumer
+  private int cursor;
+  private int burst;
+
+  private Metrics metrics;
+
+  /**
+   * A lane of the queue, owned by a single producer thread.
+   * @param <T>  type of objects that can be added to the queue.
+   */
+  public static final class Producer<T> {
+    private final FanInQueue<T> queue;
+    final SPSCQueue<T> lane;
+    private final int index;
+
+    private Producer(FanInQueue<T> queue, SPSCQueue<T> lane, int index) {
+      this.queue = queue;
+      this.lane = lane;
+      this.index = index;
+    }
+
+    /**
+     * Adds an item to the lane. This must only be called by the thread that
+     * owns the lane.
+     *
+     * @param t the item to add
+     * @return {@code true} if the item has been added, {@code false} if the
+     *         lane is full
+     */
+    public boolean offer(T t) {
+      return queue.offer(lane, index, t);
+    }
+  }
+
+  /**
+   * Creates a new fan-in queue.
+   *
+   * @param producers     the maximum number of producers
+   * @param laneCapacity  the suggested capacity of the lane of each producer;
+   *                      the actual capacity will be the next (positive) power
+   *                      of two
+   */
+  public FanInQueue(int producers, int laneCapacity) {
+    if (producers < 1 || laneCapacity < 1) {
+      throw new IllegalArgumentException();
+    }
+
+    lanes = new Object[producers];
+    ready = new long[(producers + 63) >>> 6];
+    this.laneCapacity = BitUtils.roundToNextPowerOfTwo(laneCapacity);
+  }
+
+  /**
+   * Attaches the given metrics to this queue, which will count the offers on a
+   * full lane, the polls on an empty queue, the batches added with
+   * {@code addAll} and the largest size of a lane. This must be called before
+   * the queue is shared with other threads.
+   * @param metrics the metrics to update
+   */
+  public void setMetrics(Metrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * Returns the maximum number of producers.
+   * @return the number of lanes of the queue
+   */
+  public int producers() {
+    return lanes.length;
+  }
+
+  /**
+   * Registers a new producer, giving it a lane of its own. Lanes are never
+   * released, even if the producer thread terminates.
+   *
+   * @return the lane of the new producer
+   * @throws IllegalStateException if all the lanes have been taken
+   */
+  public Producer<T> register() {
+    final int index = registered.getAndIncrement();
+    if (index >= lanes.length) {
+      registered.decrementAndGet();
+      throw new IllegalStateException("too many producers");
+    }
+
+    final SPSCQueue<T> lane = new SPSCQueue<>(laneCapacity);
+    ObjectArrays.setRelease(lanes, index, lane);
+    return new Producer<>(this, lane, index);
+  }
+
+  @SuppressWarnings("unchecked")
+  private SPSCQueue<T> lane(int index) {
+    return (SPSCQueue<T>) ObjectArrays.getAcquire(lanes, index);
+  }
+
+  @Override
+  public int size() {
+    int size = 0;
+    for (int i = 0; i < lanes.length; i++) {
+      final SPSCQueue<T> lane = lane(i);
+      if (lane != null) {
+        size += lane.size();
+      }
+    }
+    return size;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    for (int i = 0; i < lanes.length; i++) {
+      final SPSCQueue<T> lane = lane(i);
+      if (lane != null && lane.contains(o)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public boolean add(T t) {
+    if (!offer(t)) {
+      throw new IllegalStateException("full queue");
+    }
+    return true;
+  }
+
+  @Override
+  public boolean containsAll(@Nonnull Collection<?> objects) {
+    for (Object o : objects) {
+      if (!contains(o)) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  @Override
+  public boolean addAll(@Nonnull Collection<? extends T> items) {
+    if (Metrics.ENABLED && metrics != null) {
+      metrics.batch(items.size());
+    }
+    for (T item : items) {
+      add(item);
+    }
+    return true;
+  }
+
+  /**
+   * Removes all the items from the queue. This must only be called by the
+   * consumer.
+   */
+  public void clear() {
+    while (poll() != null) {
+      // keep going
+    }
+  }
+
+  /**
+   * Adds an item to the lane of the calling thread, registering the thread as
+   * a new producer the first time.
+   *
+   * @param t the item to add
+   * @return {@code true} if the item has been added, {@code false} if the
+   *         lane of the calling thread is full
+   * @throws IllegalStateException if the calling thread is a new producer and
+   *         all the lanes have been taken
+   */
+  @Override
+  public boolean offer(T t) {
+    Producer<T> producer = this.producer.get();
+    if (producer == null) {
+      producer = register();
+      this.producer.set(producer);
+    }
+
+    return producer.offer(t);
+  }
+
+  private boolean offer(SPSCQueue<T> lane, int index, T t) {
+    if (!lane.offer(t)) {
+      if (Metrics.ENABLED && metrics != null) {
+        metrics.rejection(Metrics.Operation.OFFER);
+      }
+      return false;
+    }
+
+    if (Metrics.ENABLED && metrics != null) {
+      metrics.depth(lane.size());
+    }
+
+    // the consumer clears the bit and then looks at the lane again, while we
+    // filled the lane and then look at the bit: the fence makes sure that at
+    // least one of us sees what the other did, or the item could go unnoticed
+    Atomics.fullFence();
+    final int word = index >>> 6;
+    final long bit = 1L << index;
+    long v;
+    while (((v = LongArrays.getAcquire(ready, word)) & bit) == 0) {
+      if (LongArrays.weakCompareAndSet(ready, word, v, v | bit)) {
+        break;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public T remove() {
+    final T t = poll();
+    if (t == null) {
+      throw new NoSuchElementException("empty queue");
+    }
+
+    return t;
+  }
+
+  @Override
+  public T poll() {
+    // keep going with the current lane for a while, if it still has items
+    if (burst > 0) {
+      final T t = lane(cursor).poll();
+      if (t != null) {
+        burst--;
+        return t;
+      }
+    }
+
+    int index = nextReady(cursor + 1);
+    for (int i = 0; i <= lanes.length && index >= 0; i++) {
+      final T t = pollReady(index);
+      if (t != null) {
+        cursor = index;
+        burst = laneCapacity - 1;
+        return t;
+      }
+      index = nextReady(index + 1);
+    }
+
+    burst = 0;
+    if (Metrics.ENABLED && metrics != null) {
+      metrics.rejection(Metrics.Operation.POLL);
+    }
+    return null;
+  }
+
+  /**
+   * Removes up to {@code limit} items from the queue, passing each of them to
+   * the given action. This must only be called by the consumer.
+   *
+   * @param action the action to be performed for each item
+   * @param limit  the maximum number of items to remove
+   * @return the number of items removed
+   */
+  public int drain(Consumer<? super T> action, int limit) {
+    int drained = 0;
+    T t;
+    while (drained < limit && (t = poll()) != null) {
+      action.accept(t);
+      drained++;
+    }
+    return drained;
+  }
+
+  // polls a lane whose bit was set, clearing the bit if the lane is empty
+  private T pollReady(int index) {
+    final SPSCQueue<T> lane = lane(index);
+    T t = lane.poll();
+    if (t != null) {
+      return t;
+    }
+
+    final int word = index >>> 6;
+    final long bit = 1L << index;
+    long v;
+    do {
+      v = ready[word];
+    } while (!LongArrays.weakCompareAndSet(ready, word, v, v & ~bit));
+
+    // a producer may have filled the lane before seeing the bit cleared
+    t = lane.poll();
+    if (t != null) {
+      while (((v = LongArrays.getAcquire(ready, word)) & bit) == 0) {
+        if (LongArrays.weakCompareAndSet(ready, word, v, v | bit)) {
+          break;
+        }
+      }
+    }
+    return t;
+  }
+
+  // returns the first lane whose bit is set, starting from the given one and
+  // wrapping around, or -1 if no bit is set
+  private int nextReady(int from) {
+    if (from >= lanes.length) {
+      from = 0;
+    }
+
+    int word = from >>> 6;
+    long bits = LongArrays.getAcquire(ready, word) & (-1L << from);
+    for (int i = 0; i <= ready.length; i++) {
+      if (bits != 0) {
+        return (word << 6) + Long.numberOfTrailingZeros(bits);
+      }
+      word = word + 1 == ready.length ? 0 : word + 1;
+      bits = LongArrays.getAcquire(ready, word);
+    }
+    return -1;
+  }
+
+  @Override
+  public T element() {
+    final T t = peek();
+    if (t == null) {
+      throw new NoSuchElementException("empty queue");
+    }
+    return t;
+  }
+
+  /**
+   * Returns the item that the next call to {@link #poll()} would return
+   * without removing it. This must only be called by the consumer.
+   *
+   * @return the next item of the queue, or {@code null} if it's empty
+   */
+  @Override
+  public T peek() {
+    if (burst > 0) {
+      final T t = lane(cursor).peek();
+      if (t != null) {
+        return t;
+      }
+    }
+
+    int index = nextReady(cursor + 1);
+    for (int i = 0; i <= lanes.length && index >= 0; i++) {
+      final T t = lane(index).peek();
+      if (t != null) {
+        return t;
+      }
+      index = nextReady(index + 1);
+    }
+    return null;
+  }
+
+  @Override @Nonnull
+  public Iterator<T> iterator() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override @Nonnull
+  public Object[] toArray() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override @Nonnull
+  public <A> A[] toArray(@Nonnull A[] ts) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public boolean remove(Object o) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public boolean removeAll(@Nonnull Collection<?> objects) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public boolean retainAll(@Nonnull Collection<?> objects) {
+    throw new UnsupportedOperationException();
+  }
+}
@@ -0,0 +1,179 @@
+package com.github.kratorius.jefs;
+
+import com.github.kratorius.jefs.internal.BitUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * A ring buffer that keeps the last events recorded by any number of
+ * threads, overwriting the oldest ones: recording never fails because the
+ * ring is full, never waits for a reader and never allocates, so it can be
+ * left on in production to have the recent history at hand when something
+ * goes wrong.
+ *
+ * Every event gets a sequence number from a fetch-and-add on a shared
+ * counter, which also picks its slot. Each slot has a stamp, holding the
+ * sequence number of its event and whether the event is still being
+ * written: a writer takes the slot by moving its stamp forward with a CAS,
+ * stores the event and then marks the stamp as complete with a release
+ * store. Readers never write anything: they check the stamp of a slot before
+ * and after reading its event, as with a sequence lock, and skip the events
+ * that have been overwritten or are still being written in the meantime.
+ *
+ * A writer that finds its slot taken by a newer event, or by another writer
+ * that is still halfway through it, drops its event rather than wait. This
+ * can only happen if the ring holds fewer events than are being written at
+ * the same time, when the event would be overwritten right away anyway.
+ *
+ * Null events are not supported.
+ *
+ * @param <T> the type of the events
+ */
+public class FlightRecorder<T> {
+  private final Object[] events;
+  private final long[] stamps;
+  private final int mask;
+
+  private final AtomicLong sequence = new SPSCQueue.PaddedAtomicLong(0);
+
+  private Metrics metrics;
+
+  /**
+   * Creates an empty recorder.
+   * @param capacity the suggested number of events to keep; the actual one
+   *                 will be the next power of two
+   */
+  public FlightRecorder(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException();
+    }
+
+    final int actualCapacity = BitUtils.roundToNextPowerOfTwo(capacity);
+    events = new Object[actualCapacity];
+    stamps = new long[actualCapacity];
+    mask = actualCapacity - 1;
+  }
+
+  /**
+   * Attaches the given metrics to this recorder, which will count the events
+   * dropped because another writer was holding their slot and the failed
+   * attempts to take a slot. This must be called before the recorder is
+   * shared with other threads.
+   * @param metrics the metrics to update
+   */
+  public void setMetrics(Metrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * Returns the number of events kept by the recorder.
+   * @return the capacity of the recorder
+   */
+  public int capacity() {
+    return events.length;
+  }
+
+  /**
+   * Returns the number of events recorded since the recorder has been
+   * created, including the ones that have been overwritten or dropped.
+   * @return the number of recorded events
+   */
+  public long recorded() {
+    return sequence.get();
+  }
+
+  // 0 is an empty slot, then odd stamps are being written and even stamps
+  // are complete, growing with the sequence number
+  private static long writing(long seq) {
+    return (seq << 1) + 1;
+  }
+
+  private static long complete(long seq) {
+    return (seq << 1) + 2;
+  }
+
+  /**
+   * Records an event, overwriting the oldest one if the recorder is full.
+   *
+   * @param event the event to record
+   * @return the sequence number of the event, or -1 if it's been dropped
+   *         because another writer was holding its slot
+   */
+  public long record(T event) {
+    if (event == null) {
+      throw new IllegalArgumentException();
+    }
+
+    final long seq = sequence.getAndIncrement();
+    final int idx = (int) seq & mask;
+    final long stamp = writing(seq);
+
+    // taken only if no other writer is halfway through the slot: an older
+    // one can't be interrupted, and a newer one replaces this event anyway
+    long current;
+    while ((current = LongArrays.getAcquire(stamps, idx)) < stamp && (current & 1) == 0) {
+      if (LongArrays.compareAndSet(stamps, idx, current, stamp)) {
+        // a release store, paired with the acquire load of the readers: one
+        // that sees this event then sees the odd stamp before it as well
+        ObjectArrays.setRelease(events, idx, event);
+        LongArrays.setRelease(stamps, idx, complete(seq));
+        return seq;
+      }
+      if (Metrics.ENABLED && metrics != null) {
+        metrics.casFailure(Metrics.Operation.OFFER);
+      }
+    }
+
+    if (Metrics.ENABLED && metrics != null) {
+      metrics.rejection(Metrics.Operation.OFFER);
+    }
+    return -1;
+  }
+
+  /**
+   * Hands the events still in the recorder to the given action, from the
+   * oldest to the newest, along with their sequence numbers. Events that are
+   * overwritten while they're being read, or still being written, are
+   * skipped. Any number of threads can read the recorder at the same time,
+   * concurrently with the writers.
+   *
+   * @param action the action to run for every event
+   * @return the number of events handed to the action
+   */
+  @SuppressWarnings("unchecked")
+  public int forEach(ObjLongConsumer<? super T> action) {
+    final long end = sequence.get();
+    int count = 0;
+    for (long seq = Math.max(0, end - events.length); seq < end; seq++) {
+      final int idx = (int) seq & mask;
+      final long stamp = LongArrays.getAcquire(stamps, idx);
+      if (stamp != complete(seq)) {
+        // overwritten, dropped or not there yet
+        continue;
+      }
+
+      final T event = (T) ObjectArrays.getAcquire(events, idx);
+      if (LongArrays.getAcquire(stamps, idx) != stamp) {
+        // overwritten while being read
+        continue;
+      }
+      action.accept(event, seq);
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * Returns the events still in the recorder, from the oldest to the newest.
+   * @return a copy of the events in the recorder
+   * @see #forEach(ObjLongConsumer)
+   */
+  public List<T> snapshot() {
+    final List<T> snapshot = new ArrayList<>(events.length);
+    forEach((event, seq) -> snapshot.add(event));
+    return snapshot;
+  }
+}
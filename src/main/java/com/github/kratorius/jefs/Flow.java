@@ -0,0 +1,91 @@
+package com.github.kratorius.jefs;
+
+/**
+ * The Reactive Streams interfaces, with the same methods and contracts as
+ * {@code java.util.concurrent.Flow}.
+ *
+ * {@code java.util.concurrent.Flow} is only available from Java 9, while this
+ * library still runs on Java 8: these interfaces let {@link QueuePublisher}
+ * and {@link QueueProcessor} follow the same protocol, so that adapting them to
+ * the JDK ones only means delegating every method to its namesake. On Java 9
+ * and later, {@code JdkFlow} in the multi-release jar does just that, in both
+ * directions.
+ */
+public final class Flow {
+  private Flow() {
+  }
+
+  /**
+   * A producer of items received by one or more {@link Subscriber}s.
+   * @param <T> the type of the items
+   */
+  @FunctionalInterface
+  public interface Publisher<T> {
+    /**
+     * Adds the given subscriber, which receives {@link Subscriber#onSubscribe}
+     * first and then items as it requests them. A subscriber that can't be
+     * added receives {@link Subscriber#onError} instead.
+     * @param subscriber the subscriber
+     */
+    void subscribe(Subscriber<? super T> subscriber);
+  }
+
+  /**
+   * A receiver of items. The methods of a subscriber are called in order, one
+   * at a time, and none is called after {@link #onError} or
+   * {@link #onComplete}.
+   * @param <T> the type of the items
+   */
+  public interface Subscriber<T> {
+    /**
+     * Called before any other method, with the subscription that the subscriber
+     * uses to request items or cancel.
+     * @param subscription the new subscription
+     */
+    void onSubscribe(Subscription subscription);
+
+    /**
+     * Called with the next item, only as long as there's outstanding demand.
+     * @param item the item
+     */
+    void onNext(T item);
+
+    /**
+     * Called when the publisher fails, after which it sends nothing else.
+     * @param throwable the failure
+     */
+    void onError(Throwable throwable);
+
+    /**
+     * Called when the publisher won't send any more items.
+     */
+    void onComplete();
+  }
+
+  /**
+   * The link between a publisher and one of its subscribers.
+   */
+  public interface Subscription {
+    /**
+     * Adds the given number of items to the demand of the subscriber. Requests
+     * of zero or fewer items fail the subscription with an
+     * {@link IllegalArgumentException} sent to {@link Subscriber#onError}.
+     * @param n the number of items to add; {@link Long#MAX_VALUE} means
+     *          unbounded
+     */
+    void request(long n);
+
+    /**
+     * Stops sending items to the subscriber, possibly after a few more.
+     */
+    void cancel();
+  }
+
+  /**
+   * A stage that is both a subscriber and a publisher.
+   * @param <T> the type of the items received
+   * @param <R> the type of the items published
+   */
+  public interface Processor<T, R> extends Subscriber<T>, Publisher<R> {
+  }
+}
@@ -0,0 +1,594 @@
+package com.github.kratorius.jefs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * A persistent queue of records, appended by a single writer to memory mapped
+ * files and read by any number of readers, each with its own persisted
+ * cursor, even from other processes.
+ *
+ * The records are written one after the other in segment files of a fixed
+ * size, named after the index of their first record; when a record doesn't
+ * fit at the end of a segment, the writer moves on to a new one. Every record
+ * starts with a long header that holds its length plus one, and that the
+ * writer sets with a release store only after copying the record, as the tail
+ * of {@link SPSCQueue}: readers that see the length see the record as well,
+ * while an uncommitted record still has a zero header. The number of records
+ * committed so far is also published in the mapped {@code tail} file.
+ *
+ * Appending a record is thus a copy into the page cache, with no system
+ * call: the records survive a crash of the process straight away, while
+ * surviving a crash of the operating system needs a {@link #flush()}.
+ * Recovering after a crash maps the files again and skips over the committed
+ * records of the last segment.
+ *
+ * The writer holds an exclusive lock on the {@code lock} file of the
+ * directory until it's closed, so that no other writer, in this process or
+ * another, can open the journal in the meantime; the operating system
+ * releases the lock if the process crashes.
+ *
+ * Segments are never deleted, and the files are in the native byte order.
+ */
+public class JournalQueue implements Closeable {
+  private static final int HEADER = 8;
+  // the header of the space left at the end of a segment
+  private static final long PADDING = -1;
+
+  private static final String SEGMENT_SUFFIX = ".journal";
+  private static final String CURSOR_SUFFIX = ".cursor";
+  private static final String TAIL = "tail";
+  private static final String LOCK = "lock";
+  private static final Pattern READER_NAME = Pattern.compile("[A-Za-z0-9_-]+");
+
+  private final Path directory;
+  private final int segmentSize;
+  private final boolean writable;
+  private final MappedByteBuffer tail;
+  // the channel of the lock file, whose lock the writer holds; null for
+  // read only journals
+  private final FileChannel lock;
+
+  // only accessed by the writer
+  private MappedByteBuffer segment;
+  // the segments filled since the last flush, which forces them along with
+  // the current one
+  private final List<MappedByteBuffer> unflushed = new ArrayList<>();
+  private long index;
+  private int position;
+  private boolean closed;
+
+  private JournalQueue(Path directory, int segmentSize, FileChannel lock) throws IOException {
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    this.writable = lock != null;
+    this.lock = lock;
+    this.tail = map(directory.resolve(TAIL), HEADER, writable);
+  }
+
+  /**
+   * Opens the journal in the given directory for appending and reading,
+   * creating it if it doesn't exist yet. Only one writer at a time can open a
+   * journal: it keeps it locked until {@link #close()}.
+   *
+   * @param directory   the directory of the journal
+   * @param segmentSize the size of the segment files, a multiple of 8; the
+   *                    largest record takes a whole segment but for 8 bytes
+   * @return the journal
+   * @throws IOException if the files can't be created or mapped
+   * @throws IllegalStateException if another writer has the journal open
+   */
+  public static JournalQueue open(Path directory, int segmentSize) throws IOException {
+    if (segmentSize < 2 * HEADER || segmentSize % HEADER != 0) {
+      throw new IllegalArgumentException("segment size must be a multiple of 8");
+    }
+
+    Files.createDirectories(directory);
+    final FileChannel lock = lock(directory);
+    try {
+      final long last = lastSegment(directory);
+      if (last >= 0 && Files.size(segmentPath(directory, last)) != segmentSize) {
+        throw new IllegalArgumentException("the journal has segments of " +
+            Files.size(segmentPath(directory, last)) + " bytes");
+      }
+
+      final JournalQueue journal = new JournalQueue(directory, segmentSize, lock);
+      journal.recover(last);
+      return journal;
+    } catch (IOException | RuntimeException e) {
+      // closing the channel releases the lock
+      lock.close();
+      throw e;
+    }
+  }
+
+  // locks the lock file of the journal, failing if another writer holds it
+  private static FileChannel lock(Path directory) throws IOException {
+    final FileChannel channel = FileChannel.open(directory.resolve(LOCK),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    FileLock lock;
+    try {
+      lock = channel.tryLock();
+    } catch (OverlappingFileLockException e) {
+      // held by another writer of this process
+      lock = null;
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+
+    if (lock == null) {
+      channel.close();
+      throw new IllegalStateException("the journal in " + directory + " is already open for writing");
+    }
+    return channel;
+  }
+
+  /**
+   * Opens an existing journal for reading only, usually from another process
+   * than the writer's. Readers opened from it still persist their cursors.
+   *
+   * @param directory the directory of the journal
+   * @return the journal
+   * @throws IOException if the journal doesn't exist or can't be mapped
+   */
+  public static JournalQueue openReadOnly(Path directory) throws IOException {
+    final long first = firstSegment(directory);
+    if (first < 0) {
+      throw new IOException("no journal in " + directory);
+    }
+    return new JournalQueue(directory, (int) Files.size(segmentPath(directory, first)), null);
+  }
+
+  // finds the end of the committed records, which a crash may have left in
+  // the middle of a segment
+  private void recover(long last) throws IOException {
+    for (Path file : segmentFiles(directory, ".tmp")) {
+      Files.delete(file);
+    }
+
+    if (last < 0) {
+      segment = createSegment(0);
+      index = 0;
+      position = 0;
+    } else {
+      segment = map(segmentPath(directory, last), segmentSize, true);
+      index = last;
+      position = 0;
+      long header;
+      while (position + HEADER <= segmentSize && (header = DirectLongs.getAcquire(segment, position)) != 0) {
+        if (header == PADDING) {
+          // full, but the writer crashed before moving on to the next segment
+          position = segmentSize;
+          break;
+        }
+        position += recordSize((int) header - 1);
+        index++;
+      }
+
+      if (position == 0 && last > 0) {
+        seal(last);
+      }
+    }
+
+    DirectLongs.setRelease(tail, 0, index);
+  }
+
+  // the writer may have crashed after creating the given segment but before
+  // sealing the previous one, whose readers would then wait forever
+  private void seal(long next) throws IOException {
+    long previous = -1;
+    for (Path file : segmentFiles(directory, "")) {
+      final long base = segmentBase(file);
+      if (base < next) {
+        previous = Math.max(previous, base);
+      }
+    }
+    if (previous < 0) {
+      return;
+    }
+
+    final MappedByteBuffer buffer = map(segmentPath(directory, previous), segmentSize, true);
+    int end = 0;
+    long header;
+    while (end + HEADER <= segmentSize && (header = DirectLongs.getAcquire(buffer, end)) != 0) {
+      if (header == PADDING) {
+        return;
+      }
+      end += recordSize((int) header - 1);
+    }
+    if (end + HEADER <= segmentSize) {
+      DirectLongs.setRelease(buffer, end, PADDING);
+    }
+  }
+
+  private static int recordSize(int length) {
+    return (HEADER + length + HEADER - 1) & ~(HEADER - 1);
+  }
+
+  /**
+   * Returns the largest record that fits in a segment.
+   * @return the maximum length of a record
+   */
+  public int maxRecordLength() {
+    return segmentSize - HEADER;
+  }
+
+  /**
+   * Returns the number of records committed so far, which is also the index
+   * of the next record.
+   * @return the committed tail of the journal
+   */
+  public long tail() {
+    return DirectLongs.getAcquire(tail, 0);
+  }
+
+  /**
+   * Appends the remaining bytes of the given buffer as a new record. This
+   * must only be called by a single thread.
+   *
+   * @param record the content of the record
+   * @return the index of the record
+   * @throws IllegalStateException if the journal is read only
+   * @throws IOException if a new segment can't be created
+   */
+  public long append(ByteBuffer record) throws IOException {
+    final int length = record.remaining();
+    claim(length);
+    ((Buffer) segment).position(position + HEADER);
+    segment.put(record);
+    return commit(length);
+  }
+
+  /**
+   * Appends the given bytes as a new record. This must only be called by a
+   * single thread.
+   *
+   * @param bytes  the array that holds the record
+   * @param offset the offset of the record in the array
+   * @param length the length of the record
+   * @return the index of the record
+   * @throws IllegalStateException if the journal is read only
+   * @throws IOException if a new segment can't be created
+   */
+  public long append(byte[] bytes, int offset, int length) throws IOException {
+    claim(length);
+    ((Buffer) segment).position(position + HEADER);
+    segment.put(bytes, offset, length);
+    return commit(length);
+  }
+
+  // makes sure that the current segment has room for the record
+  private void claim(int length) throws IOException {
+    if (!writable) {
+      throw new IllegalStateException("read only");
+    }
+    if (closed) {
+      throw new IllegalStateException("closed");
+    }
+    if (length > maxRecordLength()) {
+      throw new IllegalArgumentException("record larger than " + maxRecordLength() + " bytes");
+    }
+
+    if (position + recordSize(length) > segmentSize) {
+      // the next segment must exist before readers are sent there
+      final MappedByteBuffer next = createSegment(index);
+      if (position + HEADER <= segmentSize) {
+        DirectLongs.setRelease(segment, position, PADDING);
+      }
+      // forced by the next flush rather than here, in the middle of an append
+      unflushed.add(segment);
+      segment = next;
+      position = 0;
+    }
+  }
+
+  private long commit(int length) {
+    DirectLongs.setRelease(segment, position, length + 1);
+    position += recordSize(length);
+    DirectLongs.setRelease(tail, 0, index + 1);
+    return index++;
+  }
+
+  private MappedByteBuffer createSegment(long first) throws IOException {
+    // created under a temporary name, so that readers never map a file
+    // that is shorter than a segment
+    final Path file = segmentPath(directory, first);
+    final Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+    final MappedByteBuffer buffer = map(tmp, segmentSize, true);
+    Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+    return buffer;
+  }
+
+  /**
+   * Writes the records appended so far to the storage device, so that they
+   * survive a crash of the operating system as well. This includes the
+   * segments filled since the last flush, which stay mapped until then.
+   */
+  public void flush() {
+    if (writable) {
+      for (MappedByteBuffer filled : unflushed) {
+        filled.force();
+      }
+      unflushed.clear();
+      segment.force();
+      tail.force();
+    }
+  }
+
+  /**
+   * Opens a reader that persists its cursor under the given name: it starts
+   * from the cursor left by the last reader with the same name, or from the
+   * first record if there's none.
+   *
+   * @param name the name of the reader, made of letters, digits, dashes and
+   *             underscores
+   * @return the reader
+   * @throws IOException if the cursor or the segments can't be mapped
+   */
+  public Reader reader(String name) throws IOException {
+    if (name == null || !READER_NAME.matcher(name).matches()) {
+      throw new IllegalArgumentException("invalid reader name: " + name);
+    }
+
+    final Path file = directory.resolve(name + CURSOR_SUFFIX);
+    final boolean exists = Files.exists(file);
+    final Reader reader = new Reader(map(file, HEADER, true));
+    reader.seek(exists ? DirectLongs.getAcquire(reader.cursor, 0) : firstSegment(directory));
+    return reader;
+  }
+
+  /**
+   * Reads the records of the journal in order, keeping its position in a
+   * mapped cursor file. The cursor holds the index of the last record
+   * returned, so that a reader that restarts after a crash reads that record
+   * again: a record is only acknowledged by {@link #commit()}, or by reading
+   * the next one.
+   *
+   * A reader must only be used by a single thread at a time.
+   */
+  public final class Reader implements Closeable {
+    private final MappedByteBuffer cursor;
+    // its own mapping, so the reader can move its position and limit, as
+    // long as it puts the limit back
+    private ByteBuffer segment;
+    private long index;
+    private int position;
+
+    private Reader(MappedByteBuffer cursor) {
+      this.cursor = cursor;
+    }
+
+    /**
+     * Returns the index of the next record to read.
+     * @return the index of the next record
+     */
+    public long index() {
+      return index;
+    }
+
+    /**
+     * Returns the number of committed records that haven't been read yet.
+     * @return the number of records available
+     */
+    public long available() {
+      return tail() - index;
+    }
+
+    /**
+     * Moves the reader to the given record, which can be any from the first
+     * one to the tail of the journal, and persists the new position.
+     *
+     * @param index the index of the next record to read
+     * @throws IOException if the segment of the record can't be mapped
+     */
+    public void seek(long index) throws IOException {
+      if (index < 0 || index > tail()) {
+        throw new IllegalArgumentException("no record " + index);
+      }
+
+      long first = -1;
+      for (Path file : segmentFiles(directory, "")) {
+        final long base = segmentBase(file);
+        if (base <= index && base > first) {
+          first = base;
+        }
+      }
+      if (first < 0) {
+        throw new IllegalArgumentException("no record " + index);
+      }
+
+      segment = map(segmentPath(directory, first), segmentSize, false);
+      this.index = first;
+      this.position = 0;
+      while (this.index < index) {
+        if (!skip()) {
+          throw new IllegalStateException("record " + this.index + " is missing");
+        }
+      }
+      DirectLongs.setRelease(cursor, 0, index);
+    }
+
+    // moves past the next record, if it has been committed
+    private boolean skip() throws IOException {
+      final int length = next();
+      if (length < 0) {
+        return false;
+      }
+      position += recordSize(length);
+      index++;
+      return true;
+    }
+
+    // returns the length of the next record, moving to the next segment if
+    // needed, or -1 if it hasn't been committed yet
+    private int next() throws IOException {
+      long header = position + HEADER <= segmentSize ? DirectLongs.getAcquire(segment, position) : PADDING;
+      if (header == PADDING) {
+        final Path file = segmentPath(directory, index);
+        if (!Files.exists(file)) {
+          return -1;
+        }
+        segment = map(file, segmentSize, false);
+        position = 0;
+        header = DirectLongs.getAcquire(segment, 0);
+      }
+      return header == 0 ? -1 : (int) header - 1;
+    }
+
+    /**
+     * Returns a read only view of the next record and moves past it. The view
+     * stays valid after the reader moves on.
+     *
+     * @return the next record, or {@code null} if there are no new records
+     * @throws IOException if the next segment can't be mapped
+     */
+    public ByteBuffer poll() throws IOException {
+      final int length = next();
+      if (length < 0) {
+        return null;
+      }
+
+      final ByteBuffer view = segment.duplicate();
+      ((Buffer) view).clear();
+      ((Buffer) view).position(position + HEADER);
+      ((Buffer) view).limit(position + HEADER + length);
+      advance(length);
+      return view.slice();
+    }
+
+    /**
+     * Copies the next record into the given buffer and moves past it.
+     *
+     * @param dst the buffer to copy the record to
+     * @return the length of the record, or -1 if there are no new records
+     * @throws BufferOverflowException if the record doesn't fit in the
+     *                                 remaining space of the buffer, in
+     *                                 which case the reader doesn't move
+     * @throws IOException if the next segment can't be mapped
+     */
+    public int read(ByteBuffer dst) throws IOException {
+      final int length = next();
+      if (length < 0) {
+        return -1;
+      }
+      if (length > dst.remaining()) {
+        throw new BufferOverflowException();
+      }
+
+      ((Buffer) segment).position(position + HEADER);
+      ((Buffer) segment).limit(position + HEADER + length);
+      dst.put(segment);
+      // the ordered accesses to the headers are bound by the limit as well
+      ((Buffer) segment).clear();
+      advance(length);
+      return length;
+    }
+
+    private void advance(int length) {
+      // the record being returned is acknowledged by the next read
+      DirectLongs.setRelease(cursor, 0, index);
+      position += recordSize(length);
+      index++;
+    }
+
+    /**
+     * Acknowledges the records read so far, so that a reader with the same
+     * name starts after them.
+     */
+    public void commit() {
+      DirectLongs.setRelease(cursor, 0, index);
+    }
+
+    /**
+     * Writes the cursor to the storage device.
+     */
+    @Override
+    public void close() {
+      cursor.force();
+    }
+  }
+
+  /**
+   * Writes the journal to the storage device and lets other writers open it;
+   * records can't be appended anymore afterwards. The mappings are released
+   * once they're garbage collected.
+   *
+   * @throws IOException if the lock can't be released
+   */
+  @Override
+  public void close() throws IOException {
+    if (writable && !closed) {
+      closed = true;
+      flush();
+      lock.close();
+    }
+  }
+
+  private static MappedByteBuffer map(Path file, int size, boolean writable) throws IOException {
+    // the mappings stay valid even after the channel is closed
+    if (writable) {
+      try (FileChannel channel = FileChannel.open(file,
+          StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+        return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+      }
+    } else {
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+        return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      }
+    }
+  }
+
+  private static Path segmentPath(Path directory, long first) {
+    return directory.resolve(String.format("%020d%s", first, SEGMENT_SUFFIX));
+  }
+
+  private static long segmentBase(Path file) {
+    final String name = file.getFileName().toString();
+    return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+  }
+
+  private static List<Path> segmentFiles(Path directory, String suffix) throws IOException {
+    final List<Path> files = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX + suffix)) {
+      for (Path file : stream) {
+        files.add(file);
+      }
+    }
+    return files;
+  }
+
+  private static long firstSegment(Path directory) throws IOException {
+    long first = -1;
+    for (Path file : segmentFiles(directory, "")) {
+      final long base = segmentBase(file);
+      if (first < 0 || base < first) {
+        first = base;
+      }
+    }
+    return first;
+  }
+
+  private static long lastSegment(Path directory) throws IOException {
+    long last = -1;
+    for (Path file : segmentFiles(directory, "")) {
+      last = Math.max(last, segmentBase(file));
+    }
+    return last;
+  }
+}
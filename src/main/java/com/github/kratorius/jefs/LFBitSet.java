@@ -1,55 +1,214 @@
 package com.github.kratorius.jefs;
 
-import sun.misc.Unsafe;
+import com.github.kratorius.jefs.internal.BitUtils;
+
+import java.nio.Buffer;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
 
 /**
  * Represents a vector of a fixed number of bits.
  * This class differs from the normal {@link java.util.BitSet} class in that we
  * only allow a fixed number of bits and offer only those methods for which
  * we can support thread-safe operations.
+ *
+ * By default bits are laid out densely, 64 to a word. When different threads
+ * own neighbouring bits (e.g. one bit per worker) their CAS loops would keep
+ * fighting over the same word and cache line even though the bits are
+ * logically independent: in that case the bit set can be created with a
+ * number of stripes, so that consecutive indices are interleaved across
+ * stripes that are at least a cache line apart.
  */
 public class LFBitSet {
-  private static Unsafe unsafe = NotSafe.getUnsafe();
-  private static final int base = unsafe.arrayBaseOffset(long[].class);
-  private static final int shift;
-
-  static {
-    int scale = Integer.numberOfLeadingZeros(unsafe.arrayIndexScale(long[].class));
-    shift = 31 - scale;
-  }
+  // stripes are rounded up to a whole number of cache lines
+  private static final int CACHE_LINE_BITS = 64 * 8;
 
-  // The volatile is needed because clear() creates a whole new array
-  private volatile long[] bitset;
+  private final long[] bitset;
   private final int nbits;
 
+  // a bit with logical index i lives in stripe (i & stripeMask), at offset
+  // (i >>> stripeShift) within the stripe; the dense layout is a single stripe
+  private final int stripeMask;
+  private final int stripeShift;
+  private final int stripeBits;
+
+  private Metrics metrics;
+
   /**
    * Creates a new bit set whose size is large enough to explicitely represent bits
    * with indices in the range {@code 0} through {@code nbits - 1}.
    * @param nbits the initial size of the bit set
    */
   public LFBitSet(int nbits) {
-    if (nbits < 0) {
+    this(nbits, 1);
+  }
+
+  /**
+   * Creates a new bit set whose size is large enough to explicitely represent bits
+   * with indices in the range {@code 0} through {@code nbits - 1}, interleaving
+   * consecutive bits across the given number of stripes.
+   * Any {@code stripes} consecutive bits end up in different stripes, which are
+   * one or more cache lines apart; each stripe is padded up to a whole number of
+   * cache lines, so the bit set will use up to {@code stripes} more cache lines
+   * than a dense one.
+   * @param nbits   the initial size of the bit set
+   * @param stripes the number of stripes, rounded up to the next power of two;
+   *                {@code 1} gives the usual dense layout
+   */
+  public LFBitSet(int nbits, int stripes) {
+    if (nbits < 0 || stripes <= 0) {
       throw new IllegalArgumentException();
     }
 
+    final int actualStripes = BitUtils.roundToNextPowerOfTwo(stripes);
     this.nbits = nbits;
-    this.bitset = new long[getBucket(nbits) + 1];
+    this.stripeMask = actualStripes - 1;
+    this.stripeShift = Integer.numberOfTrailingZeros(actualStripes);
+
+    if (actualStripes == 1) {
+      this.stripeBits = nbits;
+    } else {
+      final long bitsPerStripe = ((long) nbits + stripeMask) >>> stripeShift;
+      final long paddedBits = (bitsPerStripe + CACHE_LINE_BITS - 1) / CACHE_LINE_BITS * CACHE_LINE_BITS;
+      if (paddedBits * actualStripes > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("too many stripes");
+      }
+      this.stripeBits = (int) paddedBits;
+    }
+
+    final long physicalBits = (long) stripeBits * actualStripes;
+    this.bitset = new long[(int) ((physicalBits + 63) >>> 6)];
   }
 
-  private long byteOffset(int idx) {
-    return ((long) idx << shift) + base;
+  private int physicalIndex(int bit) {
+    if (bit < 0 || bit >= nbits) {
+      throw new IndexOutOfBoundsException();
+    }
+    return (bit & stripeMask) * stripeBits + (bit >>> stripeShift);
+  }
+
+  /**
+   * Attaches the given metrics to this bit set, which will count the failed CAS
+   * attempts of {@code set}, {@code clear} and {@code flip}. This must be
+   * called before the bit set is shared with other threads.
+   * @param metrics the metrics to update
+   */
+  public void setMetrics(Metrics metrics) {
+    this.metrics = metrics;
+  }
+
+  // always true, so it can be chained after a failed CAS in the loop condition;
+  // the whole call is removed by the JIT when metrics are disabled
+  private boolean retry(Metrics.Operation op) {
+    if (Metrics.ENABLED && metrics != null) {
+      metrics.casFailure(op);
+    }
+    return true;
   }
 
-  private int getBucket(int bit) {
-    //noinspection NumericOverflow
-    return ((bit - 1) >> 6) + 1;
+  /**
+   * Returns the number of stripes the bits are interleaved across.
+   * @return the number of stripes, {@code 1} for the dense layout
+   */
+  public int stripes() {
+    return stripeMask + 1;
   }
 
   /**
    * Sets all the bits in this bit set to {@code false}.
+   *
+   * Words are zeroed in place, so this never allocates. Bits set concurrently
+   * with the clear may or may not survive it, but any bit set after this
+   * method returns is never lost.
    */
   public void clear() {
-    this.bitset = new long[getBucket(nbits) + 1];
+    for (int i = 0; i < bitset.length; i++) {
+      LongArrays.setRelease(bitset, i, 0L);
+    }
+    Atomics.fullFence();
+  }
+
+  /**
+   * Sets the bits from the specified {@code fromIndex} (inclusive) to the
+   * specified {@code toIndex} (exclusive) to {@code false}.
+   *
+   * Large bit sets can be cleared with a bounded latency by clearing them
+   * one range at a time, or in parallel by clearing disjoint ranges from
+   * different threads.
+   * @param fromIndex index of the first bit to be cleared
+   * @param toIndex   index after the last bit to be cleared
+   */
+  public void clear(int fromIndex, int toIndex) {
+    if (fromIndex < 0 || toIndex > nbits || fromIndex > toIndex) {
+      throw new IndexOutOfBoundsException();
+    }
+    if (fromIndex == toIndex) {
+      return;
+    }
+
+    if (stripeMask == 0) {
+      clearPhysical(fromIndex, toIndex);
+    } else {
+      // within each stripe the bits of the range are still contiguous
+      for (int stripe = 0; stripe <= stripeMask; stripe++) {
+        final int from = (int) (((long) fromIndex - stripe + stripeMask) >> stripeShift);
+        final int to = (int) (((long) toIndex - stripe + stripeMask) >> stripeShift);
+        if (from < to) {
+          clearPhysical(stripe * stripeBits + from, stripe * stripeBits + to);
+        }
+      }
+    }
+    Atomics.fullFence();
+  }
+
+  private void clearPhysical(int fromIndex, int toIndex) {
+    final int first = fromIndex >>> 6;
+    final int last = (toIndex - 1) >>> 6;
+    final long firstMask = -1L << fromIndex;
+    final long lastMask = -1L >>> -toIndex;
+
+    if (first == last) {
+      clearWord(first, firstMask & lastMask);
+      return;
+    }
+
+    // words at the edges are shared with bits outside of the range
+    clearWord(first, firstMask);
+    for (int i = first + 1; i < last; i++) {
+      LongArrays.setRelease(bitset, i, 0L);
+    }
+    clearWord(last, lastMask);
+  }
+
+  private void clearWord(int bucket, long mask) {
+    long v1, v2;
+    do {
+      v1 = bitset[bucket];
+      v2 = v1 & ~mask;
+    } while (!LongArrays.weakCompareAndSet(bitset, bucket, v1, v2) && retry(Metrics.Operation.CLEAR));
+  }
+
+  /**
+   * Returns a whole word of a dense bit set at once: bit {@code j} of the
+   * result is the bit with index {@code 64 * wordIndex + j}. Used by
+   * {@link ClockCache} to sweep the reference bits 64 at a time.
+   * @param wordIndex the index of the word
+   * @return the bits of the word
+   */
+  long getWord(int wordIndex) {
+    if (stripeMask != 0) {
+      throw new IllegalStateException("only supported by dense bit sets");
+    }
+    return LongArrays.getAcquire(bitset, wordIndex);
   }
 
   /**
@@ -57,16 +216,14 @@ public class LFBitSet {
    * @param bitIndex the index of the bit to be cleared
    */
   public void clear(int bitIndex) {
-    int bucket = getBucket(bitIndex);
-    if (bucket < 0 || bucket >= bitset.length) {
-      throw new IndexOutOfBoundsException();
-    }
+    final int bit = physicalIndex(bitIndex);
+    final int bucket = bit >>> 6;
 
     long v1, v2;
     do {
       v1 = bitset[bucket];
-      v2 = v1 & ~(1L << bitIndex);
-    } while (!unsafe.compareAndSwapLong(bitset, byteOffset(bucket), v1, v2));
+      v2 = v1 & ~(1L << bit);
+    } while (!LongArrays.weakCompareAndSet(bitset, bucket, v1, v2) && retry(Metrics.Operation.CLEAR));
   }
 
   /**
@@ -74,16 +231,14 @@ public class LFBitSet {
    * @param bitIndex the index of the bit to flip
    */
   public void flip(int bitIndex) {
-    int bucket = getBucket(bitIndex);
-    if (bucket < 0 || bucket >= bitset.length) {
-      throw new IndexOutOfBoundsException();
-    }
+    final int bit = physicalIndex(bitIndex);
+    final int bucket = bit >>> 6;
 
     long v1, v2;
     do {
       v1 = bitset[bucket];
-      v2 = v1 ^ (1L << bitIndex);
-    } while (!unsafe.compareAndSwapLong(bitset, byteOffset(bucket), v1, v2));
+      v2 = v1 ^ (1L << bit);
+    } while (!LongArrays.weakCompareAndSet(bitset, bucket, v1, v2) && retry(Metrics.Operation.FLIP));
   }
 
   /**
@@ -91,16 +246,14 @@ public class LFBitSet {
    * @param bitIndex a bit index
    */
   public void set(int bitIndex) {
-    int bucket = getBucket(bitIndex);
-    if (bucket < 0 || bucket >= bitset.length) {
-      throw new IndexOutOfBoundsException();
-    }
+    final int bit = physicalIndex(bitIndex);
+    final int bucket = bit >>> 6;
 
     long v1, v2;
     do {
       v1 = bitset[bucket];
-      v2 = v1 | (1L << bitIndex);
-    } while (!unsafe.compareAndSwapLong(bitset, byteOffset(bucket), v1, v2));
+      v2 = v1 | (1L << bit);
+    } while (!LongArrays.weakCompareAndSet(bitset, bucket, v1, v2) && retry(Metrics.Operation.SET));
   }
 
   /**
@@ -126,12 +279,187 @@ public class LFBitSet {
    *         exceeds the bit set length
    */
   public boolean get(int bitIndex) {
-    int bucket = getBucket(bitIndex);
-    if (bucket < 0 || bucket >= bitset.length) {
-      throw new IndexOutOfBoundsException();
+    final int bit = physicalIndex(bitIndex);
+    final int bucket = bit >>> 6;
+
+    long v = LongArrays.getAcquire(bitset, bucket);
+    return (v & (1L << bit)) != 0;
+  }
+
+  /**
+   * Performs the given action for each bit that is set, walking a whole word
+   * at a time.
+   * Bits are visited in ascending order for the dense layout; striped bit sets
+   * are visited one stripe at a time. Bits changed while the walk is in progress
+   * may or may not be reported.
+   * @param action the action to be performed for each set bit
+   */
+  public void forEachSetBit(IntConsumer action) {
+    for (int stripe = 0; stripe <= stripeMask; stripe++) {
+      final int first = firstWord(stripe);
+      final int last = lastWord(stripe);
+
+      for (int i = first; i < last; i++) {
+        long word = LongArrays.getAcquire(bitset, i);
+        while (word != 0) {
+          final int offset = ((i - first) << 6) + Long.numberOfTrailingZeros(word);
+          action.accept((offset << stripeShift) | stripe);
+          word &= word - 1;
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns a stream of the indices of the bits that are set, in the same order
+   * as {@link #forEachSetBit(IntConsumer)}.
+   * @return a stream of the indices of the set bits
+   */
+  public IntStream stream() {
+    return StreamSupport.intStream(Spliterators.spliteratorUnknownSize(new SetBitIterator(),
+        Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), false);
+  }
+
+  private int firstWord(int stripe) {
+    return (int) (((long) stripe * stripeBits) >>> 6);
+  }
+
+  private int lastWord(int stripe) {
+    return (int) Math.min(bitset.length, ((long) (stripe + 1) * stripeBits + 63) >>> 6);
+  }
+
+  private class SetBitIterator implements PrimitiveIterator.OfInt {
+    private int stripe = 0;
+    private int wordIndex = firstWord(0) - 1;
+    private long word = 0;
+
+    @Override
+    public boolean hasNext() {
+      while (word == 0) {
+        if (++wordIndex >= lastWord(stripe)) {
+          if (++stripe > stripeMask) {
+            return false;
+          }
+          wordIndex = firstWord(stripe);
+          if (wordIndex >= lastWord(stripe)) {
+            continue;
+          }
+        }
+        word = LongArrays.getAcquire(bitset, wordIndex);
+      }
+      return true;
     }
 
-    long v = unsafe.getLongVolatile(bitset, byteOffset(bucket));
-    return (v & (1L << bitIndex)) != 0;
+    @Override
+    public int nextInt() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+
+      final int offset = ((wordIndex - firstWord(stripe)) << 6) + Long.numberOfTrailingZeros(word);
+      word &= word - 1;
+      return (offset << stripeShift) | stripe;
+    }
+  }
+
+  /**
+   * Returns the number of bytes needed by {@link #snapshotTo(ByteBuffer)}: a
+   * long describing the layout of the bit set, followed by its words.
+   * @return the size of a snapshot of this bit set, in bytes
+   */
+  public int snapshotBytes() {
+    return (bitset.length + 1) << 3;
+  }
+
+  // the size and number of stripes, which a snapshot must match to be loaded
+  private long layout() {
+    return ((long) nbits << 32) | (stripeMask + 1);
+  }
+
+  /**
+   * Copies the layout and the words of this bit set into the given buffer,
+   * advancing its position by {@code snapshotBytes() / 8} longs.
+   * Every word is read atomically, but words changed while the copy is in
+   * progress may or may not be part of the snapshot.
+   * @param dst the buffer the snapshot is copied to
+   * @throws java.nio.BufferOverflowException if there isn't enough space left in
+   *         the buffer
+   */
+  public void snapshotTo(LongBuffer dst) {
+    if (dst.remaining() < bitset.length + 1) {
+      throw new BufferOverflowException();
+    }
+
+    dst.put(layout());
+    for (int i = 0; i < bitset.length; i++) {
+      dst.put(LongArrays.getAcquire(bitset, i));
+    }
+  }
+
+  /**
+   * Copies the layout and the words of this bit set into the given buffer,
+   * using its byte order, and advances its position by
+   * {@link #snapshotBytes()}. A direct buffer can be written straight to a
+   * {@link java.nio.channels.FileChannel}.
+   * @param dst the buffer the snapshot is copied to
+   * @throws java.nio.BufferOverflowException if there isn't enough space left in
+   *         the buffer
+   * @see #snapshotTo(LongBuffer)
+   */
+  public void snapshotTo(ByteBuffer dst) {
+    snapshotTo(dst.asLongBuffer());
+    ((Buffer) dst).position(dst.position() + snapshotBytes());
+  }
+
+  /**
+   * Replaces the content of this bit set with a snapshot previously taken with
+   * {@link #snapshotTo(ByteBuffer)}, reading it in the byte order of the buffer
+   * and advancing its position by {@link #snapshotBytes()}.
+   * The snapshot must come from a bit set with the same size and number of
+   * stripes, and is checked before anything is loaded. Concurrent updates
+   * while the snapshot is loaded may be lost.
+   * @param src the buffer containing the snapshot
+   * @throws java.nio.BufferUnderflowException if the buffer doesn't contain a
+   *         whole snapshot
+   * @throws IllegalArgumentException if the snapshot comes from a bit set with
+   *         another layout, or has bits set past the end of a stripe
+   */
+  public void loadFrom(ByteBuffer src) {
+    final LongBuffer words = src.asLongBuffer();
+    if (words.remaining() > 0 && words.get(0) != layout()) {
+      throw new IllegalArgumentException("snapshot of a bit set with another size or number of stripes");
+    }
+    if (words.remaining() < bitset.length + 1) {
+      throw new BufferUnderflowException();
+    }
+
+    // the padding of the stripes is never set, or the iterators would see it
+    final long stripes = stripeMask + 1;
+    for (int stripe = 0; stripe < stripes; stripe++) {
+      final long used = ((long) nbits - stripe + stripeMask) >> stripeShift;
+      if (!isClear(words, stripe * (long) stripeBits + used, (stripe + 1) * (long) stripeBits)) {
+        throw new IllegalArgumentException("snapshot with bits set past the end of a stripe");
+      }
+    }
+    if (!isClear(words, stripes * stripeBits, (long) bitset.length << 6)) {
+      throw new IllegalArgumentException("snapshot with bits set past the end of the bit set");
+    }
+
+    for (int i = 0; i < bitset.length; i++) {
+      LongArrays.setRelease(bitset, i, words.get(i + 1));
+    }
+    ((Buffer) src).position(src.position() + snapshotBytes());
+  }
+
+  // whether the bits of a snapshot in the given physical range are all clear
+  private static boolean isClear(LongBuffer words, long fromIndex, long toIndex) {
+    for (long bit = fromIndex; bit < toIndex; bit = (bit | 63) + 1) {
+      final long word = words.get((int) (bit >>> 6) + 1);
+      final long mask = toIndex - (bit & ~63L) >= 64 ? -1L << bit : (-1L << bit) & (-1L >>> -toIndex);
+      if ((word & mask) != 0) {
+        return false;
+      }
+    }
+    return true;
   }
 }
@@ -0,0 +1,182 @@
+package com.github.kratorius.jefs;
+
+import com.github.kratorius.jefs.internal.BitUtils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A lock free, cache-line blocked Bloom filter.
+ *
+ * This works like {@link LFBloomFilter}, except that the first hash of a key
+ * selects a block of 512 bits (eight words, the size of a cache line) and all
+ * the k bits of the key are set within that block, each in a different word
+ * for k up to 8. Adding or looking up a key thus costs a single cache miss
+ * instead of k, at the cost of a higher false positive rate for the same
+ * number of bits (about twice as many false positives when sized for 1%).
+ *
+ * The words are updated with a CAS per word, the same way {@link LFBitSet}
+ * does, but they're kept in direct memory rather than in a {@code long[]}: the
+ * JVM only aligns arrays to 8 bytes, and moves them around, so a block of an
+ * array may straddle two cache lines. The blocks of the direct buffer all
+ * start on a 64 byte boundary instead.
+ *
+ * Objects are added and looked up by their {@code hashCode()}, which only has
+ * 32 bits: keys with the same hash code are indistinguishable, so every key
+ * added makes a lookup of another one a false positive with a probability of
+ * 2^-32, on top of the configured rate (0.1% more for about 4 million keys).
+ * Hashing large key sets to a {@code long} beforehand and using the
+ * {@code long} methods avoids that.
+ */
+public class LFBlockedBloomFilter {
+  private static final int WORDS_PER_BLOCK = 8;
+  private static final int BITS_PER_BLOCK = WORDS_PER_BLOCK * 64;
+  private static final int BYTES_PER_BLOCK = WORDS_PER_BLOCK * 8;
+
+  private final ByteBuffer words;
+  private final int numBlocks;
+  private final int numHashFunctions;
+
+  /**
+   * Creates a new blocked Bloom filter sized so that the given number of
+   * insertions will result in (roughly) the given false positive probability.
+   *
+   * @param expectedInsertions  the number of distinct keys expected to be added
+   * @param fpp                 the desired false positive probability, in the
+   *                            range {@code (0, 1)}
+   */
+  public LFBlockedBloomFilter(int expectedInsertions, double fpp) {
+    this(LFBloomFilter.optimalNumOfBits(expectedInsertions, fpp),
+         LFBloomFilter.optimalNumOfHashFunctions(expectedInsertions,
+             LFBloomFilter.optimalNumOfBits(expectedInsertions, fpp)));
+  }
+
+  /**
+   * Creates a new blocked Bloom filter with the given number of bits and hash
+   * functions. The number of bits is rounded up to a multiple of 512.
+   *
+   * @param nbits             the number of bits of the filter
+   * @param numHashFunctions  the number of bits set for each key
+   */
+  public LFBlockedBloomFilter(int nbits, int numHashFunctions) {
+    if (nbits <= 0 || numHashFunctions <= 0) {
+      throw new IllegalArgumentException();
+    }
+
+    this.numBlocks = (int) (((long) nbits + BITS_PER_BLOCK - 1) / BITS_PER_BLOCK);
+    this.numHashFunctions = numHashFunctions;
+    // over-allocated, so that the blocks can start on a cache line
+    this.words = DirectLongs.alignedSlice(
+        ByteBuffer.allocateDirect(numBlocks * BYTES_PER_BLOCK + BYTES_PER_BLOCK - 1), BYTES_PER_BLOCK);
+  }
+
+  // the byte index of the first word of the block of the key
+  private int firstWord(long h1) {
+    return (int) ((h1 & Long.MAX_VALUE) % numBlocks) * BYTES_PER_BLOCK;
+  }
+
+  private static long nextHash(long h) {
+    // xorshift64: cheap and good enough to pick the bits within a block
+    h ^= h << 13;
+    h ^= h >>> 7;
+    h ^= h << 17;
+    return h;
+  }
+
+  /**
+   * Returns the number of bits used by this filter.
+   * @return the number of bits of the filter
+   */
+  public int bitSize() {
+    return numBlocks * BITS_PER_BLOCK;
+  }
+
+  /**
+   * Returns the number of bits set (and checked) for every key.
+   * @return the number of hash functions
+   */
+  public int numHashFunctions() {
+    return numHashFunctions;
+  }
+
+  /**
+   * Adds the given key to the filter.
+   * @param key the key to add
+   */
+  public void add(long key) {
+    final long h1 = BitUtils.mix64(key);
+    final int first = firstWord(h1);
+
+    long h2 = BitUtils.mix64(h1) | 1;
+    for (int i = 0; i < numHashFunctions; i++) {
+      final int word = first + ((i & (WORDS_PER_BLOCK - 1)) << 3);
+      final long mask = 1L << (h2 >>> 58);
+
+      long v1;
+      do {
+        v1 = DirectLongs.getAcquire(words, word);
+        if ((v1 & mask) != 0) {
+          // already set, don't bother dirtying the cache line
+          break;
+        }
+      } while (!DirectLongs.weakCompareAndSet(words, word, v1, v1 | mask));
+
+      h2 = nextHash(h2);
+    }
+  }
+
+  /**
+   * Adds the given object to the filter, as identified by its 32 bit
+   * {@code hashCode()}.
+   * @param key the key to add
+   */
+  public void add(Object key) {
+    add((long) key.hashCode());
+  }
+
+  /**
+   * Tests whether the given key might have been added to the filter.
+   * @param key the key to look up
+   * @return {@code false} if the key has definitely never been added,
+   *         {@code true} if it might have been
+   */
+  public boolean mightContain(long key) {
+    final long h1 = BitUtils.mix64(key);
+    final int first = firstWord(h1);
+
+    long h2 = BitUtils.mix64(h1) | 1;
+    for (int i = 0; i < numHashFunctions; i++) {
+      final long v = DirectLongs.getAcquire(words, first + ((i & (WORDS_PER_BLOCK - 1)) << 3));
+      if ((v & (1L << (h2 >>> 58))) == 0) {
+        return false;
+      }
+
+      h2 = nextHash(h2);
+    }
+
+    return true;
+  }
+
+  /**
+   * Tests whether the given object might have been added to the filter, as
+   * identified by its 32 bit {@code hashCode()}.
+   * @param key the key to look up
+   * @return {@code false} if the key has definitely never been added,
+   *         {@code true} if it might have been
+   */
+  public boolean mightContain(Object key) {
+    return mightContain((long) key.hashCode());
+  }
+
+  /**
+   * Removes all the keys from the filter.
+   * Keys concurrently added while the clear is in progress may or may not
+   * survive it.
+   */
+  public void clear() {
+    final int bytes = numBlocks * BYTES_PER_BLOCK;
+    for (int i = 0; i < bytes; i += 8) {
+      DirectLongs.setRelease(words, i, 0L);
+    }
+    Atomics.fullFence();
+  }
+}
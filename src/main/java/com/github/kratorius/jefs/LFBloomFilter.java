@@ -0,0 +1,147 @@
+package com.github.kratorius.jefs;
+
+import com.github.kratorius.jefs.internal.BitUtils;
+
+/**
+ * A lock free Bloom filter: a probabilistic set that can tell for sure that
+ * a key has never been added, but might report false positives for keys that
+ * weren't added.
+ *
+ * Keys are hashed once and the k bit positions are derived from that hash
+ * with double hashing ({@code h1 + i * h2}, as described by Kirsch and
+ * Mitzenmacher in "Less Hashing, Same Performance"). Bits are stored in a
+ * {@link LFBitSet}, so adding a key is a sequence of lock free ORs and
+ * membership queries never block.
+ *
+ * Every one of the k bits is likely to be in a different cache line: see
+ * {@link LFBlockedBloomFilter} for a variant that trades a slightly higher
+ * false positive rate for a single cache miss per operation.
+ */
+public class LFBloomFilter {
+  private final LFBitSet bitset;
+  private final int nbits;
+  private final int numHashFunctions;
+
+  /**
+   * Creates a new Bloom filter sized so that the given number of insertions
+   * will result in (roughly) the given false positive probability.
+   *
+   * @param expectedInsertions  the number of distinct keys expected to be added
+   * @param fpp                 the desired false positive probability, in the
+   *                            range {@code (0, 1)}
+   */
+  public LFBloomFilter(int expectedInsertions, double fpp) {
+    this(optimalNumOfBits(expectedInsertions, fpp),
+         optimalNumOfHashFunctions(expectedInsertions, optimalNumOfBits(expectedInsertions, fpp)));
+  }
+
+  /**
+   * Creates a new Bloom filter with the given number of bits and hash functions.
+   *
+   * @param nbits             the number of bits of the filter
+   * @param numHashFunctions  the number of bits set for each key
+   */
+  public LFBloomFilter(int nbits, int numHashFunctions) {
+    if (nbits <= 0 || numHashFunctions <= 0) {
+      throw new IllegalArgumentException();
+    }
+
+    this.nbits = nbits;
+    this.numHashFunctions = numHashFunctions;
+    this.bitset = new LFBitSet(nbits);
+  }
+
+  static int optimalNumOfBits(int expectedInsertions, double fpp) {
+    if (expectedInsertions <= 0 || fpp <= 0 || fpp >= 1) {
+      throw new IllegalArgumentException();
+    }
+
+    final double bits = -expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2));
+    if (bits > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("too many bits required");
+    }
+    return (int) Math.ceil(bits);
+  }
+
+  static int optimalNumOfHashFunctions(int expectedInsertions, int nbits) {
+    return Math.max(1, (int) Math.round((double) nbits / expectedInsertions * Math.log(2)));
+  }
+
+  /**
+   * Returns the number of bits used by this filter.
+   * @return the number of bits of the filter
+   */
+  public int bitSize() {
+    return nbits;
+  }
+
+  /**
+   * Returns the number of bits set (and checked) for every key.
+   * @return the number of hash functions
+   */
+  public int numHashFunctions() {
+    return numHashFunctions;
+  }
+
+  /**
+   * Adds the given key to the filter.
+   * @param key the key to add
+   */
+  public void add(long key) {
+    final long h1 = BitUtils.mix64(key);
+    final long h2 = BitUtils.mix64(h1) | 1;
+
+    long combined = h1;
+    for (int i = 0; i < numHashFunctions; i++) {
+      bitset.set((int) ((combined & Long.MAX_VALUE) % nbits));
+      combined += h2;
+    }
+  }
+
+  /**
+   * Adds the given object to the filter, as identified by its {@code hashCode()}.
+   * @param key the key to add
+   */
+  public void add(Object key) {
+    add((long) key.hashCode());
+  }
+
+  /**
+   * Tests whether the given key might have been added to the filter.
+   * @param key the key to look up
+   * @return {@code false} if the key has definitely never been added,
+   *         {@code true} if it might have been
+   */
+  public boolean mightContain(long key) {
+    final long h1 = BitUtils.mix64(key);
+    final long h2 = BitUtils.mix64(h1) | 1;
+
+    long combined = h1;
+    for (int i = 0; i < numHashFunctions; i++) {
+      if (!bitset.get((int) ((combined & Long.MAX_VALUE) % nbits))) {
+        return false;
+      }
+      combined += h2;
+    }
+
+    return true;
+  }
+
+  /**
+   * Tests whether the given object might have been added to the filter, as
+   * identified by its {@code hashCode()}.
+   * @param key the key to look up
+   * @return {@code false} if the key has definitely never been added,
+   *         {@code true} if it might have been
+   */
+  public boolean mightContain(Object key) {
+    return mightContain((long) key.hashCode());
+  }
+
+  /**
+   * Removes all the keys from the filter.
+   */
+  public void clear() {
+    bitset.clear();
+  }
+}
@@ -0,0 +1,128 @@
+package com.github.kratorius.jefs;
+
+import com.github.kratorius.jefs.internal.BitUtils;
+
+/**
+ * A lock free count-min sketch, useful to approximate how many times each key
+ * has been seen in a stream (e.g. to find heavy hitters) in a fixed amount of
+ * memory.
+ *
+ * The sketch is made of {@code depth} rows of {@code width} small saturating
+ * counters, all stored in a single {@link LFCounterArray}. Adding a key
+ * increments one counter per row, chosen with double hashing; the estimated
+ * count of a key is the minimum across its counters, which can overestimate
+ * but never underestimate the real count (until counters saturate).
+ *
+ * With {@code width = ceil(e / epsilon)} and {@code depth = ceil(ln(1 / delta))}
+ * the estimate exceeds the real count by more than {@code epsilon * N}, where N
+ * is the total of all the additions, with probability at most {@code delta}.
+ */
+public class LFCountMinSketch {
+  private final LFCounterArray counters;
+  private final int depth;
+  private final int width;
+
+  /**
+   * Creates a new empty count-min sketch.
+   *
+   * @param depth           the number of rows (hash functions)
+   * @param width           the number of counters in each row
+   * @param bitsPerCounter  the width of each counter, either 4, 8 or 16
+   */
+  public LFCountMinSketch(int depth, int width, int bitsPerCounter) {
+    if (depth <= 0 || width <= 0 || (long) depth * width > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException();
+    }
+
+    this.depth = depth;
+    this.width = width;
+    this.counters = new LFCounterArray(depth * width, bitsPerCounter);
+  }
+
+  /**
+   * Returns the number of rows of the sketch.
+   * @return the number of hash functions used for every key
+   */
+  public int depth() {
+    return depth;
+  }
+
+  /**
+   * Returns the number of counters in each row of the sketch.
+   * @return the width of the sketch
+   */
+  public int width() {
+    return width;
+  }
+
+  /**
+   * Increments by one the count of the given key.
+   * @param key the key to count
+   */
+  public void add(long key) {
+    add(key, 1);
+  }
+
+  /**
+   * Increments the count of the given key by the given amount.
+   * @param key   the key to count
+   * @param count the (non negative) amount to add
+   */
+  public void add(long key, int count) {
+    final long h1 = BitUtils.mix64(key);
+    final long h2 = BitUtils.mix64(h1) | 1;
+
+    long combined = h1;
+    for (int row = 0; row < depth; row++) {
+      counters.add(row * width + (int) ((combined & Long.MAX_VALUE) % width), count);
+      combined += h2;
+    }
+  }
+
+  /**
+   * Increments by one the count of the given object, as identified by its
+   * {@code hashCode()}.
+   * @param key the key to count
+   */
+  public void add(Object key) {
+    add((long) key.hashCode(), 1);
+  }
+
+  /**
+   * Returns the estimated number of times the given key has been counted.
+   * @param key the key to look up
+   * @return an estimate that is never lower than the real count, unless the
+   *         counters are saturated
+   */
+  public int estimateCount(long key) {
+    final long h1 = BitUtils.mix64(key);
+    final long h2 = BitUtils.mix64(h1) | 1;
+
+    int min = Integer.MAX_VALUE;
+    long combined = h1;
+    for (int row = 0; row < depth; row++) {
+      min = Math.min(min, counters.get(row * width + (int) ((combined & Long.MAX_VALUE) % width)));
+      combined += h2;
+    }
+
+    return min;
+  }
+
+  /**
+   * Returns the estimated number of times the given object has been counted,
+   * as identified by its {@code hashCode()}.
+   * @param key the key to look up
+   * @return an estimate that is never lower than the real count, unless the
+   *         counters are saturated
+   */
+  public int estimateCount(Object key) {
+    return estimateCount((long) key.hashCode());
+  }
+
+  /**
+   * Resets the count of every key to zero.
+   */
+  public void clear() {
+    counters.clear();
+  }
+}
@@ -0,0 +1,131 @@
+package com.github.kratorius.jefs;
+
+/**
+ * A fixed-size array of small saturating counters.
+ *
+ * Counters are 4, 8 or 16 bits wide and are packed into {@code long} words,
+ * which are updated with a CAS per word the same way {@link LFBitSet} does
+ * for bits. Compared to an {@link java.util.concurrent.atomic.AtomicLongArray}
+ * this keeps 4 to 16 times more counters in the same amount of cache.
+ *
+ * Counters never wrap around: once a counter reaches {@link #maxValue()}
+ * any further increment leaves it unchanged.
+ */
+public class LFCounterArray {
+  private final long[] words;
+  private final int length;
+  private final int bitsPerCounter;
+  private final int countersPerWordShift;
+  private final long mask;
+
+  /**
+   * Creates a new array of counters, all initially zero.
+   *
+   * @param length          the number of counters
+   * @param bitsPerCounter  the width of each counter, either 4, 8 or 16
+   */
+  public LFCounterArray(int length, int bitsPerCounter) {
+    if (length < 0) {
+      throw new IllegalArgumentException();
+    }
+    if (bitsPerCounter != 4 && bitsPerCounter != 8 && bitsPerCounter != 16) {
+      throw new IllegalArgumentException("counters must be 4, 8 or 16 bits wide");
+    }
+
+    this.length = length;
+    this.bitsPerCounter = bitsPerCounter;
+    this.countersPerWordShift = Integer.numberOfTrailingZeros(64 / bitsPerCounter);
+    this.mask = (1L << bitsPerCounter) - 1;
+    this.words = new long[(int) (((long) length + (1 << countersPerWordShift) - 1) >>> countersPerWordShift)];
+  }
+
+  private int bitShift(int index) {
+    return (index & ((1 << countersPerWordShift) - 1)) * bitsPerCounter;
+  }
+
+  private int word(int index) {
+    if (index < 0 || index >= length) {
+      throw new IndexOutOfBoundsException();
+    }
+    return index >>> countersPerWordShift;
+  }
+
+  /**
+   * Returns the number of counters in this array.
+   * @return the number of counters
+   */
+  public int length() {
+    return length;
+  }
+
+  /**
+   * Returns the largest value a counter can hold.
+   * @return the value at which counters saturate
+   */
+  public int maxValue() {
+    return (int) mask;
+  }
+
+  /**
+   * Returns the current value of the counter at the given index.
+   * @param index the index of the counter
+   * @return the value of the counter
+   */
+  public int get(int index) {
+    final long v = LongArrays.getAcquire(words, word(index));
+    return (int) ((v >>> bitShift(index)) & mask);
+  }
+
+  /**
+   * Increments by one the counter at the given index.
+   * @param index the index of the counter
+   * @return the updated value of the counter
+   */
+  public int increment(int index) {
+    return add(index, 1);
+  }
+
+  /**
+   * Adds the given amount to the counter at the given index, saturating at
+   * {@link #maxValue()}.
+   * @param index the index of the counter
+   * @param delta the (non negative) amount to add
+   * @return the updated value of the counter
+   */
+  public int add(int index, int delta) {
+    if (delta < 0) {
+      throw new IllegalArgumentException();
+    }
+
+    final int word = word(index);
+    final int bitShift = bitShift(index);
+
+    long v1, v2;
+    long counter;
+    do {
+      v1 = LongArrays.getAcquire(words, word);
+      counter = (v1 >>> bitShift) & mask;
+      if (counter == mask) {
+        // saturated, nothing to do
+        return (int) mask;
+      }
+
+      counter = Math.min(mask, counter + delta);
+      v2 = (v1 & ~(mask << bitShift)) | (counter << bitShift);
+    } while (!LongArrays.weakCompareAndSet(words, word, v1, v2));
+
+    return (int) counter;
+  }
+
+  /**
+   * Sets all the counters to zero.
+   * Counters concurrently incremented while the clear is in progress may or
+   * may not be reset.
+   */
+  public void clear() {
+    for (int i = 0; i < words.length; i++) {
+      LongArrays.setRelease(words, i, 0L);
+    }
+    Atomics.fullFence();
+  }
+}
@@ -0,0 +1,519 @@
+package com.github.kratorius.jefs;
+
+import com.github.kratorius.jefs.internal.BitUtils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock free hash map with primitive {@code long} keys.
+ *
+ * This is an open addressing, linear probing hash table in the style of Cliff
+ * Click's non-blocking hash map: keys and values are kept in two flat arrays,
+ * a key is bound to its slot by a CAS and never leaves it, and values are then
+ * updated with a CAS on the value slot alone. Removing a key leaves a
+ * tombstone in its value slot. Unlike {@link java.util.concurrent.ConcurrentHashMap}
+ * there is no node to allocate for every entry and keys are never boxed.
+ *
+ * When the table gets too full (or too crowded with tombstones) a new table
+ * is allocated and the entries are moved to it incrementally: every thread
+ * that touches the map while the copy is in progress moves a chunk of slots,
+ * so no single thread pays for the whole resize and none of them has to wait
+ * for the others. While a slot is being moved its value is boxed, which stops
+ * any further update in the old table; readers and writers that find a boxed
+ * value complete the copy of that slot and carry on in the new table.
+ *
+ * Null values are not supported.
+ *
+ * @param <V> the type of the values held in this map
+ */
+public class LFLongHashMap<V> {
+  private static final int MIN_CAPACITY = 16;
+  private static final int MAX_CAPACITY = 1 << 30;
+  private static final int REPROBE_LIMIT = 10;
+  private static final int COPY_CHUNK = 1024;
+
+  // value slot states, besides null (never set) and the actual values
+  private static final Object TOMBSTONE = new Object();
+  private static final Prime TOMBPRIME = new Prime(TOMBSTONE);
+
+  // expected values with a special meaning for putIfMatch: NO_MATCH_OLD
+  // always updates, MATCH_ANY updates only if there's a value, TOMBSTONE
+  // updates only if there's none and null (used to copy slots across tables)
+  // updates only if the slot has never been set
+  private static final Object NO_MATCH_OLD = new Object();
+  private static final Object MATCH_ANY = new Object();
+
+  private final AtomicReference<Table> table;
+  // the key 0 marks empty slots, so its value is kept on the side
+  private final AtomicReference<Object> zeroValue = new AtomicReference<>();
+
+  static final class Prime {
+    final Object value;
+
+    Prime(Object value) {
+      this.value = value;
+    }
+  }
+
+  static final class Table {
+    final long[] keys;
+    final Object[] vals;
+    final int mask;
+    // shared by all the tables a map resizes through
+    final LongAdder size;
+    // number of key slots claimed so far
+    final LongAdder slots = new LongAdder();
+    final AtomicReference<Table> next = new AtomicReference<>();
+    // the next chunk of slots to be copied, and the number of slots copied
+    final AtomicLong copyIdx = new AtomicLong();
+    final AtomicLong copyDone = new AtomicLong();
+
+    Table(int capacity, LongAdder size) {
+      this.keys = new long[capacity];
+      this.vals = new Object[capacity];
+      this.mask = capacity - 1;
+      this.size = size;
+    }
+
+    int length() {
+      return keys.length;
+    }
+  }
+
+  /**
+   * Creates an empty map with a default initial capacity.
+   */
+  public LFLongHashMap() {
+    this(MIN_CAPACITY);
+  }
+
+  /**
+   * Creates an empty map able to hold roughly the given number of entries
+   * before having to resize.
+   * @param initialCapacity the number of entries the map is expected to hold
+   */
+  public LFLongHashMap(int initialCapacity) {
+    if (initialCapacity < 0 || initialCapacity > MAX_CAPACITY / 2) {
+      throw new IllegalArgumentException();
+    }
+
+    final int capacity = Math.max(MIN_CAPACITY, BitUtils.roundToNextPowerOfTwo(initialCapacity * 2));
+    this.table = new AtomicReference<>(new Table(capacity, new LongAdder()));
+  }
+
+  private static int hash(long key) {
+    return (int) BitUtils.mix64(key);
+  }
+
+  private static int reprobeLimit(int len) {
+    return REPROBE_LIMIT + (len >> 2);
+  }
+
+  private static boolean isAbsent(Object v) {
+    return v == null || v == TOMBSTONE;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <V> V unwrap(Object v) {
+    return isAbsent(v) ? null : (V) v;
+  }
+
+  private static void checkValue(Object value) {
+    if (value == null) {
+      throw new IllegalArgumentException("null values are not supported");
+    }
+  }
+
+  /**
+   * Returns the number of entries in this map.
+   * @return the number of entries in the map
+   */
+  public int size() {
+    final long size = table.get().size.sum() + (zeroValue.get() != null ? 1 : 0);
+    return (int) Math.min(Integer.MAX_VALUE, Math.max(0, size));
+  }
+
+  /**
+   * Tests if the map is empty.
+   * @return {@code true} if the map contains no entries
+   */
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  /**
+   * Removes all the entries from the map.
+   * Entries concurrently added while the map is being cleared may or may not
+   * survive it.
+   */
+  public void clear() {
+    table.set(new Table(MIN_CAPACITY, new LongAdder()));
+    zeroValue.set(null);
+  }
+
+  /**
+   * Returns the value associated with the given key.
+   * @param key the key to look up
+   * @return the value associated with the key, or {@code null} if there is none
+   */
+  public V get(long key) {
+    if (key == 0) {
+      return unwrap(zeroValue.get());
+    }
+    return unwrap(get(table.get(), key));
+  }
+
+  private Object get(Table t, long key) {
+    final int len = t.length();
+    int idx = hash(key) & t.mask;
+    int reprobes = 0;
+
+    while (true) {
+      // the key is always set before the value
+      final long k = LongArrays.getVolatile(t.keys, idx);
+      final Object v = ObjectArrays.getVolatile(t.vals, idx);
+      if (k == 0) {
+        // a key is always added to every table along its probe sequence, so
+        // it can't be in a newer table either
+        return null;
+      }
+
+      if (k == key) {
+        if (!(v instanceof Prime)) {
+          return v;
+        }
+        // the slot is being moved to a newer table
+        return get(copySlotAndCheck(t, idx, true), key);
+      }
+
+      if (++reprobes >= reprobeLimit(len)) {
+        // the probe sequence is full, the key could only have been added to
+        // a newer table
+        final Table next = t.next.get();
+        return next == null ? null : get(helpCopy(next), key);
+      }
+
+      idx = (idx + 1) & t.mask;
+    }
+  }
+
+  /**
+   * Tests whether the map contains the given key.
+   * @param key the key to look up
+   * @return {@code true} if there is a value associated with the key
+   */
+  public boolean containsKey(long key) {
+    return get(key) != null;
+  }
+
+  /**
+   * Associates the given value with the given key.
+   * @param key   the key
+   * @param value the value
+   * @return the value previously associated with the key, or {@code null} if
+   *         there was none
+   */
+  public V put(long key, V value) {
+    checkValue(value);
+    return unwrap(putIfMatch(key, value, NO_MATCH_OLD));
+  }
+
+  /**
+   * Associates the given value with the given key, only if the key isn't
+   * associated with a value yet.
+   * @param key   the key
+   * @param value the value
+   * @return the value currently associated with the key, or {@code null} if
+   *         there was none and the given value has been added
+   */
+  public V putIfAbsent(long key, V value) {
+    checkValue(value);
+    return unwrap(putIfMatch(key, value, TOMBSTONE));
+  }
+
+  /**
+   * Replaces the value associated with the given key, only if the key is
+   * already associated with a value.
+   * @param key   the key
+   * @param value the new value
+   * @return the value previously associated with the key, or {@code null} if
+   *         there was none and nothing has been changed
+   */
+  public V replace(long key, V value) {
+    checkValue(value);
+    return unwrap(putIfMatch(key, value, MATCH_ANY));
+  }
+
+  /**
+   * Replaces the value associated with the given key, only if it's currently
+   * equal to the expected one.
+   * @param key      the key
+   * @param expected the value expected to be associated with the key
+   * @param value    the new value
+   * @return {@code true} if the value has been replaced
+   */
+  public boolean replace(long key, V expected, V value) {
+    checkValue(expected);
+    checkValue(value);
+    final Object prev = putIfMatch(key, value, expected);
+    return !isAbsent(prev) && expected.equals(prev);
+  }
+
+  /**
+   * Removes the value associated with the given key.
+   * @param key the key
+   * @return the value previously associated with the key, or {@code null} if
+   *         there was none
+   */
+  public V remove(long key) {
+    return unwrap(putIfMatch(key, TOMBSTONE, NO_MATCH_OLD));
+  }
+
+  /**
+   * Removes the value associated with the given key, only if it's currently
+   * equal to the expected one.
+   * @param key      the key
+   * @param expected the value expected to be associated with the key
+   * @return {@code true} if the value has been removed
+   */
+  public boolean remove(long key, V expected) {
+    checkValue(expected);
+    final Object prev = putIfMatch(key, TOMBSTONE, expected);
+    return !isAbsent(prev) && expected.equals(prev);
+  }
+
+  // whether a value slot holding v can be updated, given the expected value
+  private static boolean matches(Object v, Object expVal) {
+    return expVal == NO_MATCH_OLD
+        || v == expVal
+        || (expVal == MATCH_ANY && !isAbsent(v))
+        || (expVal == TOMBSTONE && v == null)
+        || (expVal != null && expVal != MATCH_ANY && expVal != TOMBSTONE && expVal.equals(v));
+  }
+
+  private Object putIfMatch(long key, Object putVal, Object expVal) {
+    if (key != 0) {
+      return putIfMatch(table.get(), key, putVal, expVal);
+    }
+
+    while (true) {
+      final Object v = zeroValue.get();
+      if (!matches(v, expVal)) {
+        return v;
+      }
+      if (zeroValue.compareAndSet(v, putVal == TOMBSTONE ? null : putVal)) {
+        return v;
+      }
+    }
+  }
+
+  private Object putIfMatch(Table t, long key, Object putVal, Object expVal) {
+    final int len = t.length();
+    int idx = hash(key) & t.mask;
+    int reprobes = 0;
+
+    long k;
+    Object v;
+    while (true) {
+      v = ObjectArrays.getVolatile(t.vals, idx);
+      k = LongArrays.getVolatile(t.keys, idx);
+      if (k == 0) {
+        if (putVal == TOMBSTONE) {
+          // removing a key that has never been in this table
+          return TOMBSTONE;
+        }
+        if (LongArrays.compareAndSet(t.keys, idx, 0, key)) {
+          t.slots.increment();
+          break;
+        }
+        k = LongArrays.getVolatile(t.keys, idx);
+      }
+
+      if (k == key) {
+        break;
+      }
+
+      if (++reprobes >= reprobeLimit(len)) {
+        // no room left along the probe sequence, move on to a bigger table
+        final Table next = resize(t);
+        if (expVal != null) {
+          helpCopy(next);
+        }
+        return putIfMatch(next, key, putVal, expVal);
+      }
+
+      idx = (idx + 1) & t.mask;
+    }
+
+    // the slot belongs to the key now
+    if (putVal == v) {
+      return v;
+    }
+
+    Table next = t.next.get();
+    if (next == null && ((v == null && tableFull(t, reprobes)) || v instanceof Prime)) {
+      next = resize(t);
+    }
+    if (next != null) {
+      // a resize is in progress: move this slot and update the newer table
+      return putIfMatch(copySlotAndCheck(t, idx, expVal != null), key, putVal, expVal);
+    }
+
+    while (true) {
+      if (!matches(v, expVal)) {
+        return v;
+      }
+
+      if (ObjectArrays.compareAndSet(t.vals, idx, v, putVal)) {
+        // copies across tables don't change the size of the map
+        if (expVal != null) {
+          if (isAbsent(v) && putVal != TOMBSTONE) {
+            t.size.increment();
+          } else if (!isAbsent(v) && putVal == TOMBSTONE) {
+            t.size.decrement();
+          }
+        }
+        return (v == null && expVal != null) ? TOMBSTONE : v;
+      }
+
+      v = ObjectArrays.getVolatile(t.vals, idx);
+      if (v instanceof Prime) {
+        return putIfMatch(copySlotAndCheck(t, idx, expVal != null), key, putVal, expVal);
+      }
+    }
+  }
+
+  private static boolean tableFull(Table t, int reprobes) {
+    // counting the claimed slots isn't free, only bother on long probes
+    return reprobes >= REPROBE_LIMIT
+        && (reprobes >= reprobeLimit(t.length()) || t.slots.sum() >= (t.length() >> 1));
+  }
+
+  private Table resize(Table t) {
+    Table next = t.next.get();
+    if (next != null) {
+      return next;
+    }
+
+    // grow when at least a quarter of the table is live, otherwise the table
+    // is mostly made of tombstones and a copy of the same size will do
+    final int len = t.length();
+    final long size = t.size.sum();
+    int newLen = len;
+    if (size >= (len >> 2)) {
+      newLen = len << 1;
+      if (size >= (len >> 1)) {
+        newLen = len << 2;
+      }
+    }
+    newLen = Math.min(newLen, MAX_CAPACITY);
+
+    // someone else may have been faster, don't allocate a table for nothing
+    next = t.next.get();
+    if (next != null) {
+      return next;
+    }
+
+    final Table newTable = new Table(newLen, t.size);
+    return t.next.compareAndSet(null, newTable) ? newTable : t.next.get();
+  }
+
+  // copies a chunk of the top level table, if it's being resized, and
+  // returns the given table
+  private Table helpCopy(Table helper) {
+    final Table top = table.get();
+    if (top.next.get() != null) {
+      helpCopy(top, false);
+    }
+    return helper;
+  }
+
+  private void helpCopy(Table old, boolean copyAll) {
+    final Table next = old.next.get();
+    final int len = old.length();
+    final int chunk = Math.min(len, COPY_CHUNK);
+
+    // chunks are claimed up to twice around the table; after that the copy
+    // must be stuck on slow threads, and this one copies everything itself
+    boolean panic = false;
+    long copyIdx = 0;
+    while (old.copyDone.get() < len) {
+      if (!panic) {
+        copyIdx = old.copyIdx.get();
+        while (copyIdx < (len << 1) && !old.copyIdx.compareAndSet(copyIdx, copyIdx + chunk)) {
+          copyIdx = old.copyIdx.get();
+        }
+        panic = copyIdx >= (len << 1);
+      }
+
+      int work = 0;
+      for (int i = 0; i < chunk; i++) {
+        if (copySlot(old, (int) ((copyIdx + i) & (len - 1)), next)) {
+          work++;
+        }
+      }
+      if (work > 0) {
+        copyCheckAndPromote(old, next, work);
+      }
+
+      copyIdx += chunk;
+      if (!copyAll && !panic) {
+        return;
+      }
+    }
+
+    copyCheckAndPromote(old, next, 0);
+  }
+
+  private Table copySlotAndCheck(Table old, int idx, boolean shouldHelp) {
+    final Table next = old.next.get();
+    if (copySlot(old, idx, next)) {
+      copyCheckAndPromote(old, next, 1);
+    }
+    return shouldHelp ? helpCopy(next) : next;
+  }
+
+  private void copyCheckAndPromote(Table old, Table next, int work) {
+    final long done = work > 0 ? old.copyDone.addAndGet(work) : old.copyDone.get();
+    if (done == old.length() && table.get() == old) {
+      // every slot has been moved, the newer table can take over
+      table.compareAndSet(old, next);
+    }
+  }
+
+  // moves a slot to the newer table, returning true only for the one thread
+  // that completed the move
+  private boolean copySlot(Table old, int idx, Table next) {
+    // box the value so that it can't be updated any longer in this table
+    Object v = ObjectArrays.getVolatile(old.vals, idx);
+    while (!(v instanceof Prime)) {
+      final Prime box = isAbsent(v) ? TOMBPRIME : new Prime(v);
+      if (ObjectArrays.compareAndSet(old.vals, idx, v, box)) {
+        if (box == TOMBPRIME) {
+          // nothing to copy
+          return true;
+        }
+        v = box;
+        break;
+      }
+      v = ObjectArrays.getVolatile(old.vals, idx);
+    }
+
+    if (v == TOMBPRIME) {
+      // already moved
+      return false;
+    }
+
+    // copy the value to the newer table, unless it's already there, and then
+    // mark the slot as dead for good
+    final long key = LongArrays.getVolatile(old.keys, idx);
+    final boolean copied = putIfMatch(next, key, ((Prime) v).value, null) == null;
+    while (v != TOMBPRIME && !ObjectArrays.compareAndSet(old.vals, idx, v, TOMBPRIME)) {
+      v = ObjectArrays.getVolatile(old.vals, idx);
+    }
+
+    return copied;
+  }
+}
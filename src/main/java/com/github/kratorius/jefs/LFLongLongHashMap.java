@@ -0,0 +1,513 @@
+package com.github.kratorius.jefs;
+
+import com.github.kratorius.jefs.internal.BitUtils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock free hash map with primitive {@code long} keys and values.
+ *
+ * This works exactly like {@link LFLongHashMap}, except that the values are
+ * kept in a {@code long[]} as well, so the map never allocates anything but its
+ * tables. The state of a value slot (never set, removed, or boxed while being
+ * moved to a bigger table) is stored in the two lowest bits of the slot itself,
+ * which is what allows it to be updated with a single CAS: values are therefore
+ * limited to 62 bits, between {@link #MIN_VALUE} and {@link #MAX_VALUE}.
+ *
+ * Methods return {@link #NO_VALUE} when there's no value associated with a key.
+ */
+public class LFLongLongHashMap {
+  /**
+   * The smallest value that can be stored in the map.
+   */
+  public static final long MIN_VALUE = -(1L << 61);
+
+  /**
+   * The largest value that can be stored in the map.
+   */
+  public static final long MAX_VALUE = (1L << 61) - 1;
+
+  /**
+   * Returned in place of a value when a key has no value associated with it.
+   */
+  public static final long NO_VALUE = Long.MIN_VALUE;
+
+  private static final int MIN_CAPACITY = 16;
+  private static final int MAX_CAPACITY = 1 << 30;
+  private static final int REPROBE_LIMIT = 10;
+  private static final int COPY_CHUNK = 1024;
+
+  // A value slot holds (value << 2) | LIVE for the actual values, with PRIME
+  // set as well when the slot is being moved to a newer table. The words
+  // without LIVE are the special states.
+  private static final long LIVE = 1;
+  private static final long PRIME = 2;
+  private static final long EMPTY = 0;
+  private static final long TOMBSTONE = 4;
+  private static final long TOMBPRIME = PRIME;
+
+  // expected values with a special meaning for putIfMatch, never stored: see
+  // LFLongHashMap (EMPTY here plays the role of null for table copies)
+  private static final long NO_MATCH_OLD = (1 << 2) | PRIME;
+  private static final long MATCH_ANY = (2 << 2) | PRIME;
+
+  private final AtomicReference<Table> table;
+  // the key 0 marks empty slots, so its value is kept on the side
+  private final AtomicLong zeroValue = new AtomicLong(EMPTY);
+
+  static final class Table {
+    final long[] keys;
+    final long[] vals;
+    final int mask;
+    // shared by all the tables a map resizes through
+    final LongAdder size;
+    // number of key slots claimed so far
+    final LongAdder slots = new LongAdder();
+    final AtomicReference<Table> next = new AtomicReference<>();
+    // the next chunk of slots to be copied, and the number of slots copied
+    final AtomicLong copyIdx = new AtomicLong();
+    final AtomicLong copyDone = new AtomicLong();
+
+    Table(int capacity, LongAdder size) {
+      this.keys = new long[capacity];
+      this.vals = new long[capacity];
+      this.mask = capacity - 1;
+      this.size = size;
+    }
+
+    int length() {
+      return keys.length;
+    }
+  }
+
+  /**
+   * Creates an empty map with a default initial capacity.
+   */
+  public LFLongLongHashMap() {
+    this(MIN_CAPACITY);
+  }
+
+  /**
+   * Creates an empty map able to hold roughly the given number of entries
+   * before having to resize.
+   * @param initialCapacity the number of entries the map is expected to hold
+   */
+  public LFLongLongHashMap(int initialCapacity) {
+    if (initialCapacity < 0 || initialCapacity > MAX_CAPACITY / 2) {
+      throw new IllegalArgumentException();
+    }
+
+    final int capacity = Math.max(MIN_CAPACITY, BitUtils.roundToNextPowerOfTwo(initialCapacity * 2));
+    this.table = new AtomicReference<>(new Table(capacity, new LongAdder()));
+  }
+
+  private static int hash(long key) {
+    return (int) BitUtils.mix64(key);
+  }
+
+  private static int reprobeLimit(int len) {
+    return REPROBE_LIMIT + (len >> 2);
+  }
+
+  private static boolean isPrime(long v) {
+    return (v & PRIME) != 0;
+  }
+
+  private static boolean isAbsent(long v) {
+    return (v & LIVE) == 0;
+  }
+
+  private static long encode(long value) {
+    if (value < MIN_VALUE || value > MAX_VALUE) {
+      throw new IllegalArgumentException("values must fit in 62 bits");
+    }
+    return (value << 2) | LIVE;
+  }
+
+  private static long decode(long v) {
+    return isAbsent(v) ? NO_VALUE : v >> 2;
+  }
+
+  /**
+   * Returns the number of entries in this map.
+   * @return the number of entries in the map
+   */
+  public int size() {
+    final long size = table.get().size.sum() + (zeroValue.get() != EMPTY ? 1 : 0);
+    return (int) Math.min(Integer.MAX_VALUE, Math.max(0, size));
+  }
+
+  /**
+   * Tests if the map is empty.
+   * @return {@code true} if the map contains no entries
+   */
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  /**
+   * Removes all the entries from the map.
+   * Entries concurrently added while the map is being cleared may or may not
+   * survive it.
+   */
+  public void clear() {
+    table.set(new Table(MIN_CAPACITY, new LongAdder()));
+    zeroValue.set(EMPTY);
+  }
+
+  /**
+   * Returns the value associated with the given key.
+   * @param key the key to look up
+   * @return the value associated with the key, or {@link #NO_VALUE} if there
+   *         is none
+   */
+  public long get(long key) {
+    if (key == 0) {
+      return decode(zeroValue.get());
+    }
+    return decode(get(table.get(), key));
+  }
+
+  private long get(Table t, long key) {
+    final int len = t.length();
+    int idx = hash(key) & t.mask;
+    int reprobes = 0;
+
+    while (true) {
+      // the key is always set before the value
+      final long k = LongArrays.getVolatile(t.keys, idx);
+      final long v = LongArrays.getVolatile(t.vals, idx);
+      if (k == 0) {
+        return EMPTY;
+      }
+
+      if (k == key) {
+        if (!isPrime(v)) {
+          return v;
+        }
+        // the slot is being moved to a newer table
+        return get(copySlotAndCheck(t, idx, true), key);
+      }
+
+      if (++reprobes >= reprobeLimit(len)) {
+        final Table next = t.next.get();
+        return next == null ? EMPTY : get(helpCopy(next), key);
+      }
+
+      idx = (idx + 1) & t.mask;
+    }
+  }
+
+  /**
+   * Tests whether the map contains the given key.
+   * @param key the key to look up
+   * @return {@code true} if there is a value associated with the key
+   */
+  public boolean containsKey(long key) {
+    return get(key) != NO_VALUE;
+  }
+
+  /**
+   * Associates the given value with the given key.
+   * @param key   the key
+   * @param value the value, between {@link #MIN_VALUE} and {@link #MAX_VALUE}
+   * @return the value previously associated with the key, or {@link #NO_VALUE}
+   *         if there was none
+   */
+  public long put(long key, long value) {
+    return decode(putIfMatch(key, encode(value), NO_MATCH_OLD));
+  }
+
+  /**
+   * Associates the given value with the given key, only if the key isn't
+   * associated with a value yet.
+   * @param key   the key
+   * @param value the value, between {@link #MIN_VALUE} and {@link #MAX_VALUE}
+   * @return the value currently associated with the key, or {@link #NO_VALUE}
+   *         if there was none and the given value has been added
+   */
+  public long putIfAbsent(long key, long value) {
+    return decode(putIfMatch(key, encode(value), TOMBSTONE));
+  }
+
+  /**
+   * Replaces the value associated with the given key, only if the key is
+   * already associated with a value.
+   * @param key   the key
+   * @param value the new value, between {@link #MIN_VALUE} and {@link #MAX_VALUE}
+   * @return the value previously associated with the key, or {@link #NO_VALUE}
+   *         if there was none and nothing has been changed
+   */
+  public long replace(long key, long value) {
+    return decode(putIfMatch(key, encode(value), MATCH_ANY));
+  }
+
+  /**
+   * Replaces the value associated with the given key, only if it's currently
+   * equal to the expected one.
+   * @param key      the key
+   * @param expected the value expected to be associated with the key
+   * @param value    the new value, between {@link #MIN_VALUE} and {@link #MAX_VALUE}
+   * @return {@code true} if the value has been replaced
+   */
+  public boolean replace(long key, long expected, long value) {
+    final long exp = encode(expected);
+    return putIfMatch(key, encode(value), exp) == exp;
+  }
+
+  /**
+   * Removes the value associated with the given key.
+   * @param key the key
+   * @return the value previously associated with the key, or {@link #NO_VALUE}
+   *         if there was none
+   */
+  public long remove(long key) {
+    return decode(putIfMatch(key, TOMBSTONE, NO_MATCH_OLD));
+  }
+
+  /**
+   * Removes the value associated with the given key, only if it's currently
+   * equal to the expected one.
+   * @param key      the key
+   * @param expected the value expected to be associated with the key
+   * @return {@code true} if the value has been removed
+   */
+  public boolean remove(long key, long expected) {
+    final long exp = encode(expected);
+    return putIfMatch(key, TOMBSTONE, exp) == exp;
+  }
+
+  // whether a value slot holding v can be updated, given the expected value
+  private static boolean matches(long v, long expVal) {
+    return expVal == NO_MATCH_OLD
+        || v == expVal
+        || (expVal == MATCH_ANY && !isAbsent(v))
+        || (expVal == TOMBSTONE && v == EMPTY);
+  }
+
+  private long putIfMatch(long key, long putVal, long expVal) {
+    if (key != 0) {
+      return putIfMatch(table.get(), key, putVal, expVal);
+    }
+
+    while (true) {
+      final long v = zeroValue.get();
+      if (!matches(v, expVal)) {
+        return v;
+      }
+      if (zeroValue.compareAndSet(v, putVal == TOMBSTONE ? EMPTY : putVal)) {
+        return v;
+      }
+    }
+  }
+
+  private long putIfMatch(Table t, long key, long putVal, long expVal) {
+    final int len = t.length();
+    int idx = hash(key) & t.mask;
+    int reprobes = 0;
+
+    long k;
+    long v;
+    while (true) {
+      v = LongArrays.getVolatile(t.vals, idx);
+      k = LongArrays.getVolatile(t.keys, idx);
+      if (k == 0) {
+        if (putVal == TOMBSTONE) {
+          // removing a key that has never been in this table
+          return TOMBSTONE;
+        }
+        if (LongArrays.compareAndSet(t.keys, idx, 0, key)) {
+          t.slots.increment();
+          break;
+        }
+        k = LongArrays.getVolatile(t.keys, idx);
+      }
+
+      if (k == key) {
+        break;
+      }
+
+      if (++reprobes >= reprobeLimit(len)) {
+        // no room left along the probe sequence, move on to a bigger table
+        final Table next = resize(t);
+        if (expVal != EMPTY) {
+          helpCopy(next);
+        }
+        return putIfMatch(next, key, putVal, expVal);
+      }
+
+      idx = (idx + 1) & t.mask;
+    }
+
+    // the slot belongs to the key now
+    if (putVal == v) {
+      return v;
+    }
+
+    Table next = t.next.get();
+    if (next == null && ((v == EMPTY && tableFull(t, reprobes)) || isPrime(v))) {
+      next = resize(t);
+    }
+    if (next != null) {
+      // a resize is in progress: move this slot and update the newer table
+      return putIfMatch(copySlotAndCheck(t, idx, expVal != EMPTY), key, putVal, expVal);
+    }
+
+    while (true) {
+      if (!matches(v, expVal)) {
+        return v;
+      }
+
+      if (LongArrays.compareAndSet(t.vals, idx, v, putVal)) {
+        // copies across tables don't change the size of the map
+        if (expVal != EMPTY) {
+          if (isAbsent(v) && putVal != TOMBSTONE) {
+            t.size.increment();
+          } else if (!isAbsent(v) && putVal == TOMBSTONE) {
+            t.size.decrement();
+          }
+        }
+        return (v == EMPTY && expVal != EMPTY) ? TOMBSTONE : v;
+      }
+
+      v = LongArrays.getVolatile(t.vals, idx);
+      if (isPrime(v)) {
+        return putIfMatch(copySlotAndCheck(t, idx, expVal != EMPTY), key, putVal, expVal);
+      }
+    }
+  }
+
+  private static boolean tableFull(Table t, int reprobes) {
+    // counting the claimed slots isn't free, only bother on long probes
+    return reprobes >= REPROBE_LIMIT
+        && (reprobes >= reprobeLimit(t.length()) || t.slots.sum() >= (t.length() >> 1));
+  }
+
+  private Table resize(Table t) {
+    Table next = t.next.get();
+    if (next != null) {
+      return next;
+    }
+
+    // grow when at least a quarter of the table is live, otherwise the table
+    // is mostly made of tombstones and a copy of the same size will do
+    final int len = t.length();
+    final long size = t.size.sum();
+    int newLen = len;
+    if (size >= (len >> 2)) {
+      newLen = len << 1;
+      if (size >= (len >> 1)) {
+        newLen = len << 2;
+      }
+    }
+    newLen = Math.min(newLen, MAX_CAPACITY);
+
+    // someone else may have been faster, don't allocate a table for nothing
+    next = t.next.get();
+    if (next != null) {
+      return next;
+    }
+
+    final Table newTable = new Table(newLen, t.size);
+    return t.next.compareAndSet(null, newTable) ? newTable : t.next.get();
+  }
+
+  // copies a chunk of the top level table, if it's being resized, and
+  // returns the given table
+  private Table helpCopy(Table helper) {
+    final Table top = table.get();
+    if (top.next.get() != null) {
+      helpCopy(top, false);
+    }
+    return helper;
+  }
+
+  private void helpCopy(Table old, boolean copyAll) {
+    final Table next = old.next.get();
+    final int len = old.length();
+    final int chunk = Math.min(len, COPY_CHUNK);
+
+    // chunks are claimed up to twice around the table; after that the copy
+    // must be stuck on slow threads, and this one copies everything itself
+    boolean panic = false;
+    long copyIdx = 0;
+    while (old.copyDone.get() < len) {
+      if (!panic) {
+        copyIdx = old.copyIdx.get();
+        while (copyIdx < (len << 1) && !old.copyIdx.compareAndSet(copyIdx, copyIdx + chunk)) {
+          copyIdx = old.copyIdx.get();
+        }
+        panic = copyIdx >= (len << 1);
+      }
+
+      int work = 0;
+      for (int i = 0; i < chunk; i++) {
+        if (copySlot(old, (int) ((copyIdx + i) & (len - 1)), next)) {
+          work++;
+        }
+      }
+      if (work > 0) {
+        copyCheckAndPromote(old, next, work);
+      }
+
+      copyIdx += chunk;
+      if (!copyAll && !panic) {
+        return;
+      }
+    }
+
+    copyCheckAndPromote(old, next, 0);
+  }
+
+  private Table copySlotAndCheck(Table old, int idx, boolean shouldHelp) {
+    final Table next = old.next.get();
+    if (copySlot(old, idx, next)) {
+      copyCheckAndPromote(old, next, 1);
+    }
+    return shouldHelp ? helpCopy(next) : next;
+  }
+
+  private void copyCheckAndPromote(Table old, Table next, int work) {
+    final long done = work > 0 ? old.copyDone.addAndGet(work) : old.copyDone.get();
+    if (done == old.length() && table.get() == old) {
+      // every slot has been moved, the newer table can take over
+      table.compareAndSet(old, next);
+    }
+  }
+
+  // moves a slot to the newer table, returning true only for the one thread
+  // that completed the move
+  private boolean copySlot(Table old, int idx, Table next) {
+    // box the value so that it can't be updated any longer in this table
+    long v = LongArrays.getVolatile(old.vals, idx);
+    while (!isPrime(v)) {
+      final long box = isAbsent(v) ? TOMBPRIME : v | PRIME;
+      if (LongArrays.compareAndSet(old.vals, idx, v, box)) {
+        if (box == TOMBPRIME) {
+          // nothing to copy
+          return true;
+        }
+        v = box;
+        break;
+      }
+      v = LongArrays.getVolatile(old.vals, idx);
+    }
+
+    if (v == TOMBPRIME) {
+      // already moved
+      return false;
+    }
+
+    // copy the value to the newer table, unless it's already there, and then
+    // mark the slot as dead for good
+    final long key = LongArrays.getVolatile(old.keys, idx);
+    final boolean copied = putIfMatch(next, key, v & ~PRIME, EMPTY) == EMPTY;
+    while (v != TOMBPRIME && !LongArrays.compareAndSet(old.vals, idx, v, TOMBPRIME)) {
+      v = LongArrays.getVolatile(old.vals, idx);
+    }
+
+    return copied;
+  }
+}
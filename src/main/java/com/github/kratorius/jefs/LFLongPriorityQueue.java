@@ -0,0 +1,284 @@
+package com.github.kratorius.jefs;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock free, unbounded priority queue of objects ordered by a primitive
+ * {@code long} priority, lowest first.
+ *
+ * This is the skip list based queue by Linden and Jonsson ("A Skiplist-Based
+ * Concurrent Priority Queue with Minimal Memory Contention"). Nodes are kept
+ * sorted on the bottom level of a skip list; {@code deleteMin} walks it from the
+ * head and logically deletes the first node it can, by marking the link that
+ * leads to it. Deleted nodes thus always form a prefix of the list, and they
+ * are only unlinked in batches, once the prefix grows longer than a few
+ * dozen nodes: deleting threads mostly touch different nodes rather than all
+ * fighting over the head of the list, as they would with a lock or a single
+ * CAS on the first node.
+ *
+ * Elements with the same priority are returned in no particular order.
+ *
+ * @param <E> the type of elements held in this queue
+ */
+public class LFLongPriorityQueue<E> {
+  private static final int MAX_LEVEL = 32;
+  // deleted nodes are unlinked once a deleteMin has to skip this many of them
+  private static final int BOUND = 32;
+
+  private final Node<E> head = new Node<>(Long.MIN_VALUE, null, MAX_LEVEL);
+  private final LongAdder size = new LongAdder();
+  // highest level of the nodes inserted so far, searches start from there
+  // rather than from the top of the head. It's only a hint: racing inserts
+  // can leave it lower than it should be, which just makes searches slower.
+  private volatile int maxLevel = 1;
+
+  static final class Node<E> {
+    final long priority;
+    final E item;
+    // links to the following nodes on each level: the one on the bottom level
+    // is replaced by the marker of the following node once that's deleted
+    final Object[] next;
+    final Marker marker;
+    // true until the node has been linked on all its levels; until then it
+    // must not be unlinked from the bottom level
+    volatile boolean inserting = true;
+
+    Node(long priority, E item, int levels) {
+      this.priority = priority;
+      this.item = item;
+      this.next = new Object[levels];
+      this.marker = new Marker(this);
+    }
+  }
+
+  // a marked link to a node, meaning that the node has been deleted
+  static final class Marker {
+    final Node<?> node;
+
+    Marker(Node<?> node) {
+      this.node = node;
+    }
+  }
+
+  /**
+   * Creates an empty priority queue.
+   */
+  public LFLongPriorityQueue() {
+    head.inserting = false;
+  }
+
+  private static boolean isMarked(Object link) {
+    return link instanceof Marker;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <E> Node<E> unmark(Object link) {
+    return (Node<E>) (link instanceof Marker ? ((Marker) link).node : link);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <E> Node<E>[] nodes(int length) {
+    return (Node<E>[]) new Node<?>[length];
+  }
+
+  // whether the node following this one on the bottom level has been deleted,
+  // which means that this one has been deleted as well
+  private static boolean hasDeletedSuccessor(Node<?> node) {
+    return isMarked(ObjectArrays.getVolatile(node.next, 0));
+  }
+
+  private static int randomLevel() {
+    final int r = ThreadLocalRandom.current().nextInt();
+    return Math.min(MAX_LEVEL, 1 + Integer.numberOfTrailingZeros(r));
+  }
+
+  /**
+   * Returns the number of elements in the queue. The count is only accurate
+   * when there are no concurrent updates.
+   * @return the number of elements in the queue
+   */
+  public int size() {
+    return (int) Math.max(0, Math.min(Integer.MAX_VALUE, size.sum()));
+  }
+
+  /**
+   * Tests if the queue is empty.
+   * @return {@code true} if there are no elements left to delete
+   */
+  public boolean isEmpty() {
+    Node<E> x = head;
+    while (true) {
+      final Object link = ObjectArrays.getVolatile(x.next, 0);
+      if (link == null) {
+        return true;
+      }
+      if (!isMarked(link)) {
+        return false;
+      }
+      x = unmark(link);
+    }
+  }
+
+  // finds the predecessors and successors of the given priority on every
+  // level below top, skipping all the deleted nodes on the bottom level;
+  // returns the last deleted node it went through
+  private Node<E> locatePreds(long priority, int top, Node<E>[] preds, Node<E>[] succs) {
+    Node<E> x = head;
+    Node<E> del = null;
+    int i = top - 1;
+
+    while (i >= 0) {
+      final Object link = ObjectArrays.getVolatile(x.next, i);
+      final boolean deleted = isMarked(link);
+      final Node<E> xNext = unmark(link);
+
+      if (xNext != null && (xNext.priority < priority || hasDeletedSuccessor(xNext) || (i == 0 && deleted))) {
+        if (i == 0 && deleted) {
+          del = xNext;
+        }
+        x = xNext;
+      } else {
+        preds[i] = x;
+        succs[i] = xNext;
+        i--;
+      }
+    }
+
+    return del;
+  }
+
+  /**
+   * Adds an element to the queue.
+   * @param priority the priority of the element, lower values come first
+   * @param item     the element to add
+   */
+  public void insert(long priority, E item) {
+    if (item == null) {
+      throw new IllegalArgumentException();
+    }
+
+    final int levels = randomLevel();
+    final Node<E> node = new Node<>(priority, item, levels);
+    int top = maxLevel;
+    if (levels > top) {
+      maxLevel = top = levels;
+    }
+    final Node<E>[] preds = nodes(top);
+    final Node<E>[] succs = nodes(top);
+
+    Node<E> del;
+    do {
+      del = locatePreds(priority, top, preds, succs);
+      node.next[0] = succs[0];
+    } while (!ObjectArrays.compareAndSet(preds[0].next, 0, succs[0], node));
+    size.increment();
+
+    // the node is in the queue, the upper levels only make it faster to find
+    int i = 1;
+    while (i < levels) {
+      node.next[i] = succs[i];
+      if (hasDeletedSuccessor(node)
+          || (succs[i] != null && hasDeletedSuccessor(succs[i]))
+          || (del != null && del == succs[i])) {
+        // deleted already, or about to be unlinked: don't bother
+        break;
+      }
+
+      if (ObjectArrays.compareAndSet(preds[i].next, i, succs[i], node)) {
+        i++;
+      } else {
+        del = locatePreds(priority, top, preds, succs);
+        if (succs[0] != node) {
+          break;
+        }
+      }
+    }
+
+    node.inserting = false;
+  }
+
+  /**
+   * Removes and returns the element with the lowest priority.
+   * @return the element with the lowest priority, or {@code null} if the queue
+   *         is empty
+   */
+  public E deleteMin() {
+    final Object observedHead = ObjectArrays.getVolatile(head.next, 0);
+    Node<E> newHead = null;
+    Node<E> x = head;
+    int offset = 0;
+
+    Object link;
+    do {
+      offset++;
+      link = ObjectArrays.getVolatile(x.next, 0);
+      if (link == null) {
+        return null;
+      }
+      if (newHead == null && x.inserting) {
+        // nodes still being inserted must not be unlinked
+        newHead = x;
+      }
+      if (isMarked(link)) {
+        // already deleted, move on to the next one
+        x = unmark(link);
+        continue;
+      }
+
+      link = fetchAndMark(x);
+      x = unmark(link);
+    } while (isMarked(link));
+    size.decrement();
+
+    final E item = x.item;
+    if (offset <= BOUND) {
+      return item;
+    }
+
+    // unlink the deleted prefix in one go, leaving its last node in place
+    if (newHead == null) {
+      newHead = x;
+    }
+    if (ObjectArrays.compareAndSet(head.next, 0, observedHead, newHead.marker)) {
+      restructure();
+    }
+
+    return item;
+  }
+
+  // marks the bottom level link of the given node, deleting the node after it,
+  // unless it's already marked; returns the previous link
+  private static Object fetchAndMark(Node<?> node) {
+    while (true) {
+      final Object link = ObjectArrays.getVolatile(node.next, 0);
+      if (isMarked(link) || ObjectArrays.compareAndSet(node.next, 0, link, unmark(link).marker)) {
+        return link;
+      }
+    }
+  }
+
+  // moves the upper level links of the head past the deleted nodes
+  private void restructure() {
+    Node<E> pred = head;
+    int i = MAX_LEVEL - 1;
+
+    while (i > 0) {
+      final Node<E> h = unmark(ObjectArrays.getVolatile(head.next, i));
+      if (h == null || !hasDeletedSuccessor(h)) {
+        i--;
+        continue;
+      }
+
+      Node<E> cur = unmark(ObjectArrays.getVolatile(pred.next, i));
+      while (cur != null && hasDeletedSuccessor(cur)) {
+        pred = cur;
+        cur = unmark(ObjectArrays.getVolatile(pred.next, i));
+      }
+
+      if (ObjectArrays.compareAndSet(head.next, i, h, ObjectArrays.getVolatile(pred.next, i))) {
+        i--;
+      }
+    }
+  }
+}
@@ -0,0 +1,222 @@
+package com.github.kratorius.jefs;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Represents a vector of a fixed number of bits stored outside of the Java heap.
+ * This is the off-heap counterpart of {@link LFBitSet}: bits are addressed with
+ * {@code long} indices, so it can hold well over 2^31 bits, and the words are
+ * kept in direct or memory-mapped regions that the garbage collector never
+ * has to scan. Words are updated with the same CAS-per-word scheme.
+ *
+ * When mapped to a file, the content of the bit set survives restarts of the
+ * process. Words are stored in the native byte order of the platform, so the
+ * file is only meant to be reopened on the same architecture.
+ */
+public class LFOffHeapBitSet {
+  // A single ByteBuffer can't be larger than 2^31 - 1 bytes, so the words are
+  // split into regions of 2^27 words (1GB) each.
+  private static final int REGION_SHIFT = 27;
+  private static final long REGION_MASK = (1L << REGION_SHIFT) - 1;
+
+  private static final byte[] ZEROES = new byte[8192];
+
+  private final ByteBuffer[] regions;
+  private final long nbits;
+
+  private LFOffHeapBitSet(long nbits, ByteBuffer[] regions) {
+    this.nbits = nbits;
+    this.regions = regions;
+  }
+
+  /**
+   * Creates a new bit set backed by direct memory, large enough to represent bits
+   * with indices in the range {@code 0} through {@code nbits - 1}.
+   * @param nbits the size of the bit set
+   * @return a new bit set with all bits set to {@code false}
+   */
+  public static LFOffHeapBitSet allocateDirect(long nbits) {
+    final long words = wordsFor(nbits);
+    final ByteBuffer[] regions = new ByteBuffer[regionsFor(words)];
+
+    for (int i = 0; i < regions.length; i++) {
+      regions[i] = ByteBuffer.allocateDirect(regionBytes(words, i));
+    }
+
+    return new LFOffHeapBitSet(nbits, regions);
+  }
+
+  /**
+   * Creates a new bit set backed by a memory-mapped file, large enough to represent
+   * bits with indices in the range {@code 0} through {@code nbits - 1}.
+   * If the file doesn't exist it will be created and all the bits will be
+   * {@code false}; otherwise the bits previously stored in it are preserved,
+   * and it must have been created with the same number of words.
+   * @param file  the file that backs the bit set
+   * @param nbits the size of the bit set
+   * @return a new bit set mapped to the given file
+   * @throws IOException if the file can't be opened or mapped
+   * @throws IllegalArgumentException if the file holds a bit set of another size
+   */
+  public static LFOffHeapBitSet map(Path file, long nbits) throws IOException {
+    final long words = wordsFor(nbits);
+    final ByteBuffer[] regions = new ByteBuffer[regionsFor(words)];
+
+    // the mappings stay valid even after the channel is closed
+    try (FileChannel channel = FileChannel.open(file,
+        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      // an empty file is a new one, anything else must be as large as the
+      // words, rather than be grown or mapped in part
+      final long size = channel.size();
+      if (size != 0 && size != words << 3) {
+        throw new IllegalArgumentException("the file holds a bit set of " + size + " bytes");
+      }
+
+      for (int i = 0; i < regions.length; i++) {
+        final long position = ((long) i << REGION_SHIFT) << 3;
+        regions[i] = channel.map(FileChannel.MapMode.READ_WRITE, position, regionBytes(words, i));
+      }
+    }
+
+    return new LFOffHeapBitSet(nbits, regions);
+  }
+
+  private static long wordsFor(long nbits) {
+    if (nbits < 0) {
+      throw new IllegalArgumentException();
+    }
+    return (nbits + 63) >>> 6;
+  }
+
+  private static int regionsFor(long words) {
+    return (int) ((words + REGION_MASK) >>> REGION_SHIFT);
+  }
+
+  private static int regionBytes(long words, int region) {
+    final long remaining = words - ((long) region << REGION_SHIFT);
+    return (int) (Math.min(remaining, 1L << REGION_SHIFT) << 3);
+  }
+
+  private ByteBuffer region(long bitIndex) {
+    if (bitIndex < 0 || bitIndex >= nbits) {
+      throw new IndexOutOfBoundsException();
+    }
+    return regions[(int) (bitIndex >>> (REGION_SHIFT + 6))];
+  }
+
+  private static int index(long bitIndex) {
+    return (int) (((bitIndex >>> 6) & REGION_MASK) << 3);
+  }
+
+  /**
+   * Returns the number of bits that this bit set can represent.
+   * @return the size of the bit set
+   */
+  public long size() {
+    return nbits;
+  }
+
+  /**
+   * Sets all the bits in this bit set to {@code false}.
+   * Words are zeroed in place: bits concurrently set while the clear is in
+   * progress may or may not survive it.
+   */
+  public void clear() {
+    for (ByteBuffer region : regions) {
+      final ByteBuffer dst = region.duplicate();
+      ((Buffer) dst).clear();
+      while (dst.hasRemaining()) {
+        dst.put(ZEROES, 0, Math.min(ZEROES.length, dst.remaining()));
+      }
+    }
+    Atomics.fullFence();
+  }
+
+  /**
+   * Sets the bit specified by the index to false.
+   * @param bitIndex the index of the bit to be cleared
+   */
+  public void clear(long bitIndex) {
+    final ByteBuffer region = region(bitIndex);
+    final int index = index(bitIndex);
+
+    long v1, v2;
+    do {
+      v1 = DirectLongs.getPlain(region, index);
+      v2 = v1 & ~(1L << bitIndex);
+    } while (!DirectLongs.weakCompareAndSet(region, index, v1, v2));
+  }
+
+  /**
+   * Sets the bit at the specified index to the complement of its current value.
+   * @param bitIndex the index of the bit to flip
+   */
+  public void flip(long bitIndex) {
+    final ByteBuffer region = region(bitIndex);
+    final int index = index(bitIndex);
+
+    long v1, v2;
+    do {
+      v1 = DirectLongs.getPlain(region, index);
+      v2 = v1 ^ (1L << bitIndex);
+    } while (!DirectLongs.weakCompareAndSet(region, index, v1, v2));
+  }
+
+  /**
+   * Sets the bit at the specified index to true.
+   * @param bitIndex a bit index
+   */
+  public void set(long bitIndex) {
+    final ByteBuffer region = region(bitIndex);
+    final int index = index(bitIndex);
+
+    long v1, v2;
+    do {
+      v1 = DirectLongs.getPlain(region, index);
+      v2 = v1 | (1L << bitIndex);
+    } while (!DirectLongs.weakCompareAndSet(region, index, v1, v2));
+  }
+
+  /**
+   * Sets the bit at the specified index to the specified value.
+   * @param bitIndex a bit index
+   * @param value    a boolean value to set
+   */
+  public void set(long bitIndex, boolean value) {
+    if (value) {
+      set(bitIndex);
+    } else {
+      clear(bitIndex);
+    }
+  }
+
+  /**
+   * Returns the value of the bit with the specified index.
+   * @param bitIndex a bit index
+   * @return the value of the bit with the specified index
+   * @throws java.lang.IndexOutOfBoundsException if the specified index is negative or
+   *         exceeds the bit set length
+   */
+  public boolean get(long bitIndex) {
+    final long v = DirectLongs.getAcquire(region(bitIndex), index(bitIndex));
+    return (v & (1L << bitIndex)) != 0;
+  }
+
+  /**
+   * Forces any change made to a memory-mapped bit set to be written to the
+   * storage device. This has no effect on bit sets allocated in direct memory.
+   */
+  public void force() {
+    for (ByteBuffer region : regions) {
+      if (region instanceof MappedByteBuffer) {
+        ((MappedByteBuffer) region).force();
+      }
+    }
+  }
+}
@@ -0,0 +1,333 @@
+package com.github.kratorius.jefs;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Represents a first-in-first-out (FIFO) unbounded queue of objects, which
+ * any number of threads can add to and remove from.
+ * This is implemented using the Michael-Scott algorithm: the queue is a linked
+ * list that always starts with a dummy node, items are linked after the last
+ * node with a CAS and removed by moving the head forward with another CAS.
+ *
+ * Unlike a single CAS on a shared counter or array, a failed CAS only means
+ * that another thread made progress; threads that find the tail lagging
+ * behind the last node move it forward themselves rather than waiting.
+ *
+ * @param <E> the type of elements held in this collection
+ */
+public class LFQueue<E> implements Queue<E> {
+  private final AtomicReference<Node<E>> head = new LFStack.PaddedAtomicReference<>();
+  private final AtomicReference<Node<E>> tail = new LFStack.PaddedAtomicReference<>();
+  private Metrics metrics;
+
+  // the node itself holds the reference to the next one, so that linking a
+  // node doesn't need another object nor a field updater
+  static class Node<E> extends AtomicReference<Node<E>> {
+    private static final long serialVersionUID = 1L;
+
+    // include padding so that the node class uses 64 bytes, enough to fill
+    // a whole cache line and avoid false sharing
+    @SuppressWarnings("UnusedDeclaration")
+    long p0, p1, p2, p3, p4, p5 = 6;
+
+    // set before the node is published by the CAS on the previous node, and
+    // cleared once the node has become the dummy one
+    E val;
+
+    Node(E val) {
+      this.val = val;
+    }
+  }
+
+  /**
+   * Creates an empty queue.
+   */
+  public LFQueue() {
+    final Node<E> dummy = new Node<>(null);
+    head.set(dummy);
+    tail.set(dummy);
+  }
+
+  /**
+   * Attaches the given metrics to this queue, which will count the failed CAS
+   * attempts of {@code offer} and {@code poll}, the polls on an empty queue and
+   * the batches added with {@code addAll}. This must be called before the
+   * queue is shared with other threads.
+   * @param metrics the metrics to update
+   */
+  public void setMetrics(Metrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * Counts the number of elements currently in the queue. This walks the
+   * whole queue, and the result is only an estimate if other threads are
+   * changing it at the same time.
+   * @return the number of elements in the queue.
+   */
+  @Override
+  public int size() {
+    int size = 0;
+    for (Node<E> node = first(); node != null; node = successor(node)) {
+      if (++size == Integer.MAX_VALUE) {
+        break;
+      }
+    }
+    return size;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return first() == null;
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    if (o == null) {
+      return false;
+    }
+
+    for (Node<E> node = first(); node != null; node = successor(node)) {
+      final E val = node.val;
+      if (val != null && o.equals(val)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  // the first node holding an item, if any
+  private Node<E> first() {
+    while (true) {
+      final Node<E> h = Atomics.getAcquire(head);
+      final Node<E> next = Atomics.getAcquire(h);
+      if (next != h) {
+        return next;
+      }
+      // h has been removed in the meantime, see poll()
+    }
+  }
+
+  private Node<E> successor(Node<E> node) {
+    final Node<E> next = Atomics.getAcquire(node);
+    // a removed node links to itself, start again from the head
+    return next == node ? first() : next;
+  }
+
+  @Override
+  public boolean add(E e) {
+    return offer(e);
+  }
+
+  @Override
+  public boolean containsAll(@Nonnull Collection<?> objects) {
+    for (Object o : objects) {
+      if (!contains(o)) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Adds all the given items to the queue at once: they are linked together
+   * first and then appended with a single CAS, so they end up next to each
+   * other in the queue even if other threads are adding items at the same
+   * time.
+   *
+   * @param items the items to add
+   * @return {@code true} if the queue changed
+   */
+  @Override
+  public boolean addAll(@Nonnull Collection<? extends E> items) {
+    Node<E> first = null;
+    Node<E> last = null;
+    for (E item : items) {
+      if (item == null) {
+        throw new IllegalArgumentException();
+      }
+      final Node<E> node = new Node<>(item);
+      if (first == null) {
+        first = node;
+      } else {
+        last.lazySet(node);
+      }
+      last = node;
+    }
+
+    if (first == null) {
+      return false;
+    }
+
+    if (Metrics.ENABLED && metrics != null) {
+      metrics.batch(items.size());
+    }
+    append(first, last);
+    return true;
+  }
+
+  /**
+   * Removes all the items from the queue.
+   */
+  public void clear() {
+    while (poll() != null) {
+      // keep going
+    }
+  }
+
+  /**
+   * Adds an item at the end of the queue. This never fails, as the queue is
+   * unbounded.
+   *
+   * @param e the item to add
+   * @return {@code true}
+   */
+  @Override
+  public boolean offer(E e) {
+    if (e == null) {
+      throw new IllegalArgumentException();
+    }
+
+    final Node<E> node = new Node<>(e);
+    append(node, node);
+    return true;
+  }
+
+  // links a chain of nodes after the last node of the queue
+  private void append(Node<E> first, Node<E> last) {
+    while (true) {
+      final Node<E> t = Atomics.getAcquire(tail);
+      final Node<E> next = Atomics.getAcquire(t);
+      if (next == null) {
+        if (t.compareAndSet(null, first)) {
+          // failing is fine, it means another thread has already moved the
+          // tail forward, maybe only part of the way
+          tail.compareAndSet(t, last);
+          return;
+        }
+      } else if (next != t) {
+        // the tail is lagging behind, help moving it forward
+        tail.compareAndSet(t, next);
+      }
+
+      if (Metrics.ENABLED && metrics != null) {
+        metrics.casFailure(Metrics.Operation.OFFER);
+      }
+      Atomics.onSpinWait();
+    }
+  }
+
+  @Override
+  public E remove() {
+    final E e = poll();
+    if (e == null) {
+      throw new NoSuchElementException("empty queue");
+    }
+
+    return e;
+  }
+
+  @Override
+  public E poll() {
+    while (true) {
+      final Node<E> h = Atomics.getAcquire(head);
+      final Node<E> t = Atomics.getAcquire(tail);
+      final Node<E> next = Atomics.getAcquire(h);
+
+      if (next == null) {
+        if (Metrics.ENABLED && metrics != null) {
+          metrics.rejection(Metrics.Operation.POLL);
+        }
+        return null;
+      }
+
+      if (next != h) {
+        if (h == t) {
+          // the tail is lagging behind, it must be moved before the head can
+          // go past it
+          tail.compareAndSet(t, next);
+          continue;
+        }
+
+        // the item must be read before the CAS, as the winner clears it
+        final E val = next.val;
+        if (Atomics.weakCompareAndSet(head, h, next)) {
+          next.val = null;
+          // unlink the old dummy from the queue, so that it can't keep alive
+          // the nodes that follow it if it ends up in an older generation
+          h.lazySet(h);
+          return val;
+        }
+      }
+
+      if (Metrics.ENABLED && metrics != null) {
+        metrics.casFailure(Metrics.Operation.POLL);
+      }
+      Atomics.onSpinWait();
+    }
+  }
+
+  @Override
+  public E element() {
+    final E e = peek();
+    if (e == null) {
+      throw new NoSuchElementException("empty queue");
+    }
+    return e;
+  }
+
+  @Override
+  public E peek() {
+    while (true) {
+      final Node<E> h = Atomics.getAcquire(head);
+      final Node<E> next = Atomics.getAcquire(h);
+      if (next == null) {
+        return null;
+      }
+
+      final E val = next.val;
+      // if the head didn't move, the item hasn't been removed yet
+      if (next != h && val != null && h == Atomics.getAcquire(head)) {
+        return val;
+      }
+    }
+  }
+
+  @Override @Nonnull
+  public Iterator<E> iterator() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override @Nonnull
+  public Object[] toArray() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override @Nonnull
+  public <A> A[] toArray(@Nonnull A[] ts) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public boolean remove(Object o) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public boolean removeAll(@Nonnull Collection<?> objects) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public boolean retainAll(@Nonnull Collection<?> objects) {
+    throw new UnsupportedOperationException();
+  }
+}
@@ -1,9 +1,9 @@
 package com.github.kratorius.jefs;
 
-import sun.misc.Unsafe;
-
 import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Represents a last-in-first-out (LIFO) unbounded stack of objects.
@@ -14,13 +14,19 @@ import java.util.concurrent.atomic.AtomicInteger;
  * @param <E> the type of elements held in this collection
  */
 public class LFStack<E> {
-  private static final Unsafe unsafe = NotSafe.getUnsafe();
   private AtomicInteger itemCount = new AtomicInteger();
+  private final AtomicReference<Node<E>> head = new PaddedAtomicReference<>();
+  private final Waiters<E> waiters = new Waiters<>(this::remove, this::empty, true);
+  private Metrics metrics;
+
+  static class PaddedAtomicReference<V> extends AtomicReference<V> {
+    private static final long serialVersionUID = 1L;
 
-  @SuppressWarnings("UnusedDeclaration")
-  private volatile long p0, p1, p2, p3, p4, p5 = 6;
-  private volatile Node<E> head = null;
-  private long headOffset;
+    // Unused in practice, but here to provide padding so we get better cache alignment.
+    @SuppressWarnings("unused")
+    public volatile long p0 = 0L, p1 = 1L, p2 = 2L, p3 = 3L,
+                         p4 = 4L, p5 = 5L, p6 = 6L, p7 = 7L;
+  }
 
   static class Node<E> {
     // include padding so that the node class uses 64 bytes, enough to fill
@@ -29,7 +35,9 @@ public class LFStack<E> {
     long p0, p1, p2, p3, p4, p5 = 6;
 
     final E val;
-    volatile Node<E> next;
+    // never changes once the node is published by the CAS on head, which
+    // also makes it visible to the threads that acquire the node
+    Node<E> next;
 
     public Node(E val) {
       this.val = val;
@@ -40,16 +48,22 @@ public class LFStack<E> {
    * Creates an empty stack.
    */
   public LFStack() {
-    try {
-      headOffset = unsafe.objectFieldOffset(this.getClass().getDeclaredField("head"));
-    } catch (NoSuchFieldException e) {
-      throw new RuntimeException();
-    }
+  }
+
+  /**
+   * Attaches the given metrics to this stack, which will count the failed CAS
+   * attempts of {@code push} and {@code pop}, the pops on an empty stack and
+   * the largest size of the stack. This must be called before the stack is
+   * shared with other threads.
+   * @param metrics the metrics to update
+   */
+  public void setMetrics(Metrics metrics) {
+    this.metrics = metrics;
   }
 
   public void clear() {
     itemCount.lazySet(0);
-    head = null;
+    head.set(null);
   }
 
   /**
@@ -63,7 +77,7 @@ public class LFStack<E> {
      * primitive variables (all types except long and double).
      * (http://docs.oracle.com/javase/tutorial/essential/concurrency/atomic.html)
      */
-    return head == null;
+    return Atomics.getAcquire(head) == null;
   }
 
   /**
@@ -73,7 +87,7 @@ public class LFStack<E> {
    */
   public E peek() throws NoSuchElementException {
     final Node<E> pop;
-    if ((pop = head) == null) {
+    if ((pop = Atomics.getAcquire(head)) == null) {
       throw new NoSuchElementException();
     }
 
@@ -102,17 +116,49 @@ public class LFStack<E> {
   public E remove() {
     Node<E> pop, newHead;
 
-    do {
-      if ((pop = head) == null) {
+    while (true) {
+      if ((pop = Atomics.getAcquire(head)) == null) {
+        if (Metrics.ENABLED && metrics != null) {
+          metrics.rejection(Metrics.Operation.POP);
+        }
         return null;
       }
       newHead = pop.next;
-    } while (!unsafe.compareAndSwapObject(this, headOffset, pop, newHead));
+      if (Atomics.weakCompareAndSet(head, pop, newHead)) {
+        break;
+      }
+      if (Metrics.ENABLED && metrics != null) {
+        metrics.casFailure(Metrics.Operation.POP);
+      }
+      Atomics.onSpinWait();
+    }
 
     itemCount.decrementAndGet();
     return pop.val;
   }
 
+  /**
+   * Returns a future completed with the object at the top of the stack: right
+   * away if the stack isn't empty, otherwise by the next thread that pushes an
+   * item, which pops it on behalf of the future. The non-async dependent
+   * actions of the future thus run on that thread. Cancelling the future
+   * leaves the items on the stack.
+   * @return the future
+   */
+  public CompletableFuture<E> popAsync() {
+    return waiters.async();
+  }
+
+  /**
+   * Removes the object at the top of the stack, parking the calling thread
+   * until another one pushes an item if the stack is empty.
+   * @return the object at the top of the stack
+   * @throws InterruptedException if the thread is interrupted while waiting
+   */
+  public E take() throws InterruptedException {
+    return waiters.take();
+  }
+
   /**
    * Pushes an item onto the top of the stack.
    * @param item the item to be pushed onto this stack.
@@ -123,11 +169,27 @@ public class LFStack<E> {
     }
 
     final Node<E> node = new Node<>(item);
-    do {
-      node.next = head;
-    } while (!unsafe.compareAndSwapObject(this, headOffset, node.next, node));
+    while (true) {
+      node.next = Atomics.getAcquire(head);
+      if (Atomics.weakCompareAndSet(head, node.next, node)) {
+        break;
+      }
+      if (Metrics.ENABLED && metrics != null) {
+        metrics.casFailure(Metrics.Operation.PUSH);
+      }
+      Atomics.onSpinWait();
+    }
 
-    itemCount.incrementAndGet();
+    final int size = itemCount.incrementAndGet();
+    if (Metrics.ENABLED && metrics != null) {
+      metrics.depth(size);
+    }
+
+    // the CAS above orders the item before this read, which is all that it
+    // costs unless someone is waiting
+    if (waiters.present()) {
+      waiters.wake();
+    }
   }
 
   /**
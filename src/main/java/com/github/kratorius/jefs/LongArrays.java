@@ -0,0 +1,52 @@
+package com.github.kratorius.jefs;
+
+import sun.misc.Unsafe;
+
+/**
+ * Memory-ordered accesses to the elements of a {@code long[]}.
+ *
+ * This is the Java 8 implementation, based on {@link Unsafe}: weaker modes
+ * fall back to the closest (stronger) operation it offers. The multi-release
+ * jar replaces this class with a VarHandle based one on Java 9 and later.
+ */
+final class LongArrays {
+  private static final Unsafe unsafe = NotSafe.getUnsafe();
+  private static final int base = unsafe.arrayBaseOffset(long[].class);
+  private static final int shift;
+
+  static {
+    int scale = Integer.numberOfLeadingZeros(unsafe.arrayIndexScale(long[].class));
+    shift = 31 - scale;
+  }
+
+  private LongArrays() {
+  }
+
+  private static long byteOffset(int idx) {
+    return ((long) idx << shift) + base;
+  }
+
+  static long getVolatile(long[] array, int idx) {
+    return unsafe.getLongVolatile(array, byteOffset(idx));
+  }
+
+  static long getAcquire(long[] array, int idx) {
+    return unsafe.getLongVolatile(array, byteOffset(idx));
+  }
+
+  static void setRelease(long[] array, int idx, long value) {
+    unsafe.putOrderedLong(array, byteOffset(idx), value);
+  }
+
+  static boolean compareAndSet(long[] array, int idx, long expected, long value) {
+    return unsafe.compareAndSwapLong(array, byteOffset(idx), expected, value);
+  }
+
+  /**
+   * Like {@link #compareAndSet(long[], int, long, long)}, but may fail spuriously:
+   * only meant to be used in retry loops.
+   */
+  static boolean weakCompareAndSet(long[] array, int idx, long expected, long value) {
+    return unsafe.compareAndSwapLong(array, byteOffset(idx), expected, value);
+  }
+}
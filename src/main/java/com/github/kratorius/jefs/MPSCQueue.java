@@ -0,0 +1,259 @@
+package com.github.kratorius.jefs;
+
+import com.github.kratorius.jefs.internal.BitUtils;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A multiple producers-single consumer lock free queue.
+ *
+ * This is the same ring buffer as {@link SPSCQueue}, except that producers
+ * claim their slot with a CAS on the tail and then publish the item in it with
+ * a release store. The consumer can thus see the tail move past a slot whose
+ * item isn't there yet: it waits for it, as the producer that claimed the slot
+ * is at most a couple of instructions away from filling it.
+ *
+ * This class is thread-safe only when a single consumer is removing data.
+ *
+ * @param <T>  type of objects that can be added to this queue.
+ */
+public class MPSCQueue<T> implements Queue<T> {
+  private final Object[] buffer;
+  private final int mask;
+
+  private final AtomicLong head = new SPSCQueue.PaddedAtomicLong(0);
+  private final AtomicLong tail = new SPSCQueue.PaddedAtomicLong(0);
+
+  private Metrics metrics;
+
+  /**
+   * Creates a new multiple-producers/single-consumer queue.
+   *
+   * @param capacity  the suggested capacity of the queue; the actual queue size will
+   *                  be the next (positive) power of two. To get the actual capacity
+   *                  of the queue, use {@link #actualCapacity()}
+   */
+  public MPSCQueue(final int capacity) {
+    int actualSize = BitUtils.roundToNextPowerOfTwo(capacity);
+    buffer = new Object[actualSize];
+    mask = actualSize - 1;
+  }
+
+  /**
+   * Attaches the given metrics to this queue, which will count the failed
+   * attempts to claim a slot, the offers on a full queue, the polls on an empty
+   * queue, the batches added with {@code addAll} and the largest size of the
+   * queue. This must be called before the queue is shared with other threads.
+   * @param metrics the metrics to update
+   */
+  public void setMetrics(Metrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * Returns the actual capacity of the queue.
+   *
+   * Because we round up the queue bound size to the next power of two,
+   * the actual capacity of the queue might be larger than what exactly
+   * specified.
+   *
+   * @return the effective capacity of the queue
+   */
+  public int actualCapacity() {
+    return buffer.length;
+  }
+
+  @Override
+  public int size() {
+    // claimed slots count even if their item hasn't been published yet
+    final long head = this.head.get();
+    return (int) Math.max(0, Math.min(buffer.length, tail.get() - head));
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    if (o == null) {
+      return false;
+    }
+
+    final long end = tail.get();
+    for (long i = head.get(); i < end; i++) {
+      if (o.equals(ObjectArrays.getAcquire(buffer, (int)i & mask))) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  @Override
+  public boolean add(T t) {
+    if (!offer(t)) {
+      throw new IllegalStateException("full queue");
+    }
+    return true;
+  }
+
+  @Override
+  public boolean containsAll(@Nonnull Collection<?> objects) {
+    for (Object o : objects) {
+      if (!contains(o)) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  @Override
+  public boolean addAll(@Nonnull Collection<? extends T> items) {
+    if (Metrics.ENABLED && metrics != null) {
+      metrics.batch(items.size());
+    }
+    for (T item : items) {
+      add(item);
+    }
+    return true;
+  }
+
+  /**
+   * Removes all the items from the queue. This must only be called by the
+   * consumer.
+   */
+  public void clear() {
+    while (poll() != null) {
+      // keep going
+    }
+  }
+
+  @Override
+  public boolean offer(final T t) {
+    if (t == null) {
+      throw new IllegalStateException("queue doesn't support null items");
+    }
+
+    long currentTail;
+    long currentHead;
+    while (true) {
+      currentTail = tail.get();
+      currentHead = Atomics.getAcquire(head);
+      if (currentHead <= currentTail - buffer.length) {
+        if (Metrics.ENABLED && metrics != null) {
+          metrics.rejection(Metrics.Operation.OFFER);
+        }
+        return false;
+      }
+
+      if (tail.compareAndSet(currentTail, currentTail + 1)) {
+        break;
+      }
+      if (Metrics.ENABLED && metrics != null) {
+        metrics.casFailure(Metrics.Operation.OFFER);
+      }
+    }
+
+    // the slot is ours, the consumer won't go past it until it's filled
+    ObjectArrays.setRelease(buffer, (int)currentTail & mask, t);
+
+    if (Metrics.ENABLED && metrics != null) {
+      metrics.depth(currentTail + 1 - currentHead);
+    }
+
+    return true;
+  }
+
+  @Override
+  public T remove() {
+    final T t = poll();
+    if (t == null) {
+      throw new NoSuchElementException("empty queue");
+    }
+
+    return t;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public T poll() {
+    // only the consumer writes to head, so it can read it without any ordering
+    final long currentHead = Atomics.getPlain(head);
+    final int index = (int)currentHead & mask;
+
+    Object t = ObjectArrays.getAcquire(buffer, index);
+    if (t == null) {
+      if (currentHead >= tail.get()) {
+        // empty queue
+        if (Metrics.ENABLED && metrics != null) {
+          metrics.rejection(Metrics.Operation.POLL);
+        }
+        return null;
+      }
+
+      // the slot has been claimed but the item is not there yet
+      while ((t = ObjectArrays.getAcquire(buffer, index)) == null) {
+        Atomics.onSpinWait();
+      }
+    }
+
+    buffer[index] = null;
+    Atomics.setRelease(head, currentHead + 1);
+
+    return (T) t;
+  }
+
+  @Override
+  public T element() {
+    final T t = peek();
+    if (t == null) {
+      throw new NoSuchElementException("empty queue");
+    }
+    return t;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public T peek() {
+    return (T) ObjectArrays.getAcquire(buffer, (int)head.get() & mask);
+  }
+
+  @Override @Nonnull
+  public Iterator<T> iterator() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override @Nonnull
+  public Object[] toArray() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override @Nonnull
+  public <A> A[] toArray(@Nonnull A[] ts) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public boolean remove(Object o) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public boolean removeAll(@Nonnull Collection<?> objects) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public boolean retainAll(@Nonnull Collection<?> objects) {
+    throw new UnsupportedOperationException();
+  }
+}
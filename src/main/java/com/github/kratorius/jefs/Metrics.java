@@ -0,0 +1,254 @@
+package com.github.kratorius.jefs;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Optional counters describing how a data structure behaves at runtime:
+ * CAS failures per operation, operations rejected because the structure was
+ * full or empty, batch sizes and the high-water mark of the number of items.
+ *
+ * Metrics are disabled unless the JVM is started with {@code -Djefs.metrics=true}.
+ * Every hook in the data structures is guarded by {@link #ENABLED}, which is a
+ * static final field: when metrics are disabled the JIT removes the hooks
+ * altogether, so they cost nothing. When enabled, they are attached to a single
+ * instance with its {@code setMetrics()} method, before the instance is shared
+ * with other threads. Counters are striped ({@link LongAdder}) so that recording
+ * them doesn't become a point of contention by itself.
+ *
+ * The counters can be read with {@link #snapshot()} or exposed through JMX
+ * with {@link #registerMBean(String)}.
+ */
+public class Metrics implements MetricsMXBean {
+  /**
+   * Whether metrics are collected at all.
+   */
+  public static final boolean ENABLED = Boolean.getBoolean("jefs.metrics");
+
+  /**
+   * The operations metrics are collected for.
+   */
+  public enum Operation {
+    PUSH, POP, SET, CLEAR, FLIP, OFFER, POLL
+  }
+
+  private final EnumMap<Operation, LongAdder> casFailures = new EnumMap<>(Operation.class);
+  private final EnumMap<Operation, LongAdder> rejections = new EnumMap<>(Operation.class);
+  private final LongAdder batches = new LongAdder();
+  private final LongAdder batchedItems = new LongAdder();
+  private final AtomicLong highWaterMark = new AtomicLong();
+
+  /**
+   * Creates a new set of metrics, with all the counters set to zero.
+   * @throws IllegalStateException if metrics are disabled
+   */
+  public Metrics() {
+    if (!ENABLED) {
+      throw new IllegalStateException("metrics are disabled, run with -Djefs.metrics=true");
+    }
+
+    for (Operation op : Operation.values()) {
+      casFailures.put(op, new LongAdder());
+      rejections.put(op, new LongAdder());
+    }
+  }
+
+  void casFailure(Operation op) {
+    casFailures.get(op).increment();
+  }
+
+  void rejection(Operation op) {
+    rejections.get(op).increment();
+  }
+
+  void batch(int size) {
+    batches.increment();
+    batchedItems.add(size);
+  }
+
+  void depth(long depth) {
+    long current;
+    while (depth > (current = highWaterMark.get())) {
+      if (highWaterMark.compareAndSet(current, depth)) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Returns a point in time copy of all the counters. Counters are read one at
+   * a time while they may still be updated, so they aren't consistent with
+   * each other.
+   * @return a copy of the current counters
+   */
+  public Snapshot snapshot() {
+    final EnumMap<Operation, Long> failures = new EnumMap<>(Operation.class);
+    final EnumMap<Operation, Long> rejected = new EnumMap<>(Operation.class);
+    for (Operation op : Operation.values()) {
+      failures.put(op, casFailures.get(op).sum());
+      rejected.put(op, rejections.get(op).sum());
+    }
+
+    return new Snapshot(failures, rejected, batches.sum(), batchedItems.sum(), highWaterMark.get());
+  }
+
+  /**
+   * Sets all the counters back to zero.
+   */
+  @Override
+  public void reset() {
+    for (Operation op : Operation.values()) {
+      casFailures.get(op).reset();
+      rejections.get(op).reset();
+    }
+    batches.reset();
+    batchedItems.reset();
+    highWaterMark.set(0);
+  }
+
+  /**
+   * Registers these metrics with the platform MBean server, under
+   * {@code com.github.kratorius.jefs:type=Metrics,name=<name>}.
+   * @param name the name that identifies the instrumented data structure
+   * @return the name the MBean was registered with
+   * @throws JMException if the MBean can't be registered
+   */
+  public ObjectName registerMBean(String name) throws JMException {
+    final ObjectName objectName = new ObjectName(
+        "com.github.kratorius.jefs:type=Metrics,name=" + ObjectName.quote(name));
+    ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+    return objectName;
+  }
+
+  private static long sum(Map<Operation, LongAdder> counters) {
+    long total = 0;
+    for (LongAdder counter : counters.values()) {
+      total += counter.sum();
+    }
+    return total;
+  }
+
+  private static Map<String, Long> byName(Map<Operation, LongAdder> counters) {
+    final Map<String, Long> result = new LinkedHashMap<>();
+    for (Map.Entry<Operation, LongAdder> entry : counters.entrySet()) {
+      result.put(entry.getKey().name(), entry.getValue().sum());
+    }
+    return result;
+  }
+
+  @Override
+  public long getCasFailures() {
+    return sum(casFailures);
+  }
+
+  @Override
+  public Map<String, Long> getCasFailuresByOperation() {
+    return byName(casFailures);
+  }
+
+  @Override
+  public long getRejections() {
+    return sum(rejections);
+  }
+
+  @Override
+  public Map<String, Long> getRejectionsByOperation() {
+    return byName(rejections);
+  }
+
+  @Override
+  public long getBatches() {
+    return batches.sum();
+  }
+
+  @Override
+  public long getBatchedItems() {
+    return batchedItems.sum();
+  }
+
+  @Override
+  public long getHighWaterMark() {
+    return highWaterMark.get();
+  }
+
+  /**
+   * A point in time copy of the counters of a {@link Metrics}.
+   */
+  public static class Snapshot {
+    private final Map<Operation, Long> casFailures;
+    private final Map<Operation, Long> rejections;
+    private final long batches;
+    private final long batchedItems;
+    private final long highWaterMark;
+
+    Snapshot(Map<Operation, Long> casFailures, Map<Operation, Long> rejections,
+             long batches, long batchedItems, long highWaterMark) {
+      this.casFailures = Collections.unmodifiableMap(casFailures);
+      this.rejections = Collections.unmodifiableMap(rejections);
+      this.batches = batches;
+      this.batchedItems = batchedItems;
+      this.highWaterMark = highWaterMark;
+    }
+
+    /**
+     * Returns the number of CAS attempts that failed, and had to be retried,
+     * while executing the given operation.
+     * @param op the operation
+     * @return the number of failed CAS attempts
+     */
+    public long casFailures(Operation op) {
+      return casFailures.get(op);
+    }
+
+    /**
+     * Returns the number of times the given operation was rejected because the
+     * structure was full (e.g. {@code offer}) or empty (e.g. {@code poll}).
+     * @param op the operation
+     * @return the number of rejections
+     */
+    public long rejections(Operation op) {
+      return rejections.get(op);
+    }
+
+    /**
+     * Returns the number of batch operations (e.g. {@code addAll}).
+     * @return the number of batches
+     */
+    public long batches() {
+      return batches;
+    }
+
+    /**
+     * Returns the total number of items added or removed in batches.
+     * @return the number of items in all the batches
+     */
+    public long batchedItems() {
+      return batchedItems;
+    }
+
+    /**
+     * Returns the largest number of items the structure has been seen holding.
+     * @return the high-water mark of the structure size
+     */
+    public long highWaterMark() {
+      return highWaterMark;
+    }
+
+    @Override
+    public String toString() {
+      return "Metrics.Snapshot{casFailures=" + casFailures
+          + ", rejections=" + rejections
+          + ", batches=" + batches
+          + ", batchedItems=" + batchedItems
+          + ", highWaterMark=" + highWaterMark + "}";
+    }
+  }
+}
@@ -0,0 +1,49 @@
+package com.github.kratorius.jefs;
+
+import java.util.Map;
+
+/**
+ * JMX view of the {@link Metrics} of a data structure.
+ */
+public interface MetricsMXBean {
+  /**
+   * @return the number of failed CAS attempts, across all operations
+   */
+  long getCasFailures();
+
+  /**
+   * @return the number of failed CAS attempts, by operation name
+   */
+  Map<String, Long> getCasFailuresByOperation();
+
+  /**
+   * @return the number of operations rejected because the structure was full
+   *         or empty, across all operations
+   */
+  long getRejections();
+
+  /**
+   * @return the number of rejected operations, by operation name
+   */
+  Map<String, Long> getRejectionsByOperation();
+
+  /**
+   * @return the number of batch operations
+   */
+  long getBatches();
+
+  /**
+   * @return the total number of items in all the batch operations
+   */
+  long getBatchedItems();
+
+  /**
+   * @return the largest number of items the structure has been seen holding
+   */
+  long getHighWaterMark();
+
+  /**
+   * Sets all the counters back to zero.
+   */
+  void reset();
+}
@@ -0,0 +1,47 @@
+package com.github.kratorius.jefs;
+
+import sun.misc.Unsafe;
+
+/**
+ * Memory-ordered accesses to the elements of an {@code Object[]}.
+ *
+ * This is the Java 8 implementation, based on {@link Unsafe}. The multi-release
+ * jar replaces this class with a VarHandle based one on Java 9 and later.
+ */
+final class ObjectArrays {
+  private static final Unsafe unsafe = NotSafe.getUnsafe();
+  private static final int base = unsafe.arrayBaseOffset(Object[].class);
+  private static final int shift;
+
+  static {
+    int scale = Integer.numberOfLeadingZeros(unsafe.arrayIndexScale(Object[].class));
+    shift = 31 - scale;
+  }
+
+  private ObjectArrays() {
+  }
+
+  private static long byteOffset(int idx) {
+    return ((long) idx << shift) + base;
+  }
+
+  static Object getVolatile(Object[] array, int idx) {
+    return unsafe.getObjectVolatile(array, byteOffset(idx));
+  }
+
+  static Object getAcquire(Object[] array, int idx) {
+    return unsafe.getObjectVolatile(array, byteOffset(idx));
+  }
+
+  static void setRelease(Object[] array, int idx, Object value) {
+    unsafe.putOrderedObject(array, byteOffset(idx), value);
+  }
+
+  static boolean compareAndSet(Object[] array, int idx, Object expected, Object value) {
+    return unsafe.compareAndSwapObject(array, byteOffset(idx), expected, value);
+  }
+
+  static Object getAndSet(Object[] array, int idx, Object value) {
+    return unsafe.getAndSetObject(array, byteOffset(idx), value);
+  }
+}
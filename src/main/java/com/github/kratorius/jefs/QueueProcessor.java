@@ -0,0 +1,128 @@
+package com.github.kratorius.jefs;
+
+import com.github.kratorius.jefs.internal.BitUtils;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * A {@link Flow.Processor} that transforms the items it receives and
+ * publishes the results through a {@link QueuePublisher}, to connect two
+ * stages of a pipeline.
+ *
+ * The processor never requests more items from upstream than its subscriber
+ * buffers have room for, so publishing the results never waits: the thread
+ * delivering the upstream items is never held up by a slow subscriber, which
+ * instead stops the upstream demand. The demand is topped up in batches of at
+ * least half a buffer, either as items come in or as subscribers make room,
+ * so that upstream delivers items in batches as well. A transformation that
+ * throws cancels the upstream subscription and fails the downstream ones.
+ *
+ * @param <T> the type of the items received
+ * @param <R> the type of the items published
+ */
+public class QueueProcessor<T, R> extends QueuePublisher<R> implements Flow.Processor<T, R> {
+  private final Function<? super T, ? extends R> transform;
+  private final int capacity;
+  private final int batch;
+
+  private volatile Flow.Subscription upstream;
+  // items requested from upstream that haven't been received yet
+  private final AtomicLong outstanding = new SPSCQueue.PaddedAtomicLong(0);
+
+  /**
+   * Creates a new processor.
+   * @param executor       the executor that runs the tasks delivering items to
+   *                       the subscribers
+   * @param bufferCapacity the number of items buffered for each subscriber;
+   *                       rounded up to the next power of two
+   * @param transform      turns each item received into the item to publish;
+   *                       items it turns into {@code null} are dropped
+   */
+  public QueueProcessor(Executor executor, int bufferCapacity, Function<? super T, ? extends R> transform) {
+    super(executor, bufferCapacity);
+    if (transform == null) {
+      throw new IllegalArgumentException();
+    }
+
+    this.transform = transform;
+    this.capacity = BitUtils.roundToNextPowerOfTwo(bufferCapacity);
+    this.batch = Math.max(1, capacity / 2);
+  }
+
+  @Override
+  public void onSubscribe(Flow.Subscription subscription) {
+    if (upstream != null) {
+      // a processor only has a single upstream
+      subscription.cancel();
+      return;
+    }
+
+    upstream = subscription;
+    replenish();
+  }
+
+  @Override
+  public void onNext(T item) {
+    if (isClosed()) {
+      return;
+    }
+
+    try {
+      final R result = transform.apply(item);
+      // there's room for it unless upstream sent more than requested
+      if (result != null && !offer(result)) {
+        submit(result);
+      }
+    } catch (RuntimeException e) {
+      upstream.cancel();
+      closeExceptionally(e);
+      return;
+    }
+
+    // only once the result is in the buffers, so that the room plus the
+    // outstanding items never look smaller than they are
+    if (outstanding.decrementAndGet() <= capacity - batch) {
+      replenish();
+    }
+  }
+
+  @Override
+  void delivered() {
+    if (outstanding.get() <= capacity - batch) {
+      replenish();
+    }
+  }
+
+  // requests as many items as the subscriber buffers have room for, minus
+  // the ones already requested, if that makes a whole batch
+  private void replenish() {
+    final Flow.Subscription subscription = upstream;
+    if (subscription == null || isClosed()) {
+      return;
+    }
+
+    while (true) {
+      final long current = outstanding.get();
+      final long n = Math.min(capacity, room()) - current;
+      if (n < batch) {
+        return;
+      }
+      if (outstanding.compareAndSet(current, current + n)) {
+        subscription.request(n);
+        return;
+      }
+    }
+  }
+
+  @Override
+  public void onError(Throwable throwable) {
+    closeExceptionally(throwable);
+  }
+
+  @Override
+  public void onComplete() {
+    close();
+  }
+}
@@ -0,0 +1,428 @@
+package com.github.kratorius.jefs;
+
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link Flow.Publisher} that buffers the items of every subscriber in its
+ * own {@link SPSCQueue}: the publishing thread is the producer of all the
+ * queues, and a task that delivers items to the subscriber is the consumer.
+ *
+ * The capacity of the queues bounds how far a subscriber can fall behind:
+ * {@link #offer} fails rather than go beyond it, and {@link #submit} parks
+ * until there's room. Publishing an item is a store in each queue and, for the subscribers
+ * that are waiting for items, a signal to their delivery task; nothing is
+ * allocated and no lock is taken.
+ *
+ * The delivery task of a subscriber runs on the given executor, and sends as
+ * many items in a row as the subscriber has requested and its queue holds, so
+ * a {@code request(n)} turns into a single batch of up to {@code n} items
+ * rather than {@code n} separate handoffs. Only one delivery task per
+ * subscriber runs at any time, and it's scheduled again only once it has run
+ * out of either items or demand.
+ *
+ * Items must be published by a single thread at a time, as for any
+ * {@link SPSCQueue} producer. Subscribing and cancelling can be done by any
+ * thread.
+ *
+ * @param <T> the type of the published items
+ */
+public class QueuePublisher<T> implements Flow.Publisher<T>, AutoCloseable {
+  private final Executor executor;
+  private final int bufferCapacity;
+  private static final QueueSubscription<?>[] NONE = new QueueSubscription<?>[0];
+
+  // replaced with a new array, under the lock of the publisher, every time a
+  // subscriber is added or removed: offer() walks a single snapshot of it,
+  // whatever other threads do in the meantime, without allocating
+  private volatile QueueSubscription<T>[] subscriptions = none();
+
+  private volatile boolean closed;
+  private volatile Throwable failure;
+
+  // the publishing thread, parked in submit() until the delivery tasks make
+  // room in the buffers; they make room with release stores, not fences
+  private final Waiters<Boolean> submitters = new Waiters<>(
+      () -> room() > 0 ? Boolean.TRUE : null, () -> room() == 0, false);
+
+  @SuppressWarnings("unchecked")
+  private static <T> QueueSubscription<T>[] none() {
+    return (QueueSubscription<T>[]) NONE;
+  }
+
+  static final class QueueSubscription<T> implements Flow.Subscription, Runnable {
+    final Flow.Subscriber<? super T> subscriber;
+    final SPSCQueue<T> queue;
+
+    private final QueuePublisher<T> publisher;
+    private final AtomicLong demand = new SPSCQueue.PaddedAtomicLong(0);
+
+    // the number of signals the delivery task has yet to handle: the one that
+    // moves it away from zero schedules the task. It starts at one, for the
+    // task that sends onSubscribe
+    private final AtomicInteger pending = new AtomicInteger(1);
+    private boolean subscribed;
+
+    volatile boolean cancelled;
+    volatile boolean done;
+    volatile Throwable error;
+
+    QueueSubscription(QueuePublisher<T> publisher, Flow.Subscriber<? super T> subscriber) {
+      this.publisher = publisher;
+      this.subscriber = subscriber;
+      this.queue = new SPSCQueue<>(publisher.bufferCapacity);
+    }
+
+    boolean waiting() {
+      return demand.get() > 0 && !cancelled;
+    }
+
+    int room() {
+      return queue.actualCapacity() - queue.size();
+    }
+
+    @Override
+    public void request(long n) {
+      if (n <= 0) {
+        error = new IllegalArgumentException("non-positive request: " + n);
+      } else {
+        long current;
+        do {
+          current = demand.get();
+          if (current == Long.MAX_VALUE) {
+            return;
+          }
+        } while (!demand.compareAndSet(current, current + n < 0 ? Long.MAX_VALUE : current + n));
+      }
+      signal();
+    }
+
+    @Override
+    public void cancel() {
+      cancelled = true;
+      signal();
+    }
+
+    void signal() {
+      if (pending.getAndIncrement() == 0) {
+        publisher.executor.execute(this);
+      }
+    }
+
+    @Override
+    public void run() {
+      if (!subscribed) {
+        subscribed = true;
+        subscriber.onSubscribe(this);
+      }
+
+      int missed = pending.get();
+      while (true) {
+        if (cancelled) {
+          discard();
+          return;
+        }
+        final Throwable e = error;
+        if (e != null) {
+          cancelled = true;
+          discard();
+          subscriber.onError(e);
+          return;
+        }
+
+        // the whole demand at once, as long as there are items
+        final long requested = demand.get();
+        long sent = 0;
+        while (sent != requested && !cancelled) {
+          final T item = queue.poll();
+          if (item == null) {
+            break;
+          }
+          subscriber.onNext(item);
+          sent++;
+        }
+        if (sent != 0) {
+          if (requested != Long.MAX_VALUE) {
+            demand.addAndGet(-sent);
+          }
+          publisher.delivered();
+          publisher.madeRoom();
+        }
+
+        // the items are published before the publisher is marked as done, so
+        // if it is the queue holds all of them
+        if (done && queue.isEmpty() && !cancelled && error == null) {
+          cancelled = true;
+          subscriber.onComplete();
+          return;
+        }
+
+        missed = pending.addAndGet(-missed);
+        if (missed == 0) {
+          return;
+        }
+      }
+    }
+
+    private void discard() {
+      // the delivery task is the consumer of the queue
+      while (queue.poll() != null) {
+        // drop it
+      }
+      publisher.madeRoom();
+    }
+  }
+
+  /**
+   * Creates a new publisher that delivers items on the common
+   * {@link ForkJoinPool}.
+   * @param bufferCapacity the number of items buffered for each subscriber;
+   *                       rounded up to the next power of two
+   */
+  public QueuePublisher(int bufferCapacity) {
+    this(ForkJoinPool.commonPool(), bufferCapacity);
+  }
+
+  /**
+   * Creates a new publisher.
+   * @param executor       the executor that runs the tasks delivering items to
+   *                       the subscribers
+   * @param bufferCapacity the number of items buffered for each subscriber;
+   *                       rounded up to the next power of two
+   */
+  public QueuePublisher(Executor executor, int bufferCapacity) {
+    if (executor == null || bufferCapacity < 1) {
+      throw new IllegalArgumentException();
+    }
+
+    this.executor = executor;
+    this.bufferCapacity = bufferCapacity;
+  }
+
+  /**
+   * Adds a subscriber, which gets its own buffer of items. Subscribing the
+   * same subscriber twice fails its second subscription with an
+   * {@link IllegalStateException}, and subscribing to a closed publisher
+   * completes the subscription straight away.
+   * @param subscriber the subscriber
+   */
+  @Override
+  public void subscribe(Flow.Subscriber<? super T> subscriber) {
+    if (subscriber == null) {
+      throw new IllegalArgumentException();
+    }
+
+    final QueueSubscription<T> subscription = new QueueSubscription<>(this, subscriber);
+    synchronized (this) {
+      final QueueSubscription<T>[] current = subscriptions;
+      for (QueueSubscription<T> existing : current) {
+        if (existing.subscriber == subscriber && !existing.cancelled) {
+          subscription.error = new IllegalStateException("already subscribed");
+          break;
+        }
+      }
+
+      if (subscription.error == null && closed) {
+        subscription.error = failure;
+        subscription.done = true;
+      } else if (subscription.error == null) {
+        final QueueSubscription<T>[] added = Arrays.copyOf(current, current.length + 1);
+        added[current.length] = subscription;
+        subscriptions = added;
+      }
+    }
+    executor.execute(subscription);
+  }
+
+  /**
+   * Publishes an item to all the current subscribers, unless any of them has
+   * a full buffer, in which case the item is not published at all.
+   *
+   * @param item the item to publish
+   * @return {@code true} if the item has been published, {@code false} if the
+   *         buffer of a subscriber is full
+   * @throws IllegalStateException if the publisher has been closed
+   */
+  public boolean offer(T item) {
+    if (item == null) {
+      throw new IllegalArgumentException();
+    }
+    if (closed) {
+      throw new IllegalStateException("closed");
+    }
+
+    // only this thread adds items to the queues, so room can only grow; a
+    // subscription can only go from active to cancelled
+    final QueueSubscription<T>[] current = subscriptions;
+    boolean stale = false;
+    for (QueueSubscription<T> subscription : current) {
+      if (subscription.cancelled) {
+        stale = true;
+      } else if (subscription.room() == 0) {
+        return false;
+      }
+    }
+
+    for (QueueSubscription<T> subscription : current) {
+      if (!subscription.cancelled) {
+        subscription.queue.offer(item);
+      }
+    }
+
+    // orders the items before the reads of the demand, as request() does
+    // with the CAS on the demand before signalling: either the delivery task
+    // sees the new items, or this thread sees the new demand
+    Atomics.fullFence();
+    for (QueueSubscription<T> subscription : current) {
+      if (subscription.waiting()) {
+        subscription.signal();
+      }
+    }
+
+    if (stale) {
+      removeCancelled();
+    }
+    return true;
+  }
+
+  /**
+   * Publishes an item to all the current subscribers, waiting for the slowest
+   * of them to have room for it. The publishing thread is parked while it
+   * waits, and woken up by the delivery task that makes room; an interrupt
+   * doesn't stop the wait, but is kept for the caller to see.
+   *
+   * @param item the item to publish
+   * @throws IllegalStateException if the publisher has been closed
+   */
+  public void submit(T item) {
+    boolean interrupted = false;
+    try {
+      while (!offer(item)) {
+        try {
+          submitters.take();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  // wakes up the publishing thread, if it's waiting in submit()
+  private void madeRoom() {
+    if (submitters.present()) {
+      submitters.wake();
+    }
+  }
+
+  /**
+   * Completes the subscriptions once their subscribers have received all the
+   * items published so far. Items can't be published anymore afterwards.
+   */
+  @Override
+  public void close() {
+    terminate(null);
+  }
+
+  /**
+   * Fails the subscriptions with the given error, dropping the items their
+   * subscribers haven't received yet. Items can't be published anymore
+   * afterwards.
+   * @param error the error sent to the subscribers
+   */
+  public void closeExceptionally(Throwable error) {
+    if (error == null) {
+      throw new IllegalArgumentException();
+    }
+    terminate(error);
+  }
+
+  private synchronized void removeCancelled() {
+    // other threads may be walking the current array: the active ones go to
+    // a new one
+    final QueueSubscription<T>[] current = subscriptions;
+    final QueueSubscription<T>[] active = Arrays.copyOf(current, current.length);
+    int count = 0;
+    for (QueueSubscription<T> subscription : current) {
+      if (!subscription.cancelled) {
+        active[count++] = subscription;
+      }
+    }
+    subscriptions = count == 0 ? none() : Arrays.copyOf(active, count);
+  }
+
+  private void terminate(Throwable error) {
+    final QueueSubscription<T>[] current;
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+
+      failure = error;
+      closed = true;
+      current = subscriptions;
+      subscriptions = none();
+    }
+
+    for (QueueSubscription<T> subscription : current) {
+      subscription.error = error;
+      subscription.done = true;
+      subscription.signal();
+    }
+    // a submit() waiting for room fails now
+    madeRoom();
+  }
+
+  /**
+   * Returns the number of items that can be published right away, which is
+   * the room left in the fullest subscriber buffer.
+   * @return the number of items that {@link #offer} would accept
+   */
+  int room() {
+    int room = Integer.MAX_VALUE;
+    for (QueueSubscription<T> subscription : subscriptions) {
+      if (!subscription.cancelled) {
+        room = Math.min(room, subscription.room());
+      }
+    }
+    return room;
+  }
+
+  /**
+   * Called by the delivery tasks after they have sent some items, making room
+   * in their buffer. It does nothing here; it runs on the executor threads,
+   * concurrently with the publishing thread.
+   */
+  void delivered() {
+  }
+
+  /**
+   * Returns whether {@link #close} or {@link #closeExceptionally} has been
+   * called.
+   * @return {@code true} if the publisher is closed
+   */
+  public boolean isClosed() {
+    return closed;
+  }
+
+  /**
+   * Returns the number of subscribers that haven't cancelled their
+   * subscription.
+   * @return the number of subscribers
+   */
+  public int subscribers() {
+    int count = 0;
+    for (QueueSubscription<T> subscription : subscriptions) {
+      if (!subscription.cancelled) {
+        count++;
+      }
+    }
+    return count;
+  }
+}
@@ -0,0 +1,299 @@
+package com.github.kratorius.jefs;
+
+import com.github.kratorius.jefs.internal.BitUtils;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A ring buffer of variable length binary records in a direct
+ * {@link ByteBuffer}, written in place by multiple producers and read in
+ * place by a single consumer.
+ *
+ * A producer claims room for a record with {@link #claim(int)}, which moves
+ * the tail with a CAS as {@link MPSCQueue} does, writes the record straight
+ * into the buffer and publishes it with {@link #commit(int)}; no object is
+ * created for the record, and the record is copied only if the producer
+ * builds it elsewhere first. The consumer gets every committed record in
+ * place, through a {@link Handler}, in the order they were claimed.
+ *
+ * Every record starts with a long header that holds its length and whether
+ * it's been committed, which the producer sets with a release store. Records
+ * are aligned to 8 bytes and never wrap around the end of the buffer: a
+ * record that doesn't fit before the end leaves a padding record there, and
+ * starts again from the beginning of the buffer. The consumer clears the
+ * space it has consumed before giving it back to the producers, so that
+ * headers that haven't been written yet read as zero.
+ */
+public class RecordRing {
+  private static final int HEADER = 8;
+
+  private final ByteBuffer ring;
+  private final ByteBuffer view;
+  private final int capacity;
+  private final int mask;
+
+  private final AtomicLong head = new SPSCQueue.PaddedAtomicLong(0);
+  private final AtomicLong tail = new SPSCQueue.PaddedAtomicLong(0);
+
+  private Metrics metrics;
+
+  /**
+   * Reads records in place.
+   */
+  public interface Handler {
+    /**
+     * Called for every record, in order. The record is only valid until the
+     * method returns, as its space is then reused by the producers.
+     *
+     * @param buffer the buffer that holds the record, in native byte order;
+     *               its position and limit are not those of the record, so
+     *               it has to be read with absolute accesses or sliced
+     * @param offset the offset of the record in the buffer
+     * @param length the length of the record
+     */
+    void onRecord(ByteBuffer buffer, int offset, int length);
+  }
+
+  /**
+   * Creates a new ring buffer.
+   *
+   * @param capacity the suggested capacity of the ring in bytes; the actual
+   *                 one will be the next power of two
+   */
+  public RecordRing(int capacity) {
+    if (capacity < 2 * HEADER) {
+      throw new IllegalArgumentException();
+    }
+
+    this.capacity = BitUtils.roundToNextPowerOfTwo(capacity);
+    this.mask = this.capacity - 1;
+    this.ring = ByteBuffer.allocateDirect(this.capacity).order(ByteOrder.nativeOrder());
+    this.view = buffer();
+  }
+
+  /**
+   * Attaches the given metrics to this ring, which will count the failed
+   * attempts to claim room, the claims on a full ring, the reads of an empty
+   * ring and the largest number of bytes in use. This must be called before
+   * the ring is shared with other threads.
+   * @param metrics the metrics to update
+   */
+  public void setMetrics(Metrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * Returns the actual capacity of the ring in bytes.
+   * @return the capacity of the ring
+   */
+  public int capacity() {
+    return capacity;
+  }
+
+  /**
+   * Returns the largest record that can be claimed, which is half of the
+   * ring less its header: a record may need to leave as much as its own size
+   * as padding at the end of the ring.
+   * @return the maximum length of a record
+   */
+  public int maxRecordLength() {
+    return capacity / 2 - HEADER;
+  }
+
+  /**
+   * Returns a new view of the buffer of the ring, in native byte order. Every
+   * producer should use its own, so that it can move its position and limit
+   * to write the records it claims.
+   * @return a view of the buffer
+   */
+  public ByteBuffer buffer() {
+    return ring.duplicate().order(ByteOrder.nativeOrder());
+  }
+
+  private static int recordSize(int length) {
+    return (HEADER + length + HEADER - 1) & ~(HEADER - 1);
+  }
+
+  /**
+   * Claims room for a record of the given length, which the caller then
+   * writes in the buffer of the ring and publishes with
+   * {@link #commit(int)}, or gives up on with {@link #abort(int)}. Records
+   * claimed later by other producers wait for this one to be committed or
+   * aborted before they can be read.
+   *
+   * @param length the length of the record
+   * @return the offset of the record in the buffer, or -1 if the ring is too
+   *         full to hold it
+   */
+  public int claim(int length) {
+    if (length < 0 || length > maxRecordLength()) {
+      throw new IllegalArgumentException("invalid record length: " + length);
+    }
+
+    final int size = recordSize(length);
+    long currentTail;
+    long currentHead;
+    int offset;
+    int needed;
+    while (true) {
+      currentTail = tail.get();
+      currentHead = Atomics.getAcquire(head);
+      offset = (int) currentTail & mask;
+      // a record that doesn't fit before the end of the buffer takes the rest
+      // of it as well
+      needed = capacity - offset >= size ? size : capacity - offset + size;
+      if (currentTail + needed - currentHead > capacity) {
+        if (Metrics.ENABLED && metrics != null) {
+          metrics.rejection(Metrics.Operation.OFFER);
+        }
+        return -1;
+      }
+
+      if (tail.compareAndSet(currentTail, currentTail + needed)) {
+        break;
+      }
+      if (Metrics.ENABLED && metrics != null) {
+        metrics.casFailure(Metrics.Operation.OFFER);
+      }
+    }
+
+    if (needed != size) {
+      DirectLongs.setRelease(ring, offset, -(capacity - offset));
+      offset = 0;
+    }
+    // nonzero but even: claimed, and not yet committed
+    ring.putLong(offset, (long) length << 1);
+
+    if (Metrics.ENABLED && metrics != null) {
+      metrics.depth(currentTail + needed - currentHead);
+    }
+
+    return offset + HEADER;
+  }
+
+  /**
+   * Publishes a record claimed with {@link #claim(int)}.
+   * @param offset the offset of the record, as returned by {@code claim}
+   */
+  public void commit(int offset) {
+    final int header = offset - HEADER;
+    DirectLongs.setRelease(ring, header, DirectLongs.getPlain(ring, header) | 1);
+  }
+
+  /**
+   * Gives up on a record claimed with {@link #claim(int)}, which the consumer
+   * then skips.
+   * @param offset the offset of the record, as returned by {@code claim}
+   */
+  public void abort(int offset) {
+    final int header = offset - HEADER;
+    final int length = (int) (DirectLongs.getPlain(ring, header) >>> 1);
+    DirectLongs.setRelease(ring, header, -recordSize(length));
+  }
+
+  /**
+   * Copies the remaining bytes of the given buffer into the ring as a new
+   * record. This is a convenience for producers that don't build their
+   * records in place.
+   *
+   * @param record the content of the record
+   * @return {@code true} if the record has been added, {@code false} if the
+   *         ring is too full to hold it
+   */
+  public boolean offer(ByteBuffer record) {
+    final int length = record.remaining();
+    final int offset = claim(length);
+    if (offset < 0) {
+      return false;
+    }
+
+    for (int i = 0; i < length; i++) {
+      ring.put(offset + i, record.get(record.position() + i));
+    }
+    ((Buffer) record).position(record.limit());
+    commit(offset);
+    return true;
+  }
+
+  /**
+   * Hands the committed records to the given handler, in order, stopping at
+   * the first record that hasn't been committed yet. This must only be called
+   * by a single consumer thread.
+   *
+   * @param handler the handler of the records
+   * @param limit   the maximum number of records to read
+   * @return the number of records read
+   */
+  public int read(Handler handler, int limit) {
+    // only the consumer writes to head, so it can read it without any ordering
+    final long currentHead = Atomics.getPlain(head);
+    int bytes = 0;
+    int records = 0;
+
+    while (records < limit && bytes < capacity) {
+      final int offset = (int) (currentHead + bytes) & mask;
+      final long header = DirectLongs.getAcquire(ring, offset);
+      if (header < 0) {
+        // padding, or an aborted record
+        bytes += (int) -header;
+        continue;
+      }
+      if ((header & 1) == 0) {
+        // nothing there yet, or not committed
+        break;
+      }
+
+      final int length = (int) (header >>> 1);
+      handler.onRecord(view, offset + HEADER, length);
+      bytes += recordSize(length);
+      records++;
+    }
+
+    if (bytes == 0) {
+      if (Metrics.ENABLED && metrics != null) {
+        metrics.rejection(Metrics.Operation.POLL);
+      }
+      return 0;
+    }
+
+    // the consumed space, which may wrap around, must read as zero before
+    // the producers can claim it again
+    final int from = (int) currentHead & mask;
+    final int first = Math.min(bytes, capacity - from);
+    clear(from, first);
+    clear(0, bytes - first);
+    Atomics.setRelease(head, currentHead + bytes);
+
+    if (Metrics.ENABLED && metrics != null) {
+      metrics.batch(records);
+    }
+    return records;
+  }
+
+  private void clear(int offset, int length) {
+    for (int i = offset; i < offset + length; i += HEADER) {
+      ring.putLong(i, 0L);
+    }
+  }
+
+  /**
+   * Returns the number of bytes claimed by the producers and not yet
+   * consumed, including headers and padding.
+   * @return the number of bytes in use
+   */
+  public int size() {
+    final long currentHead = head.get();
+    return (int) Math.max(0, Math.min(capacity, tail.get() - currentHead));
+  }
+
+  /**
+   * Returns whether there are no records, committed or not.
+   * @return {@code true} if the ring is empty
+   */
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+}
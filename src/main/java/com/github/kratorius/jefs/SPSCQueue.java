@@ -6,6 +6,7 @@ import java.util.Collection;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nonnull;
@@ -32,6 +33,10 @@ public class SPSCQueue<T> implements Queue<T> {
   private final AtomicLong head = new PaddedAtomicLong(0);
   private final AtomicLong tail = new PaddedAtomicLong(0);
 
+  private final Waiters<T> waiters = new Waiters<>(this::poll, this::isEmpty, false);
+
+  private Metrics metrics;
+
   static class PaddedAtomicLong extends AtomicLong {
     // Unused in practice, but here to provide padding so we get better cache alignment.
     @SuppressWarnings("unused")
@@ -61,6 +66,17 @@ public class SPSCQueue<T> implements Queue<T> {
     mask = actualSize - 1;
   }
 
+  /**
+   * Attaches the given metrics to this queue, which will count the offers on a
+   * full queue, the polls on an empty queue, the batches added with
+   * {@code addAll} and the largest size of the queue. This must be called
+   * before the queue is shared with other threads.
+   * @param metrics the metrics to update
+   */
+  public void setMetrics(Metrics metrics) {
+    this.metrics = metrics;
+  }
+
   /**
    * Returns the actual capacity of the queue.
    *
@@ -121,6 +137,9 @@ public class SPSCQueue<T> implements Queue<T> {
 
   @Override
   public boolean addAll(@Nonnull Collection<? extends T> items) {
+    if (Metrics.ENABLED && metrics != null) {
+      metrics.batch(items.size());
+    }
     for (T item : items) {
       add(item);
     }
@@ -143,15 +162,30 @@ public class SPSCQueue<T> implements Queue<T> {
       throw new IllegalStateException("queue doesn't support null items");
     }
 
-    final long currentTail = tail.get();
+    // only the producer writes to tail, so it can read it without any ordering
+    final long currentTail = Atomics.getPlain(tail);
     final long wrapPoint = currentTail - buffer.length;
-    if (head.get() <= wrapPoint) {
+    final long currentHead = Atomics.getAcquire(head);
+    if (currentHead <= wrapPoint) {
+      if (Metrics.ENABLED && metrics != null) {
+        metrics.rejection(Metrics.Operation.OFFER);
+      }
       return false;
     }
 
-    // we can use lazySet because there's only a single producer
+    // we can use a release store because there's only a single producer
     buffer[(int)currentTail & mask] = t;
-    tail.lazySet(currentTail + 1);
+    Atomics.setRelease(tail, currentTail + 1);
+
+    if (Metrics.ENABLED && metrics != null) {
+      // the consumer may have moved on since, so this can only overestimate
+      metrics.depth(currentTail + 1 - currentHead);
+    }
+
+    // a single read unless the consumer is waiting
+    if (waiters.present()) {
+      waiters.wake();
+    }
 
     return true;
   }
@@ -168,20 +202,63 @@ public class SPSCQueue<T> implements Queue<T> {
 
   @Override
   public T poll() throws NoSuchElementException {
-    final long currentHead = head.get();
-    if (currentHead >= tail.get()) {
+    // only the consumer writes to head, so it can read it without any ordering
+    final long currentHead = Atomics.getPlain(head);
+    if (currentHead >= Atomics.getAcquire(tail)) {
       // empty queue
+      if (Metrics.ENABLED && metrics != null) {
+        metrics.rejection(Metrics.Operation.POLL);
+      }
       return null;
     }
 
     final int index = (int)currentHead & mask;
     final T t = buffer[index];
     buffer[index] = null;
-    head.lazySet(currentHead + 1);
+    Atomics.setRelease(head, currentHead + 1);
 
     return t;
   }
 
+  /**
+   * Returns a future completed with the next item: right away if there is
+   * one, otherwise by the producer when it adds one.
+   *
+   * The future takes the place of the consumer until it's completed: the
+   * consumer must not poll in the meantime, nor ask for another future. The
+   * producer takes the item out of the queue on behalf of the future and
+   * completes it, so the non-async dependent actions of the future run on the
+   * producer thread. The producer doesn't fence its writes, though, and can
+   * miss a future created while it adds an item: that item is then taken a
+   * millisecond later, and the future completed on the common
+   * {@link java.util.concurrent.ForkJoinPool}, where the dependent actions
+   * run instead. Cancelling the future leaves the item in the queue.
+   *
+   * @return the future
+   * @throws IllegalStateException if a future returned before is still pending
+   */
+  public CompletableFuture<T> pollAsync() {
+    if (waiters.present()) {
+      throw new IllegalStateException("already waiting");
+    }
+    return waiters.async();
+  }
+
+  /**
+   * Retrieves and removes the head of the queue, parking the consumer thread
+   * until the producer adds an item if the queue is empty.
+   *
+   * The producer doesn't fence its writes, so a waiter may miss an item added
+   * while it's about to park: the first time it parks it only waits for a
+   * millisecond, after which the item is visible and any later item wakes it.
+   *
+   * @return the head of the queue
+   * @throws InterruptedException if the thread is interrupted while waiting
+   */
+  public T take() throws InterruptedException {
+    return waiters.take();
+  }
+
   @Override
   public T element() {
     final T t = peek();
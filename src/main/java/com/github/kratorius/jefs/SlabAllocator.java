@@ -0,0 +1,379 @@
+package com.github.kratorius.jefs;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A lock free allocator of fixed size blocks of memory outside of the Java
+ * heap, so that large amounts of records can be stored without the garbage
+ * collector ever having to scan or move them.
+ *
+ * The memory is split into slabs of the same size, and every slab is carved
+ * into blocks of one of a few size classes the first time it's needed by that
+ * class. Each slab tracks its free blocks with a bit per block, claimed and
+ * released with a CAS per word as in {@link LFBitSet}. Every thread prefers
+ * the slab it last allocated from, so threads allocating at the same time
+ * mostly work on different slabs; only when its slab is full does a thread
+ * look for free blocks in the others, or take a new slab.
+ *
+ * Blocks are identified by their address, a {@code long} offset from the start
+ * of the allocator's memory, and can be accessed either with the absolute
+ * methods of the buffer returned by {@link #region(long)} at
+ * {@link #offset(long)}, or through a {@link #slice(long)} of their own.
+ * Slabs are never given back once assigned to a size class, even if all of
+ * their blocks are freed.
+ */
+public class SlabAllocator {
+  // a single ByteBuffer can't be larger than 2^31 - 1 bytes
+  private static final int MAX_REGION_SIZE = 1 << 30;
+
+  private final ByteBuffer[] regions;
+  private final int slabShift;
+  private final int slabsPerRegionShift;
+  private final int[] sizeClasses;
+
+  // slabs assigned to a size class so far, in the order they were taken
+  private final Object[] slabs;
+  private final AtomicInteger nextSlab = new AtomicInteger();
+
+  // the slab each thread last allocated from, for each size class
+  private final ThreadLocal<Slab[]> preferred;
+
+  static final class Slab {
+    final int index;
+    final int sizeClass;
+    final int blockSize;
+    final int blocks;
+    final long base;
+    // a set bit marks a block that has been allocated
+    final long[] used;
+    final AtomicInteger allocated = new AtomicInteger();
+    // where to start looking for a free block, updated without any ordering
+    int hint;
+
+    Slab(int index, int sizeClass, int blockSize, int slabSize, long base) {
+      this.index = index;
+      this.sizeClass = sizeClass;
+      this.blockSize = blockSize;
+      this.blocks = slabSize / blockSize;
+      this.base = base;
+      this.used = new long[(blocks + 63) >>> 6];
+    }
+
+    private long fullWord(int word) {
+      return word == used.length - 1 ? -1L >>> -blocks : -1L;
+    }
+
+    // returns the address of the allocated block, or -1 if the slab is full
+    long allocate() {
+      if (allocated.get() >= blocks) {
+        return -1;
+      }
+
+      final int start = hint;
+      for (int i = 0; i < used.length; i++) {
+        final int word = start + i < used.length ? start + i : start + i - used.length;
+        final long full = fullWord(word);
+
+        long v;
+        while ((v = LongArrays.getAcquire(used, word)) != full) {
+          final long bit = Long.lowestOneBit(~v & full);
+          if (LongArrays.weakCompareAndSet(used, word, v, v | bit)) {
+            hint = word;
+            allocated.incrementAndGet();
+            return base + (long) ((word << 6) + Long.numberOfTrailingZeros(bit)) * blockSize;
+          }
+        }
+      }
+
+      return -1;
+    }
+
+    void free(int block) {
+      final int word = block >>> 6;
+      final long bit = 1L << block;
+
+      long v;
+      do {
+        v = LongArrays.getAcquire(used, word);
+        if ((v & bit) == 0) {
+          throw new IllegalStateException("block not allocated");
+        }
+      } while (!LongArrays.weakCompareAndSet(used, word, v, v & ~bit));
+
+      allocated.decrementAndGet();
+      hint = word;
+    }
+  }
+
+  private SlabAllocator(ByteBuffer[] regions, int slabs, int slabSize, int[] sizeClasses) {
+    this.regions = regions;
+    this.slabs = new Object[slabs];
+    this.slabShift = Integer.numberOfTrailingZeros(slabSize);
+    this.slabsPerRegionShift = Integer.numberOfTrailingZeros(regionSize(slabSize) / slabSize);
+    this.sizeClasses = sizeClasses;
+    this.preferred = ThreadLocal.withInitial(() -> new Slab[sizeClasses.length]);
+  }
+
+  /**
+   * Creates a new allocator backed by direct memory.
+   *
+   * @param bytes       the amount of memory to allocate, rounded down to a whole
+   *                    number of slabs
+   * @param slabSize    the size of each slab, a power of two no larger than
+   *                    2^30 bytes
+   * @param sizeClasses the sizes of the blocks that can be allocated, in bytes
+   * @return a new allocator
+   */
+  public static SlabAllocator allocateDirect(long bytes, int slabSize, int... sizeClasses) {
+    final int[] classes = checkSizeClasses(slabSize, sizeClasses);
+    final int slabs = slabsFor(bytes, slabSize);
+    final ByteBuffer[] regions = new ByteBuffer[regionsFor(slabs, slabSize)];
+
+    for (int i = 0; i < regions.length; i++) {
+      regions[i] = ByteBuffer.allocateDirect(regionBytes(slabs, slabSize, i));
+    }
+
+    return new SlabAllocator(regions, slabs, slabSize, classes);
+  }
+
+  /**
+   * Creates a new allocator backed by a memory-mapped file, which is created if
+   * it doesn't exist. Only the memory lives in the file: which blocks are
+   * allocated is kept on the heap, and is not preserved across restarts.
+   *
+   * @param file        the file that backs the allocator
+   * @param bytes       the amount of memory to map, rounded down to a whole
+   *                    number of slabs
+   * @param slabSize    the size of each slab, a power of two no larger than
+   *                    2^30 bytes
+   * @param sizeClasses the sizes of the blocks that can be allocated, in bytes
+   * @return a new allocator
+   * @throws IOException if the file can't be opened or mapped
+   */
+  public static SlabAllocator map(Path file, long bytes, int slabSize, int... sizeClasses)
+      throws IOException {
+    final int[] classes = checkSizeClasses(slabSize, sizeClasses);
+    final int slabs = slabsFor(bytes, slabSize);
+    final ByteBuffer[] regions = new ByteBuffer[regionsFor(slabs, slabSize)];
+
+    // the mappings stay valid even after the channel is closed
+    try (FileChannel channel = FileChannel.open(file,
+        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      for (int i = 0; i < regions.length; i++) {
+        final long position = (long) i * regionSize(slabSize);
+        regions[i] = channel.map(FileChannel.MapMode.READ_WRITE, position, regionBytes(slabs, slabSize, i));
+      }
+    }
+
+    return new SlabAllocator(regions, slabs, slabSize, classes);
+  }
+
+  private static int[] checkSizeClasses(int slabSize, int[] sizeClasses) {
+    if (slabSize <= 0 || slabSize > MAX_REGION_SIZE || Integer.bitCount(slabSize) != 1) {
+      throw new IllegalArgumentException("slab size must be a power of two up to 2^30");
+    }
+    if (sizeClasses.length == 0) {
+      throw new IllegalArgumentException("no size classes");
+    }
+
+    final int[] classes = sizeClasses.clone();
+    Arrays.sort(classes);
+    for (int i = 0; i < classes.length; i++) {
+      if (classes[i] <= 0 || classes[i] > slabSize || (i > 0 && classes[i] == classes[i - 1])) {
+        throw new IllegalArgumentException("invalid size class " + classes[i]);
+      }
+    }
+    return classes;
+  }
+
+  private static int slabsFor(long bytes, int slabSize) {
+    final long slabs = bytes / slabSize;
+    if (slabs < 1 || slabs > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException();
+    }
+    return (int) slabs;
+  }
+
+  private static int regionSize(int slabSize) {
+    return MAX_REGION_SIZE / slabSize * slabSize;
+  }
+
+  private static int regionsFor(int slabs, int slabSize) {
+    final int perRegion = regionSize(slabSize) / slabSize;
+    return (slabs + perRegion - 1) / perRegion;
+  }
+
+  private static int regionBytes(int slabs, int slabSize, int region) {
+    final int perRegion = regionSize(slabSize) / slabSize;
+    return Math.min(perRegion, slabs - region * perRegion) * slabSize;
+  }
+
+  /**
+   * Returns the total amount of memory of the allocator.
+   * @return the size of the memory in bytes
+   */
+  public long capacity() {
+    return (long) slabs.length << slabShift;
+  }
+
+  /**
+   * Returns the number of slabs that have been assigned to a size class.
+   * @return the number of slabs in use
+   */
+  public int usedSlabs() {
+    return nextSlab.get();
+  }
+
+  /**
+   * Allocates a block of the smallest size class that can hold the given
+   * number of bytes. The content of the block is whatever was left there by
+   * its previous owner, if any.
+   *
+   * @param size the number of bytes needed
+   * @return the address of the block
+   * @throws IllegalArgumentException if the size is larger than the largest
+   *         size class
+   * @throws IllegalStateException if there's no free block of the right size
+   *         and no slab left
+   */
+  public long allocate(int size) {
+    final int sizeClass = sizeClass(size);
+    final Slab[] mine = preferred.get();
+    final Slab slab = mine[sizeClass];
+    if (slab != null) {
+      final long address = slab.allocate();
+      if (address >= 0) {
+        return address;
+      }
+    }
+
+    return allocateSlow(sizeClass, mine, slab);
+  }
+
+  private int sizeClass(int size) {
+    for (int i = 0; i < sizeClasses.length; i++) {
+      if (size <= sizeClasses[i]) {
+        if (size <= 0) {
+          break;
+        }
+        return i;
+      }
+    }
+    throw new IllegalArgumentException("invalid size " + size);
+  }
+
+  // the slab of the thread is full: look for free blocks in the other slabs
+  // of the same class, starting after it, then take a new slab
+  private long allocateSlow(int sizeClass, Slab[] mine, Slab full) {
+    final int taken = usedSlabs();
+    final int start = full != null ? full.index + 1 : 0;
+    for (int i = 0; i < taken; i++) {
+      final int index = start + i < taken ? start + i : start + i - taken;
+      final Slab slab = (Slab) ObjectArrays.getAcquire(slabs, index);
+      if (slab != null && slab.sizeClass == sizeClass && slab != full) {
+        final long address = slab.allocate();
+        if (address >= 0) {
+          mine[sizeClass] = slab;
+          return address;
+        }
+      }
+    }
+
+    // never goes past the last slab, however many times allocations fail
+    int index;
+    do {
+      index = nextSlab.get();
+      if (index == slabs.length) {
+        throw new IllegalStateException("out of memory");
+      }
+    } while (!nextSlab.compareAndSet(index, index + 1));
+
+    final Slab slab = new Slab(index, sizeClass, sizeClasses[sizeClass], 1 << slabShift, (long) index << slabShift);
+    ObjectArrays.setRelease(slabs, index, slab);
+    mine[sizeClass] = slab;
+    final long address = slab.allocate();
+    // other threads may have found the new slab and filled it already
+    return address >= 0 ? address : allocateSlow(sizeClass, mine, slab);
+  }
+
+  private Slab slab(long address) {
+    if (address < 0 || address >= capacity()) {
+      throw new IllegalArgumentException("invalid address " + address);
+    }
+
+    final Slab slab = (Slab) ObjectArrays.getAcquire(slabs, (int) (address >>> slabShift));
+    // the tail of a slab that isn't a whole block is never allocated
+    if (slab == null || (address - slab.base) % slab.blockSize != 0
+        || (address - slab.base) / slab.blockSize >= slab.blocks) {
+      throw new IllegalArgumentException("invalid address " + address);
+    }
+    return slab;
+  }
+
+  /**
+   * Frees a block, which can then be allocated again. Any thread can free any
+   * block, not only the one that allocated it.
+   *
+   * @param address the address of the block
+   * @throws IllegalArgumentException if the address isn't the one of a block
+   * @throws IllegalStateException if the block isn't allocated
+   */
+  public void free(long address) {
+    final Slab slab = slab(address);
+    slab.free((int) ((address - slab.base) / slab.blockSize));
+  }
+
+  /**
+   * Returns the size of the block at the given address, which can be larger
+   * than the size it was allocated with.
+   * @param address the address of the block
+   * @return the size of the block in bytes
+   */
+  public int blockSize(long address) {
+    return slab(address).blockSize;
+  }
+
+  /**
+   * Returns the buffer that holds the block at the given address. The buffer
+   * is shared by many blocks: only its absolute methods must be used, starting
+   * from {@link #offset(long)}.
+   * @param address the address of the block
+   * @return the buffer holding the block
+   */
+  public ByteBuffer region(long address) {
+    return regions[(int) (address >>> slabShift >>> slabsPerRegionShift)];
+  }
+
+  /**
+   * Returns the position of the block at the given address within the buffer
+   * returned by {@link #region(long)}.
+   * @param address the address of the block
+   * @return the offset of the block in its buffer
+   */
+  public int offset(long address) {
+    return (int) (address - ((address >>> slabShift >>> slabsPerRegionShift) << slabsPerRegionShift << slabShift));
+  }
+
+  /**
+   * Returns a new buffer whose content is the block at the given address.
+   * This allocates a small object on the heap for every call: use
+   * {@link #region(long)} and {@link #offset(long)} on hot paths.
+   * @param address the address of the block
+   * @return a buffer spanning the whole block
+   */
+  public ByteBuffer slice(long address) {
+    final int size = blockSize(address);
+    final int offset = offset(address);
+    final ByteBuffer buffer = region(address).duplicate();
+    ((Buffer) buffer).limit(offset + size);
+    ((Buffer) buffer).position(offset);
+    return buffer.slice();
+  }
+}
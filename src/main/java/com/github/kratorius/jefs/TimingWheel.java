@@ -0,0 +1,341 @@
+package com.github.kratorius.jefs;
+
+import com.github.kratorius.jefs.internal.BitUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A hierarchical hashed timing wheel, running tasks once their delay has
+ * elapsed.
+ *
+ * Timers are hashed by their deadline into the buckets of a few wheels: the
+ * first one has a bucket per tick, each of the following ones has buckets as
+ * wide as a whole turn of the previous one. Every time the first wheel
+ * completes a turn, the next bucket of the second wheel is emptied into the
+ * first, and so on. Scheduling and cancelling a timer are constant time
+ * operations, and so is expiring it, rather than the logarithmic time of the
+ * heap behind {@link java.util.concurrent.ScheduledThreadPoolExecutor}.
+ *
+ * Any thread can schedule and cancel timers, while a single ticker thread
+ * must call {@link #advance(long)} regularly, about once per tick:
+ * that's where the tasks run. Timers never fire before their deadline,
+ * but they can fire up to a tick (plus the delay of the ticker) later.
+ *
+ * Timers live in a fixed number of preallocated slots, so that scheduling
+ * doesn't allocate. New timers get to the ticker through a {@link MPSCQueue};
+ * the ticker alone links them into the buckets. Cancelling a timer just
+ * flips its state: the timer stays in its bucket, where the ticker drops it
+ * once it gets there, so cancelled timers never need to be searched for and
+ * removed.
+ */
+public class TimingWheel {
+  // the state of every slot: a 32 bit generation number, incremented every
+  // time the slot is reused, followed by two bits of status
+  private static final long FREE = 0;
+  private static final long PENDING = 1;
+  private static final long CANCELLED = 2;
+  private static final long STATUS_MASK = 3;
+
+  private final long tickNanos;
+  private final long startNanos;
+  private final int wheelBits;
+  private final int wheelMask;
+
+  private final Timer[] timers;
+  private final long[] states;
+  // one bit per slot, set while the slot is in use
+  private final long[] used;
+  // the word of used where the last slot has been claimed: a hint, updated
+  // without any synchronization
+  private int cursor;
+  private final MPSCQueue<Timer> submissions;
+
+  // only accessed by the ticker thread
+  private final Timer[][] wheels;
+  private long tick;
+
+  static final class Timer {
+    final int id;
+    Runnable task;
+    long deadline;
+    Timer next;
+
+    Timer(int id) {
+      this.id = id;
+    }
+  }
+
+  /**
+   * Creates a new timing wheel.
+   *
+   * @param tickDuration the duration of a tick, which is the resolution of the timers
+   * @param unit         the unit of {@code tickDuration}
+   * @param wheelSize    the number of buckets of each wheel, rounded up to the next
+   *                     power of two
+   * @param levels       the number of wheels; timers further away than
+   *                     {@code wheelSize^levels} ticks are still supported, but
+   *                     are moved around once per turn of the last wheel
+   * @param capacity     the maximum number of pending timers, rounded up to the
+   *                     next power of two
+   */
+  public TimingWheel(long tickDuration, TimeUnit unit, int wheelSize, int levels, int capacity) {
+    if (tickDuration <= 0 || wheelSize < 2 || levels < 1 || capacity < 1) {
+      throw new IllegalArgumentException();
+    }
+
+    this.tickNanos = unit.toNanos(tickDuration);
+    this.startNanos = System.nanoTime();
+    this.wheelBits = Integer.numberOfTrailingZeros(BitUtils.roundToNextPowerOfTwo(wheelSize));
+    this.wheelMask = (1 << wheelBits) - 1;
+    if (levels * wheelBits > 62) {
+      throw new IllegalArgumentException("too many levels");
+    }
+
+    final int slots = BitUtils.roundToNextPowerOfTwo(Math.max(capacity, 64));
+    this.timers = new Timer[slots];
+    for (int i = 0; i < slots; i++) {
+      timers[i] = new Timer(i);
+    }
+    this.states = new long[slots];
+    this.used = new long[slots >>> 6];
+    this.submissions = new MPSCQueue<>(slots);
+
+    this.wheels = new Timer[levels][1 << wheelBits];
+  }
+
+  /**
+   * Returns the maximum number of timers that can be pending at the same time.
+   * A cancelled timer keeps its slot until the ticker gets to it, which is
+   * when it's moved down from an upper wheel or, at the latest, the tick of
+   * its deadline: many cancelled timers far in the future can thus fill the
+   * slots while few timers are still pending.
+   * @return the number of timer slots
+   */
+  public int capacity() {
+    return timers.length;
+  }
+
+  /**
+   * Schedules a task to run after the given delay.
+   *
+   * @param task  the task to run
+   * @param delay the time from now after which the task runs
+   * @param unit  the unit of {@code delay}
+   * @return a handle that can be used to cancel the timer
+   * @throws IllegalStateException if all the {@link #capacity()} slots are
+   *                               taken by timers pending or cancelled
+   */
+  public long schedule(Runnable task, long delay, TimeUnit unit) {
+    return scheduleAt(task, System.nanoTime() + unit.toNanos(delay));
+  }
+
+  /**
+   * Schedules a task to run once the given time has been reached.
+   *
+   * @param task         the task to run
+   * @param deadlineNanos the time when the task runs, in the same scale as
+   *                      {@link System#nanoTime()}
+   * @return a handle that can be used to cancel the timer
+   * @throws IllegalStateException if all the {@link #capacity()} slots are
+   *                               taken by timers pending or cancelled
+   */
+  public long scheduleAt(Runnable task, long deadlineNanos) {
+    if (task == null) {
+      throw new IllegalArgumentException();
+    }
+
+    final int id = claim();
+    if (id < 0) {
+      throw new IllegalStateException("too many timers");
+    }
+
+    // rounded up, so that timers never fire early
+    final long elapsed = Math.max(0, deadlineNanos - startNanos);
+    final Timer timer = timers[id];
+    timer.task = task;
+    timer.deadline = elapsed / tickNanos + (elapsed % tickNanos == 0 ? 0 : 1);
+
+    final long generation = ((LongArrays.getAcquire(states, id) >>> 2) + 1) & 0xffffffffL;
+    LongArrays.setRelease(states, id, (generation << 2) | PENDING);
+
+    // there can't be more submissions than slots, so this never fails
+    submissions.add(timer);
+
+    return (generation << 32) | id;
+  }
+
+  /**
+   * Cancels a timer, unless it has already fired.
+   *
+   * @param handle the handle returned when the timer was scheduled
+   * @return {@code true} if the timer has been cancelled, {@code false} if it
+   *         has already fired or been cancelled
+   */
+  public boolean cancel(long handle) {
+    final int id = (int) handle;
+    if (id < 0 || id >= states.length) {
+      return false;
+    }
+
+    // the generation makes sure that the slot hasn't been reused since
+    final long generation = handle >>> 32;
+    return LongArrays.compareAndSet(states, id, (generation << 2) | PENDING, (generation << 2) | CANCELLED);
+  }
+
+  // claims a free slot, starting from the word of the last one claimed:
+  // consecutive timers thus get neighbouring slots, rather than ones spread
+  // over memory that is no longer in the cache
+  private int claim() {
+    final int words = used.length;
+    int word = cursor;
+
+    for (int n = 0; n < words; n++) {
+      long v;
+      while ((v = LongArrays.getAcquire(used, word)) != -1L) {
+        final long bit = Long.lowestOneBit(~v);
+        if (LongArrays.weakCompareAndSet(used, word, v, v | bit)) {
+          if (word != cursor) {
+            cursor = word;
+          }
+          return (word << 6) + Long.numberOfTrailingZeros(bit);
+        }
+      }
+
+      if (++word == words) {
+        word = 0;
+      }
+    }
+
+    return -1;
+  }
+
+  private void release(int id) {
+    final int word = id >>> 6;
+    long v;
+    do {
+      v = LongArrays.getAcquire(used, word);
+    } while (!LongArrays.weakCompareAndSet(used, word, v, v & ~(1L << id)));
+  }
+
+  /**
+   * Advances the wheel up to the given time, running the tasks of all the
+   * timers that expired in the meantime. This must only be called by a single
+   * ticker thread.
+   *
+   * If a task throws an exception, the exception is propagated to the caller
+   * and the remaining timers of the same tick run on the next call.
+   *
+   * @param nowNanos the current time, in the same scale as {@link System#nanoTime()}
+   * @return the number of tasks that ran
+   */
+  public int advance(long nowNanos) {
+    final long target = (nowNanos - startNanos) / tickNanos;
+    int expired = 0;
+
+    while (tick < target) {
+      final long next = tick + 1;
+
+      Timer timer;
+      while ((timer = submissions.poll()) != null) {
+        place(timer, next);
+      }
+      cascade(next);
+
+      final Timer[] wheel = wheels[0];
+      final int bucket = (int) next & wheelMask;
+      // with a single wheel, the bucket also holds the timers that are whole
+      // turns away: they go back into it once the bucket has been emptied
+      Timer later = null;
+      try {
+        while ((timer = wheel[bucket]) != null) {
+          wheel[bucket] = timer.next;
+          if (timer.deadline > next && !cancelled(timer)) {
+            timer.next = later;
+            later = timer;
+            continue;
+          }
+
+          final Runnable task = expire(timer);
+          if (task != null) {
+            expired++;
+            task.run();
+          }
+        }
+      } finally {
+        while (later != null) {
+          timer = later;
+          later = later.next;
+          timer.next = wheel[bucket];
+          wheel[bucket] = timer;
+        }
+      }
+
+      tick = next;
+    }
+
+    return expired;
+  }
+
+  // links the timer into the bucket of its deadline, on the lowest wheel
+  // whose turn doesn't end before the deadline
+  private void place(Timer timer, long now) {
+    final long deadline = timer.deadline;
+    int level = 0;
+    int bucket;
+
+    if (deadline <= now) {
+      bucket = (int) now & wheelMask;
+    } else {
+      level = Math.min(wheels.length - 1, (63 - Long.numberOfLeadingZeros(deadline ^ now)) / wheelBits);
+      bucket = (int) (deadline >>> (level * wheelBits)) & wheelMask;
+    }
+
+    timer.next = wheels[level][bucket];
+    wheels[level][bucket] = timer;
+  }
+
+  // moves the timers of the buckets of the upper wheels that start at the
+  // given tick down to the lower wheels
+  private void cascade(long now) {
+    for (int level = wheels.length - 1; level > 0; level--) {
+      final int shift = level * wheelBits;
+      if ((now & ((1L << shift) - 1)) != 0) {
+        continue;
+      }
+
+      final int bucket = (int) (now >>> shift) & wheelMask;
+      Timer timer = wheels[level][bucket];
+      wheels[level][bucket] = null;
+      while (timer != null) {
+        final Timer next = timer.next;
+        if (cancelled(timer)) {
+          // frees the slot now rather than once the timer gets to the end
+          expire(timer);
+        } else {
+          place(timer, now);
+        }
+        timer = next;
+      }
+    }
+  }
+
+  private boolean cancelled(Timer timer) {
+    return (LongArrays.getAcquire(states, timer.id) & STATUS_MASK) == CANCELLED;
+  }
+
+  // frees the slot of an expired timer, returning its task unless the timer
+  // has been cancelled
+  private Runnable expire(Timer timer) {
+    final Runnable task = timer.task;
+    timer.task = null;
+    timer.next = null;
+
+    long state;
+    do {
+      state = LongArrays.getVolatile(states, timer.id);
+    } while (!LongArrays.compareAndSet(states, timer.id, state, (state & ~STATUS_MASK) | FREE));
+    release(timer.id);
+
+    return (state & STATUS_MASK) == PENDING ? task : null;
+  }
+}
@@ -0,0 +1,234 @@
+package com.github.kratorius.jefs;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * The consumers waiting for items of a lock free structure: threads parked
+ * in {@code take()} and futures returned by the asynchronous polls.
+ *
+ * Producers only look at {@link #present()}, a single read of a counter that
+ * is zero unless someone is waiting, after they have published an item; only
+ * then they call {@link #wake()}. A waiter registers itself and then checks
+ * the structure once more before waiting: as long as the producer publishes
+ * with a full fence, as a CAS does, either the producer sees the waiter or the
+ * waiter sees the item.
+ *
+ * A producer that publishes with a release store instead, like the one of
+ * {@link SPSCQueue}, can read the counter before its item is visible to the
+ * waiter, and then neither sees the other. Rather than a fence on every
+ * publication, waiters of such producers check the structure once more a
+ * short while after registering, when the item is long visible and any later
+ * publication sees the waiter: a thread parks for at most
+ * {@link #RECHECK_NANOS} the first time, and a future is checked again by a
+ * shared timer thread. A future found to be missing its item is then
+ * completed on the common {@link ForkJoinPool}, as the asynchronous methods of
+ * {@link CompletableFuture} do, rather than on the timer thread.
+ *
+ * @param <T> the type of the items
+ */
+final class Waiters<T> {
+  static final long RECHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private static volatile ScheduledExecutorService timer;
+
+  private final Supplier<T> poll;
+  private final BooleanSupplier empty;
+  private final boolean fencedProducer;
+
+  private final ConcurrentLinkedQueue<Object> waiters = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger count = new AtomicInteger();
+
+  /**
+   * A future completed by whoever removes it from the waiters, so that an item
+   * is never taken for a future that has been cancelled in the meantime.
+   */
+  static final class Pending<T> extends CompletableFuture<T> {
+    private final Waiters<T> owner;
+
+    Pending(Waiters<T> owner) {
+      this.owner = owner;
+    }
+
+    void deliver(T item) {
+      super.complete(item);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      return owner.withdraw(this) && super.cancel(mayInterruptIfRunning);
+    }
+
+    @Override
+    public boolean complete(T value) {
+      return owner.withdraw(this) && super.complete(value);
+    }
+
+    @Override
+    public boolean completeExceptionally(Throwable ex) {
+      return owner.withdraw(this) && super.completeExceptionally(ex);
+    }
+  }
+
+  /**
+   * @param poll           takes an item from the structure, or returns
+   *                       {@code null} if it's empty
+   * @param empty          tells whether the structure is empty, from any
+   *                       thread
+   * @param fencedProducer whether producers publish their items with a full
+   *                       fence before calling {@link #present()}
+   */
+  Waiters(Supplier<T> poll, BooleanSupplier empty, boolean fencedProducer) {
+    this.poll = poll;
+    this.empty = empty;
+    this.fencedProducer = fencedProducer;
+  }
+
+  boolean present() {
+    return count.get() != 0;
+  }
+
+  /**
+   * Wakes up the longest waiting consumer, if any: a parked thread is
+   * unparked and takes the item itself, while a future is completed with an
+   * item taken on its behalf by the calling thread.
+   */
+  @SuppressWarnings("unchecked")
+  void wake() {
+    final Object waiter = waiters.poll();
+    if (waiter != null) {
+      count.decrementAndGet();
+      if (waiter instanceof Thread) {
+        LockSupport.unpark((Thread) waiter);
+      } else {
+        fulfill((Pending<T>) waiter);
+      }
+    }
+  }
+
+  // takes an item for a future that has been removed from the waiters, or
+  // makes it wait again if another consumer has been faster
+  private void fulfill(Pending<T> pending) {
+    final T item = poll.get();
+    if (item != null) {
+      pending.deliver(item);
+    } else {
+      await(pending);
+    }
+  }
+
+  private void register(Object waiter) {
+    waiters.offer(waiter);
+    // a full fence as well, which orders the registration before the checks
+    // that follow it
+    count.incrementAndGet();
+  }
+
+  private boolean withdraw(Object waiter) {
+    if (waiters.remove(waiter)) {
+      count.decrementAndGet();
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Returns a future completed with the next item, right away if there's one
+   * already.
+   * @return the future
+   */
+  CompletableFuture<T> async() {
+    final T item = poll.get();
+    if (item != null) {
+      return CompletableFuture.completedFuture(item);
+    }
+
+    final Pending<T> pending = new Pending<>(this);
+    await(pending);
+    return pending;
+  }
+
+  private void await(Pending<T> pending) {
+    register(pending);
+    if (!empty.getAsBoolean() && withdraw(pending)) {
+      // published before the producers could see the future
+      fulfill(pending);
+      return;
+    }
+
+    if (!fencedProducer) {
+      timer().schedule(() -> {
+        if (!pending.isDone() && !empty.getAsBoolean()) {
+          // the dependent actions of the future run where it's completed,
+          // which mustn't be the timer thread shared by all the waiters
+          ForkJoinPool.commonPool().execute(this::wake);
+        }
+      }, RECHECK_NANOS, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /**
+   * Waits for the next item, parking the calling thread until a producer
+   * publishes one.
+   * @return the item
+   * @throws InterruptedException if the thread is interrupted while waiting
+   */
+  T take() throws InterruptedException {
+    final Thread thread = Thread.currentThread();
+    while (true) {
+      T item = poll.get();
+      if (item != null) {
+        return item;
+      }
+
+      register(thread);
+      item = poll.get();
+      if (item != null) {
+        withdraw(thread);
+        return item;
+      }
+
+      if (fencedProducer) {
+        LockSupport.park(this);
+      } else {
+        LockSupport.parkNanos(this, RECHECK_NANOS);
+        // still waiting after the recheck: later publications see the thread
+        while (waiters.contains(thread) && empty.getAsBoolean() && !thread.isInterrupted()) {
+          LockSupport.park(this);
+        }
+      }
+
+      withdraw(thread);
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+    }
+  }
+
+  private static ScheduledExecutorService timer() {
+    ScheduledExecutorService t = timer;
+    if (t == null) {
+      synchronized (Waiters.class) {
+        t = timer;
+        if (t == null) {
+          final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+            final Thread thread = new Thread(r, "jefs-waiters");
+            thread.setDaemon(true);
+            return thread;
+          });
+          executor.setRemoveOnCancelPolicy(true);
+          timer = t = executor;
+        }
+      }
+    }
+    return t;
+  }
+}
@@ -28,4 +28,21 @@ public class BitUtils {
 
     return ++value;
   }
+
+  /**
+   * Scrambles the bits of the given value so that every input bit affects
+   * every output bit (the finalizer of the 64-bit MurmurHash3).
+   *
+   * @param value original input value
+   * @return a well distributed 64-bit hash of the given value
+   */
+  public static long mix64(long value) {
+    value ^= value >>> 33;
+    value *= 0xff51afd7ed558ccdL;
+    value ^= value >>> 33;
+    value *= 0xc4ceb9fe1a85ec53L;
+    value ^= value >>> 33;
+
+    return value;
+  }
 }
@@ -0,0 +1,63 @@
+package com.github.kratorius.jefs;
+
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Memory fences and weaker-than-volatile accesses to atomic variables.
+ *
+ * This is the Java 9 implementation, based on the access modes added to the
+ * atomic classes and on VarHandle fences.
+ */
+final class Atomics {
+  private Atomics() {
+  }
+
+  /**
+   * Reads the value without any ordering guarantee: only meant to be used by
+   * the single thread that writes to the variable.
+   */
+  static long getPlain(AtomicLong atomic) {
+    return atomic.getPlain();
+  }
+
+  static long getAcquire(AtomicLong atomic) {
+    return atomic.getAcquire();
+  }
+
+  static void setRelease(AtomicLong atomic, long value) {
+    atomic.setRelease(value);
+  }
+
+  static <V> V getAcquire(AtomicReference<V> atomic) {
+    return atomic.getAcquire();
+  }
+
+  static <V> void setRelease(AtomicReference<V> atomic, V value) {
+    atomic.setRelease(value);
+  }
+
+  /**
+   * Compares and sets the value with volatile semantics, but may fail
+   * spuriously: only meant to be used in retry loops.
+   */
+  static <V> boolean weakCompareAndSet(AtomicReference<V> atomic, V expected, V value) {
+    return atomic.weakCompareAndSetVolatile(expected, value);
+  }
+
+  static void fullFence() {
+    VarHandle.fullFence();
+  }
+
+  static void acquireFence() {
+    VarHandle.acquireFence();
+  }
+
+  /**
+   * Hints the processor that we are busy-waiting.
+   */
+  static void onSpinWait() {
+    Thread.onSpinWait();
+  }
+}
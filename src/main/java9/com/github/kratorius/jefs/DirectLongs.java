@@ -0,0 +1,54 @@
+package com.github.kratorius.jefs;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Memory-ordered accesses to the longs of a direct {@link ByteBuffer}, in
+ * native byte order. Indices are in bytes and must be a multiple of 8.
+ *
+ * This is the Java 9 implementation, based on VarHandles.
+ */
+final class DirectLongs {
+  private static final VarHandle LONGS =
+      MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+  private DirectLongs() {
+  }
+
+  /**
+   * Returns a slice of the given direct buffer that starts at an address
+   * multiple of the given power of two; direct memory never moves, unlike
+   * arrays, so the alignment holds for the life of the buffer. The buffer must
+   * be {@code alignment - 1} bytes larger than the slice needs to be.
+   */
+  static ByteBuffer alignedSlice(ByteBuffer buffer, int alignment) {
+    return buffer.alignedSlice(alignment);
+  }
+
+  static long getPlain(ByteBuffer buffer, int index) {
+    return (long) LONGS.get(buffer, index);
+  }
+
+  static long getAcquire(ByteBuffer buffer, int index) {
+    return (long) LONGS.getAcquire(buffer, index);
+  }
+
+  static void setRelease(ByteBuffer buffer, int index, long value) {
+    LONGS.setRelease(buffer, index, value);
+  }
+
+  static boolean compareAndSet(ByteBuffer buffer, int index, long expected, long value) {
+    return LONGS.compareAndSet(buffer, index, expected, value);
+  }
+
+  /**
+   * Like {@link #compareAndSet(ByteBuffer, int, long, long)}, but may fail
+   * spuriously: only meant to be used in retry loops.
+   */
+  static boolean weakCompareAndSet(ByteBuffer buffer, int index, long expected, long value) {
+    return LONGS.weakCompareAndSet(buffer, index, expected, value);
+  }
+}
@@ -0,0 +1,355 @@
+package com.github.kratorius.jefs;
+
+import java.util.concurrent.Flow.Processor;
+import java.util.concurrent.Flow.Publisher;
+import java.util.concurrent.Flow.Subscriber;
+import java.util.concurrent.Flow.Subscription;
+
+/**
+ * Adapters between the {@link Flow} interfaces of this library and their
+ * {@code java.util.concurrent.Flow} namesakes, so that {@link QueuePublisher}
+ * and {@link QueueProcessor} can be connected to the publishers and
+ * subscribers of the JDK, such as {@link java.util.concurrent.SubmissionPublisher}.
+ *
+ * Every adapter delegates each method to the one it wraps, and the objects
+ * they're given are adapted in turn: a JDK subscriber given to an adapted
+ * publisher receives an adapted subscription, and so on. Adapting an adapter
+ * back returns the object it wraps.
+ *
+ * This class is only part of the Java 9 classes of the multi-release jar, as
+ * {@code java.util.concurrent.Flow} doesn't exist before.
+ */
+public final class JdkFlow {
+  private JdkFlow() {
+  }
+
+  /**
+   * Returns a JDK publisher that publishes the items of the given one.
+   * @param publisher the publisher to adapt
+   * @param <T>       the type of the items
+   * @return the JDK publisher
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> Publisher<T> toJdkPublisher(Flow.Publisher<T> publisher) {
+    if (publisher == null) {
+      throw new IllegalArgumentException();
+    }
+    if (publisher instanceof FromJdkPublisher) {
+      return ((FromJdkPublisher<T>) publisher).publisher;
+    }
+    if (publisher instanceof FromJdkProcessor) {
+      return ((FromJdkProcessor<?, T>) publisher).processor;
+    }
+    return new ToJdkPublisher<>(publisher);
+  }
+
+  /**
+   * Returns a publisher that publishes the items of the given JDK one.
+   * @param publisher the JDK publisher to adapt
+   * @param <T>       the type of the items
+   * @return the publisher
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> Flow.Publisher<T> fromJdkPublisher(Publisher<T> publisher) {
+    if (publisher == null) {
+      throw new IllegalArgumentException();
+    }
+    if (publisher instanceof ToJdkPublisher) {
+      return ((ToJdkPublisher<T>) publisher).publisher;
+    }
+    if (publisher instanceof ToJdkProcessor) {
+      return ((ToJdkProcessor<?, T>) publisher).processor;
+    }
+    return new FromJdkPublisher<>(publisher);
+  }
+
+  /**
+   * Returns a JDK subscriber that passes what it receives to the given one.
+   * @param subscriber the subscriber to adapt
+   * @param <T>        the type of the items
+   * @return the JDK subscriber
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> Subscriber<T> toJdkSubscriber(Flow.Subscriber<T> subscriber) {
+    if (subscriber == null) {
+      throw new IllegalArgumentException();
+    }
+    if (subscriber instanceof FromJdkSubscriber) {
+      return ((FromJdkSubscriber<T>) subscriber).subscriber;
+    }
+    if (subscriber instanceof FromJdkProcessor) {
+      return ((FromJdkProcessor<T, ?>) subscriber).processor;
+    }
+    return new ToJdkSubscriber<>(subscriber);
+  }
+
+  /**
+   * Returns a subscriber that passes what it receives to the given JDK one.
+   * @param subscriber the JDK subscriber to adapt
+   * @param <T>        the type of the items
+   * @return the subscriber
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> Flow.Subscriber<T> fromJdkSubscriber(Subscriber<T> subscriber) {
+    if (subscriber == null) {
+      throw new IllegalArgumentException();
+    }
+    if (subscriber instanceof ToJdkSubscriber) {
+      return ((ToJdkSubscriber<T>) subscriber).subscriber;
+    }
+    if (subscriber instanceof ToJdkProcessor) {
+      return ((ToJdkProcessor<T, ?>) subscriber).processor;
+    }
+    return new FromJdkSubscriber<>(subscriber);
+  }
+
+  /**
+   * Returns a JDK processor that delegates to the given one.
+   * @param processor the processor to adapt
+   * @param <T>       the type of the items received
+   * @param <R>       the type of the items published
+   * @return the JDK processor
+   */
+  @SuppressWarnings("unchecked")
+  public static <T, R> Processor<T, R> toJdkProcessor(Flow.Processor<T, R> processor) {
+    if (processor == null) {
+      throw new IllegalArgumentException();
+    }
+    if (processor instanceof FromJdkProcessor) {
+      return ((FromJdkProcessor<T, R>) processor).processor;
+    }
+    return new ToJdkProcessor<>(processor);
+  }
+
+  /**
+   * Returns a processor that delegates to the given JDK one.
+   * @param processor the JDK processor to adapt
+   * @param <T>       the type of the items received
+   * @param <R>       the type of the items published
+   * @return the processor
+   */
+  @SuppressWarnings("unchecked")
+  public static <T, R> Flow.Processor<T, R> fromJdkProcessor(Processor<T, R> processor) {
+    if (processor == null) {
+      throw new IllegalArgumentException();
+    }
+    if (processor instanceof ToJdkProcessor) {
+      return ((ToJdkProcessor<T, R>) processor).processor;
+    }
+    return new FromJdkProcessor<>(processor);
+  }
+
+  /**
+   * Returns a JDK subscription that delegates to the given one.
+   * @param subscription the subscription to adapt
+   * @return the JDK subscription
+   */
+  public static Subscription toJdkSubscription(Flow.Subscription subscription) {
+    if (subscription == null) {
+      throw new IllegalArgumentException();
+    }
+    if (subscription instanceof FromJdkSubscription) {
+      return ((FromJdkSubscription) subscription).subscription;
+    }
+    return new ToJdkSubscription(subscription);
+  }
+
+  /**
+   * Returns a subscription that delegates to the given JDK one.
+   * @param subscription the JDK subscription to adapt
+   * @return the subscription
+   */
+  public static Flow.Subscription fromJdkSubscription(Subscription subscription) {
+    if (subscription == null) {
+      throw new IllegalArgumentException();
+    }
+    if (subscription instanceof ToJdkSubscription) {
+      return ((ToJdkSubscription) subscription).subscription;
+    }
+    return new FromJdkSubscription(subscription);
+  }
+
+  static final class ToJdkPublisher<T> implements Publisher<T> {
+    final Flow.Publisher<T> publisher;
+
+    ToJdkPublisher(Flow.Publisher<T> publisher) {
+      this.publisher = publisher;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super T> subscriber) {
+      publisher.subscribe(fromJdkSubscriber(subscriber));
+    }
+  }
+
+  static final class FromJdkPublisher<T> implements Flow.Publisher<T> {
+    final Publisher<T> publisher;
+
+    FromJdkPublisher(Publisher<T> publisher) {
+      this.publisher = publisher;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super T> subscriber) {
+      publisher.subscribe(toJdkSubscriber(subscriber));
+    }
+  }
+
+  static final class ToJdkSubscriber<T> implements Subscriber<T> {
+    final Flow.Subscriber<T> subscriber;
+
+    ToJdkSubscriber(Flow.Subscriber<T> subscriber) {
+      this.subscriber = subscriber;
+    }
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+      subscriber.onSubscribe(fromJdkSubscription(subscription));
+    }
+
+    @Override
+    public void onNext(T item) {
+      subscriber.onNext(item);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      subscriber.onError(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+      subscriber.onComplete();
+    }
+  }
+
+  static final class FromJdkSubscriber<T> implements Flow.Subscriber<T> {
+    final Subscriber<T> subscriber;
+
+    FromJdkSubscriber(Subscriber<T> subscriber) {
+      this.subscriber = subscriber;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      subscriber.onSubscribe(toJdkSubscription(subscription));
+    }
+
+    @Override
+    public void onNext(T item) {
+      subscriber.onNext(item);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      subscriber.onError(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+      subscriber.onComplete();
+    }
+  }
+
+  static final class ToJdkProcessor<T, R> implements Processor<T, R> {
+    final Flow.Processor<T, R> processor;
+
+    ToJdkProcessor(Flow.Processor<T, R> processor) {
+      this.processor = processor;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super R> subscriber) {
+      processor.subscribe(fromJdkSubscriber(subscriber));
+    }
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+      processor.onSubscribe(fromJdkSubscription(subscription));
+    }
+
+    @Override
+    public void onNext(T item) {
+      processor.onNext(item);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      processor.onError(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+      processor.onComplete();
+    }
+  }
+
+  static final class FromJdkProcessor<T, R> implements Flow.Processor<T, R> {
+    final Processor<T, R> processor;
+
+    FromJdkProcessor(Processor<T, R> processor) {
+      this.processor = processor;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super R> subscriber) {
+      processor.subscribe(toJdkSubscriber(subscriber));
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      processor.onSubscribe(toJdkSubscription(subscription));
+    }
+
+    @Override
+    public void onNext(T item) {
+      processor.onNext(item);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      processor.onError(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+      processor.onComplete();
+    }
+  }
+
+  static final class ToJdkSubscription implements Subscription {
+    final Flow.Subscription subscription;
+
+    ToJdkSubscription(Flow.Subscription subscription) {
+      this.subscription = subscription;
+    }
+
+    @Override
+    public void request(long n) {
+      subscription.request(n);
+    }
+
+    @Override
+    public void cancel() {
+      subscription.cancel();
+    }
+  }
+
+  static final class FromJdkSubscription implements Flow.Subscription {
+    final Subscription subscription;
+
+    FromJdkSubscription(Subscription subscription) {
+      this.subscription = subscription;
+    }
+
+    @Override
+    public void request(long n) {
+      subscription.request(n);
+    }
+
+    @Override
+    public void cancel() {
+      subscription.cancel();
+    }
+  }
+}
@@ -0,0 +1,40 @@
+package com.github.kratorius.jefs;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Memory-ordered accesses to the elements of a {@code long[]}.
+ *
+ * This is the Java 9 implementation, based on VarHandles.
+ */
+final class LongArrays {
+  private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+
+  private LongArrays() {
+  }
+
+  static long getVolatile(long[] array, int idx) {
+    return (long) LONGS.getVolatile(array, idx);
+  }
+
+  static long getAcquire(long[] array, int idx) {
+    return (long) LONGS.getAcquire(array, idx);
+  }
+
+  static void setRelease(long[] array, int idx, long value) {
+    LONGS.setRelease(array, idx, value);
+  }
+
+  static boolean compareAndSet(long[] array, int idx, long expected, long value) {
+    return LONGS.compareAndSet(array, idx, expected, value);
+  }
+
+  /**
+   * Like {@link #compareAndSet(long[], int, long, long)}, but may fail spuriously:
+   * only meant to be used in retry loops.
+   */
+  static boolean weakCompareAndSet(long[] array, int idx, long expected, long value) {
+    return LONGS.weakCompareAndSet(array, idx, expected, value);
+  }
+}
@@ -0,0 +1,36 @@
+package com.github.kratorius.jefs;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Memory-ordered accesses to the elements of an {@code Object[]}.
+ *
+ * This is the Java 9 implementation, based on VarHandles.
+ */
+final class ObjectArrays {
+  private static final VarHandle OBJECTS = MethodHandles.arrayElementVarHandle(Object[].class);
+
+  private ObjectArrays() {
+  }
+
+  static Object getVolatile(Object[] array, int idx) {
+    return OBJECTS.getVolatile(array, idx);
+  }
+
+  static Object getAcquire(Object[] array, int idx) {
+    return OBJECTS.getAcquire(array, idx);
+  }
+
+  static void setRelease(Object[] array, int idx, Object value) {
+    OBJECTS.setRelease(array, idx, value);
+  }
+
+  static boolean compareAndSet(Object[] array, int idx, Object expected, Object value) {
+    return OBJECTS.compareAndSet(array, idx, expected, value);
+  }
+
+  static Object getAndSet(Object[] array, int idx, Object value) {
+    return OBJECTS.getAndSet(array, idx, value);
+  }
+}
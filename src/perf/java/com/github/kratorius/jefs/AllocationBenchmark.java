@@ -0,0 +1,91 @@
+package com.github.kratorius.jefs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the hot path operation of every data structure on a single thread, to be
+ * looked at under the GC profiler: apart from {@code stackPushPop}, which
+ * allocates a node for every push, none of them should cause a single garbage
+ * collection. The allocation budgets are enforced by {@code AllocationTest}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@Threads(1)
+@State(Scope.Thread)
+public class AllocationBenchmark {
+  private static final int BITS = 1 << 16;
+
+  private Integer value = 123;
+  private int index = 0;
+
+  private SPSCQueue<Integer> queue = new SPSCQueue<>(1024);
+  private LFStack<Integer> stack = new LFStack<>();
+  private LFBitSet bitset = new LFBitSet(BITS);
+  private LFBloomFilter bloomFilter = new LFBloomFilter(100000, 0.01);
+  private LFCountMinSketch sketch = new LFCountMinSketch(4, 1 << 14, 8);
+
+  private int nextIndex() {
+    return index = (index + 1) & (BITS - 1);
+  }
+
+  @Benchmark
+  public Integer queueOfferPoll() {
+    queue.offer(value);
+    return queue.poll();
+  }
+
+  @Benchmark
+  public Integer stackPushPop() {
+    stack.push(value);
+    return stack.remove();
+  }
+
+  @Benchmark
+  public boolean bitsetFlip() {
+    final int i = nextIndex();
+    bitset.flip(i);
+    return bitset.get(i);
+  }
+
+  @Benchmark
+  public boolean bloomFilterAdd() {
+    final long key = nextIndex();
+    bloomFilter.add(key);
+    return bloomFilter.mightContain(key);
+  }
+
+  @Benchmark
+  public int sketchAdd() {
+    final long key = nextIndex();
+    sketch.add(key);
+    return sketch.estimateCount(key);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    Options options = new OptionsBuilder()
+        .include(AllocationBenchmark.class.getSimpleName())
+        .addProfiler(GCProfiler.class)
+        .build();
+
+    new Runner(options).run();
+  }
+}
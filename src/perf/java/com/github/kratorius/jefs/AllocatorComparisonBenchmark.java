@@ -0,0 +1,72 @@
+package com.github.kratorius.jefs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares allocating and freeing a block with {@link SlabAllocator} with
+ * allocating a direct {@link ByteBuffer} of the same size and leaving it to
+ * the garbage collector, and with a heap {@code byte[]}.
+ *
+ * The number of threads can be changed with {@code -t}, see
+ * {@link ComparisonSuite} to run a range of thread counts.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(5)
+@State(Scope.Benchmark)
+public class AllocatorComparisonBenchmark {
+  @Param({"SlabAllocator", "allocateDirect", "byte[]"})
+  private String impl;
+
+  @Param({"64"})
+  private int size;
+
+  private SlabAllocator allocator;
+
+  @Setup
+  public void setUp() {
+    switch (impl) {
+      case "SlabAllocator":
+        allocator = SlabAllocator.allocateDirect(64 << 20, 1 << 20, size);
+        break;
+      case "allocateDirect":
+      case "byte[]":
+        break;
+      default:
+        throw new IllegalArgumentException(impl);
+    }
+  }
+
+  @Benchmark
+  public Object allocateAndWrite() {
+    if (allocator != null) {
+      final long address = allocator.allocate(size);
+      allocator.region(address).putLong(allocator.offset(address), address);
+      allocator.free(address);
+      return allocator;
+    } else if (impl.equals("allocateDirect")) {
+      final ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+      buffer.putLong(0, size);
+      return buffer;
+    } else {
+      final byte[] bytes = new byte[size];
+      bytes[0] = 1;
+      return bytes;
+    }
+  }
+}
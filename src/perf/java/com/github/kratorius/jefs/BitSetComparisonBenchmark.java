@@ -0,0 +1,79 @@
+package com.github.kratorius.jefs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.BitSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link LFBitSet} with a {@link BitSet} guarded by its own monitor,
+ * setting and reading random bits from every thread.
+ *
+ * The number of threads can be changed with {@code -t}; see
+ * {@link ComparisonSuite} to run a range of thread counts.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(5)
+@State(Scope.Benchmark)
+public class BitSetComparisonBenchmark {
+  @Param({"LFBitSet", "synchronized BitSet"})
+  private String impl;
+
+  @Param({"4096", "16777216"})
+  private int nbits;
+
+  private LFBitSet lfBitSet;
+  private BitSet bitSet;
+
+  @Setup
+  public void setUp() {
+    switch (impl) {
+      case "LFBitSet":
+        lfBitSet = new LFBitSet(nbits);
+        break;
+      case "synchronized BitSet":
+        bitSet = new BitSet(nbits);
+        break;
+      default:
+        throw new IllegalArgumentException(impl);
+    }
+  }
+
+  @Benchmark
+  public void set() {
+    final int bit = ThreadLocalRandom.current().nextInt(nbits);
+    if (lfBitSet != null) {
+      lfBitSet.set(bit);
+    } else {
+      synchronized (bitSet) {
+        bitSet.set(bit);
+      }
+    }
+  }
+
+  @Benchmark
+  public boolean get() {
+    final int bit = ThreadLocalRandom.current().nextInt(nbits);
+    if (lfBitSet != null) {
+      return lfBitSet.get(bit);
+    } else {
+      synchronized (bitSet) {
+        return bitSet.get(bit);
+      }
+    }
+  }
+}
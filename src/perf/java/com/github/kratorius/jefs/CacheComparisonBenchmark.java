@@ -0,0 +1,92 @@
+package com.github.kratorius.jefs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link ClockCache} with a synchronized access ordered
+ * {@link LinkedHashMap}, the usual LRU cache, on a read mostly workload: keys
+ * are drawn from twice as many as the cache can hold, and a miss puts the key
+ * in the cache.
+ *
+ * The number of threads can be changed with {@code -t}, see
+ * {@link ComparisonSuite} to run a range of thread counts.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(5)
+@State(Scope.Benchmark)
+public class CacheComparisonBenchmark {
+  @Param({"ClockCache", "LinkedHashMap"})
+  private String impl;
+
+  @Param({"65536"})
+  private int capacity;
+
+  private Integer[] keys;
+  private ClockCache<Integer, Integer> clock;
+  private Map<Integer, Integer> lru;
+
+  @Setup
+  public void setUp() {
+    keys = new Integer[capacity * 2];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = i;
+    }
+
+    switch (impl) {
+      case "ClockCache":
+        clock = new ClockCache<>(capacity);
+        break;
+      case "LinkedHashMap":
+        final int max = capacity;
+        lru = Collections.synchronizedMap(new LinkedHashMap<Integer, Integer>(capacity * 2, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<Integer, Integer> eldest) {
+            return size() > max;
+          }
+        });
+        break;
+      default:
+        throw new IllegalArgumentException(impl);
+    }
+  }
+
+  @Benchmark
+  public Integer getOrPut() {
+    // skewed towards the lower keys, so that there's something to keep
+    final ThreadLocalRandom random = ThreadLocalRandom.current();
+    final Integer key = keys[Math.min(random.nextInt(keys.length), random.nextInt(keys.length))];
+
+    if (clock != null) {
+      final Integer value = clock.get(key);
+      if (value == null) {
+        clock.put(key, key);
+      }
+      return value;
+    } else {
+      final Integer value = lru.get(key);
+      if (value == null) {
+        lru.put(key, key);
+      }
+      return value;
+    }
+  }
+}
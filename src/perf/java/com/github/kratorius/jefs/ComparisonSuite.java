@@ -0,0 +1,94 @@
+package com.github.kratorius.jefs;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.util.regex.Pattern;
+
+/**
+ * Runs the comparison benchmarks across a range of thread counts and
+ * producer/consumer ratios, writing the results of every run as JSON so
+ * that they can be plotted as scaling curves.
+ *
+ * Usage: {@code ComparisonSuite [output directory] [max threads]}; results go
+ * to {@code build/jmh} by default and thread counts double from 1 up to twice
+ * the number of available processors.
+ */
+public class ComparisonSuite {
+  private static final int[][] RATIOS = { {1, 1}, {2, 1}, {1, 2}, {4, 1}, {1, 4} };
+
+  public static void main(String[] args) throws RunnerException {
+    final File outputDir = new File(args.length > 0 ? args[0] : "build/jmh");
+    final int maxThreads = args.length > 1
+        ? Integer.parseInt(args[1])
+        : Runtime.getRuntime().availableProcessors() * 2;
+
+    if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+      throw new IllegalArgumentException("can't create " + outputDir);
+    }
+
+    // SPSCQueue only supports a single producer and a single consumer
+    run(outputDir, "queue-1p-1c", benchmark(QueueComparisonBenchmark.class));
+    // as does the writer of JournalQueue
+    run(outputDir, "journal-1t", benchmark(JournalComparisonBenchmark.class));
+
+    for (int[] ratio : RATIOS) {
+      run(outputDir, "stack-" + ratio[0] + "p-" + ratio[1] + "c",
+          benchmark(StackComparisonBenchmark.class).threadGroups(ratio));
+      run(outputDir, "linkedqueue-" + ratio[0] + "p-" + ratio[1] + "c",
+          benchmark(LinkedQueueComparisonBenchmark.class).threadGroups(ratio));
+    }
+
+    // FanInQueue, MPSCQueue, RecordRing and ConflatingQueue only support a
+    // single consumer
+    for (int producers = 1; producers <= maxThreads; producers *= 2) {
+      run(outputDir, "fanin-" + producers + "p-1c",
+          benchmark(FanInComparisonBenchmark.class).threadGroups(producers, 1));
+      run(outputDir, "records-" + producers + "p-1c",
+          benchmark(RecordRingComparisonBenchmark.class).threadGroups(producers, 1));
+      run(outputDir, "conflating-" + producers + "p-1c",
+          benchmark(ConflatingComparisonBenchmark.class).threadGroups(producers, 1));
+    }
+
+    for (int threads = 1; threads <= maxThreads; threads *= 2) {
+      run(outputDir, "bitset-" + threads + "t",
+          benchmark(BitSetComparisonBenchmark.class).threads(threads));
+      run(outputDir, "counters-" + threads + "t",
+          benchmark(CounterComparisonBenchmark.class).threads(threads));
+      run(outputDir, "longmap-" + threads + "t",
+          benchmark(LongMapComparisonBenchmark.class).threads(threads));
+      run(outputDir, "priorityqueue-" + threads + "t",
+          benchmark(PriorityQueueComparisonBenchmark.class).threads(threads));
+      run(outputDir, "timers-" + threads + "t",
+          benchmark(TimerComparisonBenchmark.class).threads(threads));
+      run(outputDir, "cache-" + threads + "t",
+          benchmark(CacheComparisonBenchmark.class).threads(threads));
+      run(outputDir, "allocator-" + threads + "t",
+          benchmark(AllocatorComparisonBenchmark.class).threads(threads));
+      run(outputDir, "log-" + threads + "t",
+          benchmark(LogComparisonBenchmark.class).threads(threads));
+      run(outputDir, "recorder-" + threads + "t",
+          benchmark(RecorderComparisonBenchmark.class).threads(threads));
+    }
+  }
+
+  // includes are regular expressions that only need to match part of the
+  // benchmark name: anchored, so that QueueComparisonBenchmark doesn't pick
+  // up LinkedQueueComparisonBenchmark and PriorityQueueComparisonBenchmark
+  private static ChainedOptionsBuilder benchmark(Class<?> benchmark) {
+    return new OptionsBuilder()
+        .include("^" + Pattern.quote(benchmark.getName()) + "\\.");
+  }
+
+  private static void run(File outputDir, String name, ChainedOptionsBuilder options)
+      throws RunnerException {
+    new Runner(options
+        .resultFormat(ResultFormatType.JSON)
+        .result(new File(outputDir, name + ".json").getPath())
+        .build()).run();
+  }
+}
@@ -0,0 +1,108 @@
+package com.github.kratorius.jefs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link ConflatingQueue} with an {@link MPSCQueue} of updates, with
+ * several producers updating a fixed set of keys and a single consumer. The
+ * {@link MPSCQueue} has to deliver every update and rejects them once it's
+ * full, while {@link ConflatingQueue} only delivers the latest value of each
+ * key and never rejects an update for a known key.
+ *
+ * The number of producers can be changed with {@code -tg <producers>,1}, see
+ * {@link ComparisonSuite} to run a range of producer counts.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(5)
+@State(Scope.Group)
+public class ConflatingComparisonBenchmark {
+  @Param({"ConflatingQueue", "MPSCQueue"})
+  private String impl;
+
+  @Param({"64", "4096"})
+  private int keys;
+
+  @Param({"1024"})
+  private int capacity;
+
+  private Integer[] updates;
+  private ConflatingQueue<Integer, Integer> conflating;
+  private MPSCQueue<Integer> queue;
+
+  @State(Scope.Thread)
+  public static class Producer {
+    int next;
+  }
+
+  @Setup
+  public void setUp() {
+    updates = new Integer[keys];
+    for (int i = 0; i < keys; i++) {
+      updates[i] = i;
+    }
+
+    switch (impl) {
+      case "ConflatingQueue":
+        conflating = new ConflatingQueue<>(keys);
+        break;
+      case "MPSCQueue":
+        queue = new MPSCQueue<>(capacity);
+        break;
+      default:
+        throw new IllegalArgumentException(impl);
+    }
+  }
+
+  @Benchmark
+  @Group("updates")
+  @GroupThreads(1)
+  public void offer(Producer producer) {
+    final Integer update = updates[producer.next];
+    producer.next = producer.next + 1 == keys ? 0 : producer.next + 1;
+    final boolean offered = conflating != null ? conflating.offer(update, update) : queue.offer(update);
+    if (!offered) {
+      Thread.yield();
+    }
+  }
+
+  @Benchmark
+  @Group("updates")
+  @GroupThreads(1)
+  public Integer poll() {
+    final Integer v = conflating != null ? conflating.poll() : queue.poll();
+    if (v == null) {
+      Thread.yield();
+    }
+    return v;
+  }
+
+  @TearDown(Level.Iteration)
+  public void tearDown() {
+    if (conflating != null) {
+      while (conflating.poll() != null) {
+        // drain it
+      }
+    } else {
+      queue.clear();
+    }
+  }
+}
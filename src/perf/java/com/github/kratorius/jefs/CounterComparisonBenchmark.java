@@ -0,0 +1,85 @@
+package com.github.kratorius.jefs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Compares {@link LFCounterArray} (16 bits per counter) with an
+ * {@link AtomicLongArray}, incrementing and reading random counters from
+ * every thread. With the larger size the {@link AtomicLongArray} takes 32MB,
+ * against the 8MB of the packed counters.
+ *
+ * Counters are reset at every iteration so that they never saturate, which
+ * would turn increments into plain reads.
+ *
+ * The number of threads can be changed with {@code -t}; see
+ * {@link ComparisonSuite} to run a range of thread counts.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(5)
+@State(Scope.Benchmark)
+public class CounterComparisonBenchmark {
+  @Param({"LFCounterArray", "AtomicLongArray"})
+  private String impl;
+
+  @Param({"4096", "4194304"})
+  private int length;
+
+  private LFCounterArray counters;
+  private AtomicLongArray atomics;
+
+  @Setup
+  public void setUp() {
+    switch (impl) {
+      case "LFCounterArray":
+        counters = new LFCounterArray(length, 16);
+        break;
+      case "AtomicLongArray":
+        atomics = new AtomicLongArray(length);
+        break;
+      default:
+        throw new IllegalArgumentException(impl);
+    }
+  }
+
+  @TearDown(Level.Iteration)
+  public void tearDown() {
+    if (counters != null) {
+      counters.clear();
+    } else {
+      for (int i = 0; i < length; i++) {
+        atomics.set(i, 0);
+      }
+    }
+  }
+
+  @Benchmark
+  public long increment() {
+    final int index = ThreadLocalRandom.current().nextInt(length);
+    return counters != null ? counters.increment(index) : atomics.incrementAndGet(index);
+  }
+
+  @Benchmark
+  public long get() {
+    final int index = ThreadLocalRandom.current().nextInt(length);
+    return counters != null ? counters.get(index) : atomics.get(index);
+  }
+}
@@ -0,0 +1,92 @@
+package com.github.kratorius.jefs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link FanInQueue} with {@link MPSCQueue} and
+ * {@link ConcurrentLinkedQueue}, with several producers and a single consumer.
+ * {@link ConcurrentLinkedQueue} is unbounded, so the capacity doesn't apply to
+ * it; for {@link FanInQueue} it's the capacity of each lane.
+ *
+ * The number of producers can be changed with {@code -tg <producers>,1}, see
+ * {@link ComparisonSuite} to run a range of producer counts.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(5)
+@State(Scope.Group)
+public class FanInComparisonBenchmark {
+  // more than ComparisonSuite ever runs
+  private static final int MAX_PRODUCERS = 256;
+
+  @Param({"FanInQueue", "MPSCQueue", "ConcurrentLinkedQueue"})
+  private String impl;
+
+  @Param({"1024"})
+  private int capacity;
+
+  private final Integer constValue = 123;
+  private Queue<Integer> queue;
+
+  @Setup
+  public void setUp() {
+    switch (impl) {
+      case "FanInQueue":
+        queue = new FanInQueue<>(MAX_PRODUCERS, capacity);
+        break;
+      case "MPSCQueue":
+        queue = new MPSCQueue<>(capacity);
+        break;
+      case "ConcurrentLinkedQueue":
+        queue = new ConcurrentLinkedQueue<>();
+        break;
+      default:
+        throw new IllegalArgumentException(impl);
+    }
+  }
+
+  @Benchmark
+  @Group("fanin")
+  @GroupThreads(1)
+  public void offer() {
+    if (!queue.offer(constValue)) {
+      Thread.yield();
+    }
+  }
+
+  @Benchmark
+  @Group("fanin")
+  @GroupThreads(1)
+  public Integer poll() {
+    Integer v = queue.poll();
+    if (v == null) {
+      Thread.yield();
+    }
+    return v;
+  }
+
+  @TearDown(Level.Iteration)
+  public void tearDown() {
+    queue.clear();
+  }
+}
@@ -0,0 +1,88 @@
+package com.github.kratorius.jefs;
+
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency of a producer that sends messages through a queue at a
+ * fixed rate, corrected for coordinated omission.
+ *
+ * Every message carries the time at which it was <em>supposed</em> to be sent
+ * rather than the time it was actually sent: when the producer stalls (because
+ * the queue is full, or it got descheduled) the delay shows up in the latency
+ * of every message that should have been sent in the meantime, as it would for
+ * a real client sending requests at that rate.
+ *
+ * Usage: {@code FixedRateLatency [SPSCQueue|ArrayBlockingQueue] [messages per second]
+ * [seconds] [capacity]}. The first second of every run is used as warm up and
+ * not reported.
+ */
+public class FixedRateLatency {
+  private static final double[] PERCENTILES = { 0.5, 0.99, 0.999, 0.9999 };
+
+  public static void main(String[] args) throws InterruptedException {
+    final String impl = args.length > 0 ? args[0] : "SPSCQueue";
+    final long rate = args.length > 1 ? Long.parseLong(args[1]) : 1000000;
+    final long seconds = args.length > 2 ? Long.parseLong(args[2]) : 10;
+    final int capacity = args.length > 3 ? Integer.parseInt(args[3]) : 1024;
+
+    final Queue<Long> queue;
+    switch (impl) {
+      case "SPSCQueue":
+        queue = new SPSCQueue<>(capacity);
+        break;
+      case "ArrayBlockingQueue":
+        queue = new ArrayBlockingQueue<>(capacity);
+        break;
+      default:
+        throw new IllegalArgumentException(impl);
+    }
+
+    final long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+    final long warmupMessages = rate;
+    final long totalMessages = rate * (seconds + 1);
+    final LatencyHistogram histogram = new LatencyHistogram();
+
+    final Thread consumer = new Thread(() -> {
+      for (long received = 0; received < totalMessages; ) {
+        final Long intended = queue.poll();
+        if (intended == null) {
+          continue;
+        }
+
+        histogram.record(System.nanoTime() - intended);
+        if (++received == warmupMessages) {
+          histogram.reset();
+        }
+      }
+    });
+
+    final Thread producer = new Thread(() -> {
+      final long start = System.nanoTime();
+      for (long i = 0; i < totalMessages; i++) {
+        final long intended = start + i * intervalNanos;
+        while (System.nanoTime() < intended) {
+          // busy spin until it's time to send the next message
+        }
+
+        final Long message = intended;
+        while (!queue.offer(message)) {
+          // the delay is accounted for by the intended send time
+        }
+      }
+    });
+
+    consumer.start();
+    producer.start();
+    producer.join();
+    consumer.join();
+
+    System.out.printf("%s, %d msg/s, capacity %d, %d samples%n",
+        impl, rate, capacity, histogram.count());
+    for (double percentile : PERCENTILES) {
+      System.out.printf("  p%-7s %,12d ns%n", percentile * 100, histogram.percentile(percentile));
+    }
+    System.out.printf("  max      %,12d ns%n", histogram.max());
+  }
+}
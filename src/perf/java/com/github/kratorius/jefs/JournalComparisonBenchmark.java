@@ -0,0 +1,93 @@
+package com.github.kratorius.jefs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Compares appending a record to a {@link JournalQueue}, a copy into a memory
+ * mapped file, with writing it to a {@link FileChannel}, a system call per
+ * record. Each measurement appends a batch of records to a new journal, so
+ * that the files don't grow without bounds.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, batchSize = 100000)
+@Measurement(iterations = 20, batchSize = 100000)
+@Fork(5)
+@State(Scope.Benchmark)
+public class JournalComparisonBenchmark {
+  @Param({"JournalQueue", "FileChannel"})
+  private String impl;
+
+  @Param({"64"})
+  private int size;
+
+  private Path directory;
+  private ByteBuffer record;
+  private JournalQueue journal;
+  private FileChannel channel;
+
+  @Setup(Level.Iteration)
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("journal-benchmark");
+    record = ByteBuffer.allocateDirect(size);
+
+    switch (impl) {
+      case "JournalQueue":
+        journal = JournalQueue.open(directory, 16 << 20);
+        break;
+      case "FileChannel":
+        channel = FileChannel.open(directory.resolve("log"),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        break;
+      default:
+        throw new IllegalArgumentException(impl);
+    }
+  }
+
+  @TearDown(Level.Iteration)
+  public void tearDown() throws IOException {
+    if (channel != null) {
+      channel.close();
+    }
+    if (journal != null) {
+      journal.close();
+    }
+    journal = null;
+    channel = null;
+    try (Stream<Path> files = Files.walk(directory)) {
+      files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+    }
+  }
+
+  @Benchmark
+  public long append() throws IOException {
+    record.clear();
+    if (journal != null) {
+      return journal.append(record);
+    } else {
+      return channel.write(record);
+    }
+  }
+}
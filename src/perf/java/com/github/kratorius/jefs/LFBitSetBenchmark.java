@@ -0,0 +1,71 @@
+package com.github.kratorius.jefs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Every thread keeps flipping its own bit, with each thread owning the bit next
+ * to the one of the previous thread. With a dense layout ({@code stripes = 1})
+ * all the bits share the same word and the CAS loops keep failing; with more
+ * stripes than threads every bit lives on its own cache line.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(5)
+@Threads(4)
+@State(Scope.Benchmark)
+public class LFBitSetBenchmark {
+  @Param({"1", "16"})
+  private int stripes;
+
+  private LFBitSet bitset;
+  private final AtomicInteger nextBit = new AtomicInteger();
+
+  @State(Scope.Thread)
+  public static class OwnedBit {
+    int bit;
+
+    @Setup
+    public void setUp(LFBitSetBenchmark benchmark) {
+      bit = benchmark.nextBit.getAndIncrement();
+    }
+  }
+
+  @Setup
+  public void setUp() {
+    bitset = new LFBitSet(1024, stripes);
+  }
+
+  @Benchmark
+  public void flipOwnBit(OwnedBit owned) {
+    bitset.flip(owned.bit);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    Options options = new OptionsBuilder()
+        .include(".*")
+        .forks(1)
+        .build();
+
+    new Runner(options).run();
+  }
+}
@@ -0,0 +1,108 @@
+package com.github.kratorius.jefs;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the standard and the blocked Bloom filters, both sized for 1M keys
+ * and a 1% false positive rate.
+ *
+ * The lookup benchmarks only query keys that were never added, so the ratio
+ * between the {@code falsePositives} and {@code lookups} counters reported
+ * alongside them is the observed false positive rate.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(5)
+@Threads(4)
+@State(Scope.Benchmark)
+public class LFBloomFilterBenchmark {
+  private static final int INSERTIONS = 1000000;
+
+  private LFBloomFilter standard = new LFBloomFilter(INSERTIONS, 0.01);
+  private LFBlockedBloomFilter blocked = new LFBlockedBloomFilter(INSERTIONS, 0.01);
+
+  @AuxCounters
+  @State(Scope.Thread)
+  public static class Counters {
+    public long lookups;
+    public long falsePositives;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      lookups = 0;
+      falsePositives = 0;
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    for (long i = 0; i < INSERTIONS; i++) {
+      standard.add(i);
+      blocked.add(i);
+    }
+  }
+
+  private static long absentKey() {
+    return ThreadLocalRandom.current().nextLong(INSERTIONS, Long.MAX_VALUE);
+  }
+
+  @Benchmark
+  public void addStandard() {
+    standard.add(ThreadLocalRandom.current().nextLong());
+  }
+
+  @Benchmark
+  public void addBlocked() {
+    blocked.add(ThreadLocalRandom.current().nextLong());
+  }
+
+  @Benchmark
+  public boolean lookupStandard(Counters counters) {
+    final boolean found = standard.mightContain(absentKey());
+    counters.lookups++;
+    if (found) {
+      counters.falsePositives++;
+    }
+    return found;
+  }
+
+  @Benchmark
+  public boolean lookupBlocked(Counters counters) {
+    final boolean found = blocked.mightContain(absentKey());
+    counters.lookups++;
+    if (found) {
+      counters.falsePositives++;
+    }
+    return found;
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    Options options = new OptionsBuilder()
+        .include(".*")
+        .forks(1)
+        .build();
+
+    new Runner(options).run();
+  }
+}
@@ -0,0 +1,79 @@
+package com.github.kratorius.jefs;
+
+import java.util.Arrays;
+
+/**
+ * A minimal log-linear histogram of latencies in nanoseconds, good enough to
+ * report percentiles with about 3% of precision without any allocation while
+ * recording.
+ *
+ * Values are grouped by their highest set bit, and each of those ranges is
+ * split in 32 linear sub-buckets. Not thread-safe: every thread should record
+ * in its own histogram.
+ */
+class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  private final long[] counts = new long[64 * SUB_BUCKETS];
+  private long total;
+  private long max;
+
+  private static int bucketOf(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+
+    final int magnitude = 63 - Long.numberOfLeadingZeros(value);
+    final int sub = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+  }
+
+  private static long highestValueOf(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+
+    final int magnitude = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    final long sub = bucket & (SUB_BUCKETS - 1);
+    return ((SUB_BUCKETS + sub + 1) << (magnitude - SUB_BUCKET_BITS)) - 1;
+  }
+
+  void record(long nanos) {
+    final long value = Math.max(0, nanos);
+    counts[bucketOf(value)]++;
+    total++;
+    max = Math.max(max, value);
+  }
+
+  long count() {
+    return total;
+  }
+
+  long max() {
+    return max;
+  }
+
+  /**
+   * Returns the value below which the given fraction of the recorded values falls.
+   * @param fraction a value between 0 and 1, e.g. 0.999 for the 99.9th percentile
+   * @return the upper bound of the bucket holding the requested percentile
+   */
+  long percentile(double fraction) {
+    final long target = (long) Math.ceil(fraction * total);
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= target && seen > 0) {
+        return Math.min(highestValueOf(i), max);
+      }
+    }
+    return max;
+  }
+
+  void reset() {
+    Arrays.fill(counts, 0);
+    total = 0;
+    max = 0;
+  }
+}
@@ -0,0 +1,113 @@
+package com.github.kratorius.jefs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link LFQueue} with the unbounded multiple producers-multiple
+ * consumers queues of the JDK, adding either one item at a time or a batch of
+ * items at once with {@code addAll}. All of them are unbounded, so they are
+ * emptied at the end of every iteration.
+ *
+ * The ratio between producing and consuming threads defaults to 1:1 and can be
+ * changed with {@code -tg}, e.g. {@code -tg 3,1} for three producers and one
+ * consumer; see {@link ComparisonSuite} to run a range of ratios.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(5)
+@State(Scope.Group)
+public class LinkedQueueComparisonBenchmark {
+  private static final int BATCH = 16;
+
+  @Param({"LFQueue", "ConcurrentLinkedQueue", "LinkedTransferQueue"})
+  private String impl;
+
+  private final Integer constValue = 123;
+  private final List<Integer> batch = new ArrayList<>();
+  private Queue<Integer> queue;
+
+  @Setup
+  public void setUp() {
+    switch (impl) {
+      case "LFQueue":
+        queue = new LFQueue<>();
+        break;
+      case "ConcurrentLinkedQueue":
+        queue = new ConcurrentLinkedQueue<>();
+        break;
+      case "LinkedTransferQueue":
+        queue = new LinkedTransferQueue<>();
+        break;
+      default:
+        throw new IllegalArgumentException(impl);
+    }
+
+    for (int i = 0; i < BATCH; i++) {
+      batch.add(constValue);
+    }
+  }
+
+  @Benchmark
+  @Group("queue")
+  @GroupThreads(1)
+  public void offer() {
+    queue.offer(constValue);
+  }
+
+  @Benchmark
+  @Group("queue")
+  @GroupThreads(1)
+  public Integer poll() {
+    return pollOrYield();
+  }
+
+  @Benchmark
+  @Group("batch")
+  @GroupThreads(1)
+  public void addAll() {
+    queue.addAll(batch);
+  }
+
+  @Benchmark
+  @Group("batch")
+  @GroupThreads(1)
+  public Integer pollBatch() {
+    return pollOrYield();
+  }
+
+  private Integer pollOrYield() {
+    Integer v = queue.poll();
+    if (v == null) {
+      Thread.yield();
+    }
+    return v;
+  }
+
+  @TearDown(Level.Iteration)
+  public void tearDown() {
+    queue.clear();
+  }
+}
@@ -0,0 +1,87 @@
+package com.github.kratorius.jefs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares appending lines to an {@link AsyncLog} with writing each of them
+ * to the file straight away, as a logger without a background writer does.
+ *
+ * The number of threads logging can be changed with {@code -t}, see
+ * {@link ComparisonSuite} to run a range of thread counts.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(5)
+@State(Scope.Benchmark)
+public class LogComparisonBenchmark {
+  private static final String LINE = "2015-06-01 12:00:00.000 INFO  request served in 123us";
+
+  @Param({"AsyncLog", "FileChannel"})
+  private String impl;
+
+  private Path file;
+  private FileChannel channel;
+  private AsyncLog<CharSequence> log;
+
+  @Setup
+  public void setUp() throws IOException {
+    file = Files.createTempFile("jefs-bench", ".log");
+    channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    switch (impl) {
+      case "AsyncLog":
+        log = new AsyncLog<>(channel, AsyncLog.lines(), 64 * 1024, 64 * 1024, 16);
+        log.start();
+        break;
+      case "FileChannel":
+        break;
+      default:
+        throw new IllegalArgumentException(impl);
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    if (log != null) {
+      log.close();
+    }
+    channel.close();
+    Files.delete(file);
+  }
+
+  @Benchmark
+  public void append() throws IOException {
+    if (log != null) {
+      // wait for the writer rather than count rejected lines
+      while (!log.append(LINE)) {
+        Thread.yield();
+      }
+    } else {
+      final ByteBuffer line = ByteBuffer.wrap((LINE + "\n").getBytes(StandardCharsets.UTF_8));
+      synchronized (channel) {
+        channel.write(line);
+      }
+    }
+  }
+}
@@ -0,0 +1,96 @@
+package com.github.kratorius.jefs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link LFLongLongHashMap} and {@link LFLongHashMap} with a
+ * {@link ConcurrentHashMap} of boxed keys, looking up and updating random keys
+ * of a map that already holds {@code size} entries.
+ *
+ * The number of threads can be changed with {@code -t}; see
+ * {@link ComparisonSuite} to run a range of thread counts.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(5)
+@State(Scope.Benchmark)
+public class LongMapComparisonBenchmark {
+  @Param({"LFLongLongHashMap", "LFLongHashMap", "ConcurrentHashMap"})
+  private String impl;
+
+  @Param({"1024", "1048576"})
+  private int size;
+
+  private LFLongLongHashMap longLongMap;
+  private LFLongHashMap<Long> longMap;
+  private ConcurrentHashMap<Long, Long> concurrentMap;
+
+  // shared by all the entries, so that only the maps themselves are measured
+  private final Long value = 123L;
+
+  @Setup
+  public void setUp() {
+    switch (impl) {
+      case "LFLongLongHashMap":
+        longLongMap = new LFLongLongHashMap();
+        for (long i = 0; i < size; i++) {
+          longLongMap.put(i, i);
+        }
+        break;
+      case "LFLongHashMap":
+        longMap = new LFLongHashMap<>();
+        for (long i = 0; i < size; i++) {
+          longMap.put(i, value);
+        }
+        break;
+      case "ConcurrentHashMap":
+        concurrentMap = new ConcurrentHashMap<>();
+        for (long i = 0; i < size; i++) {
+          concurrentMap.put(i, value);
+        }
+        break;
+      default:
+        throw new IllegalArgumentException(impl);
+    }
+  }
+
+  @Benchmark
+  public long get() {
+    final long key = ThreadLocalRandom.current().nextInt(size);
+    if (longLongMap != null) {
+      return longLongMap.get(key);
+    } else if (longMap != null) {
+      return longMap.get(key);
+    } else {
+      return concurrentMap.get(key);
+    }
+  }
+
+  @Benchmark
+  public void put() {
+    final long key = ThreadLocalRandom.current().nextInt(size);
+    if (longLongMap != null) {
+      longLongMap.put(key, key);
+    } else if (longMap != null) {
+      longMap.put(key, value);
+    } else {
+      concurrentMap.put(key, value);
+    }
+  }
+}
@@ -0,0 +1,104 @@
+package com.github.kratorius.jefs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link LFLongPriorityQueue} and {@link LFPriorityQueue} with a
+ * {@link PriorityBlockingQueue} and with a {@link ConcurrentSkipListMap} used
+ * as a priority queue through {@code pollFirstEntry()}.
+ *
+ * Every operation inserts an element with a random priority and then removes
+ * the lowest one, so that the queues keep holding about {@code size} elements.
+ *
+ * The number of threads can be changed with {@code -t}; see
+ * {@link ComparisonSuite} to run a range of thread counts.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(5)
+@State(Scope.Benchmark)
+public class PriorityQueueComparisonBenchmark {
+  @Param({"LFLongPriorityQueue", "LFPriorityQueue", "PriorityBlockingQueue", "ConcurrentSkipListMap"})
+  private String impl;
+
+  @Param({"1024", "1048576"})
+  private int size;
+
+  private LFLongPriorityQueue<Object> longQueue;
+  private LFPriorityQueue<Long> queue;
+  private PriorityBlockingQueue<Long> blockingQueue;
+  private ConcurrentSkipListMap<Long, Object> skipListMap;
+
+  // shared by all the elements, so that only the queues themselves are measured
+  private final Object item = new Object();
+
+  @Setup
+  public void setUp() {
+    final ThreadLocalRandom random = ThreadLocalRandom.current();
+    switch (impl) {
+      case "LFLongPriorityQueue":
+        longQueue = new LFLongPriorityQueue<>();
+        for (int i = 0; i < size; i++) {
+          longQueue.insert(random.nextLong(), item);
+        }
+        break;
+      case "LFPriorityQueue":
+        queue = new LFPriorityQueue<>();
+        for (int i = 0; i < size; i++) {
+          queue.insert(random.nextLong());
+        }
+        break;
+      case "PriorityBlockingQueue":
+        blockingQueue = new PriorityBlockingQueue<>();
+        for (int i = 0; i < size; i++) {
+          blockingQueue.offer(random.nextLong());
+        }
+        break;
+      case "ConcurrentSkipListMap":
+        // random 64 bit priorities practically never collide, so the keys
+        // don't need a tie breaker
+        skipListMap = new ConcurrentSkipListMap<>();
+        for (int i = 0; i < size; i++) {
+          skipListMap.put(random.nextLong(), item);
+        }
+        break;
+      default:
+        throw new IllegalArgumentException(impl);
+    }
+  }
+
+  @Benchmark
+  public Object insertDeleteMin() {
+    final long priority = ThreadLocalRandom.current().nextLong();
+    if (longQueue != null) {
+      longQueue.insert(priority, item);
+      return longQueue.deleteMin();
+    } else if (queue != null) {
+      queue.insert(priority);
+      return queue.deleteMin();
+    } else if (blockingQueue != null) {
+      blockingQueue.offer(priority);
+      return blockingQueue.poll();
+    } else {
+      skipListMap.put(priority, item);
+      return skipListMap.pollFirstEntry();
+    }
+  }
+}
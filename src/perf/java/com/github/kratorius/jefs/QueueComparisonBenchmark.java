@@ -0,0 +1,89 @@
+package com.github.kratorius.jefs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link SPSCQueue} with the JDK queues a single producer and a single
+ * consumer would otherwise use. Only one producer and one consumer are used,
+ * as that's all {@link SPSCQueue} supports; {@link ConcurrentLinkedQueue} is
+ * unbounded, so the capacity doesn't apply to it.
+ *
+ * See {@link ComparisonSuite} to run this with JSON output.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(5)
+@State(Scope.Group)
+public class QueueComparisonBenchmark {
+  @Param({"SPSCQueue", "ArrayBlockingQueue", "ConcurrentLinkedQueue"})
+  private String impl;
+
+  @Param({"1024", "1048576"})
+  private int capacity;
+
+  private final Integer constValue = 123;
+  private Queue<Integer> queue;
+
+  @Setup
+  public void setUp() {
+    switch (impl) {
+      case "SPSCQueue":
+        queue = new SPSCQueue<>(capacity);
+        break;
+      case "ArrayBlockingQueue":
+        queue = new ArrayBlockingQueue<>(capacity);
+        break;
+      case "ConcurrentLinkedQueue":
+        queue = new ConcurrentLinkedQueue<>();
+        break;
+      default:
+        throw new IllegalArgumentException(impl);
+    }
+  }
+
+  @Benchmark
+  @Group("queue")
+  @GroupThreads(1)
+  public void offer() {
+    if (!queue.offer(constValue)) {
+      Thread.yield();
+    }
+  }
+
+  @Benchmark
+  @Group("queue")
+  @GroupThreads(1)
+  public Integer poll() {
+    Integer v = queue.poll();
+    if (v == null) {
+      Thread.yield();
+    }
+    return v;
+  }
+
+  @TearDown(Level.Iteration)
+  public void tearDown() {
+    queue.clear();
+  }
+}
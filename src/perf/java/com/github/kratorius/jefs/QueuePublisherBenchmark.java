@@ -0,0 +1,89 @@
+package com.github.kratorius.jefs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how many items a {@link QueuePublisher} hands off to a subscriber
+ * running on another thread, depending on how many items the subscriber
+ * requests at a time: one item per request pays for a signal to the delivery
+ * task for every item, while larger requests are delivered in batches.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(5)
+@Threads(1)
+@State(Scope.Benchmark)
+public class QueuePublisherBenchmark {
+  @Param({"1", "64", "unbounded"})
+  private String request;
+
+  private final Integer value = 123;
+  private ExecutorService executor;
+  private QueuePublisher<Integer> publisher;
+
+  @Setup(Level.Iteration)
+  public void setUp() {
+    final long batch = request.equals("unbounded") ? Long.MAX_VALUE : Long.parseLong(request);
+    executor = Executors.newSingleThreadExecutor();
+    publisher = new QueuePublisher<>(executor, 1024);
+    publisher.subscribe(new Flow.Subscriber<Integer>() {
+      private Flow.Subscription subscription;
+      private long outstanding;
+      private long sum;
+
+      @Override
+      public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        outstanding = batch;
+        subscription.request(batch);
+      }
+
+      @Override
+      public void onNext(Integer item) {
+        sum += item;
+        if (batch != Long.MAX_VALUE && --outstanding == 0) {
+          outstanding = batch;
+          subscription.request(batch);
+        }
+      }
+
+      @Override
+      public void onError(Throwable throwable) {
+      }
+
+      @Override
+      public void onComplete() {
+      }
+    });
+  }
+
+  @TearDown(Level.Iteration)
+  public void tearDown() {
+    publisher.close();
+    executor.shutdownNow();
+  }
+
+  @Benchmark
+  public void submit() {
+    publisher.submit(value);
+  }
+}
@@ -0,0 +1,135 @@
+package com.github.kratorius.jefs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link RecordRing}, where records are written and read in place,
+ * with an {@link MPSCQueue} of {@code byte[]}, where every record is copied
+ * into an array of its own, with several producers and a single consumer. The
+ * consumer sums the first long of every record, so that both read the same
+ * data.
+ *
+ * The number of producers can be changed with {@code -tg <producers>,1}, see
+ * {@link ComparisonSuite} to run a range of producer counts.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(5)
+@State(Scope.Group)
+public class RecordRingComparisonBenchmark {
+  @Param({"RecordRing", "MPSCQueue"})
+  private String impl;
+
+  @Param({"64", "512"})
+  private int recordSize;
+
+  // bytes for RecordRing, records for MPSCQueue: both hold about 1024 records
+  @Param({"1024"})
+  private int capacity;
+
+  private RecordRing ring;
+  private MPSCQueue<byte[]> queue;
+
+  private long sum;
+  private final RecordRing.Handler handler = (buffer, offset, length) -> sum += buffer.getLong(offset);
+
+  @State(Scope.Thread)
+  public static class Producer {
+    ByteBuffer view;
+    long sequence;
+  }
+
+  @Setup
+  public void setUp() {
+    switch (impl) {
+      case "RecordRing":
+        ring = new RecordRing(capacity * (recordSize + 8));
+        break;
+      case "MPSCQueue":
+        queue = new MPSCQueue<>(capacity);
+        break;
+      default:
+        throw new IllegalArgumentException(impl);
+    }
+  }
+
+  @Benchmark
+  @Group("records")
+  @GroupThreads(1)
+  public void offer(Producer producer) {
+    final long sequence = producer.sequence++;
+    if (ring != null) {
+      if (producer.view == null) {
+        producer.view = ring.buffer();
+      }
+      final int offset = ring.claim(recordSize);
+      if (offset < 0) {
+        Thread.yield();
+        return;
+      }
+      for (int i = 0; i < recordSize; i += 8) {
+        producer.view.putLong(offset + i, sequence);
+      }
+      ring.commit(offset);
+    } else {
+      final byte[] record = new byte[recordSize];
+      final ByteBuffer view = ByteBuffer.wrap(record);
+      for (int i = 0; i < recordSize; i += 8) {
+        view.putLong(i, sequence);
+      }
+      if (!queue.offer(record)) {
+        Thread.yield();
+      }
+    }
+  }
+
+  @Benchmark
+  @Group("records")
+  @GroupThreads(1)
+  public void poll(Blackhole blackhole) {
+    if (ring != null) {
+      if (ring.read(handler, 1) == 0) {
+        Thread.yield();
+      }
+    } else {
+      final byte[] record = queue.poll();
+      if (record == null) {
+        Thread.yield();
+      } else {
+        sum += ByteBuffer.wrap(record).getLong(0);
+      }
+    }
+    blackhole.consume(sum);
+  }
+
+  @TearDown(Level.Iteration)
+  public void tearDown() {
+    if (ring != null) {
+      while (ring.read(handler, Integer.MAX_VALUE) != 0) {
+        // drain it
+      }
+    } else {
+      queue.clear();
+    }
+  }
+}
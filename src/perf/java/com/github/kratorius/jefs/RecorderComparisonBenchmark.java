@@ -0,0 +1,74 @@
+package com.github.kratorius.jefs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link FlightRecorder} with a circular buffer guarded by a lock,
+ * the usual way to keep the last events of many threads, recording from
+ * every thread.
+ *
+ * The number of threads can be changed with {@code -t}; see
+ * {@link ComparisonSuite} to run a range of thread counts.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(5)
+@State(Scope.Benchmark)
+public class RecorderComparisonBenchmark {
+  @Param({"FlightRecorder", "synchronized"})
+  private String impl;
+
+  @Param({"1024"})
+  private int capacity;
+
+  private final Integer constValue = 123;
+  private FlightRecorder<Integer> recorder;
+  private LockedRing ring;
+
+  static final class LockedRing {
+    private final Object[] events;
+    private long next;
+
+    LockedRing(int capacity) {
+      events = new Object[capacity];
+    }
+
+    synchronized long record(Object event) {
+      events[(int) (next % events.length)] = event;
+      return next++;
+    }
+  }
+
+  @Setup
+  public void setUp() {
+    switch (impl) {
+      case "FlightRecorder":
+        recorder = new FlightRecorder<>(capacity);
+        break;
+      case "synchronized":
+        ring = new LockedRing(capacity);
+        break;
+      default:
+        throw new IllegalArgumentException(impl);
+    }
+  }
+
+  @Benchmark
+  public long record() {
+    return recorder != null ? recorder.record(constValue) : ring.record(constValue);
+  }
+}
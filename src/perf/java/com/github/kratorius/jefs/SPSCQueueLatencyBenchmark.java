@@ -0,0 +1,174 @@
+package com.github.kratorius.jefs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Control;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Latency distribution of a handoff between two threads through a pair of
+ * queues, one in each direction. JMH samples the time of every operation and
+ * reports its percentiles (p0.50 up to p0.9999).
+ *
+ * <ul>
+ *   <li>{@code pingPong}: round trip of a single message, the {@code ping}
+ *       figures are the ones to look at;</li>
+ *   <li>{@code burst}: time to push a burst of messages and have all of them
+ *       drained on the other side, the {@code burst} figures are the ones to
+ *       look at.</li>
+ * </ul>
+ *
+ * Both queue implementations and wait strategies can be compared, see also
+ * {@link FixedRateLatency} for latencies measured at a fixed rate.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 3, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(5)
+@State(Scope.Group)
+public class SPSCQueueLatencyBenchmark {
+  @Param({"SPSCQueue", "ArrayBlockingQueue"})
+  private String impl;
+
+  @Param({"spin", "yield", "park"})
+  private String waitStrategy;
+
+  @Param({"100"})
+  private int burstSize;
+
+  private final Integer constValue = 123;
+  private Queue<Integer> requests;
+  private Queue<Integer> responses;
+  private int waitMode;
+
+  @Setup
+  public void setUp() {
+    requests = newQueue(1024);
+    responses = newQueue(1024);
+
+    switch (waitStrategy) {
+      case "spin":
+        waitMode = 0;
+        break;
+      case "yield":
+        waitMode = 1;
+        break;
+      case "park":
+        waitMode = 2;
+        break;
+      default:
+        throw new IllegalArgumentException(waitStrategy);
+    }
+  }
+
+  private Queue<Integer> newQueue(int capacity) {
+    switch (impl) {
+      case "SPSCQueue":
+        return new SPSCQueue<>(capacity);
+      case "ArrayBlockingQueue":
+        return new ArrayBlockingQueue<>(capacity);
+      default:
+        throw new IllegalArgumentException(impl);
+    }
+  }
+
+  private void idle() {
+    if (waitMode == 1) {
+      Thread.yield();
+    } else if (waitMode == 2) {
+      LockSupport.parkNanos(1);
+    }
+  }
+
+  private void offer(Queue<Integer> queue, Integer value, Control control) {
+    while (!queue.offer(value) && !control.stopMeasurement) {
+      idle();
+    }
+  }
+
+  private Integer take(Queue<Integer> queue, Control control) {
+    Integer v;
+    while ((v = queue.poll()) == null && !control.stopMeasurement) {
+      idle();
+    }
+    return v;
+  }
+
+  @Benchmark
+  @Group("pingPong")
+  @GroupThreads(1)
+  public Integer ping(Control control) {
+    offer(requests, constValue, control);
+    return take(responses, control);
+  }
+
+  @Benchmark
+  @Group("pingPong")
+  @GroupThreads(1)
+  public void pong(Control control) {
+    final Integer v = take(requests, control);
+    if (v != null) {
+      offer(responses, v, control);
+    }
+  }
+
+  @Benchmark
+  @Group("burst")
+  @GroupThreads(1)
+  public Integer burst(Control control) {
+    for (int i = 0; i < burstSize; i++) {
+      offer(requests, constValue, control);
+    }
+    return take(responses, control);
+  }
+
+  @Benchmark
+  @Group("burst")
+  @GroupThreads(1)
+  public void drain(Control control) {
+    for (int i = 0; i < burstSize; i++) {
+      if (take(requests, control) == null) {
+        return;
+      }
+    }
+    offer(responses, constValue, control);
+  }
+
+  @TearDown(Level.Iteration)
+  public void tearDown() {
+    // messages in flight when the iteration stopped would desync the next one
+    requests.clear();
+    responses.clear();
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    Options options = new OptionsBuilder()
+        .include(".*")
+        .forks(1)
+        .build();
+
+    new Runner(options).run();
+  }
+}
@@ -0,0 +1,88 @@
+package com.github.kratorius.jefs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link LFStack} with a {@link ConcurrentLinkedDeque} used as a stack.
+ * Both are unbounded, so they are emptied at the end of every iteration.
+ *
+ * The ratio between pushing and popping threads defaults to 1:1 and can be
+ * changed with {@code -tg}, e.g. {@code -tg 3,1} for three pushers and one
+ * popper; see {@link ComparisonSuite} to run a range of ratios.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(5)
+@State(Scope.Group)
+public class StackComparisonBenchmark {
+  @Param({"LFStack", "ConcurrentLinkedDeque"})
+  private String impl;
+
+  private final Integer constValue = 123;
+  private LFStack<Integer> lfStack;
+  private ConcurrentLinkedDeque<Integer> deque;
+
+  @Setup
+  public void setUp() {
+    switch (impl) {
+      case "LFStack":
+        lfStack = new LFStack<>();
+        break;
+      case "ConcurrentLinkedDeque":
+        deque = new ConcurrentLinkedDeque<>();
+        break;
+      default:
+        throw new IllegalArgumentException(impl);
+    }
+  }
+
+  @Benchmark
+  @Group("stack")
+  @GroupThreads(1)
+  public void push() {
+    if (lfStack != null) {
+      lfStack.push(constValue);
+    } else {
+      deque.push(constValue);
+    }
+  }
+
+  @Benchmark
+  @Group("stack")
+  @GroupThreads(1)
+  public Integer pop() {
+    Integer v = lfStack != null ? lfStack.remove() : deque.pollFirst();
+    if (v == null) {
+      Thread.yield();
+    }
+    return v;
+  }
+
+  @TearDown(Level.Iteration)
+  public void tearDown() {
+    if (lfStack != null) {
+      lfStack.clear();
+    } else {
+      deque.clear();
+    }
+  }
+}
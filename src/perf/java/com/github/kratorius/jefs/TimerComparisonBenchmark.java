@@ -0,0 +1,101 @@
+package com.github.kratorius.jefs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Compares {@link TimingWheel} with a {@link ScheduledThreadPoolExecutor},
+ * scheduling short timeouts that either fire or get cancelled right away, as
+ * request timeouts mostly do.
+ *
+ * Both have a single thread running the expired tasks; the number of threads
+ * scheduling them can be changed with {@code -t}, see {@link ComparisonSuite}
+ * to run a range of thread counts.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(5)
+@State(Scope.Benchmark)
+public class TimerComparisonBenchmark {
+  private static final long DELAY_MICROS = 1000;
+
+  @Param({"TimingWheel", "ScheduledThreadPoolExecutor"})
+  private String impl;
+
+  private TimingWheel wheel;
+  private Thread ticker;
+  private volatile boolean running;
+  private ScheduledThreadPoolExecutor executor;
+
+  private final Runnable task = () -> { };
+
+  @Setup
+  public void setUp() {
+    switch (impl) {
+      case "TimingWheel":
+        wheel = new TimingWheel(100, TimeUnit.MICROSECONDS, 512, 3, 1 << 20);
+        running = true;
+        ticker = new Thread(() -> {
+          while (running) {
+            wheel.advance(System.nanoTime());
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+          }
+        });
+        ticker.setDaemon(true);
+        ticker.start();
+        break;
+      case "ScheduledThreadPoolExecutor":
+        executor = new ScheduledThreadPoolExecutor(1);
+        executor.setRemoveOnCancelPolicy(true);
+        break;
+      default:
+        throw new IllegalArgumentException(impl);
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws InterruptedException {
+    if (wheel != null) {
+      running = false;
+      ticker.join();
+    } else {
+      executor.shutdownNow();
+    }
+  }
+
+  @Benchmark
+  public void schedule() {
+    if (wheel != null) {
+      wheel.schedule(task, DELAY_MICROS, TimeUnit.MICROSECONDS);
+    } else {
+      executor.schedule(task, DELAY_MICROS, TimeUnit.MICROSECONDS);
+    }
+  }
+
+  @Benchmark
+  public boolean scheduleAndCancel() {
+    if (wheel != null) {
+      return wheel.cancel(wheel.schedule(task, DELAY_MICROS, TimeUnit.MICROSECONDS));
+    } else {
+      final ScheduledFuture<?> future = executor.schedule(task, DELAY_MICROS, TimeUnit.MICROSECONDS);
+      return future.cancel(false);
+    }
+  }
+}
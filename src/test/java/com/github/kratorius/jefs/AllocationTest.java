@@ -0,0 +1,303 @@
+package com.github.kratorius.jefs;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks that the hot path operations of every data structure stay within their
+ * allocation budget, in bytes per operation, as measured by the per-thread
+ * allocation counters of the JVM. Most operations must not allocate at all.
+ */
+public class AllocationTest {
+  private static final int OPS = 1000000;
+  // the counters are sampled from the TLAB, leave some slack for the
+  // measurement itself
+  private static final double TOLERANCE = 0.01;
+
+  // the only allocating operations are LFStack.push and LFQueue.offer: a node
+  // padded to a cache line (72 bytes with compressed oops, 80 without)
+  private static final int STACK_NODE_BUDGET = 80;
+
+  private static final Integer VALUE = 123;
+
+  private com.sun.management.ThreadMXBean threads;
+
+  private interface Op {
+    void run(int i);
+  }
+
+  @Before
+  public void setUp() {
+    assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+    threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    assumeTrue(threads.isThreadAllocatedMemorySupported());
+    threads.setThreadAllocatedMemoryEnabled(true);
+  }
+
+  private double bytesPerOp(Op op) {
+    final long id = Thread.currentThread().getId();
+
+    // a few rounds to let the JIT compile the operation
+    for (int round = 0; round < 3; round++) {
+      for (int i = 0; i < OPS; i++) {
+        op.run(i);
+      }
+    }
+
+    final long before = threads.getThreadAllocatedBytes(id);
+    for (int i = 0; i < OPS; i++) {
+      op.run(i);
+    }
+    final long after = threads.getThreadAllocatedBytes(id);
+
+    return (double) (after - before) / OPS;
+  }
+
+  private void assertBudget(String name, double budget, Op op) {
+    final double allocated = bytesPerOp(op);
+    assertTrue(name + " allocated " + allocated + " bytes/op, budget is " + budget,
+        allocated <= budget + TOLERANCE);
+  }
+
+  @Test
+  public void testSPSCQueue() {
+    final SPSCQueue<Integer> queue = new SPSCQueue<>(1024);
+    assertBudget("SPSCQueue.offer/poll", 0, i -> {
+      queue.offer(VALUE);
+      queue.poll();
+    });
+    assertBudget("SPSCQueue.poll (empty)", 0, i -> queue.poll());
+  }
+
+  @Test
+  public void testSPSCQueueWithMetrics() {
+    final SPSCQueue<Integer> queue = new SPSCQueue<>(1024);
+    queue.setMetrics(new Metrics());
+    assertBudget("SPSCQueue.offer/poll with metrics", 0, i -> {
+      queue.offer(VALUE);
+      queue.poll();
+    });
+  }
+
+  @Test
+  public void testMPSCQueue() {
+    final MPSCQueue<Integer> queue = new MPSCQueue<>(1024);
+    assertBudget("MPSCQueue.offer/poll", 0, i -> {
+      queue.offer(VALUE);
+      queue.poll();
+    });
+    assertBudget("MPSCQueue.poll (empty)", 0, i -> queue.poll());
+  }
+
+  @Test
+  public void testFanInQueue() {
+    final FanInQueue<Integer> queue = new FanInQueue<>(4, 1024);
+    final FanInQueue.Producer<Integer> producer = queue.register();
+    assertBudget("FanInQueue.offer/poll", 0, i -> {
+      producer.offer(VALUE);
+      queue.poll();
+    });
+    assertBudget("FanInQueue.poll (empty)", 0, i -> queue.poll());
+  }
+
+  @Test
+  public void testConflatingQueue() {
+    final ConflatingQueue<Integer, Integer> queue = new ConflatingQueue<>(1024);
+    assertBudget("ConflatingQueue.offer/poll", 0, i -> {
+      queue.offer(VALUE, VALUE);
+      queue.offer(VALUE, VALUE);
+      queue.poll();
+    });
+    assertBudget("ConflatingQueue.poll (empty)", 0, i -> queue.poll());
+  }
+
+  @Test
+  public void testClockCache() {
+    final ClockCache<Integer, Integer> cache = new ClockCache<>(1024);
+    cache.put(VALUE, VALUE);
+    assertBudget("ClockCache.get (hit)", 0, i -> cache.get(VALUE));
+    assertBudget("ClockCache.get (miss)", 0, i -> cache.get(-VALUE));
+  }
+
+  @Test
+  public void testQueuePublisher() {
+    final QueuePublisher<Integer> publisher = new QueuePublisher<>(Runnable::run, 1024);
+    publisher.subscribe(new Flow.Subscriber<Integer>() {
+      @Override
+      public void onSubscribe(Flow.Subscription subscription) {
+        subscription.request(Long.MAX_VALUE);
+      }
+
+      @Override
+      public void onNext(Integer item) {
+      }
+
+      @Override
+      public void onError(Throwable throwable) {
+      }
+
+      @Override
+      public void onComplete() {
+      }
+    });
+    assertBudget("QueuePublisher.offer", 0, i -> publisher.offer(VALUE));
+  }
+
+  @Test
+  public void testSlabAllocator() {
+    final SlabAllocator allocator = SlabAllocator.allocateDirect(1 << 20, 1 << 16, 64, 256);
+    assertBudget("SlabAllocator.allocate/free", 0, i -> allocator.free(allocator.allocate((i & 1) == 0 ? 64 : 256)));
+  }
+
+  @Test
+  public void testRecordRing() {
+    final RecordRing ring = new RecordRing(1 << 16);
+    final ByteBuffer buffer = ring.buffer();
+    final RecordRing.Handler handler = (b, offset, length) -> { };
+    assertBudget("RecordRing.claim/commit/read", 0, i -> {
+      final int offset = ring.claim(8 + (i & 31));
+      buffer.putLong(offset, i);
+      ring.commit(offset);
+      ring.read(handler, 1);
+    });
+  }
+
+  @Test
+  public void testFlightRecorder() {
+    final FlightRecorder<Integer> recorder = new FlightRecorder<>(1024);
+    assertBudget("FlightRecorder.record", 0, i -> recorder.record(VALUE));
+  }
+
+  @Test
+  public void testTimingWheel() {
+    final TimingWheel wheel = new TimingWheel(1, TimeUnit.MICROSECONDS, 256, 2, 1024);
+    final long[] now = {System.nanoTime()};
+    final Runnable task = () -> { };
+    assertBudget("TimingWheel.schedule/cancel/advance", 0, i -> {
+      final long handle = wheel.scheduleAt(task, now[0] + TimeUnit.MICROSECONDS.toNanos(10));
+      if ((i & 1) == 0) {
+        wheel.cancel(handle);
+      }
+      now[0] += TimeUnit.MICROSECONDS.toNanos(1);
+      wheel.advance(now[0]);
+    });
+  }
+
+  @Test
+  public void testLFQueue() {
+    final LFQueue<Integer> queue = new LFQueue<>();
+    assertBudget("LFQueue.offer/poll", STACK_NODE_BUDGET, i -> {
+      queue.offer(VALUE);
+      queue.poll();
+    });
+    assertBudget("LFQueue.poll (empty)", 0, i -> queue.poll());
+  }
+
+  @Test
+  public void testLFStack() {
+    final LFStack<Integer> stack = new LFStack<>();
+    assertBudget("LFStack.push/pop", STACK_NODE_BUDGET, i -> {
+      stack.push(VALUE);
+      stack.remove();
+    });
+    assertBudget("LFStack.peek/remove (empty)", 0, i -> {
+      stack.empty();
+      stack.remove();
+    });
+  }
+
+  @Test
+  public void testLFBitSet() {
+    final LFBitSet bitset = new LFBitSet(1 << 16);
+    final LFBitSet striped = new LFBitSet(1 << 16, 16);
+    final int mask = (1 << 16) - 1;
+    assertBudget("LFBitSet.set/get/flip/clear", 0, i -> {
+      bitset.set(i & mask);
+      bitset.get(i & mask);
+      bitset.flip(i & mask);
+      bitset.clear(i & mask);
+    });
+    assertBudget("LFBitSet.set/get/flip/clear (striped)", 0, i -> {
+      striped.set(i & mask);
+      striped.get(i & mask);
+      striped.flip(i & mask);
+      striped.clear(i & mask);
+    });
+  }
+
+  @Test
+  public void testLFOffHeapBitSet() {
+    final LFOffHeapBitSet bitset = LFOffHeapBitSet.allocateDirect(1 << 16);
+    final int mask = (1 << 16) - 1;
+    assertBudget("LFOffHeapBitSet.set/get/flip/clear", 0, i -> {
+      bitset.set(i & mask);
+      bitset.get(i & mask);
+      bitset.flip(i & mask);
+      bitset.clear(i & mask);
+    });
+  }
+
+  @Test
+  public void testBloomFilters() {
+    final LFBloomFilter standard = new LFBloomFilter(100000, 0.01);
+    final LFBlockedBloomFilter blocked = new LFBlockedBloomFilter(100000, 0.01);
+    assertBudget("LFBloomFilter.add/mightContain", 0, i -> {
+      standard.add((long) i);
+      standard.mightContain((long) i);
+    });
+    assertBudget("LFBlockedBloomFilter.add/mightContain", 0, i -> {
+      blocked.add((long) i);
+      blocked.mightContain((long) i);
+    });
+  }
+
+  @Test
+  public void testCounters() {
+    final LFCounterArray counters = new LFCounterArray(1 << 16, 8);
+    final LFCountMinSketch sketch = new LFCountMinSketch(4, 1 << 14, 8);
+    final int mask = (1 << 16) - 1;
+    assertBudget("LFCounterArray.increment/get", 0, i -> {
+      counters.increment(i & mask);
+      counters.get(i & mask);
+    });
+    assertBudget("LFCountMinSketch.add/estimateCount", 0, i -> {
+      sketch.add((long) i);
+      sketch.estimateCount((long) i);
+    });
+  }
+
+  @Test
+  public void testLongMaps() {
+    final LFLongLongHashMap longLongMap = new LFLongLongHashMap();
+    final LFLongHashMap<Integer> longMap = new LFLongHashMap<>();
+    final int mask = (1 << 12) - 1;
+    for (int i = 0; i <= mask; i++) {
+      longLongMap.put(i, i);
+      longMap.put(i, VALUE);
+    }
+
+    assertBudget("LFLongLongHashMap.get/put/replace", 0, i -> {
+      longLongMap.get(i & mask);
+      longLongMap.put(i & mask, i);
+      longLongMap.replace(i & mask, i, i + 1);
+    });
+    assertBudget("LFLongHashMap.get/put", 0, i -> {
+      longMap.get(i & mask);
+      longMap.put(i & mask, VALUE);
+    });
+  }
+
+  @Test
+  public void testBudgetIsEnforced() {
+    final long[][] garbage = new long[1][];
+    final double allocated = bytesPerOp(i -> garbage[0] = new long[i & 1]);
+    assertTrue("allocations are not being measured", allocated >= 16);
+  }
+}
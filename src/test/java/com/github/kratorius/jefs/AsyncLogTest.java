@@ -0,0 +1,165 @@
+package com.github.kratorius.jefs;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncLogTest {
+  private Path file;
+  private FileChannel channel;
+
+  @Before
+  public void setUp() throws IOException {
+    file = Files.createTempFile("async-log", ".log");
+    channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    channel.close();
+    Files.deleteIfExists(file);
+  }
+
+  private List<String> lines() throws IOException {
+    return Files.readAllLines(file, StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testDrain() throws IOException {
+    final AsyncLog<CharSequence> log = new AsyncLog<>(channel, AsyncLog.lines(), 16, 1024, 2);
+    assertTrue(log.append("first"));
+    assertTrue(log.append("second"));
+    assertEquals(2, log.drain());
+    assertEquals(0, log.drain());
+    assertTrue(log.append("third"));
+    assertEquals(1, log.drain());
+
+    final List<String> lines = lines();
+    assertEquals(3, lines.size());
+    assertEquals("first", lines.get(0));
+    assertEquals("second", lines.get(1));
+    assertEquals("third", lines.get(2));
+  }
+
+  @Test
+  public void testFullLane() throws IOException {
+    final AsyncLog<CharSequence> log = new AsyncLog<>(channel, AsyncLog.lines(), 4, 1024, 1);
+    for (int i = 0; i < 4; i++) {
+      assertTrue(log.append("entry " + i));
+    }
+    assertFalse(log.append("rejected"));
+
+    assertEquals(4, log.drain());
+    assertTrue(log.append("accepted"));
+    assertEquals(1, log.drain());
+    assertEquals(5, lines().size());
+  }
+
+  @Test
+  public void testManyBuffers() throws IOException {
+    // many more entries than the buffers can take at once
+    final AsyncLog<CharSequence> log = new AsyncLog<>(channel, AsyncLog.lines(), 1024, 64, 3);
+    for (int i = 0; i < 1000; i++) {
+      assertTrue(log.append("entry " + i));
+    }
+    assertEquals(1000, log.drain());
+
+    final List<String> lines = lines();
+    assertEquals(1000, lines.size());
+    for (int i = 0; i < 1000; i++) {
+      assertEquals("entry " + i, lines.get(i));
+    }
+  }
+
+  @Test
+  public void testOversizedEntry() throws IOException {
+    final AsyncLog<CharSequence> log = new AsyncLog<>(channel, AsyncLog.lines(), 16, 16, 2);
+    log.append("short");
+    log.append("this line doesn't fit in a buffer");
+    log.append("short again");
+    log.drain();
+
+    assertEquals(1, log.dropped());
+    final List<String> lines = lines();
+    assertEquals(2, lines.size());
+    assertEquals("short", lines.get(0));
+    assertEquals("short again", lines.get(1));
+  }
+
+  @Test
+  public void testUtf8() throws IOException {
+    final AsyncLog<CharSequence> log = new AsyncLog<>(channel, AsyncLog.lines(), 16, 1024, 1);
+    // an accented letter, the euro sign and an emoji outside the BMP
+    final String text = "caf\u00e9 \u20ac \ud83d\ude00";
+    log.append(text);
+    log.append("lone \ud83d surrogate");
+    log.drain();
+
+    final List<String> lines = lines();
+    assertEquals(text, lines.get(0));
+    assertEquals("lone ? surrogate", lines.get(1));
+    assertEquals(new String(Files.readAllBytes(file), StandardCharsets.UTF_8),
+        text + "\nlone ? surrogate\n");
+  }
+
+  @Test
+  public void testCustomEncoder() throws IOException {
+    final AsyncLog<Long> log = new AsyncLog<>(channel, (entry, dst) -> dst.putLong(entry), 16, 64, 1);
+    log.append(1L);
+    log.append(2L);
+    log.drain();
+
+    final ByteBuffer content = ByteBuffer.wrap(Files.readAllBytes(file));
+    assertEquals(16, content.remaining());
+    assertEquals(1L, content.getLong());
+    assertEquals(2L, content.getLong());
+  }
+
+  @Test
+  public void testConcurrentProducers() throws IOException, InterruptedException {
+    final AsyncLog<CharSequence> log = new AsyncLog<>(channel, AsyncLog.lines(), 1024, 4096, 4);
+    final int producers = 4;
+    final int perProducer = 50000;
+    log.start();
+
+    final Thread[] threads = new Thread[producers];
+    for (int p = 0; p < producers; p++) {
+      final int id = p;
+      threads[p] = new Thread(() -> {
+        for (int i = 0; i < perProducer; i++) {
+          final String line = id + " " + i;
+          while (!log.append(line)) {
+            Thread.yield();
+          }
+        }
+      });
+      threads[p].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    log.close();
+
+    // the lines of each producer must be in order
+    final int[] expected = new int[producers];
+    final List<String> lines = lines();
+    assertEquals(producers * perProducer, lines.size());
+    for (String line : lines) {
+      final String[] parts = line.split(" ");
+      assertEquals(expected[Integer.parseInt(parts[0])]++, Integer.parseInt(parts[1]));
+    }
+  }
+}
@@ -0,0 +1,147 @@
+package com.github.kratorius.jefs;
+
+import org.junit.Test;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ClockCacheTest {
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidCapacity() {
+    new ClockCache<Integer, Integer>(0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNullValue() {
+    new ClockCache<Integer, Integer>(16).put(1, null);
+  }
+
+  @Test
+  public void testPutGet() {
+    ClockCache<Integer, String> cache = new ClockCache<>(16);
+    assertNull(cache.get(1));
+    cache.put(1, "one");
+    cache.put(2, "two");
+    assertEquals("one", cache.get(1));
+    assertEquals("two", cache.get(2));
+    assertEquals(2, cache.size());
+
+    cache.put(1, "uno");
+    assertEquals("uno", cache.get(1));
+    assertEquals(2, cache.size());
+  }
+
+  @Test
+  public void testRemove() {
+    ClockCache<Integer, String> cache = new ClockCache<>(16);
+    cache.put(1, "one");
+    assertEquals("one", cache.remove(1));
+    assertNull(cache.remove(1));
+    assertNull(cache.get(1));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testClear() {
+    ClockCache<Integer, Integer> cache = new ClockCache<>(100);
+    for (int i = 0; i < 100; i++) {
+      cache.put(i, i);
+    }
+    cache.clear();
+    assertEquals(0, cache.size());
+
+    // all the slots can be used again
+    for (int i = 0; i < 100; i++) {
+      cache.put(i, i);
+    }
+    assertEquals(100, cache.size());
+  }
+
+  @Test
+  public void testCapacity() {
+    // not a multiple of the word size
+    ClockCache<Integer, Integer> cache = new ClockCache<>(100);
+    for (int i = 0; i < 1000; i++) {
+      cache.put(i, i);
+      assertTrue(cache.size() <= 100);
+    }
+    assertEquals(100, cache.size());
+    assertEquals(100, cache.capacity());
+  }
+
+  @Test
+  public void testRecentlyUsedSurvive() {
+    ClockCache<Integer, Integer> cache = new ClockCache<>(128);
+    for (int i = 0; i < 128; i++) {
+      cache.put(i, i);
+    }
+
+    // every entry has been used: the hand goes all the way around, clearing
+    // the bits, and evicts the first slot
+    cache.put(1000, 1000);
+    assertNull(cache.get(0));
+
+    // only the keys used since then survive the next round of evictions
+    for (int i = 2; i < 128; i += 2) {
+      assertNotNull(cache.get(i));
+    }
+    for (int i = 0; i < 63; i++) {
+      cache.put(2000 + i, i);
+    }
+
+    for (int i = 2; i < 128; i += 2) {
+      assertEquals(i, (int) cache.get(i));
+    }
+    assertNull(cache.get(1));
+    assertEquals(1000, (int) cache.get(1000));
+  }
+
+  @Test
+  public void testConcurrent() throws InterruptedException {
+    final ClockCache<Integer, Integer> cache = new ClockCache<>(1000);
+    final AtomicInteger errors = new AtomicInteger();
+
+    final Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread(() -> {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < 500000; i++) {
+          final int key = random.nextInt(2000);
+          final int op = random.nextInt(10);
+          if (op == 0) {
+            cache.remove(key);
+          } else if (op < 4) {
+            cache.put(key, key * 2);
+          } else {
+            final Integer value = cache.get(key);
+            if (value != null && value != key * 2) {
+              errors.incrementAndGet();
+            }
+          }
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertEquals(0, errors.get());
+    assertTrue(cache.size() <= cache.capacity());
+
+    // every slot must still be usable
+    cache.clear();
+    for (int i = 0; i < 1000; i++) {
+      cache.put(i, i);
+    }
+    assertEquals(1000, cache.size());
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(i, (int) cache.get(i));
+    }
+  }
+}
@@ -0,0 +1,147 @@
+package com.github.kratorius.jefs;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConflatingQueueTest {
+  private static final int PRODUCERS = 4;
+
+  @Test
+  public void testConflation() {
+    ConflatingQueue<String, Integer> q = new ConflatingQueue<>(16);
+    assertTrue(q.isEmpty());
+
+    assertTrue(q.offer("a", 1));
+    assertTrue(q.offer("b", 2));
+    assertTrue(q.offer("a", 3));
+    assertTrue(q.offer("c", 4));
+    assertTrue(q.offer("b", 5));
+    assertEquals(3, q.size());
+
+    // in order of first arrival, with the latest values
+    assertEquals(3, (int) q.poll());
+    assertEquals(5, (int) q.poll());
+    assertEquals(4, (int) q.poll());
+    assertNull(q.poll());
+    assertTrue(q.isEmpty());
+  }
+
+  @Test
+  public void testRequeue() {
+    ConflatingQueue<String, Integer> q = new ConflatingQueue<>(16);
+    q.offer("a", 1);
+    q.offer("b", 2);
+    assertEquals(1, (int) q.poll());
+
+    // "a" has been taken, so it goes after "b" this time
+    q.offer("a", 3);
+    q.offer("b", 4);
+    assertEquals(4, (int) q.poll());
+    assertEquals(3, (int) q.poll());
+    assertNull(q.poll());
+  }
+
+  @Test
+  public void testDrain() {
+    ConflatingQueue<String, Integer> q = new ConflatingQueue<>(16);
+    q.offer("a", 1);
+    q.offer("b", 2);
+    q.offer("a", 3);
+    q.offer("c", 4);
+
+    List<String> drained = new ArrayList<>();
+    assertEquals(2, q.drain((k, v) -> drained.add(k + "=" + v), 2));
+    assertEquals(1, q.drain((k, v) -> drained.add(k + "=" + v), Integer.MAX_VALUE));
+    assertEquals(0, q.drain((k, v) -> drained.add(k + "=" + v), Integer.MAX_VALUE));
+    assertEquals(Arrays.asList("a=3", "b=2", "c=4"), drained);
+  }
+
+  @Test
+  public void testCapacity() {
+    ConflatingQueue<Integer, Integer> q = new ConflatingQueue<>(4);
+    for (int i = 0; i < 4; i++) {
+      assertTrue(q.offer(i, i));
+    }
+
+    // no room for new keys, even once the old ones have been taken
+    assertFalse(q.offer(4, 4));
+    while (q.poll() != null) {
+      // drain it
+    }
+    assertFalse(q.offer(4, 4));
+    assertTrue(q.offer(3, 3));
+    assertEquals(4, q.keys());
+    assertEquals(4, q.capacity());
+
+    try {
+      q.offer(null, 1);
+      fail("null key added");
+    } catch (IllegalArgumentException ex) {
+      // expected
+    }
+
+    try {
+      q.offer(1, null);
+      fail("null value added");
+    } catch (IllegalArgumentException ex) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testConcurrentProducers() throws InterruptedException {
+    final int keys = 64;
+    final int perProducer = 1000000;
+    final ConflatingQueue<Integer, Long> q = new ConflatingQueue<>(keys * PRODUCERS);
+
+    // every producer has its own keys, and increasing values for each of them
+    final Thread[] producers = new Thread[PRODUCERS];
+    for (int p = 0; p < PRODUCERS; p++) {
+      final int id = p;
+      producers[p] = new Thread(() -> {
+        for (long i = 0; i < perProducer; i++) {
+          assertTrue(q.offer(id * keys + (int) (i % keys), i));
+        }
+      });
+      producers[p].start();
+    }
+
+    // values of each key must come out in increasing order, ending with the
+    // last one offered
+    final long[] last = new long[keys * PRODUCERS];
+    Arrays.fill(last, -1);
+    final int[] errors = new int[1];
+    final Runnable drain = () -> q.drain((k, v) -> {
+      if (v <= last[k] || v % keys != k % keys) {
+        errors[0]++;
+      }
+      last[k] = v;
+    }, Integer.MAX_VALUE);
+
+    boolean running = true;
+    while (running) {
+      running = false;
+      for (Thread producer : producers) {
+        running |= producer.isAlive();
+      }
+      drain.run();
+      Thread.yield();
+    }
+    drain.run();
+
+    assertEquals(0, errors[0]);
+    for (int k = 0; k < keys * PRODUCERS; k++) {
+      assertEquals(perProducer - keys + k % keys, last[k]);
+    }
+    assertTrue(q.isEmpty());
+  }
+}
@@ -0,0 +1,262 @@
+package com.github.kratorius.jefs;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FanInQueueTest {
+  private static final int PRODUCERS = 4;
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidProducers() {
+    new FanInQueue<Integer>(0, 16);
+  }
+
+  @Test
+  public void testAdd() {
+    FanInQueue<Integer> q = new FanInQueue<>(1, 100);
+    for (int i = 0; i < 128; i++) {
+      assertTrue(q.add(i));
+    }
+
+    try {
+      q.add(123);
+      fail("more items than allowed added");
+    } catch (IllegalStateException ex) {
+      // expected
+    }
+
+    assertEquals(128, q.size());
+  }
+
+  @Test
+  public void testPoll() {
+    FanInQueue<Integer> q = new FanInQueue<>(1, 16);
+    assertNull(q.poll());
+    for (int i = 0; i < 16; i++) {
+      q.add(i);
+    }
+
+    for (int i = 0; i < 16; i++) {
+      assertEquals(i, (int)q.poll());
+    }
+    assertNull(q.poll());
+    assertTrue(q.isEmpty());
+  }
+
+  @Test
+  public void testRemove() {
+    FanInQueue<Integer> q = new FanInQueue<>(1, 16);
+    q.add(1);
+    assertEquals(1, (int)q.remove());
+
+    try {
+      q.remove();
+      fail("removed item from an empty queue");
+    } catch (NoSuchElementException ex) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testPeek() {
+    FanInQueue<Integer> q = new FanInQueue<>(2, 16);
+    assertNull(q.peek());
+
+    final FanInQueue.Producer<Integer> p1 = q.register();
+    final FanInQueue.Producer<Integer> p2 = q.register();
+    p2.offer(1);
+    assertEquals(1, (int)q.peek());
+    p1.offer(2);
+    assertEquals(q.peek(), q.poll());
+    assertEquals(q.peek(), q.poll());
+    assertNull(q.peek());
+  }
+
+  @Test
+  public void testTooManyProducers() {
+    FanInQueue<Integer> q = new FanInQueue<>(2, 16);
+    q.register();
+    q.register();
+    try {
+      q.register();
+      fail("more producers than lanes registered");
+    } catch (IllegalStateException ex) {
+      // expected
+    }
+    assertEquals(2, q.producers());
+  }
+
+  @Test
+  public void testLanesAreIndependent() {
+    FanInQueue<Integer> q = new FanInQueue<>(3, 4);
+    final FanInQueue.Producer<Integer> p1 = q.register();
+    final FanInQueue.Producer<Integer> p2 = q.register();
+    for (int i = 0; i < 4; i++) {
+      assertTrue(p1.offer(i));
+    }
+    assertFalse(p1.offer(4));
+
+    // a full lane doesn't stop the others
+    assertTrue(p2.offer(100));
+    assertEquals(5, q.size());
+    assertTrue(q.contains(100));
+    assertTrue(q.contains(3));
+    assertFalse(q.contains(4));
+  }
+
+  @Test
+  public void testIdleLanesSkipped() {
+    FanInQueue<Integer> q = new FanInQueue<>(2, 4);
+    final FanInQueue.Producer<Integer> p1 = q.register();
+    final FanInQueue.Producer<Integer> p2 = q.register();
+    p1.offer(1);
+    p2.offer(2);
+    q.drain(i -> { }, 10);
+    // finds both lanes empty and clears their bits
+    assertNull(q.poll());
+
+    // added behind the back of the bits: the lanes are idle as far as the
+    // consumer knows, so it doesn't look at them
+    assertTrue(p1.lane.offer(3));
+    assertTrue(p2.lane.offer(4));
+    assertNull(q.peek());
+    assertNull(q.poll());
+
+    // until their producer offers again
+    p1.offer(5);
+    assertEquals(3, (int) q.poll());
+    assertEquals(5, (int) q.poll());
+    assertNull(q.poll());
+  }
+
+  @Test
+  public void testRoundRobin() {
+    // a lane gives up its turn after a burst as large as its capacity
+    FanInQueue<Integer> q = new FanInQueue<>(2, 4);
+    final FanInQueue.Producer<Integer> p1 = q.register();
+    final FanInQueue.Producer<Integer> p2 = q.register();
+    for (int i = 0; i < 4; i++) {
+      p1.offer(i);
+      p2.offer(100 + i);
+    }
+
+    final List<Integer> first = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      first.add(q.poll());
+    }
+    // refill the lane we just emptied, the other one must come first anyway
+    final FanInQueue.Producer<Integer> emptied = first.get(0) < 100 ? p1 : p2;
+    emptied.offer(first.get(0) < 100 ? 4 : 104);
+
+    final int other = first.get(0) < 100 ? 100 : 0;
+    for (int i = 0; i < 4; i++) {
+      assertEquals(other + i, (int)q.poll());
+    }
+    assertEquals(first.get(0) < 100 ? 4 : 104, (int)q.poll());
+    assertNull(q.poll());
+  }
+
+  @Test
+  public void testManyLanes() {
+    // more lanes than bits in a word
+    FanInQueue<Integer> q = new FanInQueue<>(200, 4);
+    final List<FanInQueue.Producer<Integer>> producers = new ArrayList<>();
+    for (int i = 0; i < 200; i++) {
+      producers.add(q.register());
+    }
+    for (int i = 199; i >= 0; i -= 7) {
+      producers.get(i).offer(i);
+    }
+
+    int sum = 0;
+    int count = 0;
+    Integer item;
+    while ((item = q.poll()) != null) {
+      sum += item;
+      count++;
+    }
+
+    int expected = 0;
+    int expectedCount = 0;
+    for (int i = 199; i >= 0; i -= 7) {
+      expected += i;
+      expectedCount++;
+    }
+    assertEquals(expectedCount, count);
+    assertEquals(expected, sum);
+  }
+
+  @Test
+  public void testDrain() {
+    FanInQueue<Integer> q = new FanInQueue<>(2, 16);
+    q.register().offer(1);
+    q.add(2);
+    q.add(3);
+
+    final List<Integer> drained = new ArrayList<>();
+    assertEquals(2, q.drain(drained::add, 2));
+    assertEquals(1, q.drain(drained::add, 10));
+    assertEquals(0, q.drain(drained::add, 10));
+    assertEquals(3, drained.size());
+  }
+
+  @Test
+  public void testClear() {
+    FanInQueue<Integer> q = new FanInQueue<>(1, 16);
+    for (int i = 0; i < 10; i++) {
+      q.add(i);
+    }
+    q.clear();
+    assertTrue(q.isEmpty());
+    assertNull(q.poll());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testNullItem() {
+    new FanInQueue<Integer>(1, 16).offer(null);
+  }
+
+  @Test
+  public void testConcurrentProducers() throws InterruptedException {
+    final FanInQueue<Long> q = new FanInQueue<>(PRODUCERS, 1024);
+    final int perProducer = 1000000;
+
+    final Thread[] producers = new Thread[PRODUCERS];
+    for (int p = 0; p < PRODUCERS; p++) {
+      final long id = p;
+      producers[p] = new Thread(() -> {
+        for (long i = 0; i < perProducer; i++) {
+          while (!q.offer((i << 8) | id)) {
+            Thread.yield();
+          }
+        }
+      });
+      producers[p].start();
+    }
+
+    // items of each producer must come out in the order they went in
+    final long[] expected = new long[PRODUCERS];
+    for (int i = 0; i < PRODUCERS * perProducer; i++) {
+      Long item;
+      while ((item = q.poll()) == null) {
+        Thread.yield();
+      }
+      final int id = (int) (item & 0xff);
+      assertEquals(expected[id]++, item >>> 8);
+    }
+
+    for (Thread producer : producers) {
+      producer.join();
+    }
+    assertNull(q.poll());
+  }
+}
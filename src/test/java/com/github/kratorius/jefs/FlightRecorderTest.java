@@ -0,0 +1,106 @@
+package com.github.kratorius.jefs;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FlightRecorderTest {
+  private static final int WRITERS = 4;
+
+  @Test
+  public void testRecord() {
+    FlightRecorder<String> recorder = new FlightRecorder<>(6);
+    assertEquals(8, recorder.capacity());
+    assertEquals(Collections.emptyList(), recorder.snapshot());
+
+    assertEquals(0, recorder.record("a"));
+    assertEquals(1, recorder.record("b"));
+    assertEquals(2, recorder.recorded());
+    assertEquals(Arrays.asList("a", "b"), recorder.snapshot());
+
+    try {
+      recorder.record(null);
+      fail("null event recorded");
+    } catch (IllegalArgumentException ex) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testOverwrite() {
+    FlightRecorder<Integer> recorder = new FlightRecorder<>(4);
+    for (int i = 0; i < 10; i++) {
+      assertEquals(i, recorder.record(i));
+    }
+
+    // only the last ones are kept
+    assertEquals(Arrays.asList(6, 7, 8, 9), recorder.snapshot());
+
+    final List<Long> sequences = new ArrayList<>();
+    assertEquals(4, recorder.forEach((event, seq) -> {
+      assertEquals((long) event, seq);
+      sequences.add(seq);
+    }));
+    assertEquals(Arrays.asList(6L, 7L, 8L, 9L), sequences);
+  }
+
+  @Test
+  public void testConcurrentWriters() throws InterruptedException {
+    final FlightRecorder<Long> recorder = new FlightRecorder<>(1024);
+    final int perWriter = 1000000;
+    final AtomicInteger dropped = new AtomicInteger();
+    final AtomicBoolean done = new AtomicBoolean();
+
+    // each event holds its own sequence number, so that torn reads show up
+    final Thread[] writers = new Thread[WRITERS];
+    for (int w = 0; w < WRITERS; w++) {
+      writers[w] = new Thread(() -> {
+        for (int i = 0; i < perWriter; i++) {
+          if (recorder.record(recorder.recorded()) < 0) {
+            dropped.incrementAndGet();
+          }
+        }
+      });
+      writers[w].start();
+    }
+
+    // events seen by a snapshot must be in order and within the last capacity
+    // events of the snapshot
+    final int[] errors = new int[1];
+    final Thread reader = new Thread(() -> {
+      while (!done.get()) {
+        final long[] last = {-1};
+        final long end = recorder.recorded();
+        recorder.forEach((event, seq) -> {
+          if (seq <= last[0] || seq < end - recorder.capacity() || event > seq) {
+            errors[0]++;
+          }
+          last[0] = seq;
+        });
+      }
+    });
+    reader.start();
+
+    for (Thread writer : writers) {
+      writer.join();
+    }
+    done.set(true);
+    reader.join();
+
+    assertEquals(0, errors[0]);
+    assertEquals(WRITERS * perWriter, recorder.recorded());
+    // the last lap is all there, but for the events dropped on the way
+    final long total = recorder.recorded();
+    final int kept = recorder.forEach((event, seq) -> assertTrue(seq >= total - recorder.capacity()));
+    assertTrue(kept >= recorder.capacity() - dropped.get());
+  }
+}
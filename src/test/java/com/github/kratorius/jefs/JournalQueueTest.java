@@ -0,0 +1,333 @@
+package com.github.kratorius.jefs;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JournalQueueTest {
+  private Path directory;
+
+  @Before
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("journal");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    try (Stream<Path> files = Files.walk(directory)) {
+      files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+    }
+  }
+
+  private static long append(JournalQueue journal, String record) throws IOException {
+    return journal.append(ByteBuffer.wrap(record.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  private static String poll(JournalQueue.Reader reader) throws IOException {
+    final ByteBuffer record = reader.poll();
+    if (record == null) {
+      return null;
+    }
+    final byte[] bytes = new byte[record.remaining()];
+    record.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private long segments() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.filter(file -> file.toString().endsWith(".journal")).count();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidSegmentSize() throws IOException {
+    JournalQueue.open(directory, 100);
+  }
+
+  @Test
+  public void testAppendRead() throws IOException {
+    final JournalQueue journal = JournalQueue.open(directory, 4096);
+    final JournalQueue.Reader reader = journal.reader("reader");
+    assertNull(reader.poll());
+
+    assertEquals(0, append(journal, "first"));
+    assertEquals(1, append(journal, ""));
+    assertEquals(2, journal.append(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9}, 1, 7));
+    assertEquals(3, journal.tail());
+    assertEquals(3, reader.available());
+
+    assertEquals("first", poll(reader));
+    assertEquals("", poll(reader));
+    final ByteBuffer dst = ByteBuffer.allocate(16);
+    assertEquals(7, reader.read(dst));
+    dst.flip();
+    assertEquals(ByteBuffer.wrap(new byte[]{2, 3, 4, 5, 6, 7, 8}), dst);
+    assertNull(reader.poll());
+    assertEquals(-1, reader.read(dst));
+    assertEquals(3, reader.index());
+  }
+
+  @Test
+  public void testSegments() throws IOException {
+    final JournalQueue journal = JournalQueue.open(directory, 64);
+    try {
+      journal.append(ByteBuffer.allocate(57));
+      fail("record larger than a segment");
+    } catch (IllegalArgumentException ex) {
+      // expected
+    }
+
+    // exactly a whole segment, and then records that leave space at the end
+    journal.append(ByteBuffer.allocate(journal.maxRecordLength()));
+    for (int i = 0; i < 100; i++) {
+      append(journal, "record " + i);
+    }
+    assertEquals(101, journal.tail());
+    assertTrue(segments() > 20);
+
+    final JournalQueue.Reader reader = journal.reader("reader");
+    assertEquals(56, reader.poll().remaining());
+    for (int i = 0; i < 100; i++) {
+      assertEquals("record " + i, poll(reader));
+    }
+    assertNull(reader.poll());
+  }
+
+  @Test
+  public void testRecover() throws IOException {
+    JournalQueue journal = JournalQueue.open(directory, 256);
+    for (int i = 0; i < 50; i++) {
+      append(journal, "record " + i);
+    }
+
+    // a crash drops the journal without flushing it; the operating system
+    // releases the lock, which only closing does within the same process
+    journal.close();
+    journal = JournalQueue.open(directory, 256);
+    assertEquals(50, journal.tail());
+    assertEquals(50, append(journal, "record 50"));
+
+    final JournalQueue.Reader reader = journal.reader("reader");
+    for (int i = 0; i <= 50; i++) {
+      assertEquals("record " + i, poll(reader));
+    }
+    assertNull(reader.poll());
+  }
+
+  @Test
+  public void testUncommittedRecord() throws IOException {
+    JournalQueue journal = JournalQueue.open(directory, 4096);
+    append(journal, "committed");
+    append(journal, "torn");
+    journal.close();
+
+    // as if the writer had crashed before setting the header of the last
+    // record, which starts at 8 + 16 bytes
+    try (FileChannel channel = FileChannel.open(directory.resolve(String.format("%020d.journal", 0)),
+        StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.allocate(8), 24);
+    }
+
+    journal = JournalQueue.open(directory, 4096);
+    assertEquals(1, journal.tail());
+    assertEquals(1, append(journal, "replaced"));
+    final JournalQueue.Reader reader = journal.reader("reader");
+    assertEquals("committed", poll(reader));
+    assertEquals("replaced", poll(reader));
+  }
+
+  @Test
+  public void testUnsealedSegment() throws IOException {
+    JournalQueue journal = JournalQueue.open(directory, 4096);
+    append(journal, "first");
+    append(journal, "second");
+
+    // as if the writer had crashed right after creating the next segment
+    journal.close();
+    try (FileChannel channel = FileChannel.open(directory.resolve(String.format("%020d.journal", 2)),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.allocate(1), 4095);
+    }
+
+    journal = JournalQueue.open(directory, 4096);
+    assertEquals(2, journal.tail());
+    final JournalQueue.Reader reader = journal.reader("reader");
+    assertEquals("first", poll(reader));
+    assertEquals("second", poll(reader));
+    assertNull(reader.poll());
+
+    append(journal, "third");
+    assertEquals("third", poll(reader));
+  }
+
+  @Test
+  public void testSingleWriter() throws IOException {
+    final JournalQueue journal = JournalQueue.open(directory, 128);
+    append(journal, "first");
+    try {
+      JournalQueue.open(directory, 128);
+      fail("opened by two writers");
+    } catch (IllegalStateException ex) {
+      // expected
+    }
+
+    // readers don't need the lock
+    assertEquals(1, JournalQueue.openReadOnly(directory).tail());
+
+    journal.close();
+    try {
+      append(journal, "closed");
+      fail("appended to a closed journal");
+    } catch (IllegalStateException ex) {
+      // expected
+    }
+
+    final JournalQueue reopened = JournalQueue.open(directory, 128);
+    assertEquals(1, append(reopened, "second"));
+    reopened.close();
+  }
+
+  @Test
+  public void testCursor() throws IOException {
+    final JournalQueue journal = JournalQueue.open(directory, 128);
+    for (int i = 0; i < 10; i++) {
+      append(journal, "record " + i);
+    }
+
+    JournalQueue.Reader reader = journal.reader("matcher");
+    for (int i = 0; i < 3; i++) {
+      assertEquals("record " + i, poll(reader));
+    }
+    reader.close();
+
+    // the last record read hasn't been acknowledged
+    reader = journal.reader("matcher");
+    assertEquals(2, reader.index());
+    assertEquals("record 2", poll(reader));
+    reader.commit();
+
+    reader = journal.reader("matcher");
+    assertEquals("record 3", poll(reader));
+
+    // every reader has its own cursor
+    assertEquals("record 0", poll(journal.reader("audit")));
+
+    try {
+      journal.reader("../matcher");
+      fail("reader name outside of the journal");
+    } catch (IllegalArgumentException ex) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testSeek() throws IOException {
+    final JournalQueue journal = JournalQueue.open(directory, 128);
+    for (int i = 0; i < 100; i++) {
+      append(journal, "record " + i);
+    }
+
+    final JournalQueue.Reader reader = journal.reader("reader");
+    for (int i : new int[]{57, 3, 99, 0, 42}) {
+      reader.seek(i);
+      assertEquals("record " + i, poll(reader));
+    }
+    reader.seek(100);
+    assertNull(reader.poll());
+
+    try {
+      reader.seek(101);
+      fail("sought past the tail");
+    } catch (IllegalArgumentException ex) {
+      // expected
+    }
+
+    // the position is persisted as well
+    reader.seek(10);
+    assertEquals("record 10", poll(journal.reader("reader")));
+  }
+
+  @Test
+  public void testReadOnly() throws IOException {
+    final JournalQueue journal = JournalQueue.open(directory, 128);
+    append(journal, "first");
+
+    final JournalQueue readOnly = JournalQueue.openReadOnly(directory);
+    final JournalQueue.Reader reader = readOnly.reader("reader");
+    assertEquals("first", poll(reader));
+    assertNull(reader.poll());
+
+    // sees what the writer appends afterwards, across segments
+    for (int i = 0; i < 20; i++) {
+      append(journal, "record " + i);
+    }
+    assertEquals(21, readOnly.tail());
+    for (int i = 0; i < 20; i++) {
+      assertEquals("record " + i, poll(reader));
+    }
+
+    try {
+      append(readOnly, "rejected");
+      fail("appended to a read only journal");
+    } catch (IllegalStateException ex) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testConcurrent() throws Exception {
+    final JournalQueue journal = JournalQueue.open(directory, 1 << 16);
+    final long records = 200000;
+    final AtomicLong errors = new AtomicLong();
+
+    final Thread reader = new Thread(() -> {
+      try {
+        final JournalQueue.Reader cursor = journal.reader("reader");
+        final ByteBuffer dst = ByteBuffer.allocate(8).order(ByteOrder.nativeOrder());
+        for (long i = 0; i < records; ) {
+          dst.clear();
+          if (cursor.read(dst) < 0) {
+            Thread.yield();
+            continue;
+          }
+          if (dst.getLong(0) != i++) {
+            errors.incrementAndGet();
+          }
+        }
+      } catch (IOException e) {
+        errors.incrementAndGet();
+      }
+    });
+    reader.start();
+
+    final ByteBuffer src = ByteBuffer.allocate(8).order(ByteOrder.nativeOrder());
+    for (long i = 0; i < records; i++) {
+      src.clear();
+      src.putLong(0, i);
+      journal.append(src);
+    }
+
+    reader.join(30000);
+    assertFalse(reader.isAlive());
+    assertEquals(0, errors.get());
+    assertEquals(records, journal.tail());
+  }
+}
@@ -2,13 +2,20 @@ package com.github.kratorius.jefs;
 
 import org.junit.Test;
 
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class LFBitSetTest {
   private static final int ONE_MB = 1024 * 1024;
@@ -33,6 +40,18 @@ public class LFBitSetTest {
     bs.get(ONE_MB + 1);
   }
 
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testNegativeIndex() {
+    LFBitSet bs = new LFBitSet(ONE_MB);
+    bs.get(-1);
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testOutOfBounds_lastBit() {
+    LFBitSet bs = new LFBitSet(ONE_MB);
+    bs.set(ONE_MB);
+  }
+
   @Test
   public void testSetGet_singleThread() {
     LFBitSet bs = new LFBitSet(ONE_MB);
@@ -91,6 +110,192 @@ public class LFBitSetTest {
     }
   }
 
+  @Test
+  public void testClearRange() {
+    final int[][] ranges = { {0, 0}, {0, 1}, {3, 60}, {0, 64}, {1, 65}, {63, 129}, {100, 1000}, {64, ONE_MB} };
+
+    for (int[] range : ranges) {
+      LFBitSet bs = new LFBitSet(ONE_MB);
+      for (int i = 0; i < ONE_MB; i++) {
+        bs.set(i);
+      }
+
+      bs.clear(range[0], range[1]);
+      for (int i = 0; i < ONE_MB; i++) {
+        assertEquals(i < range[0] || i >= range[1], bs.get(i));
+      }
+    }
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testClearRange_outOfBounds() {
+    LFBitSet bs = new LFBitSet(ONE_MB);
+    bs.clear(0, ONE_MB + 1);
+  }
+
+  @Test
+  public void testStriped_singleThread() {
+    LFBitSet bs = new LFBitSet(ONE_MB + 3, 6);
+    assertEquals(8, bs.stripes());
+
+    for (int i = 0; i < ONE_MB + 3; i++) {
+      assertFalse(bs.get(i));
+      if ((i % 3) == 0) {
+        bs.set(i);
+      }
+    }
+    for (int i = 0; i < ONE_MB + 3; i++) {
+      assertEquals((i % 3) == 0, bs.get(i));
+      bs.flip(i);
+      assertEquals((i % 3) != 0, bs.get(i));
+    }
+
+    bs.clear();
+    for (int i = 0; i < ONE_MB + 3; i++) {
+      assertFalse(bs.get(i));
+    }
+  }
+
+  @Test
+  public void testStriped_clearRange() {
+    final int[][] ranges = { {0, 1}, {3, 60}, {1, 65}, {63, 129}, {100, 1000}, {5, ONE_MB} };
+
+    for (int[] range : ranges) {
+      LFBitSet bs = new LFBitSet(ONE_MB, 16);
+      for (int i = 0; i < ONE_MB; i++) {
+        bs.set(i);
+      }
+
+      bs.clear(range[0], range[1]);
+      for (int i = 0; i < ONE_MB; i++) {
+        assertEquals(i < range[0] || i >= range[1], bs.get(i));
+      }
+    }
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testStriped_outOfBounds() {
+    LFBitSet bs = new LFBitSet(100, 16);
+    bs.set(100);
+  }
+
+  @Test
+  public void testForEachSetBit() {
+    for (int stripes : new int[] { 1, 8 }) {
+      LFBitSet bs = new LFBitSet(ONE_MB + 7, stripes);
+      for (int i = 0; i < ONE_MB + 7; i += 7) {
+        bs.set(i);
+      }
+
+      final LFBitSet visited = new LFBitSet(ONE_MB + 7);
+      final AtomicInteger count = new AtomicInteger();
+      bs.forEachSetBit(i -> {
+        assertEquals(0, i % 7);
+        visited.set(i);
+        count.incrementAndGet();
+      });
+
+      assertEquals((ONE_MB + 7 + 6) / 7, count.get());
+      for (int i = 0; i < ONE_MB + 7; i += 7) {
+        assertTrue(visited.get(i));
+      }
+    }
+  }
+
+  @Test
+  public void testStream() {
+    LFBitSet bs = new LFBitSet(ONE_MB);
+    assertEquals(0, bs.stream().count());
+
+    bs.set(0);
+    bs.set(63);
+    bs.set(64);
+    bs.set(ONE_MB - 1);
+    assertArrayEquals(new int[] { 0, 63, 64, ONE_MB - 1 }, bs.stream().toArray());
+
+    LFBitSet striped = new LFBitSet(ONE_MB, 4);
+    striped.set(0);
+    striped.set(1);
+    striped.set(4);
+    striped.set(ONE_MB - 1);
+    assertArrayEquals(new int[] { 0, 4, 1, ONE_MB - 1 }, striped.stream().toArray());
+  }
+
+  @Test
+  public void testSnapshotAndLoad() {
+    for (ByteOrder order : new ByteOrder[] { ByteOrder.nativeOrder(), ByteOrder.BIG_ENDIAN }) {
+      LFBitSet bs = new LFBitSet(ONE_MB + 1, 4);
+      for (int i = 0; i < ONE_MB + 1; i += 5) {
+        bs.set(i);
+      }
+
+      ByteBuffer buffer = ByteBuffer.allocateDirect(bs.snapshotBytes() + 8).order(order);
+      buffer.putLong(42);
+      bs.snapshotTo(buffer);
+      assertEquals(0, buffer.remaining());
+
+      buffer.flip();
+      assertEquals(42, buffer.getLong());
+      LFBitSet loaded = new LFBitSet(ONE_MB + 1, 4);
+      loaded.loadFrom(buffer);
+      assertEquals(0, buffer.remaining());
+
+      for (int i = 0; i < ONE_MB + 1; i++) {
+        assertEquals((i % 5) == 0, loaded.get(i));
+      }
+    }
+  }
+
+  @Test(expected = BufferUnderflowException.class)
+  public void testLoadFrom_truncatedSnapshot() {
+    LFBitSet bs = new LFBitSet(ONE_MB);
+    ByteBuffer buffer = ByteBuffer.allocate(bs.snapshotBytes());
+    bs.snapshotTo(buffer);
+    buffer.flip();
+    buffer.limit(buffer.limit() - 1);
+    bs.loadFrom(buffer);
+  }
+
+  @Test
+  public void testLoadFrom_otherLayout() {
+    LFBitSet bs = new LFBitSet(ONE_MB, 4);
+    bs.set(1);
+    ByteBuffer buffer = ByteBuffer.allocate(bs.snapshotBytes());
+    bs.snapshotTo(buffer);
+    buffer.flip();
+
+    for (LFBitSet other : new LFBitSet[] { new LFBitSet(ONE_MB), new LFBitSet(ONE_MB, 8), new LFBitSet(ONE_MB - 1, 4) }) {
+      try {
+        other.loadFrom(buffer);
+        fail("loaded a snapshot of another layout");
+      } catch (IllegalArgumentException ex) {
+        // expected
+      }
+      assertEquals(0, buffer.position());
+      assertEquals(0, other.stream().count());
+    }
+  }
+
+  @Test
+  public void testLoadFrom_padding() {
+    LFBitSet bs = new LFBitSet(100);
+    bs.set(99);
+    ByteBuffer buffer = ByteBuffer.allocate(bs.snapshotBytes());
+    bs.snapshotTo(buffer);
+
+    // bit 100 is past the end, in the second word after the layout
+    buffer.putLong(16, buffer.getLong(16) | (1L << 36));
+    buffer.flip();
+    LFBitSet loaded = new LFBitSet(100);
+    try {
+      loaded.loadFrom(buffer);
+      fail("loaded a snapshot with bits past the end");
+    } catch (IllegalArgumentException ex) {
+      // expected
+    }
+    assertFalse(loaded.get(99));
+  }
+
   class FlipperRangeThread implements Runnable {
     public Exception exception;
     final LFBitSet bitSet;
@@ -0,0 +1,122 @@
+package com.github.kratorius.jefs;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LFBlockedBloomFilterTest {
+  private static final int INSERTIONS = 1000000;
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidProbability() {
+    new LFBlockedBloomFilter(INSERTIONS, 1.0);
+  }
+
+  @Test
+  public void testSizing() {
+    LFBlockedBloomFilter filter = new LFBlockedBloomFilter(INSERTIONS, 0.01);
+
+    // ~9.6 bits and 7 hash functions per key for a 1% false positive rate,
+    // rounded up to a whole number of blocks
+    assertEquals(9585152, filter.bitSize());
+    assertEquals(7, filter.numHashFunctions());
+  }
+
+  @Test
+  public void testNoFalseNegatives() {
+    LFBlockedBloomFilter filter = new LFBlockedBloomFilter(INSERTIONS, 0.01);
+
+    for (long i = 0; i < INSERTIONS; i++) {
+      filter.add(i);
+    }
+    for (long i = 0; i < INSERTIONS; i++) {
+      assertTrue(filter.mightContain(i));
+    }
+  }
+
+  @Test
+  public void testFalsePositiveRate() {
+    LFBlockedBloomFilter filter = new LFBlockedBloomFilter(INSERTIONS, 0.01);
+
+    for (long i = 0; i < INSERTIONS; i++) {
+      filter.add(i);
+    }
+
+    int falsePositives = 0;
+    for (long i = INSERTIONS; i < INSERTIONS * 2; i++) {
+      if (filter.mightContain(i)) {
+        falsePositives++;
+      }
+    }
+    // blocking costs about twice the false positives of a standard filter
+    assertTrue("false positive rate too high: " + falsePositives,
+        falsePositives < INSERTIONS * 0.025);
+  }
+
+  @Test
+  public void testObjectKeys() {
+    LFBlockedBloomFilter filter = new LFBlockedBloomFilter(1000, 0.001);
+
+    filter.add("hello");
+    assertTrue(filter.mightContain("hello"));
+    assertFalse(filter.mightContain("world"));
+  }
+
+  @Test
+  public void testClear() {
+    LFBlockedBloomFilter filter = new LFBlockedBloomFilter(1000, 0.01);
+
+    for (long i = 0; i < 1000; i++) {
+      filter.add(i);
+    }
+    filter.clear();
+    for (long i = 0; i < 1000; i++) {
+      assertFalse(filter.mightContain(i));
+    }
+  }
+
+  static class AdderThread implements Runnable {
+    private final LFBlockedBloomFilter filter;
+    private final long from;
+    private final long to;
+
+    public AdderThread(LFBlockedBloomFilter filter, long from, long to) {
+      this.filter = filter;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    public void run() {
+      for (long i = from; i < to; i++) {
+        filter.add(i);
+      }
+    }
+  }
+
+  @Test
+  public void testAdd_asManyThreadsAsCores() throws InterruptedException {
+    final LFBlockedBloomFilter filter = new LFBlockedBloomFilter(INSERTIONS, 0.01);
+    int logicalCores = Runtime.getRuntime().availableProcessors();
+    ArrayList<Thread> threads = new ArrayList<>(logicalCores);
+
+    final int perThread = INSERTIONS / logicalCores;
+    for (int i = 0; i < logicalCores; i++) {
+      threads.add(new Thread(new AdderThread(filter, i * perThread, (i + 1) * perThread)));
+    }
+    for (Thread t : threads) {
+      t.start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+
+    for (long i = 0; i < perThread * logicalCores; i++) {
+      assertTrue(filter.mightContain(i));
+    }
+  }
+}
@@ -0,0 +1,94 @@
+package com.github.kratorius.jefs;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LFCountMinSketchTest {
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidSize() {
+    new LFCountMinSketch(0, 100, 8);
+  }
+
+  @Test
+  public void testEstimatesNeverUnderestimate() {
+    LFCountMinSketch sketch = new LFCountMinSketch(4, 1 << 12, 16);
+
+    for (long key = 0; key < 10000; key++) {
+      sketch.add(key, (int) (key % 10));
+    }
+
+    long overestimated = 0;
+    for (long key = 0; key < 10000; key++) {
+      final int estimate = sketch.estimateCount(key);
+      assertTrue(estimate >= key % 10);
+      overestimated += estimate - key % 10;
+    }
+    // with high probability each estimate is off by at most e * N / width
+    assertTrue("too much error: " + overestimated, overestimated < 10000 * 45000 * Math.E / (1 << 12));
+  }
+
+  @Test
+  public void testHeavyHitterStandsOut() {
+    LFCountMinSketch sketch = new LFCountMinSketch(4, 1 << 10, 8);
+
+    for (long key = 0; key < 5000; key++) {
+      sketch.add(key);
+    }
+    for (int i = 0; i < 200; i++) {
+      sketch.add("hot");
+    }
+
+    assertTrue(sketch.estimateCount("hot") >= 200);
+    assertTrue(sketch.estimateCount(42L) < 50);
+  }
+
+  @Test
+  public void testClear() {
+    LFCountMinSketch sketch = new LFCountMinSketch(4, 1 << 10, 4);
+    sketch.add(1L);
+    sketch.clear();
+    assertEquals(0, sketch.estimateCount(1L));
+  }
+
+  static class AdderThread implements Runnable {
+    private final LFCountMinSketch sketch;
+    private final int keys;
+
+    public AdderThread(LFCountMinSketch sketch, int keys) {
+      this.sketch = sketch;
+      this.keys = keys;
+    }
+
+    @Override
+    public void run() {
+      for (long key = 0; key < keys; key++) {
+        sketch.add(key);
+      }
+    }
+  }
+
+  @Test
+  public void testAdd_asManyThreadsAsCores() throws InterruptedException {
+    final LFCountMinSketch sketch = new LFCountMinSketch(4, 1 << 16, 16);
+    int logicalCores = Runtime.getRuntime().availableProcessors();
+    ArrayList<Thread> threads = new ArrayList<>(logicalCores);
+
+    for (int i = 0; i < logicalCores; i++) {
+      threads.add(new Thread(new AdderThread(sketch, 1000)));
+    }
+    for (Thread t : threads) {
+      t.start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+
+    for (long key = 0; key < 1000; key++) {
+      assertTrue(sketch.estimateCount(key) >= logicalCores);
+    }
+  }
+}
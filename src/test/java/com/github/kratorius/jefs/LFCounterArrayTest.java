@@ -0,0 +1,106 @@
+package com.github.kratorius.jefs;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+
+public class LFCounterArrayTest {
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidCounterWidth() {
+    new LFCounterArray(100, 12);
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testOutOfBounds() {
+    LFCounterArray counters = new LFCounterArray(100, 8);
+    counters.get(100);
+  }
+
+  @Test
+  public void testCountersAreIndependent() {
+    for (int bits : new int[] { 4, 8, 16 }) {
+      LFCounterArray counters = new LFCounterArray(1000, bits);
+      assertEquals((1 << bits) - 1, counters.maxValue());
+
+      for (int i = 0; i < counters.length(); i++) {
+        assertEquals(0, counters.get(i));
+        assertEquals(i % counters.maxValue(), counters.add(i, i % counters.maxValue()));
+      }
+      for (int i = 0; i < counters.length(); i++) {
+        assertEquals(i % counters.maxValue(), counters.get(i));
+      }
+    }
+  }
+
+  @Test
+  public void testSaturation() {
+    for (int bits : new int[] { 4, 8, 16 }) {
+      LFCounterArray counters = new LFCounterArray(3, bits);
+
+      for (int i = 0; i < counters.maxValue() + 10; i++) {
+        counters.increment(1);
+      }
+      assertEquals(counters.maxValue(), counters.get(1));
+      assertEquals(counters.maxValue(), counters.add(2, Integer.MAX_VALUE));
+
+      // neighbours must not be affected by the overflow
+      assertEquals(0, counters.get(0));
+    }
+  }
+
+  @Test
+  public void testClear() {
+    LFCounterArray counters = new LFCounterArray(100, 4);
+    for (int i = 0; i < counters.length(); i++) {
+      counters.increment(i);
+    }
+    counters.clear();
+    for (int i = 0; i < counters.length(); i++) {
+      assertEquals(0, counters.get(i));
+    }
+  }
+
+  static class IncrementerThread implements Runnable {
+    private final LFCounterArray counters;
+    private final int times;
+
+    public IncrementerThread(LFCounterArray counters, int times) {
+      this.counters = counters;
+      this.times = times;
+    }
+
+    @Override
+    public void run() {
+      for (int count = 0; count < times; count++) {
+        for (int i = 0; i < counters.length(); i++) {
+          counters.increment(i);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testIncrement_heavyContention() throws InterruptedException {
+    // all the counters share the same word
+    final LFCounterArray counters = new LFCounterArray(4, 16);
+    int logicalCores = Runtime.getRuntime().availableProcessors();
+    ArrayList<Thread> threads = new ArrayList<>(logicalCores);
+
+    final int times = counters.maxValue() / logicalCores;
+    for (int i = 0; i < logicalCores; i++) {
+      threads.add(new Thread(new IncrementerThread(counters, times)));
+    }
+    for (Thread t : threads) {
+      t.start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+
+    for (int i = 0; i < counters.length(); i++) {
+      assertEquals(times * logicalCores, counters.get(i));
+    }
+  }
+}
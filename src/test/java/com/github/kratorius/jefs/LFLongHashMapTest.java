@@ -0,0 +1,240 @@
+package com.github.kratorius.jefs;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LFLongHashMapTest {
+  private static final int THREADS = 4;
+
+  private static void runThreads(int count, Runnable runnable) throws InterruptedException {
+    final Thread[] threads = new Thread[count];
+    for (int i = 0; i < count; i++) {
+      threads[i] = new Thread(runnable);
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+  }
+
+  @Test
+  public void testEmpty() {
+    LFLongHashMap<String> map = new LFLongHashMap<>();
+    assertTrue(map.isEmpty());
+    assertEquals(0, map.size());
+    assertNull(map.get(1));
+    assertNull(map.remove(1));
+    assertFalse(map.containsKey(1));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNullValuesNotAllowed() {
+    new LFLongHashMap<String>().put(1, null);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNegativeCapacityNotAllowed() {
+    new LFLongHashMap<String>(-1);
+  }
+
+  @Test
+  public void testPutGetRemove() {
+    LFLongHashMap<String> map = new LFLongHashMap<>();
+
+    assertNull(map.put(1, "a"));
+    assertNull(map.put(-1, "b"));
+    assertNull(map.put(Long.MAX_VALUE, "c"));
+    assertNull(map.put(Long.MIN_VALUE, "d"));
+    assertEquals(4, map.size());
+
+    assertEquals("a", map.get(1));
+    assertEquals("b", map.get(-1));
+    assertEquals("c", map.get(Long.MAX_VALUE));
+    assertEquals("d", map.get(Long.MIN_VALUE));
+
+    assertEquals("a", map.put(1, "e"));
+    assertEquals("e", map.get(1));
+    assertEquals(4, map.size());
+
+    assertEquals("e", map.remove(1));
+    assertNull(map.get(1));
+    assertNull(map.remove(1));
+    assertEquals(3, map.size());
+  }
+
+  @Test
+  public void testZeroKey() {
+    LFLongHashMap<String> map = new LFLongHashMap<>();
+
+    assertNull(map.get(0));
+    assertNull(map.put(0, "zero"));
+    assertEquals("zero", map.get(0));
+    assertTrue(map.containsKey(0));
+    assertEquals(1, map.size());
+    assertEquals("zero", map.putIfAbsent(0, "other"));
+    assertTrue(map.replace(0, "zero", "other"));
+    assertFalse(map.remove(0, "zero"));
+    assertTrue(map.remove(0, "other"));
+    assertNull(map.get(0));
+    assertEquals(0, map.size());
+  }
+
+  @Test
+  public void testConditionalOperations() {
+    LFLongHashMap<String> map = new LFLongHashMap<>();
+
+    assertNull(map.replace(1, "a"));
+    assertNull(map.get(1));
+    assertNull(map.putIfAbsent(1, "a"));
+    assertEquals("a", map.putIfAbsent(1, "b"));
+    assertEquals("a", map.replace(1, "b"));
+    assertFalse(map.replace(1, "a", "c"));
+    assertTrue(map.replace(1, "b", "c"));
+    assertEquals("c", map.get(1));
+    assertFalse(map.remove(1, "b"));
+    assertTrue(map.remove(1, "c"));
+    assertNull(map.get(1));
+    assertNull(map.putIfAbsent(1, "d"));
+    assertEquals("d", map.get(1));
+  }
+
+  @Test
+  public void testResize() {
+    LFLongHashMap<Long> map = new LFLongHashMap<>();
+    final int n = 1 << 18;
+
+    for (long i = 1; i <= n; i++) {
+      assertNull(map.put(i * 31, i));
+    }
+    assertEquals(n, map.size());
+    for (long i = 1; i <= n; i++) {
+      assertEquals(Long.valueOf(i), map.get(i * 31));
+    }
+    assertNull(map.get(-31));
+  }
+
+  @Test
+  public void testTombstonesAreReclaimed() {
+    LFLongHashMap<Long> map = new LFLongHashMap<>(64);
+
+    // every key is new, so removed slots can only be reused after a resize
+    for (long i = 1; i <= 1000000; i++) {
+      map.put(i, i);
+      assertEquals(Long.valueOf(i), map.remove(i));
+    }
+    assertEquals(0, map.size());
+
+    map.put(7, 7L);
+    assertEquals(Long.valueOf(7), map.get(7));
+    assertEquals(1, map.size());
+  }
+
+  @Test
+  public void testClear() {
+    LFLongHashMap<Long> map = new LFLongHashMap<>();
+    for (long i = 0; i < 1000; i++) {
+      map.put(i, i);
+    }
+
+    map.clear();
+    assertEquals(0, map.size());
+    for (long i = 0; i < 1000; i++) {
+      assertNull(map.get(i));
+    }
+  }
+
+  @Test
+  public void testConcurrentPuts() throws InterruptedException {
+    final LFLongHashMap<Long> map = new LFLongHashMap<>();
+    final int perThread = 200000;
+    final AtomicInteger ids = new AtomicInteger();
+
+    runThreads(THREADS, () -> {
+      final long base = (long) ids.getAndIncrement() * perThread;
+      for (long i = base; i < base + perThread; i++) {
+        map.put(i, i);
+      }
+    });
+
+    assertEquals(THREADS * perThread, map.size());
+    for (long i = 0; i < THREADS * perThread; i++) {
+      assertEquals(Long.valueOf(i), map.get(i));
+    }
+  }
+
+  @Test
+  public void testConcurrentReplace() throws InterruptedException {
+    final LFLongHashMap<Long> map = new LFLongHashMap<>();
+    final int keys = 5000;
+    final int increments = 20;
+
+    // every thread increments every key, while new keys keep growing the map
+    runThreads(THREADS, () -> {
+      for (int round = 0; round < increments; round++) {
+        for (long key = 0; key < keys; key++) {
+          while (true) {
+            final Long current = map.putIfAbsent(key, 1L);
+            if (current == null || map.replace(key, current, current + 1)) {
+              break;
+            }
+          }
+        }
+      }
+    });
+
+    assertEquals(keys, map.size());
+    for (long key = 0; key < keys; key++) {
+      assertEquals(Long.valueOf(THREADS * increments), map.get(key));
+    }
+  }
+
+  @Test
+  public void testConcurrentPutIfAbsent() throws InterruptedException {
+    final LFLongHashMap<Integer> map = new LFLongHashMap<>();
+    final int keys = 100000;
+    final AtomicInteger winners = new AtomicInteger();
+
+    runThreads(THREADS, () -> {
+      for (long key = 0; key < keys; key++) {
+        if (map.putIfAbsent(key, 1) == null) {
+          winners.incrementAndGet();
+        }
+      }
+    });
+
+    assertEquals(keys, winners.get());
+    assertEquals(keys, map.size());
+  }
+
+  @Test
+  public void testConcurrentPutRemove() throws InterruptedException {
+    final LFLongHashMap<Long> map = new LFLongHashMap<>();
+    final AtomicInteger ids = new AtomicInteger();
+
+    // threads own disjoint keys and keep adding and removing them
+    runThreads(THREADS, () -> {
+      final long id = ids.getAndIncrement();
+      for (long i = 0; i < 200000; i++) {
+        final long key = (i << 2) | id;
+        map.put(key, key);
+        if ((i & 1) == 0) {
+          map.remove(key);
+        }
+      }
+    });
+
+    assertEquals(THREADS * 100000, map.size());
+    for (long i = 0; i < 200000; i++) {
+      for (long id = 0; id < THREADS; id++) {
+        final long key = (i << 2) | id;
+        assertEquals((i & 1) == 0 ? null : Long.valueOf(key), map.get(key));
+      }
+    }
+  }
+}
@@ -0,0 +1,248 @@
+package com.github.kratorius.jefs;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.github.kratorius.jefs.LFLongLongHashMap.NO_VALUE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LFLongLongHashMapTest {
+  private static final int THREADS = 4;
+
+  private static void runThreads(int count, Runnable runnable) throws InterruptedException {
+    final Thread[] threads = new Thread[count];
+    for (int i = 0; i < count; i++) {
+      threads[i] = new Thread(runnable);
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+  }
+
+  @Test
+  public void testEmpty() {
+    LFLongLongHashMap map = new LFLongLongHashMap();
+    assertTrue(map.isEmpty());
+    assertEquals(0, map.size());
+    assertEquals(NO_VALUE, map.get(1));
+    assertEquals(NO_VALUE, map.remove(1));
+    assertFalse(map.containsKey(1));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testValueTooLarge() {
+    new LFLongLongHashMap().put(1, LFLongLongHashMap.MAX_VALUE + 1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testValueTooSmall() {
+    new LFLongLongHashMap().put(1, LFLongLongHashMap.MIN_VALUE - 1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNegativeCapacityNotAllowed() {
+    new LFLongLongHashMap(-1);
+  }
+
+  @Test
+  public void testPutGetRemove() {
+    LFLongLongHashMap map = new LFLongLongHashMap();
+
+    assertEquals(NO_VALUE, map.put(1, 10));
+    assertEquals(NO_VALUE, map.put(-1, -10));
+    assertEquals(NO_VALUE, map.put(Long.MAX_VALUE, LFLongLongHashMap.MAX_VALUE));
+    assertEquals(NO_VALUE, map.put(Long.MIN_VALUE, LFLongLongHashMap.MIN_VALUE));
+    assertEquals(NO_VALUE, map.put(2, 0));
+    assertEquals(5, map.size());
+
+    assertEquals(10, map.get(1));
+    assertEquals(-10, map.get(-1));
+    assertEquals(LFLongLongHashMap.MAX_VALUE, map.get(Long.MAX_VALUE));
+    assertEquals(LFLongLongHashMap.MIN_VALUE, map.get(Long.MIN_VALUE));
+    assertEquals(0, map.get(2));
+
+    assertEquals(10, map.put(1, 11));
+    assertEquals(11, map.get(1));
+    assertEquals(5, map.size());
+
+    assertEquals(11, map.remove(1));
+    assertEquals(NO_VALUE, map.get(1));
+    assertEquals(NO_VALUE, map.remove(1));
+    assertEquals(4, map.size());
+  }
+
+  @Test
+  public void testZeroKey() {
+    LFLongLongHashMap map = new LFLongLongHashMap();
+
+    assertEquals(NO_VALUE, map.get(0));
+    assertEquals(NO_VALUE, map.put(0, 0));
+    assertEquals(0, map.get(0));
+    assertTrue(map.containsKey(0));
+    assertEquals(1, map.size());
+    assertEquals(0, map.putIfAbsent(0, 1));
+    assertTrue(map.replace(0, 0, 1));
+    assertFalse(map.remove(0, 0));
+    assertTrue(map.remove(0, 1));
+    assertEquals(NO_VALUE, map.get(0));
+    assertEquals(0, map.size());
+  }
+
+  @Test
+  public void testConditionalOperations() {
+    LFLongLongHashMap map = new LFLongLongHashMap();
+
+    assertEquals(NO_VALUE, map.replace(1, 1));
+    assertEquals(NO_VALUE, map.get(1));
+    assertEquals(NO_VALUE, map.putIfAbsent(1, 1));
+    assertEquals(1, map.putIfAbsent(1, 2));
+    assertEquals(1, map.replace(1, 2));
+    assertFalse(map.replace(1, 1, 3));
+    assertTrue(map.replace(1, 2, 3));
+    assertTrue(map.replace(1, 3, 3));
+    assertEquals(3, map.get(1));
+    assertFalse(map.remove(1, 2));
+    assertTrue(map.remove(1, 3));
+    assertEquals(NO_VALUE, map.get(1));
+    assertEquals(NO_VALUE, map.putIfAbsent(1, 4));
+    assertEquals(4, map.get(1));
+  }
+
+  @Test
+  public void testResize() {
+    LFLongLongHashMap map = new LFLongLongHashMap();
+    final int n = 1 << 18;
+
+    for (long i = 1; i <= n; i++) {
+      assertEquals(NO_VALUE, map.put(i * 31, -i));
+    }
+    assertEquals(n, map.size());
+    for (long i = 1; i <= n; i++) {
+      assertEquals(-i, map.get(i * 31));
+    }
+    assertEquals(NO_VALUE, map.get(-31));
+  }
+
+  @Test
+  public void testTombstonesAreReclaimed() {
+    LFLongLongHashMap map = new LFLongLongHashMap(64);
+
+    // every key is new, so removed slots can only be reused after a resize
+    for (long i = 1; i <= 1000000; i++) {
+      map.put(i, i);
+      assertEquals(i, map.remove(i));
+    }
+    assertEquals(0, map.size());
+
+    map.put(7, 7);
+    assertEquals(7, map.get(7));
+    assertEquals(1, map.size());
+  }
+
+  @Test
+  public void testClear() {
+    LFLongLongHashMap map = new LFLongLongHashMap();
+    for (long i = 0; i < 1000; i++) {
+      map.put(i, i);
+    }
+
+    map.clear();
+    assertEquals(0, map.size());
+    for (long i = 0; i < 1000; i++) {
+      assertEquals(NO_VALUE, map.get(i));
+    }
+  }
+
+  @Test
+  public void testConcurrentPuts() throws InterruptedException {
+    final LFLongLongHashMap map = new LFLongLongHashMap();
+    final int perThread = 200000;
+    final AtomicInteger ids = new AtomicInteger();
+
+    runThreads(THREADS, () -> {
+      final long base = (long) ids.getAndIncrement() * perThread;
+      for (long i = base; i < base + perThread; i++) {
+        map.put(i, i);
+      }
+    });
+
+    assertEquals(THREADS * perThread, map.size());
+    for (long i = 0; i < THREADS * perThread; i++) {
+      assertEquals(i, map.get(i));
+    }
+  }
+
+  @Test
+  public void testConcurrentReplace() throws InterruptedException {
+    final LFLongLongHashMap map = new LFLongLongHashMap();
+    final int keys = 5000;
+    final int increments = 20;
+
+    // every thread increments every key, while new keys keep growing the map
+    runThreads(THREADS, () -> {
+      for (int round = 0; round < increments; round++) {
+        for (long key = 0; key < keys; key++) {
+          while (true) {
+            final long current = map.putIfAbsent(key, 1);
+            if (current == NO_VALUE || map.replace(key, current, current + 1)) {
+              break;
+            }
+          }
+        }
+      }
+    });
+
+    assertEquals(keys, map.size());
+    for (long key = 0; key < keys; key++) {
+      assertEquals(THREADS * increments, map.get(key));
+    }
+  }
+
+  @Test
+  public void testConcurrentPutIfAbsent() throws InterruptedException {
+    final LFLongLongHashMap map = new LFLongLongHashMap();
+    final int keys = 100000;
+    final AtomicInteger winners = new AtomicInteger();
+
+    runThreads(THREADS, () -> {
+      for (long key = 0; key < keys; key++) {
+        if (map.putIfAbsent(key, key) == NO_VALUE) {
+          winners.incrementAndGet();
+        }
+      }
+    });
+
+    assertEquals(keys, winners.get());
+    assertEquals(keys, map.size());
+  }
+
+  @Test
+  public void testConcurrentPutRemove() throws InterruptedException {
+    final LFLongLongHashMap map = new LFLongLongHashMap();
+    final AtomicInteger ids = new AtomicInteger();
+
+    // threads own disjoint keys and keep adding and removing them
+    runThreads(THREADS, () -> {
+      final long id = ids.getAndIncrement();
+      for (long i = 0; i < 200000; i++) {
+        final long key = (i << 2) | id;
+        map.put(key, key);
+        if ((i & 1) == 0) {
+          map.remove(key);
+        }
+      }
+    });
+
+    assertEquals(THREADS * 100000, map.size());
+    for (long i = 0; i < 200000; i++) {
+      for (long id = 0; id < THREADS; id++) {
+        final long key = (i << 2) | id;
+        assertEquals((i & 1) == 0 ? NO_VALUE : key, map.get(key));
+      }
+    }
+  }
+}
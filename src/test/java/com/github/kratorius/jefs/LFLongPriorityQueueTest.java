@@ -0,0 +1,183 @@
+package com.github.kratorius.jefs;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LFLongPriorityQueueTest {
+  private static final int THREADS = 4;
+
+  private static void runThreads(int count, Runnable runnable) throws InterruptedException {
+    final Thread[] threads = new Thread[count];
+    for (int i = 0; i < count; i++) {
+      threads[i] = new Thread(runnable);
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+  }
+
+  @Test
+  public void testEmpty() {
+    LFLongPriorityQueue<String> queue = new LFLongPriorityQueue<>();
+    assertTrue(queue.isEmpty());
+    assertEquals(0, queue.size());
+    assertNull(queue.deleteMin());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNullItem() {
+    new LFLongPriorityQueue<String>().insert(1, null);
+  }
+
+  @Test
+  public void testSingleThread() {
+    LFLongPriorityQueue<String> queue = new LFLongPriorityQueue<>();
+    queue.insert(3, "three");
+    queue.insert(-1, "minus one");
+    queue.insert(2, "two");
+    queue.insert(Long.MAX_VALUE, "max");
+    queue.insert(Long.MIN_VALUE, "min");
+    assertFalse(queue.isEmpty());
+    assertEquals(5, queue.size());
+
+    assertEquals("min", queue.deleteMin());
+    assertEquals("minus one", queue.deleteMin());
+    assertEquals("two", queue.deleteMin());
+    assertEquals("three", queue.deleteMin());
+    assertEquals("max", queue.deleteMin());
+    assertNull(queue.deleteMin());
+    assertTrue(queue.isEmpty());
+    assertEquals(0, queue.size());
+  }
+
+  @Test
+  public void testDuplicatePriorities() {
+    LFLongPriorityQueue<Integer> queue = new LFLongPriorityQueue<>();
+    for (int i = 0; i < 100; i++) {
+      queue.insert(i % 10, i);
+    }
+
+    for (int p = 0; p < 10; p++) {
+      final List<Integer> items = new ArrayList<>();
+      for (int i = 0; i < 10; i++) {
+        items.add(queue.deleteMin());
+      }
+      Collections.sort(items);
+      for (int i = 0; i < 10; i++) {
+        assertEquals(Integer.valueOf(i * 10 + p), items.get(i));
+      }
+    }
+    assertNull(queue.deleteMin());
+  }
+
+  @Test
+  public void testRandomOrder() {
+    // enough deletions to unlink the deleted nodes several times over
+    final Random random = new Random(42);
+    final LFLongPriorityQueue<Long> queue = new LFLongPriorityQueue<>();
+    final List<Long> expected = new ArrayList<>();
+    for (int i = 0; i < 100000; i++) {
+      final long priority = random.nextLong();
+      queue.insert(priority, priority);
+      expected.add(priority);
+    }
+    Collections.sort(expected);
+
+    for (Long priority : expected) {
+      assertEquals(priority, queue.deleteMin());
+    }
+    assertNull(queue.deleteMin());
+    assertTrue(queue.isEmpty());
+  }
+
+  @Test
+  public void testInterleaved() {
+    // lower priorities keep being inserted in front of the deleted nodes
+    final Random random = new Random(42);
+    final LFLongPriorityQueue<Long> queue = new LFLongPriorityQueue<>();
+    final PriorityQueue<Long> expected = new PriorityQueue<>();
+    for (int i = 0; i < 100000; i++) {
+      if (random.nextInt(3) == 0) {
+        assertEquals(expected.poll(), queue.deleteMin());
+      } else {
+        final long priority = random.nextInt(1000);
+        queue.insert(priority, priority);
+        expected.add(priority);
+      }
+    }
+
+    while (!expected.isEmpty()) {
+      assertEquals(expected.poll(), queue.deleteMin());
+    }
+    assertNull(queue.deleteMin());
+  }
+
+  @Test
+  public void testConcurrentInsert() throws InterruptedException {
+    final LFLongPriorityQueue<Long> queue = new LFLongPriorityQueue<>();
+    final int perThread = 100000;
+    final AtomicInteger ids = new AtomicInteger();
+
+    runThreads(THREADS, () -> {
+      final long id = ids.getAndIncrement();
+      for (long i = 0; i < perThread; i++) {
+        // threads insert interleaved priorities
+        final long priority = i * THREADS + id;
+        queue.insert(priority, priority);
+      }
+    });
+
+    assertEquals(THREADS * perThread, queue.size());
+    for (long i = 0; i < THREADS * perThread; i++) {
+      assertEquals(Long.valueOf(i), queue.deleteMin());
+    }
+    assertNull(queue.deleteMin());
+  }
+
+  @Test
+  public void testConcurrentInsertDelete() throws InterruptedException {
+    final LFLongPriorityQueue<Integer> queue = new LFLongPriorityQueue<>();
+    final int perThread = 100000;
+    final AtomicInteger ids = new AtomicInteger();
+    final AtomicIntegerArray seen = new AtomicIntegerArray(THREADS * perThread);
+
+    runThreads(THREADS, () -> {
+      final int base = ids.getAndIncrement() * perThread;
+      final Random random = new Random(base);
+      for (int i = base; i < base + perThread; i++) {
+        queue.insert(random.nextInt(1000), i);
+        if (random.nextBoolean()) {
+          final Integer item = queue.deleteMin();
+          if (item != null) {
+            seen.incrementAndGet(item);
+          }
+        }
+      }
+    });
+
+    Integer item;
+    while ((item = queue.deleteMin()) != null) {
+      seen.incrementAndGet(item);
+    }
+
+    // every element must have been deleted exactly once
+    for (int i = 0; i < seen.length(); i++) {
+      assertEquals(1, seen.get(i));
+    }
+    assertTrue(queue.isEmpty());
+    assertEquals(0, queue.size());
+  }
+}
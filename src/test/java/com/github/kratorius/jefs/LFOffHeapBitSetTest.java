@@ -0,0 +1,183 @@
+package com.github.kratorius.jefs;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LFOffHeapBitSetTest {
+  private static final int ONE_MB = 1024 * 1024;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testNewBitSetIsZero() {
+    LFOffHeapBitSet bs = LFOffHeapBitSet.allocateDirect(ONE_MB);
+
+    assertEquals(ONE_MB, bs.size());
+    for (int i = 0; i < ONE_MB; i++) {
+      assertFalse(bs.get(i));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNegativeSizeNotAllowed() {
+    LFOffHeapBitSet.allocateDirect(-1);
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testOutOfBounds() {
+    LFOffHeapBitSet bs = LFOffHeapBitSet.allocateDirect(ONE_MB);
+    bs.get(ONE_MB);
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testNegativeIndex() {
+    LFOffHeapBitSet bs = LFOffHeapBitSet.allocateDirect(ONE_MB);
+    bs.set(-1);
+  }
+
+  @Test
+  public void testSetGetClearFlip_singleThread() {
+    LFOffHeapBitSet bs = LFOffHeapBitSet.allocateDirect(ONE_MB);
+
+    for (int i = 0; i < ONE_MB; i++) {
+      assertFalse(bs.get(i));
+      bs.set(i);
+      assertTrue(bs.get(i));
+    }
+    for (int i = 0; i < ONE_MB; i += 2) {
+      bs.clear(i);
+    }
+    for (int i = 0; i < ONE_MB; i++) {
+      bs.flip(i);
+      assertEquals((i % 2) == 0, bs.get(i));
+    }
+
+    bs.clear();
+    for (int i = 0; i < ONE_MB; i++) {
+      assertFalse(bs.get(i));
+    }
+  }
+
+  @Test
+  public void testIndicesLargerThanInt() throws IOException {
+    // spans two mapped regions, the file is sparse so this is cheap on disk
+    final long size = (1L << 33) + 128;
+    LFOffHeapBitSet bs = LFOffHeapBitSet.map(folder.getRoot().toPath().resolve("large"), size);
+
+    final long[] positions = { 0, Integer.MAX_VALUE, Integer.MAX_VALUE + 1L, 1L << 32, (1L << 33) - 1, 1L << 33, size - 1 };
+    for (long pos : positions) {
+      assertFalse(bs.get(pos));
+      bs.set(pos);
+      assertTrue(bs.get(pos));
+    }
+
+    // make sure that the bits didn't alias each other
+    bs.clear(Integer.MAX_VALUE + 1L);
+    bs.clear(1L << 33);
+    assertTrue(bs.get(Integer.MAX_VALUE));
+    assertFalse(bs.get(Integer.MAX_VALUE + 1L));
+    assertTrue(bs.get((1L << 33) - 1));
+    assertFalse(bs.get(1L << 33));
+    assertTrue(bs.get(size - 1));
+  }
+
+  @Test
+  public void testMappedBitSetSurvivesReopening() throws IOException {
+    final Path file = folder.getRoot().toPath().resolve("bitset");
+
+    LFOffHeapBitSet bs = LFOffHeapBitSet.map(file, ONE_MB);
+    for (int i = 0; i < ONE_MB; i += 3) {
+      bs.set(i);
+    }
+    bs.force();
+
+    LFOffHeapBitSet reopened = LFOffHeapBitSet.map(file, ONE_MB);
+    for (int i = 0; i < ONE_MB; i++) {
+      assertEquals((i % 3) == 0, reopened.get(i));
+    }
+  }
+
+  @Test
+  public void testMapOtherSize() throws IOException {
+    final Path file = folder.getRoot().toPath().resolve("bitset");
+    LFOffHeapBitSet.map(file, ONE_MB).force();
+
+    try {
+      LFOffHeapBitSet.map(file, ONE_MB / 2);
+      fail("mapped a smaller bit set");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    try {
+      LFOffHeapBitSet.map(file, ONE_MB * 2);
+      fail("mapped a larger bit set");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    assertEquals(ONE_MB / 8, Files.size(file));
+  }
+
+  @Test
+  public void testMapEmptyFile() throws IOException {
+    final Path file = folder.newFile("bitset").toPath();
+    LFOffHeapBitSet bs = LFOffHeapBitSet.map(file, ONE_MB);
+    assertEquals(ONE_MB / 8, Files.size(file));
+    assertFalse(bs.get(ONE_MB - 1));
+  }
+
+  static class MultiFlipThread implements Runnable {
+    private final LFOffHeapBitSet bitSet;
+    private final int bsSize;
+    private final int times;
+
+    public MultiFlipThread(LFOffHeapBitSet bitSet, int bsSize, int times) {
+      this.bitSet = bitSet;
+      this.bsSize = bsSize;
+      this.times = times;
+    }
+
+    @Override
+    public void run() {
+      for (int count = 0; count < times; count++) {
+        for (int i = 0; i < bsSize; i++) {
+          bitSet.flip(i);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testFlip_multipleTimes_heavyContention() throws InterruptedException {
+    final LFOffHeapBitSet bs = LFOffHeapBitSet.allocateDirect(64);
+    int logicalCores = Runtime.getRuntime().availableProcessors();
+    ArrayList<Thread> threads = new ArrayList<>(logicalCores);
+
+    for (int i = 0; i < logicalCores; i++) {
+      threads.add(new Thread(new MultiFlipThread(bs, 64, 100)));
+    }
+
+    for (Thread t : threads) {
+      t.start();
+    }
+
+    for (Thread t : threads) {
+      t.join();
+    }
+
+    for (int i = 0; i < 64; i++) {
+      assertFalse(bs.get(i));
+    }
+  }
+}
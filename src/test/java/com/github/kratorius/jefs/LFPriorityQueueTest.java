@@ -0,0 +1,147 @@
+package com.github.kratorius.jefs;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LFPriorityQueueTest {
+  private static final int THREADS = 4;
+
+  private static void runThreads(int count, Runnable runnable) throws InterruptedException {
+    final Thread[] threads = new Thread[count];
+    for (int i = 0; i < count; i++) {
+      threads[i] = new Thread(runnable);
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+  }
+
+  @Test
+  public void testEmpty() {
+    LFPriorityQueue<String> queue = new LFPriorityQueue<>();
+    assertTrue(queue.isEmpty());
+    assertEquals(0, queue.size());
+    assertNull(queue.deleteMin());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNullItem() {
+    new LFPriorityQueue<String>().insert(null);
+  }
+
+  @Test
+  public void testNaturalOrdering() {
+    LFPriorityQueue<String> queue = new LFPriorityQueue<>();
+    queue.insert("c");
+    queue.insert("a");
+    queue.insert("d");
+    queue.insert("b");
+    assertFalse(queue.isEmpty());
+    assertEquals(4, queue.size());
+
+    assertEquals("a", queue.deleteMin());
+    assertEquals("b", queue.deleteMin());
+    assertEquals("c", queue.deleteMin());
+    assertEquals("d", queue.deleteMin());
+    assertNull(queue.deleteMin());
+    assertTrue(queue.isEmpty());
+  }
+
+  @Test
+  public void testComparator() {
+    LFPriorityQueue<String> queue = new LFPriorityQueue<>(Comparator.comparing(String::length));
+    queue.insert("ccc");
+    queue.insert("a");
+    queue.insert("dddd");
+    queue.insert("bb");
+
+    assertEquals("a", queue.deleteMin());
+    assertEquals("bb", queue.deleteMin());
+    assertEquals("ccc", queue.deleteMin());
+    assertEquals("dddd", queue.deleteMin());
+    assertNull(queue.deleteMin());
+  }
+
+  @Test
+  public void testRandomOrder() {
+    final Random random = new Random(42);
+    final LFPriorityQueue<Integer> queue = new LFPriorityQueue<>(Comparator.reverseOrder());
+    final List<Integer> expected = new ArrayList<>();
+    for (int i = 0; i < 100000; i++) {
+      final int item = random.nextInt();
+      queue.insert(item);
+      expected.add(item);
+    }
+    expected.sort(Comparator.reverseOrder());
+
+    for (Integer item : expected) {
+      assertEquals(item, queue.deleteMin());
+    }
+    assertNull(queue.deleteMin());
+    assertTrue(queue.isEmpty());
+  }
+
+  @Test
+  public void testConcurrentInsert() throws InterruptedException {
+    final LFPriorityQueue<Integer> queue = new LFPriorityQueue<>();
+    final int perThread = 100000;
+    final AtomicInteger ids = new AtomicInteger();
+
+    runThreads(THREADS, () -> {
+      final int id = ids.getAndIncrement();
+      for (int i = 0; i < perThread; i++) {
+        queue.insert(i * THREADS + id);
+      }
+    });
+
+    assertEquals(THREADS * perThread, queue.size());
+    for (int i = 0; i < THREADS * perThread; i++) {
+      assertEquals(Integer.valueOf(i), queue.deleteMin());
+    }
+    assertNull(queue.deleteMin());
+  }
+
+  @Test
+  public void testConcurrentInsertDelete() throws InterruptedException {
+    final LFPriorityQueue<Integer> queue = new LFPriorityQueue<>();
+    final int perThread = 100000;
+    final AtomicInteger ids = new AtomicInteger();
+    final AtomicIntegerArray seen = new AtomicIntegerArray(THREADS * perThread);
+
+    runThreads(THREADS, () -> {
+      final int base = ids.getAndIncrement() * perThread;
+      final Random random = new Random(base);
+      for (int i = base; i < base + perThread; i++) {
+        queue.insert(i);
+        if (random.nextBoolean()) {
+          final Integer item = queue.deleteMin();
+          if (item != null) {
+            seen.incrementAndGet(item);
+          }
+        }
+      }
+    });
+
+    Integer item;
+    while ((item = queue.deleteMin()) != null) {
+      seen.incrementAndGet(item);
+    }
+
+    for (int i = 0; i < seen.length(); i++) {
+      assertEquals(1, seen.get(i));
+    }
+    assertTrue(queue.isEmpty());
+  }
+}
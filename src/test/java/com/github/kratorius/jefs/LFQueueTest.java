@@ -0,0 +1,218 @@
+package com.github.kratorius.jefs;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LFQueueTest {
+  private static final int PRODUCERS = 4;
+  private static final int CONSUMERS = 4;
+
+  @Test
+  public void testOfferPoll() {
+    LFQueue<Integer> q = new LFQueue<>();
+    assertNull(q.poll());
+    assertTrue(q.isEmpty());
+    for (int i = 0; i < 1000; i++) {
+      assertTrue(q.offer(i));
+    }
+    assertEquals(1000, q.size());
+
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(i, (int)q.poll());
+    }
+    assertNull(q.poll());
+    assertTrue(q.isEmpty());
+    assertEquals(0, q.size());
+  }
+
+  @Test
+  public void testRemove() {
+    LFQueue<Integer> q = new LFQueue<>();
+    q.add(1);
+    assertEquals(1, (int)q.remove());
+
+    try {
+      q.remove();
+      fail("removed item from an empty queue");
+    } catch (NoSuchElementException ex) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testPeek() {
+    LFQueue<Integer> q = new LFQueue<>();
+    assertNull(q.peek());
+    q.add(1);
+    q.add(2);
+    assertEquals(1, (int)q.peek());
+    assertEquals(1, (int)q.element());
+    q.remove();
+    assertEquals(2, (int)q.peek());
+    q.remove();
+    assertNull(q.peek());
+  }
+
+  @Test
+  public void testContains() {
+    LFQueue<Integer> q = new LFQueue<>();
+    q.add(1);
+    q.add(2);
+    assertTrue(q.contains(2));
+    assertTrue(q.containsAll(Arrays.asList(1, 2)));
+    assertFalse(q.contains(3));
+    q.poll();
+    assertFalse(q.contains(1));
+  }
+
+  @Test
+  public void testAddAll() {
+    LFQueue<Integer> q = new LFQueue<>();
+    assertFalse(q.addAll(Collections.<Integer>emptyList()));
+    q.add(0);
+    assertTrue(q.addAll(Arrays.asList(1, 2, 3)));
+    q.add(4);
+
+    assertEquals(5, q.size());
+    for (int i = 0; i < 5; i++) {
+      assertEquals(i, (int)q.poll());
+    }
+    assertNull(q.poll());
+  }
+
+  @Test
+  public void testClear() {
+    LFQueue<Integer> q = new LFQueue<>();
+    for (int i = 0; i < 10; i++) {
+      q.add(i);
+    }
+    q.clear();
+    assertTrue(q.isEmpty());
+    assertNull(q.poll());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNullItem() {
+    new LFQueue<Integer>().offer(null);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNullItemInBatch() {
+    new LFQueue<Integer>().addAll(Arrays.asList(1, null));
+  }
+
+  private void testConcurrent(boolean batches) throws InterruptedException {
+    final LFQueue<Long> q = new LFQueue<>();
+    final int perProducer = 500000;
+    final int batch = 10;
+    final AtomicInteger consumed = new AtomicInteger();
+    final AtomicInteger errors = new AtomicInteger();
+
+    final Thread[] threads = new Thread[PRODUCERS + CONSUMERS];
+    for (int p = 0; p < PRODUCERS; p++) {
+      final long id = p;
+      threads[p] = new Thread(() -> {
+        final List<Long> items = new ArrayList<>();
+        for (long i = 0; i < perProducer; i++) {
+          if (batches) {
+            items.add((i << 8) | id);
+            if (items.size() == batch) {
+              q.addAll(items);
+              items.clear();
+            }
+          } else {
+            q.offer((i << 8) | id);
+          }
+        }
+      });
+    }
+
+    // each consumer must see the items of each producer in the order they
+    // went in
+    for (int c = 0; c < CONSUMERS; c++) {
+      threads[PRODUCERS + c] = new Thread(() -> {
+        final long[] last = new long[PRODUCERS];
+        Arrays.fill(last, -1);
+        while (consumed.get() < PRODUCERS * perProducer) {
+          final Long item = q.poll();
+          if (item == null) {
+            Thread.yield();
+            continue;
+          }
+          consumed.incrementAndGet();
+          final int id = (int) (item & 0xff);
+          if (item >>> 8 <= last[id]) {
+            errors.incrementAndGet();
+          }
+          last[id] = item >>> 8;
+        }
+      });
+    }
+
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertEquals(0, errors.get());
+    assertEquals(PRODUCERS * perProducer, consumed.get());
+    assertNull(q.poll());
+  }
+
+  @Test
+  public void testConcurrentProducersAndConsumers() throws InterruptedException {
+    testConcurrent(false);
+  }
+
+  @Test
+  public void testConcurrentBatches() throws InterruptedException {
+    testConcurrent(true);
+  }
+
+  @Test
+  public void testBatchesStayTogether() throws InterruptedException {
+    final LFQueue<Long> q = new LFQueue<>();
+    final int batches = 100000;
+    final int batch = 8;
+
+    final Thread[] producers = new Thread[PRODUCERS];
+    for (int p = 0; p < PRODUCERS; p++) {
+      final long id = p;
+      producers[p] = new Thread(() -> {
+        final List<Long> items = new ArrayList<>();
+        for (int i = 0; i < batch; i++) {
+          items.add(id);
+        }
+        for (int i = 0; i < batches; i++) {
+          q.addAll(items);
+        }
+      });
+      producers[p].start();
+    }
+    for (Thread producer : producers) {
+      producer.join();
+    }
+
+    for (int i = 0; i < PRODUCERS * batches; i++) {
+      final long id = q.poll();
+      for (int j = 1; j < batch; j++) {
+        assertEquals(id, (long)q.poll());
+      }
+    }
+    assertNull(q.poll());
+  }
+}
@@ -4,11 +4,15 @@ import org.junit.Test;
 
 import java.util.ArrayList;
 import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class LFStackTest {
   class FixedValuePusherThread<E> implements Runnable {
@@ -150,4 +154,91 @@ public class LFStackTest {
 
     assertTrue(stack.empty());
   }
+
+  @Test
+  public void testPopAsync() throws Exception {
+    LFStack<Integer> stack = new LFStack<>();
+    stack.push(1);
+    assertEquals(1, (int) stack.popAsync().get());
+
+    CompletableFuture<Integer> first = stack.popAsync();
+    CompletableFuture<Integer> second = stack.popAsync();
+    CompletableFuture<Integer> cancelled = stack.popAsync();
+    assertFalse(first.isDone());
+    assertTrue(cancelled.cancel(false));
+
+    stack.push(2);
+    stack.push(3);
+    assertEquals(2, (int) first.get(1, TimeUnit.SECONDS));
+    assertEquals(3, (int) second.get(1, TimeUnit.SECONDS));
+
+    // nobody waits for this one anymore
+    stack.push(4);
+    assertEquals(1, stack.size());
+  }
+
+  @Test
+  public void testTake() throws Exception {
+    final LFStack<Long> stack = new LFStack<>();
+    final long items = 100000;
+    final AtomicLong sum = new AtomicLong();
+
+    final Thread[] consumers = new Thread[4];
+    for (int c = 0; c < consumers.length; c++) {
+      consumers[c] = new Thread(() -> {
+        try {
+          for (long i = 0; i < items / consumers.length; i++) {
+            sum.addAndGet(stack.take());
+          }
+        } catch (InterruptedException e) {
+          // the test fails on the sum
+        }
+      });
+      consumers[c].start();
+    }
+
+    final Thread[] producers = new Thread[2];
+    for (int p = 0; p < producers.length; p++) {
+      final long from = p * items / producers.length;
+      producers[p] = new Thread(() -> {
+        for (long i = from; i < from + items / producers.length; i++) {
+          stack.push(i);
+        }
+      });
+      producers[p].start();
+    }
+
+    for (Thread t : producers) {
+      t.join();
+    }
+    for (Thread t : consumers) {
+      t.join(10000);
+      assertFalse(t.isAlive());
+    }
+    assertEquals(items * (items - 1) / 2, sum.get());
+    assertTrue(stack.empty());
+  }
+
+  @Test
+  public void testTakeInterrupted() throws Exception {
+    final LFStack<Integer> stack = new LFStack<>();
+    final AtomicLong interrupted = new AtomicLong();
+    Thread consumer = new Thread(() -> {
+      try {
+        stack.take();
+        fail("took from an empty stack");
+      } catch (InterruptedException e) {
+        interrupted.incrementAndGet();
+      }
+    });
+    consumer.start();
+    Thread.sleep(50);
+    consumer.interrupt();
+    consumer.join(10000);
+    assertEquals(1, interrupted.get());
+
+    // the interrupted thread doesn't wait anymore
+    stack.push(1);
+    assertEquals(1, stack.size());
+  }
 }
@@ -0,0 +1,143 @@
+package com.github.kratorius.jefs;
+
+import org.junit.Test;
+
+import java.util.NoSuchElementException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MPSCQueueTest {
+  private static final int PRODUCERS = 4;
+
+  @Test
+  public void testAdd() {
+    MPSCQueue<Integer> q = new MPSCQueue<>(100);
+    for (int i = 0; i < q.actualCapacity(); i++) {
+      assertTrue(q.add(i));
+    }
+
+    try {
+      q.add(123);
+      fail("more items than allowed added");
+    } catch (IllegalStateException ex) {
+      // expected
+    }
+
+    assertEquals(q.actualCapacity(), q.size());
+  }
+
+  @Test
+  public void testPoll() {
+    MPSCQueue<Integer> q = new MPSCQueue<>(100);
+    assertNull(q.poll());
+    for (int i = 0; i < q.actualCapacity(); i++) {
+      q.add(i);
+    }
+
+    for (int i = 0; i < q.actualCapacity(); i++) {
+      assertEquals(i, (int)q.poll());
+    }
+    assertNull(q.poll());
+    assertTrue(q.isEmpty());
+  }
+
+  @Test
+  public void testRemove() {
+    MPSCQueue<Integer> q = new MPSCQueue<>(100);
+    q.add(1);
+    assertEquals(1, (int)q.remove());
+
+    try {
+      q.remove();
+      fail("removed item from an empty queue");
+    } catch (NoSuchElementException ex) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testPeek() {
+    MPSCQueue<Integer> q = new MPSCQueue<>(100);
+    assertNull(q.peek());
+    q.add(1);
+    q.add(2);
+    assertEquals(1, (int)q.peek());
+    q.remove();
+    assertEquals(2, (int)q.peek());
+  }
+
+  @Test
+  public void testWrapAround() {
+    MPSCQueue<Integer> q = new MPSCQueue<>(16);
+    for (int i = 0; i < 1000; i++) {
+      q.add(i);
+      q.add(i);
+      assertEquals(i, (int)q.poll());
+      assertEquals(i, (int)q.poll());
+    }
+    assertEquals(0, q.size());
+  }
+
+  @Test
+  public void testClear() {
+    MPSCQueue<Integer> q = new MPSCQueue<>(16);
+    for (int i = 0; i < 10; i++) {
+      q.add(i);
+    }
+    q.clear();
+    assertTrue(q.isEmpty());
+    assertNull(q.poll());
+  }
+
+  @Test
+  public void testContains() {
+    MPSCQueue<Integer> q = new MPSCQueue<>(16);
+    q.add(1);
+    q.add(2);
+    assertTrue(q.contains(2));
+    assertEquals(false, q.contains(3));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testNullItem() {
+    new MPSCQueue<Integer>(16).offer(null);
+  }
+
+  @Test
+  public void testConcurrentProducers() throws InterruptedException {
+    final MPSCQueue<Long> q = new MPSCQueue<>(1024);
+    final int perProducer = 1000000;
+
+    final Thread[] producers = new Thread[PRODUCERS];
+    for (int p = 0; p < PRODUCERS; p++) {
+      final long id = p;
+      producers[p] = new Thread(() -> {
+        for (long i = 0; i < perProducer; i++) {
+          while (!q.offer((i << 8) | id)) {
+            Thread.yield();
+          }
+        }
+      });
+      producers[p].start();
+    }
+
+    // items of each producer must come out in the order they went in
+    final long[] expected = new long[PRODUCERS];
+    for (int i = 0; i < PRODUCERS * perProducer; i++) {
+      Long item;
+      while ((item = q.poll()) == null) {
+        Thread.yield();
+      }
+      final int id = (int) (item & 0xff);
+      assertEquals(expected[id]++, item >>> 8);
+    }
+
+    for (Thread producer : producers) {
+      producer.join();
+    }
+    assertNull(q.poll());
+  }
+}
@@ -0,0 +1,197 @@
+package com.github.kratorius.jefs;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsTest {
+  @Test
+  public void testEnabledInTests() {
+    assertTrue("tests must run with -Djefs.metrics=true", Metrics.ENABLED);
+  }
+
+  @Test
+  public void testQueueRejections() {
+    final Metrics metrics = new Metrics();
+    final SPSCQueue<Integer> queue = new SPSCQueue<>(4);
+    queue.setMetrics(metrics);
+
+    assertEquals(null, queue.poll());
+    for (int i = 0; i < 5; i++) {
+      queue.offer(i);
+    }
+    for (int i = 0; i < 4; i++) {
+      queue.poll();
+    }
+    queue.poll();
+
+    final Metrics.Snapshot snapshot = metrics.snapshot();
+    assertEquals(1, snapshot.rejections(Metrics.Operation.OFFER));
+    assertEquals(2, snapshot.rejections(Metrics.Operation.POLL));
+    assertEquals(4, snapshot.highWaterMark());
+  }
+
+  @Test
+  public void testQueueBatches() {
+    final Metrics metrics = new Metrics();
+    final SPSCQueue<Integer> queue = new SPSCQueue<>(16);
+    queue.setMetrics(metrics);
+
+    queue.addAll(Arrays.asList(1, 2, 3));
+    queue.addAll(Arrays.asList(4, 5));
+
+    final Metrics.Snapshot snapshot = metrics.snapshot();
+    assertEquals(2, snapshot.batches());
+    assertEquals(5, snapshot.batchedItems());
+    assertEquals(5, snapshot.highWaterMark());
+  }
+
+  @Test
+  public void testStack() {
+    final Metrics metrics = new Metrics();
+    final LFStack<Integer> stack = new LFStack<>();
+    stack.setMetrics(metrics);
+
+    stack.push(1);
+    stack.push(2);
+    stack.push(3);
+    stack.remove();
+    stack.remove();
+    stack.remove();
+    stack.remove();
+
+    final Metrics.Snapshot snapshot = metrics.snapshot();
+    assertEquals(3, snapshot.highWaterMark());
+    assertEquals(1, snapshot.rejections(Metrics.Operation.POP));
+    // a single thread never loses a CAS, barring spurious failures
+    assertTrue(snapshot.casFailures(Metrics.Operation.PUSH) < 3);
+  }
+
+  @Test
+  public void testRecordRing() {
+    final Metrics metrics = new Metrics();
+    final RecordRing ring = new RecordRing(64);
+    ring.setMetrics(metrics);
+    final RecordRing.Handler handler = (buffer, offset, length) -> { };
+
+    ring.read(handler, Integer.MAX_VALUE);
+    // 16 bytes each, header included
+    for (int i = 0; i < 5; i++) {
+      ring.offer(ByteBuffer.allocate(8));
+    }
+    ring.read(handler, Integer.MAX_VALUE);
+
+    final Metrics.Snapshot snapshot = metrics.snapshot();
+    assertEquals(1, snapshot.rejections(Metrics.Operation.OFFER));
+    assertEquals(1, snapshot.rejections(Metrics.Operation.POLL));
+    assertEquals(64, snapshot.highWaterMark());
+    assertEquals(1, snapshot.batches());
+    assertEquals(4, snapshot.batchedItems());
+  }
+
+  @Test
+  public void testConflatingQueue() {
+    final Metrics metrics = new Metrics();
+    final ConflatingQueue<Integer, Integer> queue = new ConflatingQueue<>(2);
+    queue.setMetrics(metrics);
+
+    queue.poll();
+    for (int i = 0; i < 3; i++) {
+      queue.offer(i, i);
+    }
+    queue.offer(1, 1);
+    queue.drain((k, v) -> { }, Integer.MAX_VALUE);
+    queue.drain((k, v) -> { }, Integer.MAX_VALUE);
+
+    final Metrics.Snapshot snapshot = metrics.snapshot();
+    assertEquals(1, snapshot.rejections(Metrics.Operation.OFFER));
+    assertEquals(2, snapshot.rejections(Metrics.Operation.POLL));
+    assertEquals(1, snapshot.batches());
+    assertEquals(2, snapshot.batchedItems());
+  }
+
+  @Test
+  public void testFlightRecorder() {
+    final Metrics metrics = new Metrics();
+    final FlightRecorder<Integer> recorder = new FlightRecorder<>(4);
+    recorder.setMetrics(metrics);
+
+    // overwriting is not a rejection
+    for (int i = 0; i < 10; i++) {
+      recorder.record(i);
+    }
+
+    final Metrics.Snapshot snapshot = metrics.snapshot();
+    assertEquals(0, snapshot.rejections(Metrics.Operation.OFFER));
+    assertEquals(0, snapshot.casFailures(Metrics.Operation.OFFER));
+  }
+
+  @Test
+  public void testBitSetCasFailures() throws InterruptedException {
+    final Metrics metrics = new Metrics();
+    final LFBitSet bitset = new LFBitSet(64);
+    bitset.setMetrics(metrics);
+
+    final Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      final int bit = t;
+      threads[t] = new Thread(() -> {
+        for (int i = 0; i < 100000; i++) {
+          bitset.flip(bit);
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    // every flip happened exactly once no matter how many CAS were retried
+    for (int t = 0; t < threads.length; t++) {
+      assertEquals(false, bitset.get(t));
+    }
+    final Metrics.Snapshot snapshot = metrics.snapshot();
+    assertEquals(snapshot.casFailures(Metrics.Operation.FLIP), metrics.getCasFailures());
+    assertEquals(0, snapshot.casFailures(Metrics.Operation.SET));
+  }
+
+  @Test
+  public void testReset() {
+    final Metrics metrics = new Metrics();
+    final SPSCQueue<Integer> queue = new SPSCQueue<>(2);
+    queue.setMetrics(metrics);
+    queue.poll();
+    queue.offer(1);
+
+    metrics.reset();
+    final Metrics.Snapshot snapshot = metrics.snapshot();
+    assertEquals(0, snapshot.rejections(Metrics.Operation.POLL));
+    assertEquals(0, snapshot.highWaterMark());
+  }
+
+  @Test
+  public void testJmx() throws Exception {
+    final Metrics metrics = new Metrics();
+    final SPSCQueue<Integer> queue = new SPSCQueue<>(2);
+    queue.setMetrics(metrics);
+    queue.poll();
+    queue.offer(1);
+
+    final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    final ObjectName name = metrics.registerMBean("testJmx");
+    try {
+      assertEquals(1L, server.getAttribute(name, "Rejections"));
+      assertEquals(1L, server.getAttribute(name, "HighWaterMark"));
+    } finally {
+      server.unregisterMBean(name);
+    }
+  }
+}
@@ -0,0 +1,142 @@
+package com.github.kratorius.jefs;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.github.kratorius.jefs.QueuePublisherTest.DIRECT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class QueueProcessorTest {
+  @Test
+  public void testTransform() {
+    QueuePublisher<Integer> publisher = new QueuePublisher<>(DIRECT, 4);
+    QueueProcessor<Integer, String> processor = new QueueProcessor<>(DIRECT, 4,
+        i -> i % 2 == 0 ? "#" + i : null);
+    QueuePublisherTest.Recorder<String> recorder = new QueuePublisherTest.Recorder<>(Long.MAX_VALUE);
+    publisher.subscribe(processor);
+    processor.subscribe(recorder);
+
+    // more than the buffers hold: the processor keeps asking for more
+    for (int i = 0; i < 10; i++) {
+      assertTrue(publisher.offer(i));
+    }
+    publisher.close();
+    assertEquals(Arrays.asList("#0", "#2", "#4", "#6", "#8"), recorder.items);
+    assertTrue(recorder.completed);
+    assertTrue(processor.isClosed());
+  }
+
+  @Test
+  public void testNoSubscribers() {
+    QueuePublisher<Integer> publisher = new QueuePublisher<>(DIRECT, 4);
+    QueueProcessor<Integer, Integer> processor = new QueueProcessor<>(DIRECT, 4, i -> i);
+    publisher.subscribe(processor);
+
+    // without downstream subscribers the items are dropped, and the processor
+    // keeps asking for more
+    for (int i = 0; i < 10; i++) {
+      assertTrue(publisher.offer(i));
+    }
+
+    QueuePublisherTest.Recorder<Integer> recorder = new QueuePublisherTest.Recorder<>(Long.MAX_VALUE);
+    processor.subscribe(recorder);
+    publisher.offer(10);
+    assertEquals(Arrays.asList(10), recorder.items);
+  }
+
+  @Test
+  public void testTransformFailure() {
+    QueuePublisher<Integer> publisher = new QueuePublisher<>(DIRECT, 4);
+    QueueProcessor<Integer, Integer> processor = new QueueProcessor<>(DIRECT, 4, i -> 10 / i);
+    QueuePublisherTest.Recorder<Integer> recorder = new QueuePublisherTest.Recorder<>(Long.MAX_VALUE);
+    publisher.subscribe(processor);
+    processor.subscribe(recorder);
+
+    publisher.offer(5);
+    publisher.offer(0);
+    assertEquals(Arrays.asList(2), recorder.items);
+    assertTrue(recorder.error instanceof ArithmeticException);
+
+    // the processor has left the upstream publisher
+    publisher.offer(1);
+    assertEquals(0, publisher.subscribers());
+  }
+
+  @Test
+  public void testSingleUpstream() {
+    QueuePublisher<Integer> first = new QueuePublisher<>(DIRECT, 4);
+    QueuePublisher<Integer> second = new QueuePublisher<>(DIRECT, 4);
+    QueueProcessor<Integer, Integer> processor = new QueueProcessor<>(DIRECT, 4, i -> i);
+    first.subscribe(processor);
+    second.subscribe(processor);
+
+    second.offer(1);
+    assertEquals(1, first.subscribers());
+    assertEquals(0, second.subscribers());
+  }
+
+  @Test
+  public void testConcurrentPipeline() throws InterruptedException {
+    final int items = 1000000;
+    // the stages never wait for each other, so they can share a single thread
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      final QueuePublisher<Integer> source = new QueuePublisher<>(executor, 128);
+      final QueueProcessor<Integer, Long> first = new QueueProcessor<>(executor, 128, i -> (long) i * 2);
+      final QueueProcessor<Long, Long> second = new QueueProcessor<>(executor, 128, l -> l + 1);
+      source.subscribe(first);
+      first.subscribe(second);
+
+      final AtomicInteger errors = new AtomicInteger();
+      final AtomicLong received = new AtomicLong();
+      final CountDownLatch done = new CountDownLatch(1);
+      second.subscribe(new Flow.Subscriber<Long>() {
+        long expected;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+          subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(Long item) {
+          if (item != expected * 2 + 1) {
+            errors.incrementAndGet();
+          }
+          expected++;
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+          errors.incrementAndGet();
+          done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+          received.set(expected);
+          done.countDown();
+        }
+      });
+
+      for (int i = 0; i < items; i++) {
+        source.submit(i);
+      }
+      source.close();
+
+      assertTrue(done.await(60, TimeUnit.SECONDS));
+      assertEquals(0, errors.get());
+      assertEquals(items, received.get());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,354 @@
+package com.github.kratorius.jefs;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class QueuePublisherTest {
+  // runs the delivery tasks right away, on the thread that schedules them
+  static final java.util.concurrent.Executor DIRECT = Runnable::run;
+
+  /**
+   * Records what it receives; it requests {@code initial} items when it
+   * subscribes, and nothing else unless told to.
+   */
+  static class Recorder<T> implements Flow.Subscriber<T> {
+    final long initial;
+    final List<T> items = new ArrayList<>();
+    Flow.Subscription subscription;
+    Throwable error;
+    boolean completed;
+    int subscribed;
+
+    Recorder(long initial) {
+      this.initial = initial;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      this.subscription = subscription;
+      subscribed++;
+      if (initial > 0) {
+        subscription.request(initial);
+      }
+    }
+
+    @Override
+    public void onNext(T item) {
+      items.add(item);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      error = throwable;
+    }
+
+    @Override
+    public void onComplete() {
+      completed = true;
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidCapacity() {
+    new QueuePublisher<Integer>(DIRECT, 0);
+  }
+
+  @Test
+  public void testDeliversRequested() {
+    QueuePublisher<Integer> publisher = new QueuePublisher<>(DIRECT, 16);
+    Recorder<Integer> recorder = new Recorder<>(3);
+    publisher.subscribe(recorder);
+    assertEquals(1, recorder.subscribed);
+    assertEquals(1, publisher.subscribers());
+
+    for (int i = 0; i < 5; i++) {
+      assertTrue(publisher.offer(i));
+    }
+    assertEquals(Arrays.asList(0, 1, 2), recorder.items);
+
+    // the buffered items are sent as soon as they're requested
+    recorder.subscription.request(10);
+    assertEquals(Arrays.asList(0, 1, 2, 3, 4), recorder.items);
+    publisher.offer(5);
+    assertEquals(6, recorder.items.size());
+  }
+
+  @Test
+  public void testBackpressure() {
+    QueuePublisher<Integer> publisher = new QueuePublisher<>(DIRECT, 4);
+    Recorder<Integer> fast = new Recorder<>(Long.MAX_VALUE);
+    Recorder<Integer> slow = new Recorder<>(0);
+    publisher.subscribe(fast);
+    publisher.subscribe(slow);
+
+    for (int i = 0; i < 4; i++) {
+      assertTrue(publisher.offer(i));
+    }
+
+    // the slowest subscriber holds everyone back
+    assertFalse(publisher.offer(4));
+    assertEquals(4, fast.items.size());
+    assertTrue(slow.items.isEmpty());
+
+    slow.subscription.request(1);
+    assertEquals(Arrays.asList(0), slow.items);
+    assertTrue(publisher.offer(4));
+    assertEquals(5, fast.items.size());
+  }
+
+  @Test
+  public void testClose() {
+    QueuePublisher<Integer> publisher = new QueuePublisher<>(DIRECT, 16);
+    Recorder<Integer> recorder = new Recorder<>(1);
+    publisher.subscribe(recorder);
+    publisher.offer(1);
+    publisher.offer(2);
+    publisher.close();
+    assertTrue(publisher.isClosed());
+
+    // completes only once all the items have been delivered
+    assertFalse(recorder.completed);
+    recorder.subscription.request(1);
+    assertEquals(Arrays.asList(1, 2), recorder.items);
+    assertTrue(recorder.completed);
+    assertNull(recorder.error);
+
+    try {
+      publisher.offer(3);
+      fail("published to a closed publisher");
+    } catch (IllegalStateException ex) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testCloseExceptionally() {
+    QueuePublisher<Integer> publisher = new QueuePublisher<>(DIRECT, 16);
+    Recorder<Integer> recorder = new Recorder<>(1);
+    publisher.subscribe(recorder);
+    publisher.offer(1);
+    publisher.offer(2);
+
+    final RuntimeException error = new RuntimeException("failed");
+    publisher.closeExceptionally(error);
+    assertEquals(error, recorder.error);
+    assertEquals(Arrays.asList(1), recorder.items);
+    assertFalse(recorder.completed);
+
+    // later subscribers get the error as well
+    Recorder<Integer> late = new Recorder<>(1);
+    publisher.subscribe(late);
+    assertEquals(1, late.subscribed);
+    assertEquals(error, late.error);
+  }
+
+  @Test
+  public void testSubscribeAfterClose() {
+    QueuePublisher<Integer> publisher = new QueuePublisher<>(DIRECT, 16);
+    publisher.close();
+    Recorder<Integer> recorder = new Recorder<>(0);
+    publisher.subscribe(recorder);
+    assertEquals(1, recorder.subscribed);
+    assertTrue(recorder.completed);
+  }
+
+  @Test
+  public void testNonPositiveRequest() {
+    QueuePublisher<Integer> publisher = new QueuePublisher<>(DIRECT, 16);
+    Recorder<Integer> recorder = new Recorder<>(0);
+    publisher.subscribe(recorder);
+    recorder.subscription.request(0);
+    assertTrue(recorder.error instanceof IllegalArgumentException);
+
+    // the subscription is cancelled
+    publisher.offer(1);
+    assertEquals(0, publisher.subscribers());
+    assertTrue(recorder.items.isEmpty());
+  }
+
+  @Test
+  public void testSubscribeTwice() {
+    QueuePublisher<Integer> publisher = new QueuePublisher<>(DIRECT, 16);
+    Recorder<Integer> recorder = new Recorder<>(Long.MAX_VALUE);
+    publisher.subscribe(recorder);
+    publisher.subscribe(recorder);
+    assertEquals(2, recorder.subscribed);
+    assertTrue(recorder.error instanceof IllegalStateException);
+    assertEquals(1, publisher.subscribers());
+  }
+
+  @Test
+  public void testCancel() {
+    QueuePublisher<Integer> publisher = new QueuePublisher<>(DIRECT, 2);
+    Recorder<Integer> recorder = new Recorder<>(1);
+    publisher.subscribe(recorder);
+    publisher.offer(1);
+    recorder.subscription.cancel();
+    assertEquals(0, publisher.subscribers());
+
+    // a cancelled subscriber doesn't hold the others back
+    for (int i = 0; i < 10; i++) {
+      assertTrue(publisher.offer(i));
+    }
+    recorder.subscription.request(10);
+    assertEquals(Arrays.asList(1), recorder.items);
+    assertFalse(recorder.completed);
+  }
+
+  private static void awaitParked(Thread thread) throws InterruptedException {
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (thread.getState() != Thread.State.WAITING) {
+      assertTrue(thread + " not parked", System.nanoTime() < deadline);
+      Thread.sleep(1);
+    }
+  }
+
+  @Test
+  public void testSubmitParks() throws InterruptedException {
+    final QueuePublisher<Integer> publisher = new QueuePublisher<>(DIRECT, 2);
+    final Recorder<Integer> recorder = new Recorder<>(0);
+    publisher.subscribe(recorder);
+    int offered = 0;
+    while (publisher.offer(offered)) {
+      offered++;
+    }
+
+    final AtomicInteger submitted = new AtomicInteger(-1);
+    final int last = offered;
+    final Thread submitter = new Thread(() -> {
+      publisher.submit(last);
+      submitted.set(last);
+    });
+    submitter.start();
+    awaitParked(submitter);
+    assertEquals(-1, submitted.get());
+
+    recorder.subscription.request(1);
+    submitter.join(10000);
+    assertFalse(submitter.isAlive());
+    assertEquals(last, submitted.get());
+  }
+
+  @Test
+  public void testSubmitClosed() throws InterruptedException {
+    final QueuePublisher<Integer> publisher = new QueuePublisher<>(DIRECT, 2);
+    publisher.subscribe(new Recorder<>(0));
+    while (publisher.offer(0)) {
+      // fill the buffer
+    }
+
+    final AtomicInteger failed = new AtomicInteger();
+    final Thread submitter = new Thread(() -> {
+      try {
+        publisher.submit(0);
+      } catch (IllegalStateException ex) {
+        failed.incrementAndGet();
+      }
+    });
+    submitter.start();
+    awaitParked(submitter);
+
+    publisher.close();
+    submitter.join(10000);
+    assertFalse(submitter.isAlive());
+    assertEquals(1, failed.get());
+  }
+
+  @Test
+  public void testConcurrent() throws InterruptedException {
+    final int items = 1000000;
+    final ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      final QueuePublisher<Integer> publisher = new QueuePublisher<>(executor, 256);
+      final AtomicInteger errors = new AtomicInteger();
+      final CountDownLatch done = new CountDownLatch(2);
+
+      for (int s = 0; s < 2; s++) {
+        final int batch = s == 0 ? 1 : 64;
+        publisher.subscribe(new Flow.Subscriber<Integer>() {
+          Flow.Subscription subscription;
+          int expected;
+          int outstanding;
+
+          @Override
+          public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            outstanding = batch;
+            subscription.request(batch);
+          }
+
+          @Override
+          public void onNext(Integer item) {
+            if (item != expected++) {
+              errors.incrementAndGet();
+            }
+            if (--outstanding == 0) {
+              outstanding = batch;
+              subscription.request(batch);
+            }
+          }
+
+          @Override
+          public void onError(Throwable throwable) {
+            errors.incrementAndGet();
+            done.countDown();
+          }
+
+          @Override
+          public void onComplete() {
+            if (expected != items) {
+              errors.incrementAndGet();
+            }
+            done.countDown();
+          }
+        });
+      }
+
+      for (int i = 0; i < items; i++) {
+        publisher.submit(i);
+      }
+      publisher.close();
+
+      assertTrue(done.await(60, TimeUnit.SECONDS));
+      assertEquals(0, errors.get());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testCloseWhileOffering() throws InterruptedException {
+    for (int round = 0; round < 100; round++) {
+      final QueuePublisher<Integer> publisher = new QueuePublisher<>(DIRECT, 1024);
+      for (int s = 0; s < 8; s++) {
+        publisher.subscribe(new Recorder<>(Long.MAX_VALUE));
+      }
+
+      final Thread closer = new Thread(publisher::close);
+      closer.start();
+      try {
+        for (int i = 0; i < 100000; i++) {
+          publisher.offer(i);
+        }
+      } catch (IllegalStateException ex) {
+        // expected once closed, rather than an IndexOutOfBoundsException
+      }
+      closer.join();
+      assertEquals(0, publisher.subscribers());
+    }
+  }
+}
@@ -0,0 +1,211 @@
+package com.github.kratorius.jefs;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RecordRingTest {
+  private static final int PRODUCERS = 4;
+
+  private static final class Collector implements RecordRing.Handler {
+    final List<String> records = new ArrayList<>();
+
+    @Override
+    public void onRecord(ByteBuffer buffer, int offset, int length) {
+      final byte[] bytes = new byte[length];
+      for (int i = 0; i < length; i++) {
+        bytes[i] = buffer.get(offset + i);
+      }
+      records.add(new String(bytes, StandardCharsets.UTF_8));
+    }
+  }
+
+  private static ByteBuffer bytes(String s) {
+    return ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testCapacity() {
+    RecordRing ring = new RecordRing(100);
+    assertEquals(128, ring.capacity());
+    assertEquals(56, ring.maxRecordLength());
+
+    try {
+      ring.claim(57);
+      fail("record larger than allowed claimed");
+    } catch (IllegalArgumentException ex) {
+      // expected
+    }
+
+    try {
+      new RecordRing(8);
+      fail("ring too small created");
+    } catch (IllegalArgumentException ex) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testClaimCommit() {
+    RecordRing ring = new RecordRing(256);
+    ByteBuffer buffer = ring.buffer();
+    Collector collector = new Collector();
+
+    int first = ring.claim(5);
+    int second = ring.claim(3);
+    buffer.position(second);
+    buffer.put(bytes("two"));
+    ring.commit(second);
+
+    // the second record waits for the first one
+    assertEquals(0, ring.read(collector, Integer.MAX_VALUE));
+    assertFalse(ring.isEmpty());
+
+    buffer.position(first);
+    buffer.put(bytes("first"));
+    ring.commit(first);
+    assertEquals(2, ring.read(collector, Integer.MAX_VALUE));
+    assertEquals(2, collector.records.size());
+    assertEquals("first", collector.records.get(0));
+    assertEquals("two", collector.records.get(1));
+    assertTrue(ring.isEmpty());
+  }
+
+  @Test
+  public void testEmptyRecord() {
+    RecordRing ring = new RecordRing(64);
+    Collector collector = new Collector();
+
+    assertTrue(ring.offer(bytes("")));
+    assertTrue(ring.offer(bytes("a")));
+    assertEquals(2, ring.read(collector, Integer.MAX_VALUE));
+    assertEquals("", collector.records.get(0));
+    assertEquals("a", collector.records.get(1));
+  }
+
+  @Test
+  public void testAbort() {
+    RecordRing ring = new RecordRing(256);
+    Collector collector = new Collector();
+
+    int aborted = ring.claim(20);
+    assertTrue(ring.offer(bytes("kept")));
+    ring.abort(aborted);
+
+    assertEquals(1, ring.read(collector, Integer.MAX_VALUE));
+    assertEquals("kept", collector.records.get(0));
+    assertTrue(ring.isEmpty());
+  }
+
+  @Test
+  public void testFull() {
+    RecordRing ring = new RecordRing(64);
+    Collector collector = new Collector();
+
+    // 16 bytes each, header included
+    for (int i = 0; i < 4; i++) {
+      assertTrue(ring.offer(bytes("record" + i)));
+    }
+    assertFalse(ring.offer(bytes("more")));
+    assertEquals(-1, ring.claim(0));
+    assertEquals(64, ring.size());
+
+    assertEquals(1, ring.read(collector, 1));
+    assertTrue(ring.offer(bytes("more")));
+    assertEquals(4, ring.read(collector, Integer.MAX_VALUE));
+    assertEquals("more", collector.records.get(4));
+  }
+
+  @Test
+  public void testWrapAround() {
+    RecordRing ring = new RecordRing(64);
+    Collector collector = new Collector();
+
+    assertTrue(ring.offer(bytes("0123456789abcdef0123")));
+    assertTrue(ring.offer(bytes("short")));
+    assertEquals(2, ring.read(collector, Integer.MAX_VALUE));
+
+    // only 16 bytes left before the end: the record goes back to the start
+    // and leaves them as padding
+    int offset = ring.claim(20);
+    assertEquals(8, offset);
+    assertEquals(16 + 32, ring.size());
+    ByteBuffer buffer = ring.buffer();
+    buffer.position(offset);
+    buffer.put(bytes("wrapped-around-here!"));
+    ring.commit(offset);
+
+    assertEquals(1, ring.read(collector, Integer.MAX_VALUE));
+    assertEquals("wrapped-around-here!", collector.records.get(2));
+    assertTrue(ring.isEmpty());
+
+    // the consumed space has been cleared for the next records
+    for (int i = 0; i < 100; i++) {
+      assertTrue(ring.offer(bytes("r" + i)));
+      assertEquals(1, ring.read(collector, Integer.MAX_VALUE));
+      assertEquals("r" + i, collector.records.get(collector.records.size() - 1));
+    }
+  }
+
+  @Test
+  public void testConcurrentProducers() throws InterruptedException {
+    final RecordRing ring = new RecordRing(4096);
+    final int perProducer = 500000;
+
+    final Thread[] producers = new Thread[PRODUCERS];
+    for (int p = 0; p < PRODUCERS; p++) {
+      final long id = p;
+      producers[p] = new Thread(() -> {
+        final ByteBuffer buffer = ring.buffer();
+        for (long i = 0; i < perProducer; i++) {
+          // records of different lengths, so that they wrap at different
+          // places
+          final int length = 8 + (int) (i % 3) * 8;
+          int offset;
+          while ((offset = ring.claim(length)) < 0) {
+            Thread.yield();
+          }
+          for (int j = 0; j < length; j += 8) {
+            buffer.putLong(offset + j, (i << 8) | id);
+          }
+          ring.commit(offset);
+        }
+      });
+      producers[p].start();
+    }
+
+    // records of each producer must come out in the order they went in
+    final long[] expected = new long[PRODUCERS];
+    final int[] errors = new int[1];
+    final RecordRing.Handler handler = (buffer, offset, length) -> {
+      final long item = buffer.getLong(offset);
+      final int id = (int) (item & 0xff);
+      if (length != 8 + (int) ((item >>> 8) % 3) * 8 || buffer.getLong(offset + length - 8) != item
+          || expected[id]++ != item >>> 8) {
+        errors[0]++;
+      }
+    };
+    int read = 0;
+    while (read < PRODUCERS * perProducer) {
+      final int n = ring.read(handler, 64);
+      if (n == 0) {
+        Thread.yield();
+      }
+      read += n;
+    }
+
+    for (Thread producer : producers) {
+      producer.join();
+    }
+    assertEquals(0, errors[0]);
+    assertTrue(ring.isEmpty());
+  }
+}
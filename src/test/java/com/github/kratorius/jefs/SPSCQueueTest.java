@@ -3,8 +3,13 @@ package com.github.kratorius.jefs;
 import org.junit.Test;
 
 import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -102,4 +107,100 @@ public class SPSCQueueTest {
     }
   }
 
+  @Test
+  public void testPollAsync() throws Exception {
+    SPSCQueue<Integer> q = new SPSCQueue<>(16);
+    q.add(1);
+    assertEquals(1, (int) q.pollAsync().get());
+
+    CompletableFuture<Integer> future = q.pollAsync();
+    assertFalse(future.isDone());
+    try {
+      q.pollAsync();
+      fail("two pending futures");
+    } catch (IllegalStateException ex) {
+      // expected
+    }
+
+    q.add(2);
+    assertEquals(2, (int) future.get(1, TimeUnit.SECONDS));
+    assertTrue(q.isEmpty());
+
+    // a cancelled future leaves the item in the queue
+    future = q.pollAsync();
+    assertTrue(future.cancel(false));
+    q.add(3);
+    assertEquals(3, (int) q.poll());
+  }
+
+  @Test
+  public void testTake() throws Exception {
+    final SPSCQueue<Long> q = new SPSCQueue<>(16);
+    final long items = 100000;
+    final AtomicLong sum = new AtomicLong();
+
+    Thread consumer = new Thread(() -> {
+      try {
+        for (long i = 0; i < items; i++) {
+          sum.addAndGet(q.take());
+        }
+      } catch (InterruptedException e) {
+        // the test fails on the sum
+      }
+    });
+    consumer.start();
+
+    for (long i = 0; i < items; i++) {
+      while (!q.offer(i)) {
+        Thread.yield();
+      }
+      if (i % 1000 == 0) {
+        // let the consumer catch up and park
+        LockSupport.parkNanos(100000);
+      }
+    }
+
+    consumer.join(10000);
+    assertFalse(consumer.isAlive());
+    assertEquals(items * (items - 1) / 2, sum.get());
+  }
+
+  @Test
+  public void testTakeInterrupted() throws Exception {
+    final SPSCQueue<Integer> q = new SPSCQueue<>(16);
+    final AtomicLong interrupted = new AtomicLong();
+    Thread consumer = new Thread(() -> {
+      try {
+        q.take();
+      } catch (InterruptedException e) {
+        interrupted.incrementAndGet();
+      }
+    });
+    consumer.start();
+    Thread.sleep(50);
+    consumer.interrupt();
+    consumer.join(10000);
+    assertEquals(1, interrupted.get());
+  }
+
+  @Test
+  public void testPollAsyncConcurrent() throws Exception {
+    final SPSCQueue<Long> q = new SPSCQueue<>(16);
+    final long items = 100000;
+
+    Thread producer = new Thread(() -> {
+      for (long i = 0; i < items; i++) {
+        while (!q.offer(i)) {
+          Thread.yield();
+        }
+      }
+    });
+    producer.start();
+
+    // every future is completed, either straight away or by the producer
+    for (long i = 0; i < items; i++) {
+      assertEquals(i, (long) q.pollAsync().get(10, TimeUnit.SECONDS));
+    }
+    producer.join();
+  }
 }
@@ -0,0 +1,198 @@
+package com.github.kratorius.jefs;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SlabAllocatorTest {
+  private static final int SLAB = 4096;
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidSlabSize() {
+    SlabAllocator.allocateDirect(1 << 20, 1000, 64);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidSizeClass() {
+    SlabAllocator.allocateDirect(1 << 20, SLAB, 64, SLAB * 2);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testTooLarge() {
+    SlabAllocator.allocateDirect(1 << 20, SLAB, 64, 128).allocate(129);
+  }
+
+  @Test
+  public void testSizeClasses() {
+    final SlabAllocator allocator = SlabAllocator.allocateDirect(1 << 20, SLAB, 256, 64, 128);
+    assertEquals(64, allocator.blockSize(allocator.allocate(1)));
+    assertEquals(64, allocator.blockSize(allocator.allocate(64)));
+    assertEquals(128, allocator.blockSize(allocator.allocate(65)));
+    assertEquals(256, allocator.blockSize(allocator.allocate(200)));
+    assertEquals(3, allocator.usedSlabs());
+  }
+
+  @Test
+  public void testAllocateFree() {
+    final SlabAllocator allocator = SlabAllocator.allocateDirect(4 * SLAB, SLAB, 64);
+    assertEquals(4 * SLAB, allocator.capacity());
+
+    // every block once, without overlaps
+    final Set<Long> addresses = new HashSet<>();
+    for (int i = 0; i < 4 * SLAB / 64; i++) {
+      final long address = allocator.allocate(64);
+      assertEquals(0, address % 64);
+      assertTrue(address >= 0 && address < allocator.capacity());
+      assertTrue(addresses.add(address));
+    }
+
+    try {
+      allocator.allocate(64);
+      fail("allocated more blocks than available");
+    } catch (IllegalStateException ex) {
+      // expected
+    }
+
+    // freed blocks can be allocated again
+    final long freed = addresses.iterator().next();
+    allocator.free(freed);
+    assertEquals(freed, allocator.allocate(64));
+  }
+
+  @Test
+  public void testOutOfMemoryRetries() {
+    final SlabAllocator allocator = SlabAllocator.allocateDirect(2 * SLAB, SLAB, SLAB);
+    allocator.allocate(1);
+    allocator.allocate(1);
+
+    // failed allocations don't use up anything
+    for (int i = 0; i < 1000; i++) {
+      try {
+        allocator.allocate(1);
+        fail("allocated more blocks than available");
+      } catch (IllegalStateException ex) {
+        // expected
+      }
+    }
+    assertEquals(2, allocator.usedSlabs());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testFreeSlabTail() {
+    // a single block per slab, followed by an unused tail
+    final SlabAllocator allocator = SlabAllocator.allocateDirect(1 << 20, SLAB, 3000);
+    allocator.free(allocator.allocate(1) + 3000);
+  }
+
+  @Test
+  public void testFreeTwice() {
+    final SlabAllocator allocator = SlabAllocator.allocateDirect(1 << 20, SLAB, 64);
+    final long address = allocator.allocate(10);
+    allocator.free(address);
+    try {
+      allocator.free(address);
+      fail("block freed twice");
+    } catch (IllegalStateException ex) {
+      // expected
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testFreeMisaligned() {
+    final SlabAllocator allocator = SlabAllocator.allocateDirect(1 << 20, SLAB, 64);
+    allocator.free(allocator.allocate(10) + 1);
+  }
+
+  @Test
+  public void testAccess() {
+    final SlabAllocator allocator = SlabAllocator.allocateDirect(1 << 20, SLAB, 64);
+    final long a = allocator.allocate(16);
+    final long b = allocator.allocate(16);
+
+    allocator.region(a).putLong(allocator.offset(a), 1L);
+    allocator.region(b).putLong(allocator.offset(b), 2L);
+
+    final ByteBuffer slice = allocator.slice(a);
+    assertEquals(64, slice.remaining());
+    assertEquals(1L, slice.getLong(0));
+    slice.putLong(8, 3L);
+    assertEquals(3L, allocator.region(a).getLong(allocator.offset(a) + 8));
+    assertEquals(2L, allocator.slice(b).getLong(0));
+  }
+
+  @Test
+  public void testWholeSlabBlocks() {
+    final SlabAllocator allocator = SlabAllocator.allocateDirect(1 << 21, 1 << 20, 1 << 20);
+    final long a = allocator.allocate(1);
+    final long b = allocator.allocate(1);
+    assertEquals(1 << 20, Math.abs(a - b));
+    assertEquals(a, allocator.offset(a));
+    assertEquals(b, allocator.offset(b));
+  }
+
+  @Test
+  public void testMap() throws IOException {
+    final Path file = Files.createTempFile("slab", ".bin");
+    try {
+      SlabAllocator allocator = SlabAllocator.map(file, 4 * SLAB, SLAB, 64);
+      final long address = allocator.allocate(8);
+      allocator.region(address).putLong(allocator.offset(address), 42L);
+
+      // the content survives, though the allocation state doesn't
+      allocator = SlabAllocator.map(file, 4 * SLAB, SLAB, 64);
+      assertEquals(42L, allocator.region(address).getLong(allocator.offset(address)));
+      assertEquals(4 * SLAB, Files.size(file));
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  @Test
+  public void testConcurrent() throws InterruptedException {
+    final SlabAllocator allocator = SlabAllocator.allocateDirect(64 * SLAB, SLAB, 64, 256);
+    final Set<Long> owned = ConcurrentHashMap.newKeySet();
+    final AtomicInteger errors = new AtomicInteger();
+
+    final Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      final long id = t;
+      threads[t] = new Thread(() -> {
+        final long[] mine = new long[64];
+        for (int round = 0; round < 20000; round++) {
+          for (int i = 0; i < mine.length; i++) {
+            mine[i] = allocator.allocate(i % 2 == 0 ? 64 : 256);
+            if (!owned.add(mine[i])) {
+              errors.incrementAndGet();
+            }
+            allocator.region(mine[i]).putLong(allocator.offset(mine[i]), id);
+          }
+          for (long address : mine) {
+            if (allocator.region(address).getLong(allocator.offset(address)) != id) {
+              errors.incrementAndGet();
+            }
+            owned.remove(address);
+            allocator.free(address);
+          }
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertEquals(0, errors.get());
+    assertTrue(owned.isEmpty());
+  }
+}
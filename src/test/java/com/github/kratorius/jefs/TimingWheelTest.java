@@ -0,0 +1,270 @@
+package com.github.kratorius.jefs;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TimingWheelTest {
+  private static final long TICK = TimeUnit.MILLISECONDS.toNanos(1);
+
+  // the tests move the time of the wheel forward explicitly, from a base
+  // taken right after the wheel has been created, rather than waiting for
+  // the clock: a timer due at base + n ticks must then fire at n or n + 1
+  private static TimingWheel wheel(int wheelSize, int levels, int capacity) {
+    return new TimingWheel(1, TimeUnit.MILLISECONDS, wheelSize, levels, capacity);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidTick() {
+    new TimingWheel(0, TimeUnit.MILLISECONDS, 16, 2, 16);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNullTask() {
+    wheel(16, 2, 16).schedule(null, 1, TimeUnit.MILLISECONDS);
+  }
+
+  @Test
+  public void testCapacity() {
+    assertEquals(64, wheel(16, 2, 1).capacity());
+    assertEquals(1024, wheel(16, 2, 1000).capacity());
+  }
+
+  @Test
+  public void testFiresAcrossLevels() {
+    final TimingWheel wheel = wheel(8, 3, 4096);
+    final long base = System.nanoTime();
+    final List<Integer> fired = new ArrayList<>();
+
+    // spread over all the levels, and beyond the last one
+    final int[] delays = {2000, 1, 9, 64, 8, 513, 3, 70, 511, 1000, 0};
+    for (int delay : delays) {
+      wheel.scheduleAt(() -> fired.add(delay), base + delay * TICK);
+    }
+
+    for (int t = 0; t <= 2001; t++) {
+      wheel.advance(base + t * TICK);
+      for (int delay : fired) {
+        // never early, at most a tick late
+        assertTrue("fired " + delay + " at " + t, delay <= t && t <= delay + 1);
+      }
+      fired.clear();
+    }
+  }
+
+  @Test
+  public void testSingleLevel() {
+    final TimingWheel wheel = wheel(8, 1, 64);
+    final long base = System.nanoTime();
+    final List<Integer> fired = new ArrayList<>();
+
+    // several turns away, sharing buckets with the nearer ones
+    final int[] delays = {9, 12, 20, 2, 5, 4, 100, 17};
+    for (int delay : delays) {
+      wheel.scheduleAt(() -> fired.add(delay), base + delay * TICK);
+    }
+
+    int expired = 0;
+    for (int t = 0; t <= 101; t++) {
+      expired += wheel.advance(base + t * TICK);
+      for (int delay : fired) {
+        assertTrue("fired " + delay + " at " + t, delay <= t && t <= delay + 1);
+      }
+      fired.clear();
+    }
+    assertEquals(delays.length, expired);
+  }
+
+  @Test
+  public void testEveryDelayFiresOnTime() {
+    final TimingWheel wheel = wheel(16, 2, 8192);
+    final long base = System.nanoTime();
+    final int max = 5000;
+    final AtomicIntegerArray firedAt = new AtomicIntegerArray(max);
+    final AtomicInteger now = new AtomicInteger();
+
+    for (int delay = 0; delay < max; delay++) {
+      final int d = delay;
+      wheel.scheduleAt(() -> firedAt.set(d, now.get()), base + delay * TICK);
+    }
+
+    int expired = 0;
+    for (int t = 0; t <= max + 1; t++) {
+      now.set(t);
+      expired += wheel.advance(base + t * TICK);
+    }
+
+    assertEquals(max, expired);
+    for (int delay = 0; delay < max; delay++) {
+      assertTrue(delay <= firedAt.get(delay) && firedAt.get(delay) <= delay + 1);
+    }
+  }
+
+  @Test
+  public void testCancel() {
+    final TimingWheel wheel = wheel(16, 2, 64);
+    final long base = System.nanoTime();
+    final AtomicInteger fired = new AtomicInteger();
+
+    final long handle = wheel.scheduleAt(fired::incrementAndGet, base + 10 * TICK);
+    wheel.scheduleAt(fired::incrementAndGet, base + 10 * TICK);
+    assertTrue(wheel.cancel(handle));
+    assertFalse(wheel.cancel(handle));
+
+    assertEquals(1, wheel.advance(base + 20 * TICK));
+    assertEquals(1, fired.get());
+    assertFalse(wheel.cancel(handle));
+  }
+
+  @Test
+  public void testCancelAfterFiring() {
+    final TimingWheel wheel = wheel(16, 2, 64);
+    final long base = System.nanoTime();
+    final AtomicInteger fired = new AtomicInteger();
+
+    final long handle = wheel.scheduleAt(fired::incrementAndGet, base + TICK);
+    wheel.advance(base + 5 * TICK);
+    assertEquals(1, fired.get());
+    assertFalse(wheel.cancel(handle));
+  }
+
+  @Test
+  public void testStaleHandle() {
+    final TimingWheel wheel = wheel(16, 2, 1);
+    final long base = System.nanoTime();
+    final AtomicInteger fired = new AtomicInteger();
+
+    // fill all the slots, let them fire and reuse them
+    final long[] handles = new long[wheel.capacity()];
+    for (int i = 0; i < handles.length; i++) {
+      handles[i] = wheel.scheduleAt(fired::incrementAndGet, base + TICK);
+    }
+    wheel.advance(base + 2 * TICK);
+    for (int i = 0; i < handles.length; i++) {
+      wheel.scheduleAt(fired::incrementAndGet, base + 3 * TICK);
+    }
+
+    // the old handles must not cancel the new timers in the same slots
+    for (long handle : handles) {
+      assertFalse(wheel.cancel(handle));
+    }
+    wheel.advance(base + 4 * TICK);
+    assertEquals(2 * handles.length, fired.get());
+  }
+
+  @Test
+  public void testFull() {
+    final TimingWheel wheel = wheel(16, 2, 64);
+    final long base = System.nanoTime();
+    for (int i = 0; i < wheel.capacity(); i++) {
+      wheel.scheduleAt(() -> { }, base + TICK);
+    }
+
+    try {
+      wheel.scheduleAt(() -> { }, base + TICK);
+      fail("more timers than slots scheduled");
+    } catch (IllegalStateException ex) {
+      // expected
+    }
+
+    // the slots are freed once the timers fire
+    wheel.advance(base + 2 * TICK);
+    wheel.scheduleAt(() -> { }, base + 3 * TICK);
+  }
+
+  @Test
+  public void testCancelledFreeSlots() {
+    final TimingWheel wheel = wheel(16, 2, 64);
+    final long base = System.nanoTime();
+    for (int i = 0; i < wheel.capacity(); i++) {
+      assertTrue(wheel.cancel(wheel.scheduleAt(() -> { }, base + 1000 * TICK)));
+    }
+
+    // freed as soon as they're moved down from the upper wheel, long before
+    // their deadline
+    for (int t = 0; t <= 1000 - 16; t++) {
+      wheel.advance(base + t * TICK);
+    }
+    for (int i = 0; i < wheel.capacity(); i++) {
+      wheel.scheduleAt(() -> { }, base + 2000 * TICK);
+    }
+  }
+
+  @Test
+  public void testThrowingTask() {
+    final TimingWheel wheel = wheel(16, 2, 64);
+    final long base = System.nanoTime();
+    final AtomicInteger fired = new AtomicInteger();
+
+    wheel.scheduleAt(fired::incrementAndGet, base + TICK);
+    wheel.scheduleAt(() -> {
+      throw new IllegalStateException("boom");
+    }, base + TICK);
+    wheel.scheduleAt(fired::incrementAndGet, base + TICK);
+
+    try {
+      wheel.advance(base + 2 * TICK);
+      fail("exception not propagated");
+    } catch (IllegalStateException ex) {
+      // expected
+    }
+
+    // the other timers of the same tick still run
+    wheel.advance(base + 2 * TICK);
+    assertEquals(2, fired.get());
+  }
+
+  @Test
+  public void testConcurrentSchedule() throws InterruptedException {
+    final TimingWheel wheel = wheel(64, 3, 1 << 16);
+    final long base = System.nanoTime();
+    final int producers = 4;
+    final int perProducer = 100000;
+    final AtomicInteger fired = new AtomicInteger();
+    final AtomicInteger cancelled = new AtomicInteger();
+    final AtomicInteger done = new AtomicInteger();
+
+    final Thread[] threads = new Thread[producers];
+    for (int p = 0; p < producers; p++) {
+      threads[p] = new Thread(() -> {
+        for (int i = 0; i < perProducer; i++) {
+          while (true) {
+            try {
+              final long handle = wheel.scheduleAt(fired::incrementAndGet, base + (i % 100) * TICK);
+              if (i % 3 == 0 && wheel.cancel(handle)) {
+                cancelled.incrementAndGet();
+              }
+              break;
+            } catch (IllegalStateException e) {
+              // all the slots are taken, wait for the ticker
+              Thread.yield();
+            }
+          }
+        }
+        done.incrementAndGet();
+      });
+      threads[p].start();
+    }
+
+    // timers scheduled in the past fire on the next tick
+    while (done.get() < producers) {
+      wheel.advance(System.nanoTime());
+      Thread.yield();
+    }
+    wheel.advance(System.nanoTime() + 1000 * TICK);
+
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(producers * perProducer, fired.get() + cancelled.get());
+  }
+}
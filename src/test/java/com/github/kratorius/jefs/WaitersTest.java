@@ -0,0 +1,41 @@
+package com.github.kratorius.jefs;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class WaitersTest {
+  @Test
+  public void testRecheckOffTimerThread() throws Exception {
+    final ConcurrentLinkedQueue<Integer> items = new ConcurrentLinkedQueue<>();
+    items.add(1);
+    // as if the producer had published the item without seeing the waiter,
+    // and the waiter hadn't seen the item yet: it only shows up after the
+    // check that follows the registration, so only the recheck finds it
+    final AtomicBoolean visible = new AtomicBoolean();
+    // the thread that takes the item, which then completes the future and
+    // runs its dependent actions
+    final AtomicReference<String> taker = new AtomicReference<>();
+    final Waiters<Integer> waiters = new Waiters<>(
+        () -> {
+          if (!visible.get()) {
+            return null;
+          }
+          taker.set(Thread.currentThread().getName());
+          return items.poll();
+        },
+        () -> visible.getAndSet(true) ? items.isEmpty() : true,
+        false);
+
+    final CompletableFuture<Integer> future = waiters.async();
+    assertEquals(1, (int) future.get(10, TimeUnit.SECONDS));
+    assertNotEquals("jefs-waiters", taker.get());
+  }
+}
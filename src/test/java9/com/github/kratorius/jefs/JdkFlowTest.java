@@ -0,0 +1,165 @@
+package com.github.kratorius.jefs;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class JdkFlowTest {
+  // runs the delivery tasks right away, on the thread that schedules them
+  private static final java.util.concurrent.Executor DIRECT = Runnable::run;
+
+  /**
+   * A JDK subscriber that records what it receives, requesting everything up
+   * front.
+   */
+  static class Recorder<T> implements java.util.concurrent.Flow.Subscriber<T> {
+    final List<T> items = new ArrayList<>();
+    final CountDownLatch done = new CountDownLatch(1);
+    java.util.concurrent.Flow.Subscription subscription;
+    volatile Throwable error;
+    volatile boolean completed;
+
+    @Override
+    public void onSubscribe(java.util.concurrent.Flow.Subscription subscription) {
+      this.subscription = subscription;
+      subscription.request(Long.MAX_VALUE);
+    }
+
+    @Override
+    public void onNext(T item) {
+      items.add(item);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      error = throwable;
+      done.countDown();
+    }
+
+    @Override
+    public void onComplete() {
+      completed = true;
+      done.countDown();
+    }
+  }
+
+  @Test
+  public void testToJdkPublisher() {
+    QueuePublisher<Integer> publisher = new QueuePublisher<>(DIRECT, 8);
+    Recorder<Integer> recorder = new Recorder<>();
+    JdkFlow.toJdkPublisher(publisher).subscribe(recorder);
+    assertEquals(1, publisher.subscribers());
+
+    for (int i = 0; i < 5; i++) {
+      assertTrue(publisher.offer(i));
+    }
+    publisher.close();
+
+    assertEquals(Arrays.asList(0, 1, 2, 3, 4), recorder.items);
+    assertTrue(recorder.completed);
+    assertNull(recorder.error);
+  }
+
+  @Test
+  public void testRequestErrors() {
+    QueuePublisher<Integer> publisher = new QueuePublisher<>(DIRECT, 8);
+    Recorder<Integer> recorder = new Recorder<>();
+    JdkFlow.toJdkPublisher(publisher).subscribe(recorder);
+
+    // the contract of java.util.concurrent.Flow: non-positive requests fail
+    recorder.subscription.request(0);
+    assertTrue(recorder.error instanceof IllegalArgumentException);
+  }
+
+  @Test
+  public void testThroughProcessor() throws InterruptedException {
+    final ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      final SubmissionPublisher<Integer> source = new SubmissionPublisher<>(executor, 16);
+      final QueueProcessor<Integer, String> processor = new QueueProcessor<>(executor, 16, String::valueOf);
+      final Recorder<String> recorder = new Recorder<>();
+
+      final java.util.concurrent.Flow.Processor<Integer, String> jdkProcessor = JdkFlow.toJdkProcessor(processor);
+      source.subscribe(jdkProcessor);
+      jdkProcessor.subscribe(recorder);
+      while (source.getNumberOfSubscribers() == 0 || processor.subscribers() == 0) {
+        Thread.sleep(1);
+      }
+
+      final List<String> expected = new ArrayList<>();
+      for (int i = 0; i < 1000; i++) {
+        source.submit(i);
+        expected.add(String.valueOf(i));
+      }
+      source.close();
+
+      assertTrue(recorder.done.await(10, TimeUnit.SECONDS));
+      assertNull(recorder.error);
+      assertEquals(expected, recorder.items);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testFromJdkPublisher() throws InterruptedException {
+    final List<Integer> items = new ArrayList<>();
+    final CountDownLatch done = new CountDownLatch(1);
+    try (SubmissionPublisher<Integer> source = new SubmissionPublisher<>(Runnable::run, 16)) {
+      JdkFlow.fromJdkPublisher(source).subscribe(new Flow.Subscriber<Integer>() {
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+          subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(Integer item) {
+          items.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+        }
+
+        @Override
+        public void onComplete() {
+          done.countDown();
+        }
+      });
+
+      for (int i = 0; i < 3; i++) {
+        source.submit(i);
+      }
+    }
+
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    assertEquals(Arrays.asList(0, 1, 2), items);
+  }
+
+  @Test
+  public void testRoundTrip() {
+    QueueProcessor<Integer, Integer> processor = new QueueProcessor<>(DIRECT, 8, i -> i);
+    assertSame(processor, JdkFlow.fromJdkPublisher(JdkFlow.toJdkPublisher(processor)));
+    assertSame(processor, JdkFlow.fromJdkSubscriber(JdkFlow.toJdkSubscriber(processor)));
+    assertSame(processor, JdkFlow.fromJdkProcessor(JdkFlow.toJdkProcessor(processor)));
+
+    // a processor adapted as a whole can be taken back as either side
+    assertSame(processor, JdkFlow.fromJdkPublisher(JdkFlow.toJdkProcessor(processor)));
+    assertSame(processor, JdkFlow.fromJdkSubscriber(JdkFlow.toJdkProcessor(processor)));
+
+    Recorder<Integer> recorder = new Recorder<>();
+    assertSame(recorder, JdkFlow.toJdkSubscriber(JdkFlow.fromJdkSubscriber(recorder)));
+  }
+}